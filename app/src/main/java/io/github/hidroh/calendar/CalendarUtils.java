@@ -1,15 +1,14 @@
 package io.github.hidroh.calendar;
 
 import android.content.Context;
-import android.support.v4.util.Pools;
 import android.text.format.DateUtils;
 
 import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.util.TimeZone;
 
 /**
- * Utility class for {@link Calendar} and date time related operations
+ * Utility class for {@link Calendar} and date time related operations,
+ * computed on days since epoch without obtaining calendars
+ * @see {@link EpochDays}
  */
 public class CalendarUtils {
 
@@ -47,10 +46,7 @@ public class CalendarUtils {
      * @return  today time in milliseconds
      */
     public static long today() {
-        DateOnlyCalendar calendar = DateOnlyCalendar.today();
-        long timeMillis = calendar.getTimeInMillis();
-        calendar.recycle();
-        return timeMillis;
+        return EpochDays.toMillis(EpochDays.toEpochDay(System.currentTimeMillis()));
     }
 
     /**
@@ -95,17 +91,11 @@ public class CalendarUtils {
      * @param second    second timestamp in milliseconds
      * @return  true if two timestamps fall within the same month, false otherwise or if time is invalid
      */
-    @SuppressWarnings("ConstantConditions")
     public static boolean sameMonth(long first, long second) {
         if (isNotTime(first) || isNotTime(second)) {
             return false; // not comparable
         }
-        DateOnlyCalendar firstCalendar = DateOnlyCalendar.fromTime(first);
-        DateOnlyCalendar secondCalendar = DateOnlyCalendar.fromTime(second);
-        boolean same = firstCalendar.sameMonth(secondCalendar);
-        firstCalendar.recycle();
-        secondCalendar.recycle();
-        return same;
+        return monthIndex(first) == monthIndex(second);
     }
 
     /**
@@ -117,11 +107,7 @@ public class CalendarUtils {
         if (isNotTime(timeMillis)) {
             return -1;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(timeMillis);
-        //noinspection ConstantConditions
-        int day = calendar.get(Calendar.DAY_OF_MONTH);
-        calendar.recycle();
-        return day;
+        return EpochDays.day(EpochDays.toDate(EpochDays.toEpochDay(timeMillis)));
     }
 
     /**
@@ -130,17 +116,11 @@ public class CalendarUtils {
      * @param second    second timestamp in milliseconds
      * @return  true if first timestamp is in an earlier month, false otherwise
      */
-    @SuppressWarnings("ConstantConditions")
     public static boolean monthBefore(long first, long second) {
         if (isNotTime(first) || isNotTime(second)) {
             return false;
         }
-        DateOnlyCalendar firstCalendar = DateOnlyCalendar.fromTime(first);
-        DateOnlyCalendar secondCalendar = DateOnlyCalendar.fromTime(second);
-        boolean before = firstCalendar.monthBefore(secondCalendar);
-        firstCalendar.recycle();
-        secondCalendar.recycle();
-        return before;
+        return monthIndex(first) < monthIndex(second);
     }
 
     /**
@@ -149,17 +129,11 @@ public class CalendarUtils {
      * @param second    second timestamp in milliseconds
      * @return  true if first timestamp is in a later month, false otherwise
      */
-    @SuppressWarnings("ConstantConditions")
     public static boolean monthAfter(long first, long second) {
         if (isNotTime(first) || isNotTime(second)) {
             return false;
         }
-        DateOnlyCalendar firstCalendar = DateOnlyCalendar.fromTime(first);
-        DateOnlyCalendar secondCalendar = DateOnlyCalendar.fromTime(second);
-        boolean after = firstCalendar.monthAfter(secondCalendar);
-        firstCalendar.recycle();
-        secondCalendar.recycle();
-        return after;
+        return monthIndex(first) > monthIndex(second);
     }
 
     /**
@@ -172,12 +146,47 @@ public class CalendarUtils {
         if (isNotTime(timeMillis)) {
             return NO_TIME_MILLIS;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(timeMillis);
-        //noinspection ConstantConditions
-        calendar.add(Calendar.MONTH, months);
-        long result = calendar.getTimeInMillis();
-        calendar.recycle();
-        return result;
+        int date = EpochDays.toDate(EpochDays.toEpochDay(timeMillis));
+        int monthIndex = EpochDays.year(date) * 12 + EpochDays.month(date) + months,
+                year = floorDiv(monthIndex, 12),
+                month = monthIndex - year * 12;
+        // day is pinned to last day of shorter months
+        int day = Math.min(EpochDays.day(date), EpochDays.monthSize(year, month));
+        return EpochDays.toMillis(EpochDays.toEpochDay(year, month, day));
+    }
+
+    /**
+     * Adds days to given day
+     * @param timeMillis    day in milliseconds
+     * @param days          number of days to add
+     * @return  start of new day in milliseconds, or {@link #NO_TIME_MILLIS} if day is invalid
+     */
+    public static long addDays(long timeMillis, int days) {
+        if (isNotTime(timeMillis)) {
+            return NO_TIME_MILLIS;
+        }
+        return EpochDays.toMillis(EpochDays.toEpochDay(timeMillis) + days);
+    }
+
+    /**
+     * Gets year of given time
+     * @param timeMillis    time in milliseconds
+     * @return  year
+     */
+    public static int year(long timeMillis) {
+        return EpochDays.year(EpochDays.toDate(EpochDays.toEpochDay(timeMillis)));
+    }
+
+    /**
+     * Gets first day of given year
+     * @param yearMillis    time in milliseconds within year
+     * @return  first day of year in milliseconds, or {@link #NO_TIME_MILLIS} if year is invalid
+     */
+    public static long yearFirstDay(long yearMillis) {
+        if (isNotTime(yearMillis)) {
+            return NO_TIME_MILLIS;
+        }
+        return EpochDays.toMillis(EpochDays.toEpochDay(year(yearMillis), Calendar.JANUARY, 1));
     }
 
     /**
@@ -189,12 +198,9 @@ public class CalendarUtils {
         if (isNotTime(monthMillis)) {
             return NO_TIME_MILLIS;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-        //noinspection ConstantConditions
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        long result = calendar.getTimeInMillis();
-        calendar.recycle();
-        return result;
+        long epochDay = EpochDays.toEpochDay(monthMillis);
+        int date = EpochDays.toDate(epochDay);
+        return EpochDays.toMillis(epochDay - EpochDays.day(date) + 1);
     }
 
     /**
@@ -206,12 +212,10 @@ public class CalendarUtils {
         if (isNotTime(monthMillis)) {
             return NO_TIME_MILLIS;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-        //noinspection ConstantConditions
-        calendar.set(Calendar.DAY_OF_MONTH, calendar.getActualMaximum(Calendar.DAY_OF_MONTH));
-        long result = calendar.getTimeInMillis();
-        calendar.recycle();
-        return result;
+        long epochDay = EpochDays.toEpochDay(monthMillis);
+        int date = EpochDays.toDate(epochDay);
+        return EpochDays.toMillis(epochDay - EpochDays.day(date) +
+                EpochDays.monthSize(EpochDays.year(date), EpochDays.month(date)));
     }
 
     /**
@@ -223,11 +227,8 @@ public class CalendarUtils {
         if (isNotTime(monthMillis)) {
             return 0;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-        //noinspection ConstantConditions
-        int size = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
-        calendar.recycle();
-        return size;
+        int date = EpochDays.toDate(EpochDays.toEpochDay(monthMillis));
+        return EpochDays.monthSize(EpochDays.year(date), EpochDays.month(date));
     }
 
     /**
@@ -242,13 +243,10 @@ public class CalendarUtils {
         if (isNotTime(monthMillis)) {
             return 0;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-        //noinspection ConstantConditions
-        int offset = calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek();
+        int offset = EpochDays.dayOfWeek(EpochDays.toEpochDay(monthMillis)) - sWeekStart;
         if (offset < 0) {
             offset = 7 + offset;
         }
-        calendar.recycle();
         return offset;
     }
 
@@ -258,8 +256,8 @@ public class CalendarUtils {
      * @return  local time in milliseconds
      */
     public static long toLocalTimeZone(long utcTimeMillis) {
-        return convertTimeZone(TimeZone.getTimeZone(TIMEZONE_UTC), TimeZone.getDefault(),
-                utcTimeMillis);
+        // UTC wall time is UTC time itself
+        return EpochDays.fromWallTime(utcTimeMillis);
     }
 
     /**
@@ -268,101 +266,24 @@ public class CalendarUtils {
      * @return  UTC time in milliseconds
      */
     public static long toUtcTimeZone(long localTimeMillis) {
-        return convertTimeZone(TimeZone.getDefault(), TimeZone.getTimeZone(TIMEZONE_UTC),
-                localTimeMillis);
-    }
-
-    private static long convertTimeZone(TimeZone fromTimeZone, TimeZone toTimeZone, long timeMillis) {
-        DateOnlyCalendar fromCalendar = DateOnlyCalendar.obtain();
-        fromCalendar.setTimeZone(fromTimeZone);
-        fromCalendar.setTimeInMillis(timeMillis);
-        DateOnlyCalendar toCalendar = DateOnlyCalendar.obtain();
-        toCalendar.setTimeZone(toTimeZone);
-        toCalendar.set(fromCalendar.get(Calendar.YEAR),
-                fromCalendar.get(Calendar.MONTH),
-                fromCalendar.get(Calendar.DAY_OF_MONTH),
-                fromCalendar.get(Calendar.HOUR_OF_DAY),
-                fromCalendar.get(Calendar.MINUTE),
-                fromCalendar.get(Calendar.SECOND));
-        long localTimeMillis = toCalendar.getTimeInMillis();
-        fromCalendar.recycle();
-        toCalendar.recycle();
-        return localTimeMillis;
-
+        return EpochDays.toWallTime(localTimeMillis);
     }
 
     /**
-     * Light extension of {@link Calendar} that strips away time, keeping only date information
+     * Refreshes cached local time zone offsets, should be called upon time zone change
+     * @see {@link io.github.hidroh.calendar.text.DateFormatChangeReceiver}
      */
-    private static class DateOnlyCalendar extends GregorianCalendar {
-
-        private static Pools.SimplePool<DateOnlyCalendar> sPools = new Pools.SimplePool<>(5);
-
-        private static DateOnlyCalendar obtain() {
-            DateOnlyCalendar instance = sPools.acquire();
-            return instance == null ? new DateOnlyCalendar() : instance;
-        }
-
-        public static DateOnlyCalendar today() {
-            return fromTime(System.currentTimeMillis());
-        }
-
-        public static DateOnlyCalendar fromTime(long timeMillis) {
-            if (timeMillis < 0) {
-                return null;
-            }
-            DateOnlyCalendar dateOnlyCalendar = DateOnlyCalendar.obtain();
-            dateOnlyCalendar.setTimeInMillis(timeMillis);
-            dateOnlyCalendar.stripTime();
-            //noinspection WrongConstant
-            dateOnlyCalendar.setFirstDayOfWeek(sWeekStart);
-            return dateOnlyCalendar;
-        }
-
-        private DateOnlyCalendar() {
-            super();
-        }
-
-        /**
-         * Checks if this instance falls in some month before given instance
-         * @param other    instance to check against
-         * @return  true if this instance is at least 1 'month' before, false otherwise
-         */
-        public boolean monthBefore(DateOnlyCalendar other) {
-            int day = other.get(DAY_OF_MONTH);
-            other.set(DAY_OF_MONTH, 1);
-            boolean before = getTimeInMillis() < other.getTimeInMillis();
-            other.set(DAY_OF_MONTH, day);
-            return before;
-        }
-
-        /**
-         * Checks if this instance falls in some month after given instance
-         * @param other    instance to check against
-         * @return  true if this instance is at least 1 'month' after, false otherwise
-         */
-        public boolean monthAfter(DateOnlyCalendar other) {
-            int day = other.get(DAY_OF_MONTH);
-            other.set(DAY_OF_MONTH, other.getActualMaximum(DAY_OF_MONTH));
-            boolean after = getTimeInMillis() > other.getTimeInMillis();
-            other.set(DAY_OF_MONTH, day);
-            return after;
-        }
-
-        public boolean sameMonth(DateOnlyCalendar other) {
-            return get(YEAR) == other.get(YEAR) && get(MONTH) == other.get(MONTH);
-        }
+    public static void invalidateTimeZone() {
+        EpochDays.invalidate();
+    }
 
-        void stripTime() {
-            set(Calendar.HOUR_OF_DAY, 0);
-            set(Calendar.MINUTE, 0);
-            set(Calendar.SECOND, 0);
-            set(Calendar.MILLISECOND, 0);
-        }
+    private static long monthIndex(long timeMillis) {
+        int date = EpochDays.toDate(EpochDays.toEpochDay(timeMillis));
+        return EpochDays.year(date) * 12L + EpochDays.month(date);
+    }
 
-        void recycle() {
-            setTimeZone(TimeZone.getDefault());
-            sPools.release(this);
-        }
+    private static int floorDiv(int dividend, int divisor) {
+        int quotient = dividend / divisor;
+        return dividend % divisor < 0 ? quotient - 1 : quotient;
     }
 }
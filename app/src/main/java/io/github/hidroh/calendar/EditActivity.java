@@ -42,6 +42,9 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
     private static final String EXTRA_CALENDAR_ID = "extra:calendarId";
     private static final int LOADER_CALENDARS = 0;
     private static final int LOADER_SELECTED_CALENDAR = 1;
+    private static final int TOKEN_CREATE = 0;
+    private static final int TOKEN_UPDATE = 1;
+    private static final int TOKEN_DELETE = 2;
 
     private EventEditView mEventEditView;
 
@@ -212,15 +215,20 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
         cv.put(CalendarContract.Events.ALL_DAY, event.isAllDay());
         cv.put(CalendarContract.Events.EVENT_END_TIMEZONE, event.getTimeZone());
         cv.put(CalendarContract.Events.EVENT_TIMEZONE, event.getTimeZone());
-        cv.put(CalendarContract.Events.CALENDAR_ID, event.getCalendarId());
-        if (event.hasId()) {
+        if (event.isInstance()) {
+            // exception replaces this instance only, series row is left untouched
+            cv.putNull(CalendarContract.Events.DURATION);
+            insertException(TOKEN_UPDATE, event, cv);
+        } else if (event.hasId()) {
+            cv.put(CalendarContract.Events.CALENDAR_ID, event.getCalendarId());
             Uri uri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI,
                     event.getId());
             new EventQueryHandler(this)
-                    .startUpdate(0, null, uri, cv, null, null);
+                    .startUpdate(TOKEN_UPDATE, null, uri, cv, null, null);
         } else {
+            cv.put(CalendarContract.Events.CALENDAR_ID, event.getCalendarId());
             new EventQueryHandler(this)
-                    .startInsert(0, null, CalendarContract.Events.CONTENT_URI, cv);
+                    .startInsert(TOKEN_CREATE, null, CalendarContract.Events.CONTENT_URI, cv);
         }
         return true;
     }
@@ -253,10 +261,26 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
     }
 
     private void delete() {
-        new EventQueryHandler(this).startDelete(0, null,
-                ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI,
-                        mEventEditView.getEvent().getId()),
-                null, null);
+        EventEditView.Event event = mEventEditView.getEvent();
+        if (event.isInstance()) {
+            // cancelled exception removes this instance only, series row is left untouched
+            ContentValues cv = new ContentValues();
+            cv.put(CalendarContract.Events.STATUS, CalendarContract.Events.STATUS_CANCELED);
+            insertException(TOKEN_DELETE, event, cv);
+        } else {
+            new EventQueryHandler(this).startDelete(TOKEN_DELETE, null,
+                    ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI,
+                            event.getId()),
+                    null, null);
+        }
+    }
+
+    private void insertException(int token, EventEditView.Event event, ContentValues cv) {
+        cv.put(CalendarContract.Events.ORIGINAL_INSTANCE_TIME, event.getOriginalInstanceTime());
+        new EventQueryHandler(this).startInsert(token, null,
+                ContentUris.withAppendedId(CalendarContract.Events.CONTENT_EXCEPTION_URI,
+                        event.getId()),
+                cv);
     }
 
     static class EventQueryHandler extends AsyncQueryHandler {
@@ -270,8 +294,23 @@ public class EditActivity extends AppCompatActivity implements LoaderManager.Loa
 
         @Override
         protected void onInsertComplete(int token, Object cookie, Uri uri) {
-            if (mContext.get() != null) {
-                Toast.makeText(mContext.get(), R.string.event_created, Toast.LENGTH_SHORT).show();
+            if (mContext.get() == null) {
+                return;
+            }
+            // exceptions of recurring series are inserted upon update or delete
+            switch (token) {
+                case TOKEN_UPDATE:
+                    Toast.makeText(mContext.get(), R.string.event_updated,
+                            Toast.LENGTH_SHORT).show();
+                    break;
+                case TOKEN_DELETE:
+                    Toast.makeText(mContext.get(), R.string.event_deleted,
+                            Toast.LENGTH_SHORT).show();
+                    break;
+                default:
+                    Toast.makeText(mContext.get(), R.string.event_created,
+                            Toast.LENGTH_SHORT).show();
+                    break;
             }
         }
 
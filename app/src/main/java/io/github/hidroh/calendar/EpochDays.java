@@ -0,0 +1,238 @@
+package io.github.hidroh.calendar;
+
+import android.text.format.DateUtils;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocation free date arithmetic on days since epoch, in local time zone, and on dates
+ * packed into ints as year, month ({@link Calendar#JANUARY} based) and day of month.
+ * Results are the same as a lenient {@link java.util.GregorianCalendar} of default time zone
+ * for dates after Gregorian cutover, without obtaining or mutating calendars.
+ * Offsets are looked up from {@link ZoneTransitions} of a window of years around current time,
+ * and local midnights are cached by day, both per time zone, which should be refreshed
+ * via {@link #invalidate()} upon time zone change.
+ * All methods can be called on any thread.
+ * @see {@link CalendarUtils}
+ */
+final class EpochDays {
+    private static final int DAYS_PER_WEEK = 7;
+    private static final int DAYS_PER_ERA = 146097; // 400 years
+    private static final int EPOCH_ERA_DAY = 719468; // 0000-03-01 to 1970-01-01
+    private static final int MIDNIGHT_CACHE_SIZE = 1024; // power of 2
+    // cache entry: day << OFFSET_BITS | offset + OFFSET_BIAS, offsets are within 18 hours
+    private static final int OFFSET_BITS = 27;
+    private static final long OFFSET_BIAS = 1L << (OFFSET_BITS - 1);
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final long TRANSITION_WINDOW_MILLIS = DateUtils.YEAR_IN_MILLIS * 10; // each side
+
+    private static volatile Zone sZone = new Zone(TimeZone.getDefault());
+
+    private EpochDays() {
+        // no instance
+    }
+
+    /**
+     * Refreshes default time zone and clears cached local midnights, e.g. upon time zone change
+     */
+    static void invalidate() {
+        sZone = new Zone(TimeZone.getDefault());
+    }
+
+    /**
+     * Gets local day since epoch of given time
+     * @param timeMillis    time in milliseconds
+     * @return  day since epoch, negative for days before epoch
+     */
+    static long toEpochDay(long timeMillis) {
+        return floorDiv(timeMillis + sZone.getOffset(timeMillis), DateUtils.DAY_IN_MILLIS);
+    }
+
+    /**
+     * Gets start of given local day, which is midnight unless skipped by daylight saving
+     * @param epochDay    day since epoch
+     * @return  time in milliseconds
+     */
+    static long toMillis(long epochDay) {
+        Zone zone = sZone;
+        int slot = (int) epochDay & (MIDNIGHT_CACHE_SIZE - 1);
+        long entry = zone.mMidnights.get(slot);
+        if (entry != 0 && entry >> OFFSET_BITS == epochDay) {
+            return epochDay * DateUtils.DAY_IN_MILLIS - ((entry & OFFSET_MASK) - OFFSET_BIAS);
+        }
+        long wallMillis = epochDay * DateUtils.DAY_IN_MILLIS;
+        int offset = zone.getWallOffset(wallMillis);
+        zone.mMidnights.set(slot, epochDay << OFFSET_BITS | (offset + OFFSET_BIAS));
+        return wallMillis - offset;
+    }
+
+    /**
+     * Converts given local wall time, expressed as milliseconds since local epoch,
+     * to time in milliseconds. Wall time skipped by daylight saving is shifted forward,
+     * repeated wall time resolves to its later occurrence.
+     * @param wallMillis    local wall time
+     * @return  time in milliseconds
+     */
+    static long fromWallTime(long wallMillis) {
+        return wallMillis - sZone.getWallOffset(wallMillis);
+    }
+
+    /**
+     * Converts given time to local wall time, expressed as milliseconds since local epoch
+     * @param timeMillis    time in milliseconds
+     * @return  local wall time
+     */
+    static long toWallTime(long timeMillis) {
+        return timeMillis + sZone.getOffset(timeMillis);
+    }
+
+    /**
+     * Packs given date
+     * @param year     year
+     * @param month    month, {@link Calendar#JANUARY} based
+     * @param day      day of month
+     * @return  packed date
+     */
+    static int pack(int year, int month, int day) {
+        return year << 9 | month << 5 | day;
+    }
+
+    static int year(int date) {
+        return date >> 9;
+    }
+
+    static int month(int date) {
+        return date >> 5 & 0xf;
+    }
+
+    static int day(int date) {
+        return date & 0x1f;
+    }
+
+    /**
+     * Converts given day since epoch to packed date
+     * @param epochDay    day since epoch
+     * @return  packed date
+     * @see {@link #pack(int, int, int)}
+     */
+    static int toDate(long epochDay) {
+        // civil from days, with years starting in March so that leap day is last
+        long days = epochDay + EPOCH_ERA_DAY;
+        long era = floorDiv(days, DAYS_PER_ERA);
+        int dayOfEra = (int) (days - era * DAYS_PER_ERA);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 -
+                dayOfEra / (DAYS_PER_ERA - 1)) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int marchMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * marchMonth + 2) / 5 + 1;
+        int month = marchMonth < 10 ? marchMonth + 2 : marchMonth - 10;
+        int year = (int) (era * 400) + yearOfEra + (month <= Calendar.FEBRUARY ? 1 : 0);
+        return pack(year, month, day);
+    }
+
+    /**
+     * Converts given date to day since epoch, months out of range are rolled
+     * into adjacent years, days must be within month
+     * @param year     year
+     * @param month    month, {@link Calendar#JANUARY} based, may be out of range
+     * @param day      day of month
+     * @return  day since epoch
+     */
+    static long toEpochDay(int year, int month, int day) {
+        year += floorDiv(month, 12);
+        month = (int) floorMod(month, 12);
+        if (month <= Calendar.FEBRUARY) {
+            year--;
+        }
+        long era = floorDiv(year, 400);
+        int yearOfEra = (int) (year - era * 400);
+        int marchMonth = month > Calendar.FEBRUARY ? month - 2 : month + 10;
+        int dayOfYear = (153 * marchMonth + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - EPOCH_ERA_DAY;
+    }
+
+    /**
+     * Gets day of week of given day since epoch
+     * @param epochDay    day since epoch
+     * @return  one of {@link Calendar#SUNDAY} to {@link Calendar#SATURDAY}
+     */
+    static int dayOfWeek(long epochDay) {
+        // epoch is a Thursday
+        return (int) floorMod(epochDay + Calendar.THURSDAY - Calendar.SUNDAY,
+                DAYS_PER_WEEK) + Calendar.SUNDAY;
+    }
+
+    /**
+     * Gets number of days in given month
+     * @param year     year
+     * @param month    month, {@link Calendar#JANUARY} based
+     * @return  number of days
+     */
+    static int monthSize(int year, int month) {
+        switch (month) {
+            case Calendar.FEBRUARY:
+                return isLeapYear(year) ? 29 : 28;
+            case Calendar.APRIL:
+            case Calendar.JUNE:
+            case Calendar.SEPTEMBER:
+            case Calendar.NOVEMBER:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    // Math.floorDiv() and Math.floorMod() are not available before API 24
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor) < 0 ? quotient - 1 : quotient;
+    }
+
+    private static long floorMod(long dividend, long divisor) {
+        long remainder = dividend % divisor;
+        return remainder < 0 ? remainder + divisor : remainder;
+    }
+
+    private static class Zone {
+        final TimeZone mTimeZone;
+        final AtomicLongArray mMidnights = new AtomicLongArray(MIDNIGHT_CACHE_SIZE);
+        private volatile ZoneTransitions mTransitions;
+
+        Zone(TimeZone timeZone) {
+            mTimeZone = timeZone;
+        }
+
+        int getOffset(long timeMillis) {
+            ZoneTransitions transitions = mTransitions;
+            if (transitions == null || !transitions.covers(timeMillis) &&
+                    Math.abs(timeMillis - System.currentTimeMillis()) < TRANSITION_WINDOW_MILLIS) {
+                // build lazily, or slide window once current time moves near its end
+                long nowMillis = System.currentTimeMillis();
+                transitions = ZoneTransitions.build(mTimeZone,
+                        nowMillis - TRANSITION_WINDOW_MILLIS,
+                        nowMillis + TRANSITION_WINDOW_MILLIS);
+                mTransitions = transitions;
+            }
+            return transitions.getOffset(timeMillis);
+        }
+
+        /**
+         * Gets offset to subtract from given wall time, as resolved by
+         * {@link java.util.GregorianCalendar}: offset in effect after a transition applies
+         * from transition wall time in that offset, shifting skipped wall time forward
+         * and resolving repeated wall time to its later occurrence
+         */
+        int getWallOffset(long wallMillis) {
+            // wall time and its time are less than a day apart, offset a day later
+            // is that of any transition near wall time
+            return getOffset(wallMillis - getOffset(wallMillis + DateUtils.DAY_IN_MILLIS));
+        }
+    }
+}
@@ -22,13 +22,14 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.util.Pair;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.ActionBarDrawerToggle;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -37,21 +38,27 @@ import android.widget.TextView;
 
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.Future;
 
 import io.github.hidroh.calendar.content.CalendarCursor;
-import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.content.EventsChangeDispatcher;
 import io.github.hidroh.calendar.content.EventsQueryHandler;
+import io.github.hidroh.calendar.content.StartupSnapshot;
+import io.github.hidroh.calendar.text.DateFormatCache;
 import io.github.hidroh.calendar.weather.WeatherSyncService;
 import io.github.hidroh.calendar.widget.AgendaAdapter;
 import io.github.hidroh.calendar.widget.AgendaView;
 import io.github.hidroh.calendar.widget.CalendarSelectionView;
 import io.github.hidroh.calendar.widget.EventCalendarView;
+import io.github.hidroh.calendar.widget.YearView;
 
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final String STATE_TOOLBAR_TOGGLE = "state:toolbarToggle";
+    private static final String STATE_YEAR_VIEW = "state:yearView";
     private static final int REQUEST_CODE_CALENDAR = 0;
     private static final int REQUEST_CODE_LOCATION = 1;
     private static final String SEPARATOR = ",";
@@ -78,27 +85,47 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             } else {
                 mExcludedCalendarIds.remove(String.valueOf(id));
             }
-            mCalendarView.invalidateData();
-            mAgendaView.invalidateData();
+            // loaded events are of all calendars, only redisplay them
+            long calendarMask = mCalendarFilter.setExcluded(id, !enabled);
+            mCalendarView.applyCalendarFilter(calendarMask);
+            mAgendaView.applyCalendarFilter(calendarMask);
+            mYearView.applyCalendarFilter();
         }
     };
+    private final EventsChangeDispatcher.OnEventsChangeListener mEventsChangeListener =
+            new EventsChangeDispatcher.OnEventsChangeListener() {
+                @Override
+                public void onEventsChange() {
+                    mCalendarView.invalidateData();
+                    mAgendaView.refreshData();
+                    mYearView.invalidateData();
+                }
+            };
     private final Coordinator mCoordinator = new Coordinator();
     private View mCoordinatorLayout;
     private CheckedTextView mToolbarToggle;
     private EventCalendarView mCalendarView;
     private AgendaView mAgendaView;
+    private View mYearViewContainer;
+    private YearView mYearView;
     private FloatingActionButton mFabAdd;
     private CalendarSelectionView mCalendarSelectionView;
     private ActionBarDrawerToggle mDrawerToggle;
     private DrawerLayout mDrawerLayout;
     private View mDrawer;
     private final HashSet<String> mExcludedCalendarIds = new HashSet<>();
+    private CalendarFilter mCalendarFilter;
     private boolean mWeatherEnabled, mPendingWeatherEnabled;
+    private EventsChangeDispatcher mEventsChangeDispatcher;
+    private Future<StartupSnapshot> mPendingSnapshot;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // read off main thread while views are inflated, until events are loaded
+        mPendingSnapshot = StartupSnapshot.readAsync(this);
         setUpPreferences();
+        mEventsChangeDispatcher = EventsChangeDispatcher.getInstance(this);
         setContentView(R.layout.activity_main);
         setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
         //noinspection ConstantConditions
@@ -117,6 +144,9 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 toggleButton.performClick();
             }
         }
+        if (savedInstanceState.getBoolean(STATE_YEAR_VIEW, false)) {
+            toggleYearView(true);
+        }
     }
 
     @Override
@@ -142,6 +172,8 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_year).setChecked(
+                mYearViewContainer.getVisibility() == View.VISIBLE);
         menu.findItem(R.id.action_weather).setChecked(mWeatherEnabled);
         switch (CalendarUtils.sWeekStart) {
             case Calendar.SATURDAY:
@@ -163,6 +195,10 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             mCoordinator.reset();
             return true;
         }
+        if (item.getItemId() == R.id.action_year) {
+            toggleYearView(!item.isChecked());
+            return true;
+        }
         if (item.getItemId() == R.id.action_weather) {
             mPendingWeatherEnabled = !mWeatherEnabled;
             if (!mWeatherEnabled && !checkLocationPermissions()) {
@@ -183,18 +219,29 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         return mDrawerToggle.onOptionsItemSelected(item) || super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (checkCalendarPermissions()) {
+            StartupSnapshot.save(this);
+        }
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         mCoordinator.saveState(outState);
         outState.putBoolean(STATE_TOOLBAR_TOGGLE, mToolbarToggle.isChecked());
+        outState.putBoolean(STATE_YEAR_VIEW, mYearViewContainer.getVisibility() == View.VISIBLE);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         mCalendarView.deactivate();
+        mYearView.deactivate();
         mAgendaView.setAdapter(null); // force detaching adapter
+        mEventsChangeDispatcher.removeListener(mEventsChangeListener);
         PreferenceManager.getDefaultSharedPreferences(this)
                 .edit()
                 .putString(CalendarUtils.PREF_CALENDAR_EXCLUSIONS,
@@ -208,6 +255,8 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     public void onBackPressed() {
         if (mDrawerLayout.isDrawerOpen(mDrawer)) {
             mDrawerLayout.closeDrawer(mDrawer);
+        } else if (mYearViewContainer.getVisibility() == View.VISIBLE) {
+            toggleYearView(false);
         } else {
             super.onBackPressed();
         }
@@ -280,6 +329,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         if (!TextUtils.isEmpty(exclusions)) {
             mExcludedCalendarIds.addAll(Arrays.asList(exclusions.split(SEPARATOR)));
         }
+        mCalendarFilter = new CalendarFilter(mExcludedCalendarIds);
         CalendarUtils.sWeekStart = sp.getInt(CalendarUtils.PREF_WEEK_START, Calendar.SUNDAY);
         PreferenceManager.getDefaultSharedPreferences(this)
                 .registerOnSharedPreferenceChangeListener(mWeatherChangeListener);
@@ -308,6 +358,16 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
         mCalendarView = (EventCalendarView) findViewById(R.id.calendar_view);
         mAgendaView = (AgendaView) findViewById(R.id.agenda_view);
+        mYearViewContainer = findViewById(R.id.year_view_container);
+        mYearView = (YearView) findViewById(R.id.year_view);
+        //noinspection ConstantConditions
+        mYearView.setOnMonthClickListener(new YearView.OnMonthClickListener() {
+            @Override
+            public void onMonthClick(long monthMillis) {
+                toggleYearView(false);
+                mCoordinator.setSelectedDay(monthMillis);
+            }
+        });
         mFabAdd = (FloatingActionButton) findViewById(R.id.fab);
         mFabAdd.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -327,6 +387,16 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
     }
 
+    private void toggleYearView(boolean visible) {
+        if (visible) {
+            mYearViewContainer.setVisibility(View.VISIBLE);
+            mYearView.setYear(mCoordinator.getSelectedDay());
+        } else {
+            mYearViewContainer.setVisibility(View.GONE);
+        }
+        supportInvalidateOptionsMenu();
+    }
+
     @SuppressWarnings("ConstantConditions")
     private void toggleEmptyView(boolean visible) {
         if (visible) {
@@ -362,6 +432,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 .apply();
         supportInvalidateOptionsMenu();
         mCoordinator.reset();
+        mYearView.setYear(mCoordinator.getSelectedDay());
     }
 
     private void createEvent() {
@@ -372,8 +443,24 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         getSupportLoaderManager().initLoader(LOADER_CALENDARS, null, this);
         getSupportLoaderManager().initLoader(LOADER_LOCAL_CALENDAR, null, this);
         mFabAdd.show();
-        mCalendarView.setCalendarAdapter(new CalendarCursorAdapter(this, mExcludedCalendarIds));
-        mAgendaView.setAdapter(new AgendaCursorAdapter(this, mExcludedCalendarIds));
+        // display events persisted from last run while fresh ones are being loaded
+        StartupSnapshot snapshot = null;
+        if (mPendingSnapshot != null) {
+            snapshot = StartupSnapshot.await(mPendingSnapshot);
+            mPendingSnapshot = null;
+        }
+        mCalendarView.setCalendarFilter(mCalendarFilter);
+        mCalendarView.setCalendarAdapter(new CalendarCursorAdapter(this, snapshot));
+        AgendaCursorAdapter agendaAdapter = new AgendaCursorAdapter(this, mCalendarFilter);
+        mAgendaView.setAdapter(agendaAdapter);
+        mYearView.setCalendarFilter(mCalendarFilter);
+        mYearView.setYearAdapter(new YearCursorAdapter(this));
+        if (snapshot != null) {
+            agendaAdapter.bindProvisionalEvents(snapshot.getStartTimeMillis(),
+                    snapshot.getEndTimeMillis(), snapshot.get(snapshot.getStartTimeMillis(),
+                            snapshot.getEndTimeMillis()));
+        }
+        mEventsChangeDispatcher.addListener(mEventsChangeListener);
         loadWeather();
     }
 
@@ -529,6 +616,16 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             updateTitle(mSelectedDayMillis);
         }
 
+        long getSelectedDay() {
+            return mSelectedDayMillis;
+        }
+
+        void setSelectedDay(long dayMillis) {
+            if (mCalendarView != null) {
+                sync(dayMillis, null);
+            }
+        }
+
         private void sync(long dayMillis, View originator) {
             mSelectedDayMillis = dayMillis;
             if (originator != mCalendarView) {
@@ -541,7 +638,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
 
         private void updateTitle(long dayMillis) {
-            mTextView.setText(CalendarUtils.toMonthString(mTextView.getContext(), dayMillis));
+            mTextView.setText(DateFormatCache.getMonthString(mTextView.getContext(), dayMillis));
         }
     }
 
@@ -550,32 +647,89 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         @VisibleForTesting
         final DayEventsQueryHandler mHandler;
 
-        public AgendaCursorAdapter(Context context, Collection<String> excludedCalendarIds) {
-            super(context);
-            mHandler = new DayEventsQueryHandler(context.getContentResolver(), this,
-                    excludedCalendarIds);
+        public AgendaCursorAdapter(Context context, CalendarFilter calendarFilter) {
+            super(context, calendarFilter);
+            mHandler = new DayEventsQueryHandler(context, this);
+        }
+
+        @Override
+        protected void loadEvents(long startTimeMillis, long endTimeMillis, int priority) {
+            mHandler.startQuery(Pair.create(startTimeMillis, endTimeMillis),
+                    startTimeMillis, endTimeMillis, priority);
         }
 
         @Override
-        protected void loadEvents(long timeMillis) {
-            mHandler.startQuery(timeMillis, timeMillis, timeMillis + DateUtils.DAY_IN_MILLIS);
+        protected void cancelLoadEvents(long startTimeMillis, long endTimeMillis) {
+            mHandler.cancelQueries(startTimeMillis, endTimeMillis);
+        }
+
+        @Override
+        protected void onRangeChanged(long startTimeMillis, long endTimeMillis) {
+            if (startTimeMillis == CalendarUtils.NO_TIME_MILLIS) {
+                mHandler.release();
+            } else {
+                mHandler.retain(startTimeMillis, endTimeMillis);
+            }
+        }
+
+        @Override
+        public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mHandler.release();
         }
     }
 
     static class CalendarCursorAdapter extends EventCalendarView.CalendarAdapter {
         private final MonthEventsQueryHandler mHandler;
+        private StartupSnapshot mSnapshot;
 
-        public CalendarCursorAdapter(Context context, Collection<String> excludedCalendarIds) {
-            mHandler = new MonthEventsQueryHandler(context.getContentResolver(), this,
-                    excludedCalendarIds);
+        public CalendarCursorAdapter(Context context, @Nullable StartupSnapshot snapshot) {
+            mHandler = new MonthEventsQueryHandler(context, this);
+            mSnapshot = snapshot;
         }
 
         @Override
-        protected void loadEvents(long monthMillis) {
-            long startTimeMillis = CalendarUtils.monthFirstDay(monthMillis),
-                    endTimeMillis = startTimeMillis + DateUtils.DAY_IN_MILLIS *
-                            CalendarUtils.monthSize(monthMillis);
-            mHandler.startQuery(monthMillis, startTimeMillis, endTimeMillis);
+        protected void loadEvents(long startMonthMillis, long endMonthMillis, int priority) {
+            // only initial months may be displayed from startup snapshot
+            if (mSnapshot != null) {
+                for (long month = startMonthMillis; month < endMonthMillis;
+                     month = CalendarUtils.addMonths(month, 1)) {
+                    long monthEndMillis = CalendarUtils.addMonths(month, 1);
+                    if (mSnapshot.covers(month, monthEndMillis)) {
+                        bindEvents(month, mSnapshot.get(month, monthEndMillis));
+                    }
+                }
+            }
+            mSnapshot = null;
+            // months in range are loaded and bound together, then split by calendar view
+            mHandler.startQuery(Pair.create(startMonthMillis, endMonthMillis),
+                    startMonthMillis, endMonthMillis, priority);
+        }
+
+        @Override
+        protected void onRangeChanged(long startTimeMillis, long endTimeMillis) {
+            // keep all months held by calendar view, including those loaded ahead
+            mHandler.retain(startTimeMillis, endTimeMillis);
+        }
+
+        @Override
+        protected void onDeactivate() {
+            mHandler.release();
+        }
+    }
+
+    static class YearCursorAdapter extends YearView.YearAdapter {
+        private final YearEventsQueryHandler mHandler;
+
+        public YearCursorAdapter(Context context) {
+            mHandler = new YearEventsQueryHandler(context, this);
+        }
+
+        @Override
+        protected void loadEvents(long startTimeMillis, long endTimeMillis) {
+            // whole year is loaded in one query, then counted per day by year view
+            mHandler.startQuery(Pair.create(startTimeMillis, endTimeMillis),
+                    startTimeMillis, endTimeMillis);
         }
     }
 
@@ -583,16 +737,17 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         private final AgendaCursorAdapter mAgendaCursorAdapter;
 
-        public DayEventsQueryHandler(ContentResolver cr,
-                                     AgendaCursorAdapter agendaCursorAdapter,
-                                     @NonNull Collection<String> excludedCalendarIds) {
-            super(cr, excludedCalendarIds);
+        public DayEventsQueryHandler(Context context,
+                                     AgendaCursorAdapter agendaCursorAdapter) {
+            super(context);
             mAgendaCursorAdapter = agendaCursorAdapter;
         }
 
+        @SuppressWarnings("unchecked")
         @Override
-        protected void handleQueryComplete(int token, Object cookie, EventCursor cursor) {
-            mAgendaCursorAdapter.bindEvents((Long) cookie, cursor);
+        protected void handleQueryComplete(int token, Object cookie, EventSnapshot snapshot) {
+            Pair<Long, Long> range = (Pair<Long, Long>) cookie;
+            mAgendaCursorAdapter.bindEvents(range.first, range.second, snapshot);
         }
     }
 
@@ -600,16 +755,34 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         private final CalendarCursorAdapter mAdapter;
 
-        public MonthEventsQueryHandler(ContentResolver cr,
-                                       CalendarCursorAdapter adapter,
-                                       @NonNull Collection<String> excludedCalendarIds) {
-            super(cr, excludedCalendarIds);
+        public MonthEventsQueryHandler(Context context,
+                                       CalendarCursorAdapter adapter) {
+            super(context);
+            mAdapter = adapter;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void handleQueryComplete(int token, Object cookie, EventSnapshot snapshot) {
+            Pair<Long, Long> range = (Pair<Long, Long>) cookie;
+            mAdapter.bindEvents(range.first, range.second, snapshot);
+        }
+    }
+
+    static class YearEventsQueryHandler extends EventsQueryHandler {
+
+        private final YearCursorAdapter mAdapter;
+
+        public YearEventsQueryHandler(Context context, YearCursorAdapter adapter) {
+            super(context);
             mAdapter = adapter;
         }
 
+        @SuppressWarnings("unchecked")
         @Override
-        protected void handleQueryComplete(int token, Object cookie, EventCursor cursor) {
-            mAdapter.bindEvents((Long) cookie, cursor);
+        protected void handleQueryComplete(int token, Object cookie, EventSnapshot snapshot) {
+            Pair<Long, Long> range = (Pair<Long, Long>) cookie;
+            mAdapter.bindEvents(range.first, snapshot);
         }
     }
 
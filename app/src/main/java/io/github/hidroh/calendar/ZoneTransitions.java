@@ -0,0 +1,102 @@
+package io.github.hidroh.calendar;
+
+import android.text.format.DateUtils;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Immutable table of offset transitions of a time zone within a window of years,
+ * which answers offsets via a binary search over primitive arrays instead of
+ * {@link TimeZone#getOffset(long)}. Times out of window fall back to time zone.
+ * Table should be rebuilt upon time zone change.
+ * @see {@link #build(TimeZone, long, long)}
+ */
+final class ZoneTransitions {
+    // transitions are found by sampling offsets, then narrowed down to the millisecond,
+    // zones do not change offsets twice within this period
+    private static final long SAMPLE_MILLIS = DateUtils.DAY_IN_MILLIS / 2;
+
+    private final TimeZone mTimeZone;
+    private final long mStartMillis;
+    private final long mEndMillis;
+    private final long[] mTimes; // transition times, sorted
+    private final int[] mOffsets; // offsets from transition at same index, or window start
+
+    /**
+     * Builds transition table for given time zone and window
+     * @param timeZone       time zone, not to be mutated afterwards
+     * @param startMillis    window start time in milliseconds
+     * @param endMillis      window end time in milliseconds
+     * @return  transition table
+     */
+    static ZoneTransitions build(TimeZone timeZone, long startMillis, long endMillis) {
+        long[] times = new long[16];
+        int[] offsets = new int[16];
+        int count = 0;
+        int offset = timeZone.getOffset(startMillis);
+        for (long sample = startMillis; sample < endMillis; sample += SAMPLE_MILLIS) {
+            long next = Math.min(sample + SAMPLE_MILLIS, endMillis);
+            int nextOffset = timeZone.getOffset(next);
+            if (nextOffset == offset) {
+                continue;
+            }
+            // first time in (sample, next] that has next offset
+            long low = sample, high = next;
+            while (high - low > 1) {
+                long mid = (low + high) >>> 1;
+                if (timeZone.getOffset(mid) == offset) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            times[count] = high;
+            offsets[count] = nextOffset;
+            count++;
+            offset = nextOffset;
+        }
+        int[] allOffsets = new int[count + 1];
+        allOffsets[0] = timeZone.getOffset(startMillis);
+        System.arraycopy(offsets, 0, allOffsets, 1, count);
+        return new ZoneTransitions(timeZone, startMillis, endMillis,
+                Arrays.copyOf(times, count), allOffsets);
+    }
+
+    private ZoneTransitions(TimeZone timeZone, long startMillis, long endMillis,
+                            long[] times, int[] offsets) {
+        mTimeZone = timeZone;
+        mStartMillis = startMillis;
+        mEndMillis = endMillis;
+        mTimes = times;
+        mOffsets = offsets;
+    }
+
+    /**
+     * Gets offset from UTC of time zone at given time
+     * @param timeMillis    time in milliseconds
+     * @return  offset in milliseconds
+     * @see {@link TimeZone#getOffset(long)}
+     */
+    int getOffset(long timeMillis) {
+        if (timeMillis < mStartMillis || timeMillis >= mEndMillis) {
+            return mTimeZone.getOffset(timeMillis);
+        }
+        int index = Arrays.binarySearch(mTimes, timeMillis);
+        // offset of last transition at or before given time
+        return mOffsets[index >= 0 ? index + 1 : -index - 1];
+    }
+
+    /**
+     * Checks if given time falls within window of this table
+     * @param timeMillis    time in milliseconds
+     * @return  true if within window, false otherwise
+     */
+    boolean covers(long timeMillis) {
+        return timeMillis >= mStartMillis && timeMillis < mEndMillis;
+    }
+}
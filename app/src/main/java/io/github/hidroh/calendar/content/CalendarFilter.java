@@ -0,0 +1,109 @@
+package io.github.hidroh.calendar.content;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory filter of events by calendar, applied to loaded events of all calendars
+ * when they are displayed, so that toggling a calendar does not requery provider.
+ * Each calendar is assigned a bit upon first use, so that calendars of a group of events,
+ * e.g. a day, can be kept as a bitset and checked against toggled calendars without
+ * scanning events again. Calendars beyond the 64th share the last bit.
+ * This should only be used on main thread.
+ */
+public class CalendarFilter {
+
+    private static final int MAX_BITS = 64;
+
+    private final Map<Long, Integer> mBits = new HashMap<>(); // by calendar ID
+    private final Set<Long> mExcluded = new HashSet<>();
+
+    /**
+     * Constructs a filter that excludes given calendars
+     * @param excludedCalendarIds    collection of excluded calendar IDs
+     */
+    public CalendarFilter(@NonNull Collection<String> excludedCalendarIds) {
+        for (String id : excludedCalendarIds) {
+            mExcluded.add(Long.valueOf(id));
+        }
+    }
+
+    /**
+     * Checks if given calendar is excluded
+     * @param calendarId    calendar ID
+     * @return  true if excluded, false otherwise
+     */
+    public boolean isExcluded(long calendarId) {
+        return mExcluded.contains(calendarId);
+    }
+
+    /**
+     * Excludes or includes given calendar
+     * @param calendarId    calendar ID
+     * @param excluded      true to exclude, false to include
+     * @return  bit of given calendar if it has been toggled, 0 otherwise
+     * @see {@link #getMask(long)}
+     */
+    public long setExcluded(long calendarId, boolean excluded) {
+        boolean changed = excluded ? mExcluded.add(calendarId) : mExcluded.remove(calendarId);
+        return changed ? getMask(calendarId) : 0;
+    }
+
+    /**
+     * Gets bit assigned to given calendar
+     * @param calendarId    calendar ID
+     * @return  bitset with single bit of given calendar
+     */
+    public long getMask(long calendarId) {
+        Integer bit = mBits.get(calendarId);
+        if (bit == null) {
+            bit = Math.min(mBits.size(), MAX_BITS - 1);
+            mBits.put(calendarId, bit);
+        }
+        return 1L << bit;
+    }
+
+    /**
+     * Gets bits of calendars of given events, regardless of exclusion
+     * @param events    snapshot of events of all calendars
+     * @return  bitset of calendars
+     */
+    public long getMask(@NonNull EventSnapshot events) {
+        long mask = 0;
+        for (int i = 0; i < events.getCount(); i++) {
+            mask |= getMask(events.getCalendarId(i));
+        }
+        return mask;
+    }
+
+    /**
+     * Filters out events of excluded calendars
+     * @param events    snapshot of events of all calendars
+     * @return  given snapshot if none is excluded, or a slice of it otherwise
+     */
+    public EventSnapshot apply(@NonNull EventSnapshot events) {
+        if (mExcluded.isEmpty()) {
+            return events;
+        }
+        int[] indexes = null;
+        int count = 0;
+        for (int i = 0; i < events.getCount(); i++) {
+            if (mExcluded.contains(events.getCalendarId(i))) {
+                if (indexes == null) { // copy included events so far
+                    indexes = new int[events.getCount()];
+                    for (int j = 0; j < i; j++) {
+                        indexes[count++] = j;
+                    }
+                }
+            } else if (indexes != null) {
+                indexes[count++] = i;
+            }
+        }
+        return indexes == null ? events : events.slice(indexes, count);
+    }
+}
@@ -0,0 +1,430 @@
+package io.github.hidroh.calendar.content;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.provider.CalendarContract;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+/**
+ * Process-wide cache of {@link CalendarContract.Events} rows of all calendars, shared by
+ * views that display overlapping time periods.
+ * Calendars are filtered when events are displayed, see {@link CalendarFilter}.
+ * Rows are loaded by whole months and held in an interval tree keyed by event start
+ * and end time, which answers the same overlap predicate as {@link EventsQueryHandler}:
+ * events that start within a time period, or start before and end after its start.
+ * Months retained by at least one owner stay resident, other months are evicted least
+ * recently used first once there are more than {@link #MAX_COLD_MONTHS} of them.
+ * Cache is cleared once provider changes settle, as dispatched by
+ * {@link EventsChangeDispatcher}. This should only be used on main thread.
+ */
+public class EventCache {
+
+    @VisibleForTesting static final int MAX_COLD_MONTHS = 6;
+    private static EventCache sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final EventsChangeDispatcher.OnEventsChangeListener mEventsChangeListener =
+            new EventsChangeDispatcher.OnEventsChangeListener() {
+                @Override
+                public void onEventsChange() {
+                    invalidate();
+                }
+            };
+    private final IntervalTree mTree = new IntervalTree();
+    // loaded months in access order, least recently used first
+    private final LinkedHashMap<Long, Boolean> mMonths = new LinkedHashMap<>(16, .75f, true);
+    private final Map<Long, Integer> mRetainCounts = new HashMap<>(); // by month
+    private final Map<Object, long[]> mRetainedRanges = new HashMap<>(); // by owner
+    private final Map<Long, EventsQueryHandler.Fill> mFills = new HashMap<>(); // by month
+
+    /**
+     * Gets process-wide cache instance, which is cleared upon provider changes
+     * @param context    context to observe provider changes
+     * @return  shared cache
+     */
+    public static synchronized EventCache getInstance(Context context) {
+        ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+        EventsChangeDispatcher dispatcher = EventsChangeDispatcher.getInstance(context);
+        if (sInstance == null || sInstance.mContentResolver != contentResolver) {
+            if (sInstance != null) { // replaced, stop observing on its behalf
+                dispatcher.removeContentListener(sInstance.mEventsChangeListener);
+            }
+            sInstance = new EventCache(contentResolver);
+            dispatcher.addContentListener(sInstance.mEventsChangeListener);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    EventCache(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Checks if all months of given time period have been loaded
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @return  true if cache can answer for given time period, false otherwise
+     */
+    public boolean isLoaded(long startTimeMillis, long endTimeMillis) {
+        for (long month = CalendarUtils.monthFirstDay(startTimeMillis); month < endTimeMillis;
+             month = CalendarUtils.addMonths(month, 1)) {
+            if (!mMonths.containsKey(month)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets cached events of all calendars that start within given time period,
+     * or start before and end after its start, sorted by start time
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @return  snapshot of events
+     * @see {@link #isLoaded(long, long)}
+     * @see {@link CalendarFilter}
+     */
+    public EventSnapshot get(long startTimeMillis, long endTimeMillis) {
+        for (long month = CalendarUtils.monthFirstDay(startTimeMillis); month < endTimeMillis;
+             month = CalendarUtils.addMonths(month, 1)) {
+            mMonths.get(month); // mark as recently used
+        }
+        List<Entry> entries = new ArrayList<>();
+        mTree.query(startTimeMillis, endTimeMillis, entries);
+        EventSnapshot.Builder builder = new EventSnapshot.Builder(entries.size());
+        for (Entry entry : entries) {
+            builder.add(entry.mId, entry.mCalendarId, entry.mTitle,
+                    entry.mStartTimeMillis, entry.mEndTimeMillis, entry.mAllDay,
+                    entry.mRecurring);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Keeps months of given time period resident on behalf of given owner,
+     * releasing months previously retained by that owner
+     * @param owner              owner of time period
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @see {@link #release(Object)}
+     */
+    public void retain(Object owner, long startTimeMillis, long endTimeMillis) {
+        long[] range = new long[]{CalendarUtils.monthFirstDay(startTimeMillis), endTimeMillis};
+        long[] previous = mRetainedRanges.put(owner, range);
+        updateRetainCounts(range, 1);
+        if (previous != null) {
+            updateRetainCounts(previous, -1);
+        }
+        trim();
+    }
+
+    /**
+     * Releases months previously retained by given owner, allowing them to be evicted
+     * @param owner    owner of time period
+     * @see {@link #retain(Object, long, long)}
+     */
+    public void release(Object owner) {
+        long[] previous = mRetainedRanges.remove(owner);
+        if (previous != null) {
+            updateRetainCounts(previous, -1);
+            trim();
+        }
+    }
+
+    /**
+     * Clears all cached events. Loading months are marked as stale
+     * and will not be cached once loaded.
+     */
+    public void invalidate() {
+        mTree.clear();
+        mMonths.clear();
+        for (EventsQueryHandler.Fill fill : mFills.values()) {
+            fill.mStale = true;
+        }
+        mFills.clear();
+    }
+
+    /**
+     * Adds events of all calendars loaded for given months
+     * @param startTimeMillis    first day of first month in milliseconds
+     * @param endTimeMillis      first day of month after last month in milliseconds
+     * @param events             snapshot of events that start within given months,
+     *                           or start before and end after their start
+     * @see {@link #trim()}
+     */
+    void put(long startTimeMillis, long endTimeMillis, EventSnapshot events) {
+        // replace all events of given months, including those also belonging to loaded months,
+        // as event ID is shared by instances of recurring events
+        List<Entry> previous = new ArrayList<>();
+        mTree.query(startTimeMillis, endTimeMillis, previous);
+        for (Entry entry : previous) {
+            mTree.remove(entry);
+        }
+        for (int i = 0; i < events.getCount(); i++) {
+            mTree.insert(new Entry(events.getId(i), events.getCalendarId(i), events.getTitle(i),
+                    events.getDateTimeStart(i), events.getDateTimeEnd(i), events.getAllDay(i),
+                    events.isRecurring(i)));
+        }
+        for (long month = startTimeMillis; month < endTimeMillis;
+             month = CalendarUtils.addMonths(month, 1)) {
+            mMonths.put(month, true);
+        }
+    }
+
+    boolean isMonthLoaded(long monthMillis) {
+        return mMonths.containsKey(monthMillis);
+    }
+
+    EventsQueryHandler.Fill getFill(long monthMillis) {
+        return mFills.get(monthMillis);
+    }
+
+    void putFill(EventsQueryHandler.Fill fill) {
+        for (long month = fill.mStartTimeMillis; month < fill.mEndTimeMillis;
+             month = CalendarUtils.addMonths(month, 1)) {
+            mFills.put(month, fill);
+        }
+    }
+
+    void removeFill(EventsQueryHandler.Fill fill) {
+        Iterator<EventsQueryHandler.Fill> iterator = mFills.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == fill) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void updateRetainCounts(long[] range, int delta) {
+        for (long month = range[0]; month < range[1];
+             month = CalendarUtils.addMonths(month, 1)) {
+            Integer count = mRetainCounts.get(month);
+            int newCount = (count == null ? 0 : count) + delta;
+            if (newCount > 0) {
+                mRetainCounts.put(month, newCount);
+            } else {
+                mRetainCounts.remove(month);
+            }
+        }
+    }
+
+    /**
+     * Evicts least recently used months not retained by any owner,
+     * until there are at most {@link #MAX_COLD_MONTHS} of them
+     */
+    void trim() {
+        int cold = 0;
+        for (Long month : mMonths.keySet()) {
+            if (!mRetainCounts.containsKey(month)) {
+                cold++;
+            }
+        }
+        Iterator<Long> iterator = mMonths.keySet().iterator();
+        List<Long> evicted = new ArrayList<>();
+        while (cold > MAX_COLD_MONTHS && iterator.hasNext()) {
+            Long month = iterator.next();
+            if (!mRetainCounts.containsKey(month)) {
+                iterator.remove();
+                evicted.add(month);
+                cold--;
+            }
+        }
+        for (Long month : evicted) {
+            // drop events of evicted month unless they also belong to a loaded month
+            List<Entry> entries = new ArrayList<>();
+            mTree.query(month, CalendarUtils.addMonths(month, 1), entries);
+            for (Entry entry : entries) {
+                if (!isLoadedAny(entry)) {
+                    mTree.remove(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if given event belongs to any loaded month, i.e. starts within that month,
+     * or starts before and ends after that month starts
+     */
+    private boolean isLoadedAny(Entry entry) {
+        long month = CalendarUtils.monthFirstDay(entry.mStartTimeMillis);
+        do {
+            if (mMonths.containsKey(month)) {
+                return true;
+            }
+            month = CalendarUtils.addMonths(month, 1);
+        } while (month < entry.mEndTimeMillis);
+        return false;
+    }
+
+    /**
+     * Cached event or instance of recurring event, which is also a node in {@link IntervalTree}
+     */
+    static class Entry {
+        final long mId;
+        final long mCalendarId;
+        final String mTitle;
+        final long mStartTimeMillis;
+        final long mEndTimeMillis;
+        final boolean mAllDay;
+        final boolean mRecurring;
+        final int mPriority; // heap priority, for balancing
+        Entry mLeft;
+        Entry mRight;
+        long mMaxEndTimeMillis; // of this subtree
+
+        Entry(long id, long calendarId, String title,
+              long startTimeMillis, long endTimeMillis, boolean allDay, boolean recurring) {
+            mId = id;
+            mCalendarId = calendarId;
+            mTitle = title;
+            mStartTimeMillis = startTimeMillis;
+            mEndTimeMillis = endTimeMillis;
+            mAllDay = allDay;
+            mRecurring = recurring;
+            mPriority = IntervalTree.RANDOM.nextInt();
+            mMaxEndTimeMillis = endTimeMillis;
+        }
+
+        int compareTo(Entry other) {
+            if (mStartTimeMillis != other.mStartTimeMillis) {
+                return mStartTimeMillis < other.mStartTimeMillis ? -1 : 1;
+            }
+            return mId < other.mId ? -1 : (mId == other.mId ? 0 : 1);
+        }
+    }
+
+    /**
+     * Interval tree of {@link Entry}, as a treap ordered by start time and event ID,
+     * with each node augmented with max end time of its subtree
+     */
+    static class IntervalTree {
+        static final Random RANDOM = new Random();
+        private Entry mRoot;
+
+        void insert(Entry entry) {
+            mRoot = insert(mRoot, entry);
+        }
+
+        void remove(Entry entry) {
+            mRoot = remove(mRoot, entry);
+        }
+
+        void clear() {
+            mRoot = null;
+        }
+
+        /**
+         * Collects entries that start within given time period,
+         * or start before and end after its start, in order
+         */
+        void query(long startTimeMillis, long endTimeMillis, List<Entry> result) {
+            query(mRoot, startTimeMillis, endTimeMillis, result);
+        }
+
+        private void query(Entry node, long start, long end, List<Entry> result) {
+            if (node == null) {
+                return;
+            }
+            // left subtree starts no later than this node, so it can only match
+            // by starting within period if this node does, or by ending after period start
+            if (node.mLeft != null &&
+                    (node.mStartTimeMillis >= start || node.mLeft.mMaxEndTimeMillis > start)) {
+                query(node.mLeft, start, end, result);
+            }
+            if (node.mStartTimeMillis >= start ?
+                    node.mStartTimeMillis < end : node.mEndTimeMillis > start) {
+                result.add(node);
+            }
+            // right subtree starts no earlier than this node
+            if (node.mRight != null && node.mStartTimeMillis < end) {
+                query(node.mRight, start, end, result);
+            }
+        }
+
+        private Entry insert(Entry node, Entry entry) {
+            if (node == null) {
+                entry.mLeft = null;
+                entry.mRight = null;
+                entry.mMaxEndTimeMillis = entry.mEndTimeMillis;
+                return entry;
+            }
+            if (entry.compareTo(node) < 0) {
+                node.mLeft = insert(node.mLeft, entry);
+                if (node.mLeft.mPriority > node.mPriority) {
+                    node = rotateRight(node);
+                }
+            } else {
+                node.mRight = insert(node.mRight, entry);
+                if (node.mRight.mPriority > node.mPriority) {
+                    node = rotateLeft(node);
+                }
+            }
+            update(node);
+            return node;
+        }
+
+        private Entry remove(Entry node, Entry entry) {
+            if (node == null) {
+                return null;
+            }
+            int compare = entry.compareTo(node);
+            if (compare < 0) {
+                node.mLeft = remove(node.mLeft, entry);
+            } else if (compare > 0) {
+                node.mRight = remove(node.mRight, entry);
+            } else if (node.mLeft == null) {
+                return node.mRight;
+            } else if (node.mRight == null) {
+                return node.mLeft;
+            } else if (node.mLeft.mPriority > node.mRight.mPriority) {
+                node = rotateRight(node);
+                node.mRight = remove(node.mRight, entry);
+            } else {
+                node = rotateLeft(node);
+                node.mLeft = remove(node.mLeft, entry);
+            }
+            update(node);
+            return node;
+        }
+
+        private Entry rotateRight(Entry node) {
+            Entry left = node.mLeft;
+            node.mLeft = left.mRight;
+            left.mRight = node;
+            update(node);
+            update(left);
+            return left;
+        }
+
+        private Entry rotateLeft(Entry node) {
+            Entry right = node.mRight;
+            node.mRight = right.mLeft;
+            right.mLeft = node;
+            update(node);
+            update(right);
+            return right;
+        }
+
+        private void update(Entry node) {
+            long max = node.mEndTimeMillis;
+            if (node.mLeft != null) {
+                max = Math.max(max, node.mLeft.mMaxEndTimeMillis);
+            }
+            if (node.mRight != null) {
+                max = Math.max(max, node.mRight.mMaxEndTimeMillis);
+            }
+            node.mMaxEndTimeMillis = max;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package io.github.hidroh.calendar.content;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.CalendarContract;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+/**
+ * App-owned SQLite mirror of {@link CalendarContract.Events} columns in
+ * {@link EventCursor#PROJECTION}, with an interval index on event start and end time,
+ * so that range reads do not have to evaluate Calendar Provider selection on every row.
+ * Interval index is an R*Tree if SQLite has been compiled with it, or a B-tree index
+ * on start time bounded by longest event duration otherwise.
+ * Mirror is synced incrementally upon provider changes: provider rows are merged
+ * against mirror rows by ID, and only rows that have been added, changed or removed
+ * are written. As provider does not expose which rows have changed for all sync adapters
+ * (dirty flags are only set for local changes), every sync scans all provider rows,
+ * so syncs are throttled to one per {@link #MIN_SYNC_INTERVAL_MILLIS}.
+ * Reads should fall back to provider while mirror is not in sync.
+ */
+public class EventMirror extends SQLiteOpenHelper {
+
+    @VisibleForTesting static final long MIN_SYNC_INTERVAL_MILLIS = DateUtils.SECOND_IN_MILLIS * 10;
+    private static final String TAG = EventMirror.class.getSimpleName();
+    private static final String DATABASE_NAME = "events.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE_EVENTS = "events";
+    private static final String TABLE_INDEX = "events_index";
+    private static final String TABLE_SYNC_STATE = "sync_state";
+    // all-day times converted to local time zone, as they are displayed
+    private static final String COLUMN_LOCAL_START = "local_start";
+    private static final String COLUMN_LOCAL_END = "local_end";
+    private static final String COLUMN_TIME_ZONE = "time_zone";
+    private static final String COLUMN_LOCAL_START_ASC = COLUMN_LOCAL_START + " ASC";
+    // recurring events are expanded by RecurrenceExpander instead
+    private static final String SYNC_SELECTION = CalendarContract.Events.DELETED + "=0 AND " +
+            RecurrenceExpander.SELECTION_SINGLE;
+    private static final String ID_SORT = CalendarContract.Events._ID + " ASC";
+    private static final String SORT = COLUMN_LOCAL_START_ASC + "," + ID_SORT;
+    // select events that starts within query range,
+    // or starts before but end within or after query range
+    private static final String OVERLAP = COLUMN_LOCAL_START + "<? AND (" +
+            COLUMN_LOCAL_START + ">=? OR " + COLUMN_LOCAL_END + ">?)";
+    private static final String SELECTION_RTREE = CalendarContract.Events._ID + " IN " +
+            "(SELECT " + CalendarContract.Events._ID + " FROM " + TABLE_INDEX +
+            " WHERE " + COLUMN_LOCAL_START + "<? AND " + COLUMN_LOCAL_END + ">=?) AND " +
+            OVERLAP;
+    private static final String SELECTION_BTREE = COLUMN_LOCAL_START + ">=? AND " + OVERLAP;
+    private static EventMirror sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final QueryExecutor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final EventsChangeDispatcher.OnEventsChangeListener mEventsChangeListener =
+            new EventsChangeDispatcher.OnEventsChangeListener() {
+                @Override
+                public void onEventsChange() {
+                    requestSync();
+                }
+            };
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile int mSyncedGeneration = -1;
+    private volatile boolean mSyncQueued;
+    private volatile long mLastSyncMillis = -MIN_SYNC_INTERVAL_MILLIS; // uptime
+    private volatile long mMaxDurationMillis;
+    private volatile Boolean mRtree; // whether R*Tree index is available, lazily checked
+    private final Runnable mSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSyncQueued = false; // changes from now on need another sync
+            mLastSyncMillis = SystemClock.uptimeMillis();
+            int generation = mGeneration.get();
+            if (sync()) {
+                mSyncedGeneration = generation;
+            }
+        }
+    };
+    private final Runnable mQueueSyncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mExecutor.execute(mSyncRunnable, QueryExecutor.PRIORITY_BACKGROUND);
+        }
+    };
+
+    /**
+     * Gets process-wide mirror instance, which syncs upon provider changes
+     * @param context    context to observe and query provider
+     * @return  shared mirror
+     */
+    public static synchronized EventMirror getInstance(Context context) {
+        ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+        EventsChangeDispatcher dispatcher = EventsChangeDispatcher.getInstance(context);
+        if (sInstance == null || sInstance.mContentResolver != contentResolver) {
+            if (sInstance != null) { // replaced, stop observing on its behalf
+                dispatcher.removeContentListener(sInstance.mEventsChangeListener);
+            }
+            sInstance = new EventMirror(context.getApplicationContext(), DATABASE_NAME);
+            dispatcher.addContentListener(sInstance.mEventsChangeListener);
+            sInstance.requestSync();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a mirror backed by given database, synced by process-wide executor
+     * @param context    context to query provider
+     * @param name       database name, or null for an in-memory database
+     */
+    @VisibleForTesting
+    EventMirror(Context context, @Nullable String name) {
+        this(context, name, QueryExecutor.getInstance());
+    }
+
+    /**
+     * Constructs a mirror backed by given database
+     * @param context     context to query provider
+     * @param name        database name, or null for an in-memory database
+     * @param executor    executor to run syncs
+     */
+    @VisibleForTesting
+    EventMirror(Context context, @Nullable String name, QueryExecutor executor) {
+        super(context, name, null, DATABASE_VERSION);
+        mContentResolver = context.getContentResolver();
+        mExecutor = executor;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EVENTS + " (" +
+                CalendarContract.Events._ID + " INTEGER PRIMARY KEY," +
+                CalendarContract.Events.CALENDAR_ID + " INTEGER," +
+                CalendarContract.Events.TITLE + " TEXT," +
+                CalendarContract.Events.DTSTART + " INTEGER," +
+                CalendarContract.Events.DTEND + " INTEGER," +
+                CalendarContract.Events.ALL_DAY + " INTEGER," +
+                COLUMN_LOCAL_START + " INTEGER," +
+                COLUMN_LOCAL_END + " INTEGER)");
+        db.execSQL("CREATE INDEX " + TABLE_EVENTS + "_" + COLUMN_LOCAL_START + " ON " +
+                TABLE_EVENTS + " (" + COLUMN_LOCAL_START + ")");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " (" + COLUMN_TIME_ZONE + " TEXT)");
+        try {
+            // R*Tree coordinates are 32-bit floats, rounded outwards, exact times are
+            // checked against events table
+            db.execSQL("CREATE VIRTUAL TABLE " + TABLE_INDEX + " USING rtree(" +
+                    CalendarContract.Events._ID + "," +
+                    COLUMN_LOCAL_START + "," + COLUMN_LOCAL_END + ")");
+        } catch (SQLiteException e) {
+            Log.i(TAG, "R*Tree not available, falling back to B-tree index");
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // no op
+    }
+
+    /**
+     * Checks if mirror reflects latest provider changes
+     * @return  true if mirror can be read instead of provider, false otherwise
+     */
+    public boolean isSynced() {
+        return mSyncedGeneration == mGeneration.get();
+    }
+
+    /**
+     * Schedules a background sync against provider, coalesced with sync already queued,
+     * and deferred until {@link #MIN_SYNC_INTERVAL_MILLIS} after previous sync.
+     * Mirror is considered out of sync until then.
+     */
+    public void requestSync() {
+        mGeneration.incrementAndGet();
+        if (!mSyncQueued) {
+            mSyncQueued = true;
+            long delayMillis = mLastSyncMillis + MIN_SYNC_INTERVAL_MILLIS -
+                    SystemClock.uptimeMillis();
+            if (delayMillis > 0) {
+                mHandler.postDelayed(mQueueSyncRunnable, delayMillis);
+            } else {
+                mExecutor.execute(mSyncRunnable, QueryExecutor.PRIORITY_BACKGROUND);
+            }
+        }
+    }
+
+    /**
+     * Queries events that start within given time period, or start before and
+     * end after its start, as in provider selection of {@link EventsQueryHandler}.
+     * This will be called on worker thread.
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @return  cursor with {@link EventCursor#PROJECTION} columns, sorted by local start time
+     */
+    public Cursor query(long startTimeMillis, long endTimeMillis) {
+        SQLiteDatabase db = getReadableDatabase();
+        String start = String.valueOf(startTimeMillis), end = String.valueOf(endTimeMillis);
+        if (hasRtree(db)) {
+            return db.query(TABLE_EVENTS, EventCursor.PROJECTION, SELECTION_RTREE,
+                    new String[]{end, start, end, start, start}, null, null, SORT);
+        } else {
+            return db.query(TABLE_EVENTS, EventCursor.PROJECTION, SELECTION_BTREE,
+                    new String[]{String.valueOf(startTimeMillis - mMaxDurationMillis),
+                            end, start, start}, null, null, SORT);
+        }
+    }
+
+    /**
+     * Syncs mirror against provider. This will be called on worker thread.
+     * @return  true if synced, false otherwise
+     */
+    @VisibleForTesting
+    boolean sync() {
+        Cursor cursor = null;
+        try {
+            cursor = mContentResolver.query(CalendarContract.Events.CONTENT_URI,
+                    EventCursor.PROJECTION, SYNC_SELECTION, null, ID_SORT);
+            if (cursor == null) {
+                return false;
+            }
+            sync(new EventCursor(cursor));
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, e);
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Merges given provider rows, sorted by ID, against mirror rows, writing rows
+     * that have been added, changed or removed. Mirror is rebuilt if time zone has changed.
+     * @param provider    provider cursor sorted by ID
+     * @return  number of rows written
+     */
+    @VisibleForTesting
+    int sync(EventCursor provider) {
+        SQLiteDatabase db = getWritableDatabase();
+        boolean rtree = hasRtree(db);
+        int written = 0;
+        db.beginTransaction();
+        try {
+            String timeZone = TimeZone.getDefault().getID();
+            if (!TextUtils.equals(timeZone, getSyncedTimeZone(db))) {
+                // local times of all-day events need to be recomputed
+                db.delete(TABLE_EVENTS, null, null);
+                if (rtree) {
+                    db.delete(TABLE_INDEX, null, null);
+                }
+                db.delete(TABLE_SYNC_STATE, null, null);
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_TIME_ZONE, timeZone);
+                db.insert(TABLE_SYNC_STATE, null, values);
+            }
+            SQLiteStatement upsert = db.compileStatement("INSERT OR REPLACE INTO " +
+                    TABLE_EVENTS + " VALUES (?,?,?,?,?,?,?,?)");
+            SQLiteStatement upsertIndex = rtree ? db.compileStatement("INSERT OR REPLACE INTO " +
+                    TABLE_INDEX + " VALUES (?,?,?)") : null;
+            Cursor mirror = db.query(TABLE_EVENTS, EventCursor.PROJECTION,
+                    null, null, null, null, ID_SORT);
+            try {
+                EventCursor mirrorEvents = new EventCursor(mirror);
+                boolean hasMirror = mirrorEvents.moveToFirst();
+                provider.moveToPosition(-1);
+                while (provider.moveToNext()) {
+                    long id = provider.getId();
+                    // remove mirror rows no longer in provider
+                    while (hasMirror && mirrorEvents.getId() < id) {
+                        written += delete(db, rtree, mirrorEvents.getId());
+                        hasMirror = mirrorEvents.moveToNext();
+                    }
+                    if (hasMirror && mirrorEvents.getId() == id) {
+                        if (!same(provider, mirrorEvents)) {
+                            written += upsert(upsert, upsertIndex, provider);
+                        }
+                        hasMirror = mirrorEvents.moveToNext();
+                    } else {
+                        written += upsert(upsert, upsertIndex, provider);
+                    }
+                }
+                while (hasMirror) {
+                    written += delete(db, rtree, mirrorEvents.getId());
+                    hasMirror = mirrorEvents.moveToNext();
+                }
+            } finally {
+                mirror.close();
+            }
+            mMaxDurationMillis = queryMaxDuration(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return written;
+    }
+
+    private boolean hasRtree(SQLiteDatabase db) {
+        if (mRtree == null) {
+            Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE name=?",
+                    new String[]{TABLE_INDEX});
+            try {
+                mRtree = cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            mMaxDurationMillis = queryMaxDuration(db);
+        }
+        return mRtree;
+    }
+
+    private String getSyncedTimeZone(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_SYNC_STATE, new String[]{COLUMN_TIME_ZONE},
+                null, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryMaxDuration(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT MAX(" + COLUMN_LOCAL_END + "-" +
+                COLUMN_LOCAL_START + ") FROM " + TABLE_EVENTS, null);
+        try {
+            return cursor.moveToFirst() ? Math.max(cursor.getLong(0), 0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean same(EventCursor provider, EventCursor mirror) {
+        return provider.getCalendarId() == mirror.getCalendarId() &&
+                provider.getDateTimeStart() == mirror.getDateTimeStart() &&
+                provider.getDateTimeEnd() == mirror.getDateTimeEnd() &&
+                provider.getAllDay() == mirror.getAllDay() &&
+                TextUtils.equals(provider.getTitle(), mirror.getTitle());
+    }
+
+    private int upsert(SQLiteStatement upsert, @Nullable SQLiteStatement upsertIndex,
+                       EventCursor provider) {
+        long start = provider.getDateTimeStart(), end = provider.getDateTimeEnd();
+        long localStart = start, localEnd = end;
+        if (provider.getAllDay()) {
+            localStart = CalendarUtils.toLocalTimeZone(start);
+            localEnd = CalendarUtils.toLocalTimeZone(end);
+        }
+        upsert.clearBindings();
+        upsert.bindLong(1, provider.getId());
+        upsert.bindLong(2, provider.getCalendarId());
+        String title = provider.getTitle();
+        if (title == null) {
+            upsert.bindNull(3);
+        } else {
+            upsert.bindString(3, title);
+        }
+        upsert.bindLong(4, start);
+        upsert.bindLong(5, end);
+        upsert.bindLong(6, provider.getAllDay() ? 1 : 0);
+        upsert.bindLong(7, localStart);
+        upsert.bindLong(8, localEnd);
+        upsert.executeInsert();
+        if (upsertIndex != null) {
+            upsertIndex.bindLong(1, provider.getId());
+            upsertIndex.bindLong(2, localStart);
+            upsertIndex.bindLong(3, Math.max(localStart, localEnd));
+            upsertIndex.executeInsert();
+        }
+        return 1;
+    }
+
+    private int delete(SQLiteDatabase db, boolean rtree, long id) {
+        String[] args = new String[]{String.valueOf(id)};
+        db.delete(TABLE_EVENTS, CalendarContract.Events._ID + "=?", args);
+        if (rtree) {
+            db.delete(TABLE_INDEX, CalendarContract.Events._ID + "=?", args);
+        }
+        return 1;
+    }
+}
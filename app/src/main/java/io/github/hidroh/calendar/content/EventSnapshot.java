@@ -0,0 +1,271 @@
+package io.github.hidroh.calendar.content;
+
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+/**
+ * Immutable, columnar copy of {@link EventCursor} rows, which allows query results
+ * to be kept in memory after their cursor has been closed.
+ * Unlike {@link EventCursor}, all-day event times are already converted to local time zone.
+ * Instances of recurring series, expanded by {@link RecurrenceExpander}, carry the ID of
+ * their series and are flagged via {@link #isRecurring(int)}.
+ */
+public class EventSnapshot {
+
+    /**
+     * Snapshot with no events
+     */
+    public static final EventSnapshot EMPTY = new EventSnapshot(0, new long[0], new long[0],
+            new long[0], new long[0], new long[0], new long[0], new String[0], new int[0]);
+
+    private final int mCount;
+    private final long[] mIds;
+    private final long[] mCalendarIds;
+    private final long[] mStarts;
+    private final long[] mEnds;
+    private final long[] mAllDay; // bitset
+    private final long[] mRecurring; // bitset
+    private final String[] mTitles; // shared by slices, each distinct title appears once
+    private final int[] mTitleIndexes;
+
+    /**
+     * Copies all rows of given cursor into a new snapshot. Cursor is not closed.
+     * @param cursor    {@link android.provider.CalendarContract.Events} cursor wrapper
+     * @return  snapshot of cursor rows
+     */
+    public static EventSnapshot from(@NonNull EventCursor cursor) {
+        int count = cursor.getCount();
+        if (count == 0) {
+            return EMPTY;
+        }
+        Builder builder = new Builder(count);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && builder.size() < count) {
+            long start = cursor.getDateTimeStart(), end = cursor.getDateTimeEnd();
+            boolean allDay = cursor.getAllDay();
+            // all-day time in Calendar Provider is midnight in UTC, need to convert to local
+            if (allDay) {
+                start = CalendarUtils.toLocalTimeZone(start);
+                end = CalendarUtils.toLocalTimeZone(end);
+            }
+            builder.add(cursor.getId(), cursor.getCalendarId(), cursor.getTitle(),
+                    start, end, allDay);
+        }
+        return builder.build();
+    }
+
+    private EventSnapshot(int count, long[] ids, long[] calendarIds, long[] starts, long[] ends,
+                          long[] allDay, long[] recurring, String[] titles, int[] titleIndexes) {
+        mCount = count;
+        mIds = ids;
+        mCalendarIds = calendarIds;
+        mStarts = starts;
+        mEnds = ends;
+        mAllDay = allDay;
+        mRecurring = recurring;
+        mTitles = titles;
+        mTitleIndexes = titleIndexes;
+    }
+
+    /**
+     * Gets number of events in this snapshot
+     * @return  number of events
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets event ID
+     * @param index    event index
+     * @return  event ID
+     */
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * Gets event calendar ID
+     * @param index    event index
+     * @return  event calendar ID
+     */
+    public long getCalendarId(int index) {
+        return mCalendarIds[index];
+    }
+
+    /**
+     * Gets event title
+     * @param index    event index
+     * @return  event title
+     */
+    public String getTitle(int index) {
+        return mTitles[mTitleIndexes[index]];
+    }
+
+    /**
+     * Gets start time in milliseconds, in local time zone
+     * @param index    event index
+     * @return  start time in milliseconds
+     */
+    public long getDateTimeStart(int index) {
+        return mStarts[index];
+    }
+
+    /**
+     * Gets end time in milliseconds, in local time zone
+     * @param index    event index
+     * @return  end time in milliseconds
+     */
+    public long getDateTimeEnd(int index) {
+        return mEnds[index];
+    }
+
+    /**
+     * Checks if event is all day
+     * @param index    event index
+     * @return  true if all-day event, false otherwise
+     */
+    public boolean getAllDay(int index) {
+        return (mAllDay[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Checks if event is an instance of a recurring series, in which case its ID is that of
+     * its series, and its original instance time is its start time, in UTC if all day
+     * @param index    event index
+     * @return  true if instance of recurring series, false otherwise
+     */
+    public boolean isRecurring(int index) {
+        return (mRecurring[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Checks if event at given index has same contents as event at given index of another snapshot
+     * @param index         event index
+     * @param other         snapshot to compare with
+     * @param otherIndex    event index in other snapshot
+     * @return  true if both events have same contents, false otherwise
+     */
+    public boolean contentsEqual(int index, EventSnapshot other, int otherIndex) {
+        return mIds[index] == other.mIds[otherIndex] &&
+                mCalendarIds[index] == other.mCalendarIds[otherIndex] &&
+                mStarts[index] == other.mStarts[otherIndex] &&
+                mEnds[index] == other.mEnds[otherIndex] &&
+                getAllDay(index) == other.getAllDay(otherIndex) &&
+                isRecurring(index) == other.isRecurring(otherIndex) &&
+                TextUtils.equals(getTitle(index), other.getTitle(otherIndex));
+    }
+
+    /**
+     * Copies given events into a new snapshot, sharing this snapshot's title table
+     * @param indexes    indexes of events to copy, in order
+     * @param count      number of indexes to copy
+     * @return  snapshot of given events
+     */
+    public EventSnapshot slice(int[] indexes, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        long[] ids = new long[count],
+                calendarIds = new long[count],
+                starts = new long[count],
+                ends = new long[count],
+                allDay = new long[bitsetSize(count)],
+                recurring = new long[bitsetSize(count)];
+        int[] titleIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = indexes[i];
+            ids[i] = mIds[index];
+            calendarIds[i] = mCalendarIds[index];
+            starts[i] = mStarts[index];
+            ends[i] = mEnds[index];
+            titleIndexes[i] = mTitleIndexes[index];
+            if (getAllDay(index)) {
+                allDay[i >> 6] |= 1L << i;
+            }
+            if (isRecurring(index)) {
+                recurring[i >> 6] |= 1L << i;
+            }
+        }
+        return new EventSnapshot(count, ids, calendarIds, starts, ends, allDay, recurring,
+                mTitles, titleIndexes);
+    }
+
+    private static int bitsetSize(int count) {
+        return (count + 63) >> 6;
+    }
+
+    /**
+     * Builder for snapshot of a known number of events, with times in local time zone
+     */
+    public static class Builder {
+        private final long[] mIds;
+        private final long[] mCalendarIds;
+        private final long[] mStarts;
+        private final long[] mEnds;
+        private final long[] mAllDay;
+        private final long[] mRecurring;
+        private final int[] mTitleIndexes;
+        private final List<String> mTitles = new ArrayList<>();
+        private final Map<String, Integer> mTitleTable = new HashMap<>();
+        private int mCount;
+
+        public Builder(int capacity) {
+            mIds = new long[capacity];
+            mCalendarIds = new long[capacity];
+            mStarts = new long[capacity];
+            mEnds = new long[capacity];
+            mAllDay = new long[bitsetSize(capacity)];
+            mRecurring = new long[bitsetSize(capacity)];
+            mTitleIndexes = new int[capacity];
+        }
+
+        int size() {
+            return mCount;
+        }
+
+        public Builder add(long id, long calendarId, String title,
+                           long startTimeMillis, long endTimeMillis, boolean allDay) {
+            return add(id, calendarId, title, startTimeMillis, endTimeMillis, allDay, false);
+        }
+
+        public Builder add(long id, long calendarId, String title,
+                           long startTimeMillis, long endTimeMillis, boolean allDay,
+                           boolean recurring) {
+            int i = mCount++;
+            mIds[i] = id;
+            mCalendarIds[i] = calendarId;
+            mStarts[i] = startTimeMillis;
+            mEnds[i] = endTimeMillis;
+            if (allDay) {
+                mAllDay[i >> 6] |= 1L << i;
+            }
+            if (recurring) {
+                mRecurring[i >> 6] |= 1L << i;
+            }
+            Integer titleIndex = mTitleTable.get(title);
+            if (titleIndex == null) {
+                titleIndex = mTitles.size();
+                mTitleTable.put(title, titleIndex);
+                mTitles.add(title);
+            }
+            mTitleIndexes[i] = titleIndex;
+            return this;
+        }
+
+        public EventSnapshot build() {
+            if (mCount == 0) {
+                return EMPTY;
+            }
+            return new EventSnapshot(mCount, mIds, mCalendarIds, mStarts, mEnds, mAllDay,
+                    mRecurring, mTitles.toArray(new String[mTitles.size()]), mTitleIndexes);
+        }
+    }
+}
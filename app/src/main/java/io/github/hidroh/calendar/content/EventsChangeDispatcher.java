@@ -0,0 +1,184 @@
+package io.github.hidroh.calendar.content;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.CalendarContract;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide dispatcher for {@link CalendarContract.Events} changes, which is the only
+ * observer of provider content, on behalf of all its listeners.
+ * Bursts of changes (e.g. from a sync adapter) are coalesced and dispatched once,
+ * after changes have been quiet for {@link #QUIET_MILLIS} or at most
+ * {@link #MAX_DELAY_MILLIS} after the first change.
+ * Content listeners (caches of events) are dispatched before other listeners,
+ * so that views reload from invalidated caches.
+ * This should only be used on main thread.
+ */
+public class EventsChangeDispatcher {
+
+    /**
+     * Callback interface for events change
+     */
+    public interface OnEventsChangeListener {
+        /**
+         * Fired on main thread once a burst of events changes has settled
+         */
+        void onEventsChange();
+    }
+
+    @VisibleForTesting static final long QUIET_MILLIS = 128;
+    @VisibleForTesting static final long MAX_DELAY_MILLIS = 960;
+    private static EventsChangeDispatcher sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mContentObserver = new ContentObserver(mHandler) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            notifyChange();
+        }
+    };
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchChange();
+        }
+    };
+    private final List<OnEventsChangeListener> mContentListeners = new ArrayList<>();
+    private final List<OnEventsChangeListener> mListeners = new ArrayList<>();
+    private final ContentResolver mContentResolver;
+    private long mFirstChangeMillis = -1;
+    private long mLastChangeMillis = -1;
+
+    /**
+     * Gets process-wide dispatcher instance
+     * @param context    context to observe provider changes
+     * @return  shared dispatcher
+     */
+    public static synchronized EventsChangeDispatcher getInstance(Context context) {
+        ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+        if (sInstance == null || sInstance.mContentResolver != contentResolver) {
+            if (sInstance != null) { // replaced, stop observing on its behalf
+                sInstance.stopObserving();
+            }
+            sInstance = new EventsChangeDispatcher(contentResolver);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    EventsChangeDispatcher(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Adds listener to be notified upon events change.
+     * Provider content is observed as long as there is at least one listener.
+     * @param listener    listener to be notified
+     * @see {@link #removeListener(OnEventsChangeListener)}
+     */
+    public void addListener(OnEventsChangeListener listener) {
+        add(mListeners, listener);
+    }
+
+    /**
+     * Removes listener that has been previously added via
+     * {@link #addListener(OnEventsChangeListener)}
+     * @param listener    listener to be removed
+     */
+    public void removeListener(OnEventsChangeListener listener) {
+        remove(mListeners, listener);
+    }
+
+    /**
+     * Schedules a coalesced dispatch for a change in events, e.g. upon provider changes,
+     * or upon time zone change which moves all-day events
+     */
+    public void notifyChange() {
+        if (!isObserving()) {
+            return;
+        }
+        mLastChangeMillis = SystemClock.uptimeMillis();
+        if (mFirstChangeMillis < 0) {
+            mFirstChangeMillis = mLastChangeMillis;
+            mHandler.postAtTime(mDispatchRunnable, mLastChangeMillis + QUIET_MILLIS);
+        }
+    }
+
+    /**
+     * Adds cache of events to be invalidated upon events change, before other listeners
+     * are notified
+     * @param listener    listener to be notified
+     * @see {@link #removeContentListener(OnEventsChangeListener)}
+     */
+    void addContentListener(OnEventsChangeListener listener) {
+        add(mContentListeners, listener);
+    }
+
+    /**
+     * Removes listener that has been previously added via
+     * {@link #addContentListener(OnEventsChangeListener)}
+     * @param listener    listener to be removed
+     */
+    void removeContentListener(OnEventsChangeListener listener) {
+        remove(mContentListeners, listener);
+    }
+
+    private void add(List<OnEventsChangeListener> listeners, OnEventsChangeListener listener) {
+        if (listeners.contains(listener)) {
+            return;
+        }
+        boolean observing = isObserving();
+        listeners.add(listener);
+        if (!observing) {
+            mContentResolver.registerContentObserver(CalendarContract.Events.CONTENT_URI, true,
+                    mContentObserver);
+        }
+    }
+
+    private void remove(List<OnEventsChangeListener> listeners, OnEventsChangeListener listener) {
+        if (listeners.remove(listener) && !isObserving()) {
+            stopObserving();
+        }
+    }
+
+    private boolean isObserving() {
+        return !mContentListeners.isEmpty() || !mListeners.isEmpty();
+    }
+
+    private void stopObserving() {
+        mContentResolver.unregisterContentObserver(mContentObserver);
+        mHandler.removeCallbacks(mDispatchRunnable);
+        mFirstChangeMillis = mLastChangeMillis = -1;
+    }
+
+    private void dispatchChange() {
+        long now = SystemClock.uptimeMillis(),
+                settleMillis = mLastChangeMillis + QUIET_MILLIS,
+                deadlineMillis = mFirstChangeMillis + MAX_DELAY_MILLIS;
+        if (now < settleMillis && now < deadlineMillis) {
+            // still changing, wait until settled but not beyond deadline
+            mHandler.postAtTime(mDispatchRunnable, Math.min(settleMillis, deadlineMillis));
+            return;
+        }
+        mFirstChangeMillis = mLastChangeMillis = -1;
+        for (OnEventsChangeListener listener : new ArrayList<>(mContentListeners)) {
+            listener.onEventsChange();
+        }
+        for (OnEventsChangeListener listener : new ArrayList<>(mListeners)) {
+            listener.onEventsChange();
+        }
+    }
+}
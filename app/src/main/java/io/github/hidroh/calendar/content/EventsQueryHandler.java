@@ -1,25 +1,39 @@
 package io.github.hidroh.calendar.content;
 
-import android.content.AsyncQueryHandler;
 import android.content.ContentResolver;
+import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.CalendarContract;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import io.github.hidroh.calendar.CalendarUtils;
 
 /**
- * Calendar Provider {@link AsyncQueryHandler} that queries for events
- * in a given time period
+ * Calendar Provider query handler that queries for events
+ * in a given time period, with results handled on main thread.
+ * Events are read from process-wide {@link EventCache}, provider is only queried
+ * for months not loaded yet, in contiguous runs of months of all calendars.
+ * Months are read from {@link EventMirror} instead of provider while it is in sync,
+ * and instances of recurring events are expanded by {@link RecurrenceExpander}.
+ * Queries in flight are tracked by time period, so that duplicate queries are coalesced
+ * and queries no longer needed can be cancelled. Their months are retained in
+ * {@link EventCache} until delivered, so that months loaded first are not evicted
+ * while waiting for the rest. Provider queries are shared by
+ * all handlers and run by a {@link QueryExecutor}, in order of their priority.
  */
-public abstract class EventsQueryHandler extends AsyncQueryHandler {
+public abstract class EventsQueryHandler extends Handler {
 
+    private static final String TAG = EventsQueryHandler.class.getSimpleName();
     private static final String SORT = CalendarContract.Events.DTSTART + " ASC";
     private static final String AND = " AND ";
     private static final String OR = " OR ";
@@ -27,7 +41,6 @@ public abstract class EventsQueryHandler extends AsyncQueryHandler {
     private static final String INT_FALSE = "0";
     private static final String ALL_DAY = CalendarContract.Events.ALL_DAY + "=?";
     private static final String DELETED = CalendarContract.Events.DELETED + "=?";
-    private static final String NOT_CALENDAR_ID = CalendarContract.Events.CALENDAR_ID + "!=?";
     // select events that starts within query range
     private static final String START_WITHIN = "(" +
             CalendarContract.Events.DTSTART + ">=?" + AND +
@@ -48,80 +61,443 @@ public abstract class EventsQueryHandler extends AsyncQueryHandler {
             ALL_DAY + AND +
             "(" + START_WITHIN + OR + START_BEF_END_WITHIN_AFTER + ")" +
             ")";
-    // select non-deleted events from either set
+    // select non-deleted, non-recurring events from either set
     private static final String SELECTION = "(" +
-            DELETED + AND + "(" + SELECTION_NON_ALL_DAY_EVENTS + OR + SELECTION_ALL_DAY_EVENTS + ")" +
+            DELETED + AND + RecurrenceExpander.SELECTION_SINGLE + AND +
+            "(" + SELECTION_NON_ALL_DAY_EVENTS + OR + SELECTION_ALL_DAY_EVENTS + ")" +
             ")";
 
-    @NonNull
-    private final Collection<String> mExcludedCalendarIds;
+    private final ContentResolver mContentResolver;
+    private final QueryExecutor mExecutor;
+    private final EventCache mCache;
+    @Nullable
+    private final EventMirror mMirror;
+    @Nullable
+    private final RecurrenceExpander mRecurrences;
+    // keyed by time period
+    private final Map<String, Query> mQueries = new HashMap<>();
+    private int mLastToken;
+
+    /**
+     * Contrsucts an instance of async query handler for {@link android.provider.CalendarContract.Events}
+     * that reads from process-wide {@link EventCache} and queries process-wide
+     * {@link EventMirror} or provider and {@link RecurrenceExpander}
+     * on process-wide {@link QueryExecutor}
+     * @param context    context to query provider
+     */
+    public EventsQueryHandler(Context context) {
+        this(context.getContentResolver(), QueryExecutor.getInstance(),
+                EventCache.getInstance(context), EventMirror.getInstance(context),
+                RecurrenceExpander.getInstance(context));
+    }
 
     /**
      * Contrsucts an instance of async query handler for {@link android.provider.CalendarContract.Events}
      * @param cr                     content resolver
-     * @param excludedCalendarIds    collection of excluded calendar IDs
+     * @param executor               executor to run provider queries
+     * @param cache                  cache to read events from
+     * @param mirror                 mirror to query instead of provider while in sync,
+     *                               or null to always query provider
+     * @param recurrences            expander of recurring events,
+     *                               or null to exclude recurring events
      */
     public EventsQueryHandler(ContentResolver cr,
-                              @NonNull Collection<String> excludedCalendarIds) {
-        super(cr);
-        mExcludedCalendarIds = excludedCalendarIds;
+                              @NonNull QueryExecutor executor,
+                              @NonNull EventCache cache,
+                              @Nullable EventMirror mirror,
+                              @Nullable RecurrenceExpander recurrences) {
+        super(Looper.getMainLooper());
+        mContentResolver = cr;
+        mExecutor = executor;
+        mCache = cache;
+        mMirror = mirror;
+        mRecurrences = recurrences;
     }
 
     /**
-     * Starts background query for events from given start time to given end time
-     * Results will be handled asynchronously on main thread
-     * via {@link #handleQueryComplete(int, Object, EventCursor)}
+     * Starts background query for events from given start time to given end time,
+     * with {@link QueryExecutor#PRIORITY_VISIBLE} priority
      * @param cookie             cookie object to be passed back on complete
      * @param startTimeMillis    start time in milliseconds
      * @param endTimeMillis      end time in milliseconds
-     * @see {@link #handleQueryComplete(int, Object, EventCursor)}
+     * @see {@link #startQuery(Object, long, long, int)}
      */
     public final void startQuery(Object cookie, long startTimeMillis, long endTimeMillis) {
-        final String utcStart = String.valueOf(CalendarUtils.toUtcTimeZone(startTimeMillis)),
+        startQuery(cookie, startTimeMillis, endTimeMillis, QueryExecutor.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Starts background query for events from given start time to given end time.
+     * Months not loaded in {@link EventCache} are queried from provider first,
+     * results of all calendars are then read from cache, and handled
+     * asynchronously on main thread via {@link #handleQueryComplete(int, Object, EventSnapshot)}.
+     * If the same query is already in flight, this request is coalesced onto it, raising
+     * priority of its provider queries if needed, and results are handled once per
+     * distinct cookie.
+     * @param cookie             cookie object to be passed back on complete
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @param priority           one of {@link QueryExecutor} priorities
+     * @see {@link #handleQueryComplete(int, Object, EventSnapshot)}
+     * @see {@link #cancelQueries(long, long)}
+     */
+    public final void startQuery(Object cookie, long startTimeMillis, long endTimeMillis,
+                                 int priority) {
+        String key = startTimeMillis + "," + endTimeMillis;
+        Query query = mQueries.get(key);
+        if (query != null) {
+            if (!query.mCookies.contains(cookie)) {
+                query.mCookies.add(cookie);
+            }
+            if (priority < query.mPriority) {
+                query.mPriority = priority;
+                for (Fill fill : query.mFills) {
+                    fill.promote(priority);
+                }
+            }
+            return;
+        }
+        query = new Query(++mLastToken, key, startTimeMillis, endTimeMillis);
+        query.mCookies.add(cookie);
+        query.mPriority = priority;
+        mQueries.put(key, query);
+        // keep months loaded for this query resident until all of them are loaded
+        mCache.retain(query, startTimeMillis, endTimeMillis);
+        fill(query);
+    }
+
+    /**
+     * Cancels query in flight with given token.
+     * Provider queries no other query depends on are removed from {@link QueryExecutor}
+     * if queued, results of running ones are still cached once complete.
+     * @param token    query token, as passed to
+     *                 {@link #handleQueryComplete(int, Object, EventSnapshot)}
+     */
+    public final void cancelOperation(int token) {
+        Iterator<Query> iterator = mQueries.values().iterator();
+        while (iterator.hasNext()) {
+            Query query = iterator.next();
+            if (query.mToken == token) {
+                cancel(query);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels queries in flight whose time period is within given time period.
+     * Provider queries no other query depends on are removed from {@link QueryExecutor}
+     * if queued, results of running ones are still cached once complete.
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @see {@link #startQuery(Object, long, long)}
+     */
+    public final void cancelQueries(long startTimeMillis, long endTimeMillis) {
+        Iterator<Query> iterator = mQueries.values().iterator();
+        while (iterator.hasNext()) {
+            Query query = iterator.next();
+            if (query.mStartTimeMillis >= startTimeMillis &&
+                    query.mEndTimeMillis <= endTimeMillis) {
+                cancel(query);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Keeps cached events of given time period resident on behalf of this handler,
+     * replacing time period previously retained
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @see {@link #release()}
+     */
+    public final void retain(long startTimeMillis, long endTimeMillis) {
+        mCache.retain(this, startTimeMillis, endTimeMillis);
+    }
+
+    /**
+     * Releases cached events previously retained via {@link #retain(long, long)}
+     */
+    public final void release() {
+        mCache.release(this);
+    }
+
+    /**
+     * Handles query results. This will be called on main thread.
+     * @param token       query token
+     * @param cookie      query cookie
+     * @param snapshot    snapshot of {@link android.provider.CalendarContract.Events} rows
+     * @see {@link #startQuery(Object, long, long)}
+     */
+    protected abstract void handleQueryComplete(int token, Object cookie, EventSnapshot snapshot);
+
+    /**
+     * Attaches given query to provider queries for its months not loaded yet,
+     * starting new ones for contiguous runs of months not being loaded,
+     * or delivers results from cache if all months have been loaded
+     */
+    private void fill(Query query) {
+        long month = CalendarUtils.monthFirstDay(query.mStartTimeMillis), gapStart = -1;
+        for (; month < query.mEndTimeMillis; month = CalendarUtils.addMonths(month, 1)) {
+            if (mCache.isMonthLoaded(month)) {
+                gapStart = endGap(query, gapStart, month);
+                continue;
+            }
+            Fill fill = mCache.getFill(month);
+            if (fill == null) {
+                if (gapStart < 0) {
+                    gapStart = month;
+                }
+                continue;
+            }
+            gapStart = endGap(query, gapStart, month);
+            if (!query.mFills.contains(fill)) {
+                attach(query, fill);
+                fill.promote(query.mPriority);
+            }
+        }
+        endGap(query, gapStart, month);
+        if (query.mFills.isEmpty()) {
+            final Query loaded = query;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(loaded);
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts provider query for run of months from given gap start to given month if any,
+     * for given query to depend on
+     * @return  -1 as new gap start
+     */
+    private long endGap(Query query, long gapStartMillis, long monthMillis) {
+        if (gapStartMillis >= 0) {
+            List<String> args = new ArrayList<>();
+            buildSelectionArgs(gapStartMillis, monthMillis, args);
+            Fill fill = new Fill(this, gapStartMillis, monthMillis,
+                    args.toArray(new String[args.size()]));
+            fill.mPriority = query.mPriority;
+            mCache.putFill(fill);
+            mExecutor.execute(fill, fill.mPriority);
+            attach(query, fill);
+        }
+        return -1;
+    }
+
+    private void attach(Query query, Fill fill) {
+        query.mFills.add(fill);
+        fill.mQueries.add(query);
+    }
+
+    private void buildSelectionArgs(long startTimeMillis, long endTimeMillis, List<String> args) {
+        String utcStart = String.valueOf(CalendarUtils.toUtcTimeZone(startTimeMillis)),
                 utcEnd = String.valueOf(CalendarUtils.toUtcTimeZone(endTimeMillis)),
                 localStart = String.valueOf(startTimeMillis),
                 localEnd = String.valueOf(endTimeMillis);
-        List<String> args = new ArrayList<String>() {{
-            add(INT_FALSE); // not deleted
-            add(INT_FALSE); // not all day
-            add(localStart);
-            add(localEnd);
-            add(localStart);
-            add(localStart);
-            add(INT_TRUE); // all day
-            add(utcStart);
-            add(utcEnd);
-            add(utcStart);
-            add(utcStart);
-        }};
-        StringBuilder sb = new StringBuilder(SELECTION);
-        if (!mExcludedCalendarIds.isEmpty()) {
-            Iterator<String> iterator = mExcludedCalendarIds.iterator();
-            sb.append(AND).append("(");
-            while (iterator.hasNext()) {
-                args.add(iterator.next());
-                sb.append(NOT_CALENDAR_ID);
-                if (iterator.hasNext()) {
-                    sb.append(AND);
-                }
+        args.add(INT_FALSE); // not deleted
+        args.add(INT_FALSE); // not all day
+        args.add(localStart);
+        args.add(localEnd);
+        args.add(localStart);
+        args.add(localStart);
+        args.add(INT_TRUE); // all day
+        args.add(utcStart);
+        args.add(utcEnd);
+        args.add(utcStart);
+        args.add(utcStart);
+    }
+
+    private void cancel(Query query) {
+        query.mCancelled = true;
+        mCache.release(query);
+        for (Fill fill : query.mFills) {
+            fill.mQueries.remove(query);
+            if (fill.mQueries.isEmpty() && mExecutor.remove(fill)) {
+                mCache.removeFill(fill);
             }
-            sb.append(")");
         }
-        startQuery(0, cookie, CalendarContract.Events.CONTENT_URI,
-                EventCursor.PROJECTION, sb.toString(), args.toArray(new String[args.size()]), SORT);
+        query.mFills.clear();
     }
 
-    @Override
-    protected final void onQueryComplete(int token, Object cookie, Cursor cursor) {
-        handleQueryComplete(token, cookie, new EventCursor(cursor));
+    /**
+     * Handles completion of given provider query that given query depends on
+     */
+    private void onFillComplete(Query query, Fill fill) {
+        query.mFills.remove(fill);
+        if (query.mFills.isEmpty()) {
+            deliver(query);
+        }
     }
 
     /**
-     * Handles query results. This will be called on main thread.
-     * @param token     query token
-     * @param cookie    query cookie
-     * @param cursor    {@link android.provider.CalendarContract.Events} cursor wrapper
-     * @see {@link #startQuery(int, Object, Uri, String[], String, String[], String)}
+     * Handles results of given query read from cache on main thread, unless it has been
+     * cancelled. Query is filled again if cache has been invalidated in the meantime.
+     */
+    private void deliver(Query query) {
+        if (query.mCancelled) {
+            return;
+        }
+        if (!mCache.isLoaded(query.mStartTimeMillis, query.mEndTimeMillis)) {
+            fill(query);
+            return;
+        }
+        if (mQueries.get(query.mKey) == query) {
+            mQueries.remove(query.mKey);
+        }
+        EventSnapshot snapshot = mCache.get(query.mStartTimeMillis, query.mEndTimeMillis);
+        mCache.release(query);
+        for (int i = 0; i < query.mCookies.size(); i++) {
+            handleQueryComplete(query.mToken, query.mCookies.get(i), snapshot);
+        }
+    }
+
+    /**
+     * Queries events from mirror if it is in sync, or from provider otherwise,
+     * and copies them into a snapshot. This will be called on worker thread.
+     */
+    private static EventSnapshot querySnapshot(@Nullable EventMirror mirror,
+                                               ContentResolver contentResolver,
+                                               long startTimeMillis, long endTimeMillis,
+                                               String[] selectionArgs) {
+        Cursor cursor = null;
+        try {
+            if (mirror != null && mirror.isSynced()) {
+                cursor = mirror.query(startTimeMillis, endTimeMillis);
+            } else {
+                cursor = contentResolver.query(CalendarContract.Events.CONTENT_URI,
+                        EventCursor.PROJECTION, SELECTION, selectionArgs, SORT);
+            }
+            return cursor == null ? EventSnapshot.EMPTY :
+                    EventSnapshot.from(new EventCursor(cursor));
+        } catch (Exception e) {
+            Log.w(TAG, e);
+            return EventSnapshot.EMPTY;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Expands instances of recurring events if given expander is not null,
+     * and appends them to given snapshot. This will be called on worker thread.
      */
-    protected abstract void handleQueryComplete(int token, Object cookie, EventCursor cursor);
+    private static EventSnapshot appendInstances(EventSnapshot snapshot,
+                                                 @Nullable RecurrenceExpander recurrences,
+                                                 long startTimeMillis, long endTimeMillis) {
+        EventSnapshot instances = recurrences == null ? EventSnapshot.EMPTY :
+                recurrences.expand(startTimeMillis, endTimeMillis);
+        if (instances.getCount() == 0) {
+            return snapshot;
+        }
+        EventSnapshot.Builder builder = new EventSnapshot.Builder(
+                snapshot.getCount() + instances.getCount());
+        for (EventSnapshot events : new EventSnapshot[]{snapshot, instances}) {
+            for (int i = 0; i < events.getCount(); i++) {
+                builder.add(events.getId(i), events.getCalendarId(i), events.getTitle(i),
+                        events.getDateTimeStart(i), events.getDateTimeEnd(i),
+                        events.getAllDay(i), events.isRecurring(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Query in flight, accessed on main thread only
+     */
+    private class Query {
+        final int mToken;
+        final String mKey;
+        final long mStartTimeMillis;
+        final long mEndTimeMillis;
+        final List<Object> mCookies = new ArrayList<>(1);
+        final List<Fill> mFills = new ArrayList<>(1); // provider queries not complete yet
+        int mPriority;
+        boolean mCancelled;
+
+        Query(int token, String key, long startTimeMillis, long endTimeMillis) {
+            mToken = token;
+            mKey = key;
+            mStartTimeMillis = startTimeMillis;
+            mEndTimeMillis = endTimeMillis;
+        }
+
+        void onFillComplete(Fill fill) {
+            EventsQueryHandler.this.onFillComplete(this, fill);
+        }
+    }
+
+    /**
+     * Provider query for events of all calendars in a run of months, run on worker thread
+     * and shared by queries of all handlers that depend on these months
+     */
+    static class Fill implements Runnable {
+        final long mStartTimeMillis; // first day of first month
+        final long mEndTimeMillis; // first day of month after last month
+        final List<Query> mQueries = new ArrayList<>(); // accessed on main thread only
+        private final Handler mHandler;
+        private final ContentResolver mContentResolver;
+        private final QueryExecutor mExecutor;
+        private final EventCache mCache;
+        private final EventMirror mMirror;
+        private final RecurrenceExpander mRecurrences;
+        private final String[] mSelectionArgs;
+        int mPriority; // accessed on main thread only
+        boolean mStale; // accessed on main thread only
+
+        Fill(EventsQueryHandler handler, long startTimeMillis, long endTimeMillis,
+             String[] selectionArgs) {
+            mHandler = handler;
+            mContentResolver = handler.mContentResolver;
+            mExecutor = handler.mExecutor;
+            mCache = handler.mCache;
+            mMirror = handler.mMirror;
+            mRecurrences = handler.mRecurrences;
+            mStartTimeMillis = startTimeMillis;
+            mEndTimeMillis = endTimeMillis;
+            mSelectionArgs = selectionArgs;
+        }
+
+        /**
+         * Raises priority of this query to given priority if it is still queued
+         */
+        void promote(int priority) {
+            if (priority < mPriority && mExecutor.remove(this)) {
+                mPriority = priority;
+                mExecutor.execute(this, priority);
+            }
+        }
+
+        @Override
+        public void run() {
+            final EventSnapshot snapshot = appendInstances(querySnapshot(mMirror,
+                    mContentResolver, mStartTimeMillis, mEndTimeMillis, mSelectionArgs),
+                    mRecurrences, mStartTimeMillis, mEndTimeMillis);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    complete(snapshot);
+                }
+            });
+        }
+
+        /**
+         * Caches results unless provider has changed since, then notifies dependent queries
+         */
+        private void complete(EventSnapshot snapshot) {
+            if (!mStale) {
+                mCache.removeFill(this);
+                mCache.put(mStartTimeMillis, mEndTimeMillis, snapshot);
+            }
+            for (Query query : new ArrayList<>(mQueries)) {
+                query.onFillComplete(this);
+            }
+            mQueries.clear();
+            mCache.trim();
+        }
+    }
 }
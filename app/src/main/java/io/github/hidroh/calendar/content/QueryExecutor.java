@@ -0,0 +1,283 @@
+package io.github.hidroh.calendar.content;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Executes Calendar Provider reads on a bounded number of worker threads, in order of priority.
+ * Queued tasks are preempted by tasks of higher priority submitted later, and one worker
+ * is reserved for {@link #PRIORITY_VISIBLE} tasks, so that prefetching or refreshing
+ * never holds up reads for what is being displayed.
+ * Queue size, wait time and completion metrics are kept per priority.
+ */
+public class QueryExecutor {
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_NEAR_VISIBLE = 1;
+    public static final int PRIORITY_PREFETCH = 2;
+    public static final int PRIORITY_BACKGROUND = 3;
+    private static final int PRIORITY_COUNT = 4;
+    private static final int DEFAULT_MAX_WORKERS = 3;
+    private static final String TAG = QueryExecutor.class.getSimpleName();
+    private static QueryExecutor sInstance;
+
+    private final Object mLock = new Object();
+    private final Lane[] mLanes = new Lane[PRIORITY_COUNT];
+    private final List<Worker> mIdleWorkers = new ArrayList<>();
+    private final int mMaxWorkers;
+    private int mWorkers;
+    private int mRunningNonVisible;
+
+    /**
+     * Gets process-wide executor instance
+     * @return  shared executor
+     */
+    public static synchronized QueryExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new QueryExecutor(DEFAULT_MAX_WORKERS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs an executor with given maximum number of worker threads,
+     * which are started lazily as tasks are submitted
+     * @param maxWorkers    maximum number of worker threads, 0 to only run tasks
+     *                      via {@link #runNext()}
+     */
+    @VisibleForTesting
+    QueryExecutor(int maxWorkers) {
+        mMaxWorkers = maxWorkers;
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mLanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Queues given task to be run on a worker thread after queued tasks of same or
+     * higher priority
+     * @param task        task to run
+     * @param priority    one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_NEAR_VISIBLE},
+     *                    {@link #PRIORITY_PREFETCH} or {@link #PRIORITY_BACKGROUND}
+     * @see {@link #remove(Runnable)}
+     */
+    public void execute(Runnable task, int priority) {
+        Worker worker = null;
+        synchronized (mLock) {
+            Lane lane = mLanes[priority];
+            lane.mQueue.addLast(new Task(task, SystemClock.uptimeMillis()));
+            lane.mMaxQueueSize = Math.max(lane.mMaxQueueSize, lane.mQueue.size());
+            if (!mIdleWorkers.isEmpty()) {
+                worker = mIdleWorkers.remove(mIdleWorkers.size() - 1);
+            } else if (mWorkers < mMaxWorkers) {
+                mWorkers++;
+                worker = new Worker();
+            } // otherwise busy workers pick it up once done with current task
+        }
+        if (worker != null) {
+            worker.wake();
+        }
+    }
+
+    /**
+     * Removes given task if it is still queued
+     * @param task    task to remove
+     * @return  true if task has been removed, false if it has started or is unknown
+     */
+    public boolean remove(Runnable task) {
+        synchronized (mLock) {
+            for (Lane lane : mLanes) {
+                Iterator<Task> iterator = lane.mQueue.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().mRunnable == task) {
+                        iterator.remove();
+                        lane.mRemovedCount++;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gets number of queued tasks of given priority
+     * @param priority    task priority
+     * @return  current queue size
+     */
+    public int getQueueSize(int priority) {
+        synchronized (mLock) {
+            return mLanes[priority].mQueue.size();
+        }
+    }
+
+    /**
+     * Gets largest number of tasks of given priority that have been queued at once
+     * @param priority    task priority
+     * @return  queue size high-water mark
+     */
+    public int getMaxQueueSize(int priority) {
+        synchronized (mLock) {
+            return mLanes[priority].mMaxQueueSize;
+        }
+    }
+
+    /**
+     * Gets number of tasks of given priority that have been run
+     * @param priority    task priority
+     * @return  number of completed tasks
+     */
+    public long getCompletedCount(int priority) {
+        synchronized (mLock) {
+            return mLanes[priority].mCompletedCount;
+        }
+    }
+
+    /**
+     * Gets number of tasks of given priority that have been removed before being run
+     * @param priority    task priority
+     * @return  number of removed tasks
+     */
+    public long getRemovedCount(int priority) {
+        synchronized (mLock) {
+            return mLanes[priority].mRemovedCount;
+        }
+    }
+
+    /**
+     * Gets average time tasks of given priority have been queued before being run
+     * @param priority    task priority
+     * @return  average wait time in milliseconds
+     */
+    public long getAverageWaitMillis(int priority) {
+        synchronized (mLock) {
+            Lane lane = mLanes[priority];
+            return lane.mStartedCount == 0 ? 0 : lane.mWaitMillis / lane.mStartedCount;
+        }
+    }
+
+    /**
+     * Runs next queued task that can be run on calling thread
+     * @return  true if a task has been run, false if there is none
+     */
+    @VisibleForTesting
+    boolean runNext() {
+        int priority;
+        Task task;
+        synchronized (mLock) {
+            priority = nextPriority();
+            if (priority < 0) {
+                return false;
+            }
+            task = start(priority);
+        }
+        run(priority, task);
+        return true;
+    }
+
+    /**
+     * Gets priority of next task that can be run, holding back tasks other than
+     * visible ones if all but one worker are running them
+     * @return  task priority or -1 if there is none
+     */
+    private int nextPriority() {
+        boolean reserved = mMaxWorkers > 1 && mRunningNonVisible >= mMaxWorkers - 1;
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            if (!mLanes[i].mQueue.isEmpty() && (i == PRIORITY_VISIBLE || !reserved)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Task start(int priority) {
+        Lane lane = mLanes[priority];
+        Task task = lane.mQueue.removeFirst();
+        lane.mStartedCount++;
+        lane.mWaitMillis += SystemClock.uptimeMillis() - task.mQueuedMillis;
+        if (priority != PRIORITY_VISIBLE) {
+            mRunningNonVisible++;
+        }
+        return task;
+    }
+
+    private void run(int priority, Task task) {
+        try {
+            task.mRunnable.run();
+        } finally {
+            synchronized (mLock) {
+                mLanes[priority].mCompletedCount++;
+                if (priority != PRIORITY_VISIBLE) {
+                    mRunningNonVisible--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Worker thread that runs queued tasks until there is none it can run, then idles
+     * until woken up for new tasks
+     */
+    private class Worker implements Runnable {
+        private final Handler mHandler;
+
+        Worker() {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+
+        void wake() {
+            mHandler.post(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                int priority;
+                Task task;
+                synchronized (mLock) {
+                    priority = nextPriority();
+                    if (priority < 0) {
+                        mIdleWorkers.add(this);
+                        return;
+                    }
+                    task = start(priority);
+                }
+                try {
+                    QueryExecutor.this.run(priority, task);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, e); // keep worker alive for other tasks
+                }
+            }
+        }
+    }
+
+    private static class Lane {
+        final ArrayDeque<Task> mQueue = new ArrayDeque<>();
+        int mMaxQueueSize;
+        long mStartedCount;
+        long mCompletedCount;
+        long mRemovedCount;
+        long mWaitMillis;
+    }
+
+    private static class Task {
+        final Runnable mRunnable;
+        final long mQueuedMillis;
+
+        Task(Runnable runnable, long queuedMillis) {
+            mRunnable = runnable;
+            mQueuedMillis = queuedMillis;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package io.github.hidroh.calendar.content;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.CalendarContract;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+/**
+ * Process-wide expander of recurring {@link CalendarContract.Events} series into instances,
+ * in the same shape as {@link EventSnapshot} rows of single events.
+ * RRULE, RDATE, EXRULE and EXDATE of all series, and original instance times of their
+ * modified or cancelled instances, are read from provider once, and reloaded upon provider
+ * changes. Instances are expanded lazily by month and cached per series; series that
+ * have not changed since previous load keep their expanded months.
+ * This can be used from any thread.
+ */
+public class RecurrenceExpander {
+
+    /**
+     * Selects events that are neither recurring series, which are expanded by
+     * {@link RecurrenceExpander}, nor cancelled instances of a series
+     */
+    static final String SELECTION_SINGLE = "(" +
+            CalendarContract.Events.RRULE + " IS NULL AND " +
+            CalendarContract.Events.RDATE + " IS NULL AND (" +
+            CalendarContract.Events.ORIGINAL_ID + " IS NULL OR " +
+            CalendarContract.Events.STATUS + " IS NULL OR " +
+            CalendarContract.Events.STATUS + "!=" + CalendarContract.Events.STATUS_CANCELED +
+            "))";
+    @VisibleForTesting static final String[] PROJECTION = new String[]{
+            CalendarContract.Events._ID,
+            CalendarContract.Events.CALENDAR_ID,
+            CalendarContract.Events.TITLE,
+            CalendarContract.Events.DTSTART,
+            CalendarContract.Events.DTEND,
+            CalendarContract.Events.DURATION,
+            CalendarContract.Events.ALL_DAY,
+            CalendarContract.Events.EVENT_TIMEZONE,
+            CalendarContract.Events.RRULE,
+            CalendarContract.Events.RDATE,
+            CalendarContract.Events.EXRULE,
+            CalendarContract.Events.EXDATE,
+            CalendarContract.Events.LAST_DATE
+    };
+    @VisibleForTesting static final String[] EXCEPTION_PROJECTION = new String[]{
+            CalendarContract.Events.ORIGINAL_ID,
+            CalendarContract.Events.ORIGINAL_INSTANCE_TIME
+    };
+    @VisibleForTesting static final int MAX_WINDOWS = 24; // expanded months per series
+    private static final String TAG = RecurrenceExpander.class.getSimpleName();
+    private static final String SELECTION_SERIES = CalendarContract.Events.DELETED + "=0 AND (" +
+            CalendarContract.Events.RRULE + " IS NOT NULL OR " +
+            CalendarContract.Events.RDATE + " IS NOT NULL)";
+    private static final String SELECTION_EXCEPTIONS = CalendarContract.Events.DELETED +
+            "=0 AND " + CalendarContract.Events.ORIGINAL_ID + " IS NOT NULL";
+    private static final int PROJECTION_INDEX_ID = 0;
+    private static final int PROJECTION_INDEX_CALENDAR_ID = 1;
+    private static final int PROJECTION_INDEX_TITLE = 2;
+    private static final int PROJECTION_INDEX_DTSTART = 3;
+    private static final int PROJECTION_INDEX_DTEND = 4;
+    private static final int PROJECTION_INDEX_DURATION = 5;
+    private static final int PROJECTION_INDEX_ALL_DAY = 6;
+    private static final int PROJECTION_INDEX_EVENT_TIMEZONE = 7;
+    private static final int PROJECTION_INDEX_RRULE = 8;
+    private static final int PROJECTION_INDEX_RDATE = 9;
+    private static final int PROJECTION_INDEX_EXRULE = 10;
+    private static final int PROJECTION_INDEX_EXDATE = 11;
+    private static final int PROJECTION_INDEX_LAST_DATE = 12;
+    private static RecurrenceExpander sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final EventsChangeDispatcher.OnEventsChangeListener mEventsChangeListener =
+            new EventsChangeDispatcher.OnEventsChangeListener() {
+                @Override
+                public void onEventsChange() {
+                    invalidate();
+                }
+            };
+    private final Map<Long, Series> mSeries = new HashMap<>(); // by event ID
+    private volatile boolean mDirty = true;
+    private String mTimeZoneId; // of expanded months
+
+    /**
+     * Gets process-wide expander instance, which reloads series upon provider changes
+     * @param context    context to observe and query provider
+     * @return  shared expander
+     */
+    public static synchronized RecurrenceExpander getInstance(Context context) {
+        ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+        EventsChangeDispatcher dispatcher = EventsChangeDispatcher.getInstance(context);
+        if (sInstance == null || sInstance.mContentResolver != contentResolver) {
+            if (sInstance != null) { // replaced, stop observing on its behalf
+                dispatcher.removeContentListener(sInstance.mEventsChangeListener);
+            }
+            sInstance = new RecurrenceExpander(contentResolver);
+            dispatcher.addContentListener(sInstance.mEventsChangeListener);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    RecurrenceExpander(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Marks series as changed, so that they are reloaded on next expansion
+     */
+    public void invalidate() {
+        mDirty = true;
+    }
+
+    /**
+     * Expands instances of all series that start within given time period, or start before
+     * and end after its start, reloading series first if they have changed.
+     * This should be called on worker thread.
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @return  snapshot of instances, with ID of their series and flagged as recurring
+     */
+    public synchronized EventSnapshot expand(long startTimeMillis, long endTimeMillis) {
+        if (mDirty) {
+            load();
+        }
+        String timeZoneId = TimeZone.getDefault().getID();
+        if (!timeZoneId.equals(mTimeZoneId)) { // expanded months are in local time
+            mTimeZoneId = timeZoneId;
+            for (Series series : mSeries.values()) {
+                series.mWindows.clear();
+            }
+        }
+        List<Series> expanded = new ArrayList<>();
+        List<long[]> instances = new ArrayList<>();
+        int count = 0;
+        for (Series series : mSeries.values()) {
+            long[] starts = series.get(startTimeMillis, endTimeMillis);
+            if (starts.length > 0) {
+                expanded.add(series);
+                instances.add(starts);
+                count += starts.length;
+            }
+        }
+        EventSnapshot.Builder builder = new EventSnapshot.Builder(count);
+        for (int i = 0; i < expanded.size(); i++) {
+            Series series = expanded.get(i);
+            for (long start : instances.get(i)) {
+                builder.add(series.mId, series.mCalendarId, series.mTitle,
+                        series.toLocal(start), series.toLocal(start + series.mDurationMillis),
+                        series.mAllDay, true);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Replaces series with given rows, keeping expanded months of unchanged series
+     * @param series        rows of {@link #PROJECTION} columns
+     * @param exceptions    rows of {@link #EXCEPTION_PROJECTION} columns, or null if none
+     */
+    @VisibleForTesting
+    synchronized void load(Cursor series, @Nullable Cursor exceptions) {
+        mDirty = false;
+        update(series, exceptions);
+    }
+
+    @VisibleForTesting
+    synchronized Series getSeries(long id) {
+        return mSeries.get(id);
+    }
+
+    private void load() {
+        mDirty = false; // changes from now on need another load
+        Cursor series = null, exceptions = null;
+        try {
+            series = mContentResolver.query(CalendarContract.Events.CONTENT_URI,
+                    PROJECTION, SELECTION_SERIES, null, null);
+            exceptions = mContentResolver.query(CalendarContract.Events.CONTENT_URI,
+                    EXCEPTION_PROJECTION, SELECTION_EXCEPTIONS, null, null);
+            if (series != null) {
+                update(series, exceptions);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        } finally {
+            if (series != null) {
+                series.close();
+            }
+            if (exceptions != null) {
+                exceptions.close();
+            }
+        }
+    }
+
+    private void update(Cursor series, @Nullable Cursor exceptions) {
+        Map<Long, List<Long>> exceptionTimes = new HashMap<>();
+        if (exceptions != null) {
+            exceptions.moveToPosition(-1);
+            while (exceptions.moveToNext()) {
+                if (exceptions.isNull(0) || exceptions.isNull(1)) {
+                    continue;
+                }
+                List<Long> times = exceptionTimes.get(exceptions.getLong(0));
+                if (times == null) {
+                    times = new ArrayList<>();
+                    exceptionTimes.put(exceptions.getLong(0), times);
+                }
+                times.add(exceptions.getLong(1));
+            }
+        }
+        Map<Long, Series> loaded = new HashMap<>();
+        series.moveToPosition(-1);
+        while (series.moveToNext()) {
+            long id = series.getLong(PROJECTION_INDEX_ID);
+            List<Long> times = exceptionTimes.get(id);
+            long[] exceptionArray = new long[times == null ? 0 : times.size()];
+            for (int i = 0; i < exceptionArray.length; i++) {
+                exceptionArray[i] = times.get(i);
+            }
+            Arrays.sort(exceptionArray);
+            StringBuilder definition = new StringBuilder();
+            for (int i = 0; i < PROJECTION.length; i++) {
+                definition.append(series.getString(i)).append('\n');
+            }
+            definition.append(Arrays.toString(exceptionArray));
+            Series previous = mSeries.get(id);
+            if (previous != null && previous.mDefinition.equals(definition.toString())) {
+                loaded.put(id, previous);
+            } else {
+                loaded.put(id, new Series(series, exceptionArray, definition.toString()));
+            }
+        }
+        mSeries.clear();
+        mSeries.putAll(loaded);
+    }
+
+    /**
+     * Recurring event, with its instances expanded by local month
+     */
+    static class Series {
+        final long mId;
+        final long mCalendarId;
+        final String mTitle;
+        final long mStartTimeMillis; // of first instance, in UTC for all-day series
+        final long mDurationMillis;
+        final boolean mAllDay;
+        final String mDefinition; // column values, to detect changes
+        final Map<Long, long[]> mWindows; // instance start times by local month
+        private final TimeZone mTimeZone;
+        private final long mLastTimeMillis; // end of last instance
+        @Nullable private final RecurrenceRule mRule;
+        @Nullable private final RecurrenceRule mExRule;
+        private final long[] mRDates;
+        private final long[] mExDates; // including original times of modified instances
+
+        Series(Cursor cursor, long[] exceptions, String definition) {
+            mId = cursor.getLong(PROJECTION_INDEX_ID);
+            mCalendarId = cursor.getLong(PROJECTION_INDEX_CALENDAR_ID);
+            mTitle = cursor.getString(PROJECTION_INDEX_TITLE);
+            mStartTimeMillis = cursor.getLong(PROJECTION_INDEX_DTSTART);
+            mAllDay = cursor.getInt(PROJECTION_INDEX_ALL_DAY) == 1;
+            mDefinition = definition;
+            String timeZone = cursor.getString(PROJECTION_INDEX_EVENT_TIMEZONE);
+            if (mAllDay) { // all-day time in Calendar Provider is midnight in UTC
+                mTimeZone = TimeZone.getTimeZone(CalendarUtils.TIMEZONE_UTC);
+            } else if (TextUtils.isEmpty(timeZone)) {
+                mTimeZone = TimeZone.getDefault();
+            } else {
+                mTimeZone = TimeZone.getTimeZone(timeZone);
+            }
+            mDurationMillis = parseDuration(cursor);
+            mLastTimeMillis = cursor.isNull(PROJECTION_INDEX_LAST_DATE) ? Long.MAX_VALUE :
+                    cursor.getLong(PROJECTION_INDEX_LAST_DATE);
+            mRule = parseRule(cursor.getString(PROJECTION_INDEX_RRULE));
+            mExRule = parseRule(cursor.getString(PROJECTION_INDEX_EXRULE));
+            mRDates = parseDates(cursor.getString(PROJECTION_INDEX_RDATE));
+            long[] exDates = parseDates(cursor.getString(PROJECTION_INDEX_EXDATE));
+            mExDates = Arrays.copyOf(exDates, exDates.length + exceptions.length);
+            System.arraycopy(exceptions, 0, mExDates, exDates.length, exceptions.length);
+            Arrays.sort(mExDates);
+            mWindows = new LinkedHashMap<Long, long[]>(16, .75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                    return size() > MAX_WINDOWS;
+                }
+            };
+        }
+
+        /**
+         * Gets start times of instances that start within given local time period,
+         * or start before and end after its start, in order
+         */
+        long[] get(long startTimeMillis, long endTimeMillis) {
+            if (toLocal(mStartTimeMillis) >= endTimeMillis ||
+                    mLastTimeMillis != Long.MAX_VALUE &&
+                            toLocal(mLastTimeMillis) <= startTimeMillis) {
+                return new long[0];
+            }
+            List<Long> result = new ArrayList<>();
+            long month = CalendarUtils.monthFirstDay(Math.max(
+                    startTimeMillis - mDurationMillis, toLocal(mStartTimeMillis)));
+            for (; month < endTimeMillis; month = CalendarUtils.addMonths(month, 1)) {
+                for (long start : window(month)) {
+                    long localStart = toLocal(start),
+                            localEnd = toLocal(start + mDurationMillis);
+                    if (localStart >= startTimeMillis ?
+                            localStart < endTimeMillis : localEnd > startTimeMillis) {
+                        result.add(start);
+                    }
+                }
+            }
+            long[] starts = new long[result.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = result.get(i);
+            }
+            return starts;
+        }
+
+        long toLocal(long timeMillis) {
+            return mAllDay ? CalendarUtils.toLocalTimeZone(timeMillis) : timeMillis;
+        }
+
+        private long fromLocal(long timeMillis) {
+            return mAllDay ? CalendarUtils.toUtcTimeZone(timeMillis) : timeMillis;
+        }
+
+        private long[] window(long monthMillis) {
+            long[] window = mWindows.get(monthMillis);
+            if (window == null) {
+                window = expand(fromLocal(monthMillis),
+                        fromLocal(CalendarUtils.addMonths(monthMillis, 1)));
+                mWindows.put(monthMillis, window);
+            }
+            return window;
+        }
+
+        /**
+         * Expands instances that start within given time period, in order
+         */
+        private long[] expand(long startTimeMillis, long endTimeMillis) {
+            List<Long> instances = new ArrayList<>();
+            // first instance always counts, even if it does not match rule
+            if (mStartTimeMillis >= startTimeMillis && mStartTimeMillis < endTimeMillis) {
+                instances.add(mStartTimeMillis);
+            }
+            if (mRule != null) {
+                generate(mRule, startTimeMillis, endTimeMillis, instances);
+            }
+            for (long rDate : mRDates) {
+                if (rDate >= startTimeMillis && rDate < endTimeMillis) {
+                    instances.add(rDate);
+                }
+            }
+            List<Long> excluded = new ArrayList<>();
+            if (mExRule != null) {
+                generate(mExRule, startTimeMillis, endTimeMillis, excluded);
+            }
+            Collections.sort(instances);
+            List<Long> result = new ArrayList<>(instances.size());
+            for (Long instance : instances) {
+                if ((result.isEmpty() || !result.get(result.size() - 1).equals(instance)) &&
+                        Arrays.binarySearch(mExDates, instance) < 0 &&
+                        !excluded.contains(instance)) {
+                    result.add(instance);
+                }
+            }
+            long[] window = new long[result.size()];
+            for (int i = 0; i < window.length; i++) {
+                window[i] = result.get(i);
+            }
+            return window;
+        }
+
+        /**
+         * Generates instances of given rule that start within given time period.
+         * Rules bounded by count are generated from their first period, others from
+         * a period just before given time period.
+         */
+        private void generate(RecurrenceRule rule, long startTimeMillis, long endTimeMillis,
+                              List<Long> result) {
+            Calendar first = Calendar.getInstance(mTimeZone),
+                    scratch = Calendar.getInstance(mTimeZone);
+            first.setTimeInMillis(mStartTimeMillis);
+            int period = rule.mCount > 0 ? 0 :
+                    rule.periodBefore(first, startTimeMillis, scratch), count = 0;
+            List<Long> candidates = new ArrayList<>();
+            while (true) {
+                candidates.clear();
+                long periodStart = rule.expand(first, period, scratch, candidates);
+                if (periodStart >= endTimeMillis || periodStart > rule.mUntilMillis) {
+                    return;
+                }
+                if (period == 0 && !candidates.contains(mStartTimeMillis)) {
+                    count++; // first instance off rule
+                }
+                for (long candidate : candidates) {
+                    if (candidate < mStartTimeMillis) {
+                        continue;
+                    }
+                    if (candidate >= endTimeMillis || candidate > rule.mUntilMillis ||
+                            rule.mCount > 0 && count >= rule.mCount) {
+                        return;
+                    }
+                    count++;
+                    if (candidate >= startTimeMillis) {
+                        result.add(candidate);
+                    }
+                }
+                period++;
+            }
+        }
+
+        private long parseDuration(Cursor cursor) {
+            String duration = cursor.getString(PROJECTION_INDEX_DURATION);
+            if (!TextUtils.isEmpty(duration)) {
+                try {
+                    return Math.max(0, RecurrenceRule.parseDuration(duration));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, e);
+                }
+            }
+            if (!cursor.isNull(PROJECTION_INDEX_DTEND)) {
+                return Math.max(0, cursor.getLong(PROJECTION_INDEX_DTEND) - mStartTimeMillis);
+            }
+            return mAllDay ? DateUtils.DAY_IN_MILLIS : 0;
+        }
+
+        @Nullable
+        private RecurrenceRule parseRule(@Nullable String rule) {
+            if (TextUtils.isEmpty(rule)) {
+                return null;
+            }
+            try {
+                return RecurrenceRule.parse(rule, mTimeZone);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, e); // only first instance and RDATE will be expanded
+                return null;
+            }
+        }
+
+        private long[] parseDates(@Nullable String dates) {
+            try {
+                return RecurrenceRule.parseDateTimes(dates, mTimeZone);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, e);
+                return new long[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package io.github.hidroh.calendar.content;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Recurrence rule as in RFC 5545 RRULE and EXRULE properties, of DAILY, WEEKLY, MONTHLY
+ * or YEARLY frequency, with INTERVAL, COUNT, UNTIL, BYDAY, BYMONTHDAY, BYMONTH, BYSETPOS
+ * and WKST parts. Instances keep wall-clock time of first instance in its time zone,
+ * and are generated one period of rule frequency at a time, so that a time period
+ * can be expanded without expanding all periods before it.
+ */
+class RecurrenceRule {
+
+    static final int FREQ_DAILY = 0;
+    static final int FREQ_WEEKLY = 1;
+    static final int FREQ_MONTHLY = 2;
+    static final int FREQ_YEARLY = 3;
+    private static final String[] FREQUENCIES = {"DAILY", "WEEKLY", "MONTHLY", "YEARLY"};
+    // indexed by Calendar day of week - 1
+    private static final String[] WEEKDAYS = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+    private static final int[] EMPTY = new int[0];
+    private static final TimeZone UTC_TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    final int mFreq;
+    int mInterval = 1;
+    int mCount; // 0 if not bounded by count
+    long mUntilMillis = Long.MAX_VALUE; // inclusive
+    int[] mByDay = EMPTY; // Calendar day of week
+    int[] mByDayOrdinals = EMPTY; // 0 for every such weekday of period
+    int[] mByMonthDay = EMPTY;
+    int[] mByMonth = EMPTY; // 1 to 12, sorted
+    int[] mBySetPos = EMPTY;
+    int mWeekStart = Calendar.MONDAY;
+
+    /**
+     * Parses given recurrence rule
+     * @param rule        rule value, e.g. FREQ=WEEKLY;BYDAY=MO,WE
+     * @param timeZone    time zone of first instance, for UNTIL values without time zone
+     * @return  parsed rule
+     * @throws IllegalArgumentException if rule is malformed or has unsupported parts
+     */
+    static RecurrenceRule parse(String rule, TimeZone timeZone) {
+        String freq = null;
+        String[] parts = rule.toUpperCase(Locale.US).split(";");
+        for (String part : parts) {
+            if (part.startsWith("FREQ=")) {
+                freq = part.substring(5);
+            }
+        }
+        int index = freq == null ? -1 : Arrays.asList(FREQUENCIES).indexOf(freq);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unsupported frequency: " + rule);
+        }
+        RecurrenceRule recurrenceRule = new RecurrenceRule(index);
+        for (String part : parts) {
+            int separator = part.indexOf('=');
+            if (separator < 0) {
+                if (TextUtils.isEmpty(part)) {
+                    continue;
+                }
+                throw new IllegalArgumentException("Malformed part: " + rule);
+            }
+            String name = part.substring(0, separator), value = part.substring(separator + 1);
+            switch (name) {
+                case "FREQ":
+                    break;
+                case "INTERVAL":
+                    recurrenceRule.mInterval = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "COUNT":
+                    recurrenceRule.mCount = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "UNTIL":
+                    recurrenceRule.mUntilMillis = parseDateTime(value, timeZone);
+                    break;
+                case "BYDAY":
+                    recurrenceRule.parseByDay(value.split(","));
+                    break;
+                case "BYMONTHDAY":
+                    recurrenceRule.mByMonthDay = parseInts(value, -31, 31);
+                    break;
+                case "BYMONTH":
+                    recurrenceRule.mByMonth = parseInts(value, 1, 12);
+                    Arrays.sort(recurrenceRule.mByMonth);
+                    break;
+                case "BYSETPOS":
+                    recurrenceRule.mBySetPos = parseInts(value, -366, 366);
+                    break;
+                case "WKST":
+                    recurrenceRule.mWeekStart = parseWeekday(value);
+                    break;
+                default: // BYSECOND, BYMINUTE, BYHOUR, BYYEARDAY, BYWEEKNO, RSCALE...
+                    throw new IllegalArgumentException("Unsupported part: " + rule);
+            }
+        }
+        return recurrenceRule;
+    }
+
+    /**
+     * Parses given RFC 5545 date or date-time value
+     * @param value       value, e.g. 20150105, 20150105T100000 or 20150105T100000Z
+     * @param timeZone    time zone of value if it is not in UTC
+     * @return  time in milliseconds
+     * @throws IllegalArgumentException if value is malformed
+     */
+    static long parseDateTime(String value, TimeZone timeZone) {
+        if (value.length() < 8) {
+            throw new IllegalArgumentException("Malformed date: " + value);
+        }
+        int hour = 0, minute = 0, second = 0;
+        if (value.length() >= 15 && value.charAt(8) == 'T') {
+            hour = Integer.parseInt(value.substring(9, 11));
+            minute = Integer.parseInt(value.substring(11, 13));
+            second = Integer.parseInt(value.substring(13, 15));
+            if (value.endsWith("Z")) {
+                timeZone = UTC_TIME_ZONE;
+            }
+        }
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(Integer.parseInt(value.substring(0, 4)),
+                Integer.parseInt(value.substring(4, 6)) - 1,
+                Integer.parseInt(value.substring(6, 8)),
+                hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Parses given list of dates as stored in RDATE and EXDATE columns of Calendar Provider,
+     * i.e. comma separated dates, optionally prefixed by their time zone ID and a semicolon,
+     * one line per time zone
+     * @param value       column value
+     * @param timeZone    time zone of dates without time zone
+     * @return  times in milliseconds, sorted
+     * @throws IllegalArgumentException if any date is malformed
+     */
+    static long[] parseDateTimes(@Nullable String value, TimeZone timeZone) {
+        if (TextUtils.isEmpty(value)) {
+            return new long[0];
+        }
+        List<Long> times = new ArrayList<>();
+        for (String line : value.split("\n")) {
+            TimeZone lineTimeZone = timeZone;
+            int separator = line.indexOf(';');
+            if (separator >= 0) {
+                lineTimeZone = TimeZone.getTimeZone(line.substring(0, separator));
+                line = line.substring(separator + 1);
+            }
+            for (String date : line.split(",")) {
+                if (!TextUtils.isEmpty(date.trim())) {
+                    times.add(parseDateTime(date.trim(), lineTimeZone));
+                }
+            }
+        }
+        long[] result = new long[times.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = times.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Parses given RFC 5545 duration, as stored in DURATION column of Calendar Provider
+     * @param value    duration, e.g. PT1H, P1D or P3600S
+     * @return  duration in milliseconds
+     * @throws IllegalArgumentException if value is malformed
+     */
+    static long parseDuration(String value) {
+        int start = 0, sign = 1;
+        if (value.startsWith("-") || value.startsWith("+")) {
+            sign = value.charAt(0) == '-' ? -1 : 1;
+            start = 1;
+        }
+        if (value.length() <= start + 1 || value.charAt(start) != 'P') {
+            throw new IllegalArgumentException("Malformed duration: " + value);
+        }
+        long duration = 0, number = -1;
+        for (int i = start + 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = (number < 0 ? 0 : number * 10) + c - '0';
+                continue;
+            }
+            if (c == 'T' && number < 0) {
+                continue;
+            }
+            if (number < 0) {
+                throw new IllegalArgumentException("Malformed duration: " + value);
+            }
+            switch (c) {
+                case 'W':
+                    duration += number * DateUtils.WEEK_IN_MILLIS;
+                    break;
+                case 'D':
+                    duration += number * DateUtils.DAY_IN_MILLIS;
+                    break;
+                case 'H':
+                    duration += number * DateUtils.HOUR_IN_MILLIS;
+                    break;
+                case 'M':
+                    duration += number * DateUtils.MINUTE_IN_MILLIS;
+                    break;
+                case 'S':
+                    duration += number * DateUtils.SECOND_IN_MILLIS;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Malformed duration: " + value);
+            }
+            number = -1;
+        }
+        if (number >= 0) {
+            throw new IllegalArgumentException("Malformed duration: " + value);
+        }
+        return sign * duration;
+    }
+
+    private static int[] parseInts(String value, int min, int max) {
+        String[] values = value.split(",");
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i].startsWith("+") ?
+                    values[i].substring(1) : values[i]);
+            if (result[i] == 0 || result[i] < min || result[i] > max) {
+                throw new IllegalArgumentException("Out of range: " + value);
+            }
+        }
+        return result;
+    }
+
+    private static int parseWeekday(String value) {
+        int index = Arrays.asList(WEEKDAYS).indexOf(value);
+        if (index < 0) {
+            throw new IllegalArgumentException("Malformed weekday: " + value);
+        }
+        return index + 1;
+    }
+
+    private RecurrenceRule(int freq) {
+        mFreq = freq;
+    }
+
+    private void parseByDay(String[] values) {
+        mByDay = new int[values.length];
+        mByDayOrdinals = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (value.length() < 2) {
+                throw new IllegalArgumentException("Malformed weekday: " + value);
+            }
+            mByDay[i] = parseWeekday(value.substring(value.length() - 2));
+            if (value.length() > 2) {
+                String ordinal = value.substring(0, value.length() - 2);
+                mByDayOrdinals[i] = parseInts(ordinal, -53, 53)[0];
+            }
+        }
+    }
+
+    /**
+     * Gets index of a period of this rule that starts no later than given time
+     * @param first         calendar set to first instance, in event time zone
+     * @param timeMillis    time in milliseconds
+     * @param scratch       calendar in event time zone to compute with
+     * @return  period index, counted from the one containing first instance
+     */
+    int periodBefore(Calendar first, long timeMillis, Calendar scratch) {
+        scratch.setTimeInMillis(timeMillis);
+        int months = (scratch.get(Calendar.YEAR) - first.get(Calendar.YEAR)) * 12 +
+                scratch.get(Calendar.MONTH) - first.get(Calendar.MONTH);
+        long periods;
+        switch (mFreq) {
+            case FREQ_DAILY:
+                periods = (timeMillis - first.getTimeInMillis()) / DateUtils.DAY_IN_MILLIS;
+                break;
+            case FREQ_WEEKLY:
+                periods = (timeMillis - first.getTimeInMillis()) / DateUtils.WEEK_IN_MILLIS;
+                break;
+            case FREQ_MONTHLY:
+                periods = months;
+                break;
+            default:
+                periods = scratch.get(Calendar.YEAR) - first.get(Calendar.YEAR);
+                break;
+        }
+        // step back one period for daylight saving shifts and partial weeks
+        return (int) Math.max(0, periods / mInterval - 1);
+    }
+
+    /**
+     * Collects start times of instances in given period of this rule, in order.
+     * Instances are not bounded by first instance, COUNT or UNTIL.
+     * @param first      calendar set to first instance, in event time zone
+     * @param period     period index, counted from the one containing first instance
+     * @param scratch    calendar in event time zone to compute with
+     * @param result     list to add instance start times to
+     * @return  start time of given period in milliseconds
+     */
+    long expand(Calendar first, int period, Calendar scratch, List<Long> result) {
+        int year = first.get(Calendar.YEAR), month = first.get(Calendar.MONTH),
+                day = first.get(Calendar.DAY_OF_MONTH),
+                hour = first.get(Calendar.HOUR_OF_DAY), minute = first.get(Calendar.MINUTE),
+                second = first.get(Calendar.SECOND);
+        List<Long> instances = new ArrayList<>();
+        long periodStart;
+        switch (mFreq) {
+            case FREQ_DAILY: {
+                scratch.clear();
+                scratch.set(year, month, day + period * mInterval);
+                year = scratch.get(Calendar.YEAR);
+                month = scratch.get(Calendar.MONTH);
+                day = scratch.get(Calendar.DAY_OF_MONTH);
+                int length = scratch.getActualMaximum(Calendar.DAY_OF_MONTH);
+                if (matchesMonth(month) &&
+                        (mByMonthDay.length == 0 || matchesMonthDay(day, length)) &&
+                        (mByDay.length == 0 ||
+                                matchesWeekday(scratch.get(Calendar.DAY_OF_WEEK)))) {
+                    instances.add(timeOf(scratch, year, month, day, hour, minute, second));
+                }
+                periodStart = timeOf(scratch, year, month, day, 0, 0, 0);
+                break;
+            }
+            case FREQ_WEEKLY: {
+                int offset = (first.get(Calendar.DAY_OF_WEEK) - mWeekStart + 7) % 7;
+                scratch.clear();
+                scratch.set(year, month, day - offset + period * mInterval * 7);
+                year = scratch.get(Calendar.YEAR);
+                month = scratch.get(Calendar.MONTH);
+                day = scratch.get(Calendar.DAY_OF_MONTH);
+                periodStart = timeOf(scratch, year, month, day, 0, 0, 0);
+                for (int i = 0; i < 7; i++) {
+                    int weekday = (mWeekStart - 1 + i) % 7 + 1;
+                    if (mByDay.length == 0 ? weekday != first.get(Calendar.DAY_OF_WEEK) :
+                            !matchesWeekday(weekday)) {
+                        continue;
+                    }
+                    scratch.clear();
+                    scratch.set(year, month, day + i);
+                    if (matchesMonth(scratch.get(Calendar.MONTH))) {
+                        instances.add(timeOf(scratch, scratch.get(Calendar.YEAR),
+                                scratch.get(Calendar.MONTH), scratch.get(Calendar.DAY_OF_MONTH),
+                                hour, minute, second));
+                    }
+                }
+                break;
+            }
+            case FREQ_MONTHLY: {
+                scratch.clear();
+                scratch.set(year, month + period * mInterval, 1);
+                year = scratch.get(Calendar.YEAR);
+                month = scratch.get(Calendar.MONTH);
+                periodStart = timeOf(scratch, year, month, 1, 0, 0, 0);
+                if (matchesMonth(month)) {
+                    expandMonth(scratch, year, month, day, hour, minute, second, instances);
+                }
+                break;
+            }
+            default: {
+                year += period * mInterval;
+                periodStart = timeOf(scratch, year, Calendar.JANUARY, 1, 0, 0, 0);
+                if (mByMonth.length == 0 && mByMonthDay.length == 0 && mByDay.length > 0) {
+                    // weekdays of year, ordinals are within year
+                    int length = scratch.getActualMaximum(Calendar.DAY_OF_YEAR),
+                            firstWeekday = scratch.get(Calendar.DAY_OF_WEEK);
+                    for (int i = 1; i <= length; i++) {
+                        if (matchesWeekday(i, length, (firstWeekday - 1 + i - 1) % 7 + 1)) {
+                            scratch.clear();
+                            scratch.set(year, Calendar.JANUARY, i);
+                            instances.add(timeOf(scratch, year, scratch.get(Calendar.MONTH),
+                                    scratch.get(Calendar.DAY_OF_MONTH), hour, minute, second));
+                        }
+                    }
+                } else if (mByMonth.length > 0 || mByMonthDay.length > 0) {
+                    for (int i = 0; i < 12; i++) {
+                        // BYMONTHDAY without BYMONTH applies to every month
+                        if (!matchesMonth(i)) {
+                            continue;
+                        }
+                        expandMonth(scratch, year, i, day, hour, minute, second, instances);
+                    }
+                } else {
+                    expandMonth(scratch, year, month, day, hour, minute, second, instances);
+                }
+                break;
+            }
+        }
+        applySetPos(instances, result);
+        return periodStart;
+    }
+
+    /**
+     * Adds instances of given month by BYMONTHDAY and BYDAY, defaulting to given day
+     */
+    private void expandMonth(Calendar scratch, int year, int month, int defaultDay,
+                             int hour, int minute, int second, List<Long> instances) {
+        scratch.clear();
+        scratch.set(year, month, 1);
+        int length = scratch.getActualMaximum(Calendar.DAY_OF_MONTH),
+                firstWeekday = scratch.get(Calendar.DAY_OF_WEEK);
+        for (int i = 1; i <= length; i++) {
+            boolean matches;
+            if (mByMonthDay.length == 0 && mByDay.length == 0) {
+                matches = i == defaultDay;
+            } else {
+                matches = (mByMonthDay.length == 0 || matchesMonthDay(i, length)) &&
+                        (mByDay.length == 0 ||
+                                matchesWeekday(i, length, (firstWeekday - 1 + i - 1) % 7 + 1));
+            }
+            if (matches) {
+                instances.add(timeOf(scratch, year, month, i, hour, minute, second));
+            }
+        }
+    }
+
+    private void applySetPos(List<Long> instances, List<Long> result) {
+        if (mBySetPos.length == 0) {
+            result.addAll(instances);
+            return;
+        }
+        int size = instances.size();
+        for (int i = 0; i < size; i++) {
+            for (int position : mBySetPos) {
+                if (position > 0 ? position - 1 == i : size + position == i) {
+                    result.add(instances.get(i));
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean matchesMonth(int calendarMonth) {
+        if (mByMonth.length == 0) {
+            return true;
+        }
+        for (int month : mByMonth) {
+            if (month == calendarMonth + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesMonthDay(int day, int length) {
+        for (int monthDay : mByMonthDay) {
+            if (monthDay > 0 ? monthDay == day : length + monthDay + 1 == day) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesWeekday(int weekday) {
+        for (int byDay : mByDay) {
+            if (byDay == weekday) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if given day of a month or year period matches BYDAY, including ordinals
+     * @param day        day of period, starting from 1
+     * @param length     number of days in period
+     * @param weekday    Calendar day of week of given day
+     */
+    private boolean matchesWeekday(int day, int length, int weekday) {
+        for (int i = 0; i < mByDay.length; i++) {
+            if (mByDay[i] != weekday) {
+                continue;
+            }
+            int ordinal = mByDayOrdinals[i];
+            if (ordinal == 0 ||
+                    ordinal > 0 && (day - 1) / 7 + 1 == ordinal ||
+                    ordinal < 0 && (length - day) / 7 + 1 == -ordinal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long timeOf(Calendar calendar, int year, int month, int day,
+                               int hour, int minute, int second) {
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+}
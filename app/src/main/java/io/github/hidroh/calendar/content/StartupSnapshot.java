@@ -0,0 +1,319 @@
+package io.github.hidroh.calendar.content;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+/**
+ * Compact binary snapshot of events of all calendars around today, persisted from
+ * {@link EventCache} when app goes to background, so that events can be displayed
+ * immediately on next cold start, before Calendar Provider has been queried.
+ * Snapshot file is memory-mapped on a worker thread, while views are being set up,
+ * and rows are read in place. Snapshot is discarded
+ * if time zone has changed or it does not cover today anymore.
+ * Displayed snapshot events are provisional, and should be reconciled against
+ * fresh query results.
+ */
+public class StartupSnapshot {
+
+    @VisibleForTesting static final String FILE_NAME = "startup_snapshot";
+    private static final String TAG = StartupSnapshot.class.getSimpleName();
+    private static final long AWAIT_TIMEOUT_MILLIS = 8;
+    private static final int MAGIC = 0x43414c53; // CALS
+    private static final int VERSION = 2;
+    private static final int FLAG_ALL_DAY = 1;
+    private static final int FLAG_RECURRING = 1 << 1;
+    // id, calendar id, start, end, flags, title index
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 8 + 1 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long mStartTimeMillis;
+    private final long mEndTimeMillis;
+    private final ByteBuffer mRecords;
+    private final int mCount;
+    private final String[] mTitles;
+
+    /**
+     * Persists events of loaded months around today from process-wide {@link EventCache},
+     * from previous month to next month, on a background thread
+     * @param context    context to get cache and cache directory
+     */
+    public static void save(Context context) {
+        EventCache cache = EventCache.getInstance(context);
+        long month = CalendarUtils.monthFirstDay(CalendarUtils.today());
+        if (!cache.isMonthLoaded(month)) {
+            return;
+        }
+        long startTimeMillis = month, endTimeMillis = CalendarUtils.addMonths(month, 1);
+        if (cache.isMonthLoaded(CalendarUtils.addMonths(month, -1))) {
+            startTimeMillis = CalendarUtils.addMonths(month, -1);
+        }
+        if (cache.isMonthLoaded(endTimeMillis)) {
+            endTimeMillis = CalendarUtils.addMonths(endTimeMillis, 1);
+        }
+        final EventSnapshot events = cache.get(startTimeMillis, endTimeMillis);
+        final File file = new File(context.getCacheDir(), FILE_NAME);
+        final long start = startTimeMillis, end = endTimeMillis;
+        QueryExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, start, end, events);
+            }
+        }, QueryExecutor.PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Maps previously persisted snapshot into memory
+     * @param context    context to get cache directory
+     * @return  snapshot that covers today, or null if none
+     */
+    @Nullable
+    public static StartupSnapshot read(Context context) {
+        StartupSnapshot snapshot = read(new File(context.getCacheDir(), FILE_NAME));
+        if (snapshot == null) {
+            return null;
+        }
+        long today = CalendarUtils.today();
+        return today >= snapshot.mStartTimeMillis && today < snapshot.mEndTimeMillis ?
+                snapshot : null;
+    }
+
+    /**
+     * Starts mapping previously persisted snapshot into memory on a worker thread
+     * @param context    context to get cache directory
+     * @return  pending read, see {@link #await(Future)}
+     */
+    public static Future<StartupSnapshot> readAsync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        FutureTask<StartupSnapshot> task = new FutureTask<>(new Callable<StartupSnapshot>() {
+            @Override
+            public StartupSnapshot call() throws Exception {
+                return read(appContext);
+            }
+        });
+        QueryExecutor.getInstance().execute(task, QueryExecutor.PRIORITY_VISIBLE);
+        return task;
+    }
+
+    /**
+     * Waits up to {@link #AWAIT_TIMEOUT_MILLIS} for given pending read to complete,
+     * which has usually completed by the time its result is needed.
+     * This will be called on main thread, which falls back to provider results
+     * rather than being blocked by a slow read.
+     * @param pending    pending read started by {@link #readAsync(Context)}
+     * @return  snapshot that covers today, or null if none or not read in time
+     */
+    @Nullable
+    public static StartupSnapshot await(Future<StartupSnapshot> pending) {
+        try {
+            return pending.get(AWAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, e);
+            return null;
+        } catch (TimeoutException e) {
+            pending.cancel(false);
+            return null;
+        }
+    }
+
+    /**
+     * Writes given events to given file, replacing previous snapshot atomically.
+     * This will be called on worker thread.
+     */
+    @VisibleForTesting
+    static void write(File file, long startTimeMillis, long endTimeMillis,
+                      EventSnapshot events) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(TimeZone.getDefault().getID());
+            out.writeLong(startTimeMillis);
+            out.writeLong(endTimeMillis);
+            out.writeInt(events.getCount());
+            List<String> titles = new ArrayList<>();
+            Map<String, Integer> titleTable = new HashMap<>();
+            for (int i = 0; i < events.getCount(); i++) {
+                String title = events.getTitle(i);
+                Integer titleIndex = titleTable.get(title);
+                if (titleIndex == null) {
+                    titleIndex = titles.size();
+                    titleTable.put(title, titleIndex);
+                    titles.add(title);
+                }
+                out.writeLong(events.getId(i));
+                out.writeLong(events.getCalendarId(i));
+                out.writeLong(events.getDateTimeStart(i));
+                out.writeLong(events.getDateTimeEnd(i));
+                out.writeByte((events.getAllDay(i) ? FLAG_ALL_DAY : 0) |
+                        (events.isRecurring(i) ? FLAG_RECURRING : 0));
+                out.writeInt(titleIndex);
+            }
+            out.writeInt(titles.size());
+            for (String title : titles) {
+                if (title == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] bytes = title.getBytes(UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "Failed to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // no op
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static StartupSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            // mapping stays valid after channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] timeZone = new byte[buffer.getShort() & 0xffff];
+            buffer.get(timeZone);
+            if (!TimeZone.getDefault().getID().equals(new String(timeZone, UTF_8))) {
+                return null; // all-day times have been converted to a different local time
+            }
+            long startTimeMillis = buffer.getLong(), endTimeMillis = buffer.getLong();
+            int count = buffer.getInt();
+            ByteBuffer records = buffer.slice();
+            buffer.position(buffer.position() + count * RECORD_SIZE);
+            String[] titles = new String[buffer.getInt()];
+            for (int i = 0; i < titles.length; i++) {
+                int length = buffer.getInt();
+                if (length >= 0) {
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    titles[i] = new String(bytes, UTF_8);
+                }
+            }
+            return new StartupSnapshot(startTimeMillis, endTimeMillis, records, count, titles);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            return null;
+        } catch (RuntimeException e) { // corrupted file
+            Log.w(TAG, e);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // no op
+                }
+            }
+        }
+    }
+
+    private StartupSnapshot(long startTimeMillis, long endTimeMillis,
+                            ByteBuffer records, int count, String[] titles) {
+        mStartTimeMillis = startTimeMillis;
+        mEndTimeMillis = endTimeMillis;
+        mRecords = records;
+        mCount = count;
+        mTitles = titles;
+    }
+
+    /**
+     * Gets start of time period covered by this snapshot
+     * @return  first day of first month in milliseconds
+     */
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    /**
+     * Gets end of time period covered by this snapshot
+     * @return  first day of month after last month in milliseconds
+     */
+    public long getEndTimeMillis() {
+        return mEndTimeMillis;
+    }
+
+    /**
+     * Checks if given time period is covered by this snapshot
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @return  true if covered, false otherwise
+     */
+    public boolean covers(long startTimeMillis, long endTimeMillis) {
+        return startTimeMillis >= mStartTimeMillis && endTimeMillis <= mEndTimeMillis;
+    }
+
+    /**
+     * Gets persisted events of all calendars that start within given time period,
+     * or start before and end after its start, as in {@link EventCache#get(long, long)}
+     * @param startTimeMillis    start time in milliseconds
+     * @param endTimeMillis      end time in milliseconds
+     * @return  snapshot of events
+     */
+    public EventSnapshot get(long startTimeMillis, long endTimeMillis) {
+        EventSnapshot.Builder builder = new EventSnapshot.Builder(mCount);
+        for (int i = 0; i < mCount; i++) {
+            int offset = i * RECORD_SIZE;
+            long start = mRecords.getLong(offset + 16), end = mRecords.getLong(offset + 24);
+            if (start >= startTimeMillis ? start >= endTimeMillis : end <= startTimeMillis) {
+                continue;
+            }
+            int flags = mRecords.get(offset + 32);
+            builder.add(mRecords.getLong(offset), mRecords.getLong(offset + 8),
+                    mTitles[mRecords.getInt(offset + 33)], start, end,
+                    (flags & FLAG_ALL_DAY) != 0, (flags & FLAG_RECURRING) != 0);
+        }
+        return builder.build();
+    }
+}
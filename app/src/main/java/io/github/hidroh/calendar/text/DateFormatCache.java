@@ -0,0 +1,160 @@
+package io.github.hidroh.calendar.text;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.util.LruCache;
+import android.text.format.DateUtils;
+
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.content.QueryExecutor;
+
+/**
+ * Bounded cache of formatted day, time and month strings, as formatting is locale heavy
+ * and otherwise repeated for every agenda block and bound row.
+ * Day strings are keyed by day since epoch, time strings by minute of day,
+ * month strings by day since epoch of month first day, all in local time zone.
+ * Cache should be invalidated via {@link #invalidate()} upon locale, time format
+ * or time zone change.
+ * @see {@link DateFormatChangeReceiver}
+ */
+public class DateFormatCache {
+
+    @VisibleForTesting static final int DAY_CACHE_SIZE = 256;
+    @VisibleForTesting static final int MONTH_CACHE_SIZE = 24;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    @VisibleForTesting static final LruCache<Long, String> sDays = new LruCache<>(DAY_CACHE_SIZE);
+    private static final LruCache<Long, String> sMonths = new LruCache<>(MONTH_CACHE_SIZE);
+    private static volatile String[] sTimes = new String[MINUTES_PER_DAY];
+    private static volatile TimeZone sTimeZone = TimeZone.getDefault();
+    private static final Object sLock = new Object();
+    private static volatile int sGeneration; // guarded by sLock for writes
+
+    /**
+     * Gets formatted day string for given time, e.g. Sunday, March 20
+     * @param context       resources provider
+     * @param timeMillis    time in milliseconds
+     * @return  formatted day string
+     * @see {@link CalendarUtils#toDayString(Context, long)}
+     */
+    public static String getDayString(Context context, long timeMillis) {
+        long key = toEpochDay(timeMillis);
+        String dayString = sDays.get(key);
+        if (dayString == null) {
+            dayString = CalendarUtils.toDayString(context, timeMillis);
+            sDays.put(key, dayString);
+        }
+        return dayString;
+    }
+
+    /**
+     * Gets formatted time string for given time, e.g. 8:30 AM
+     * @param context       resources provider
+     * @param timeMillis    time in milliseconds
+     * @return  formatted time string
+     * @see {@link CalendarUtils#toTimeString(Context, long)}
+     */
+    public static String getTimeString(Context context, long timeMillis) {
+        String[] times = sTimes;
+        int key = toMinuteOfDay(timeMillis);
+        String timeString = times[key];
+        if (timeString == null) {
+            timeString = CalendarUtils.toTimeString(context, timeMillis);
+            times[key] = timeString;
+        }
+        return timeString;
+    }
+
+    /**
+     * Gets formatted month string for given time, e.g. March 2016
+     * @param context       resources provider
+     * @param timeMillis    time in milliseconds
+     * @return  formatted month string
+     * @see {@link CalendarUtils#toMonthString(Context, long)}
+     */
+    public static String getMonthString(Context context, long timeMillis) {
+        long key = toEpochDay(CalendarUtils.monthFirstDay(timeMillis));
+        String monthString = sMonths.get(key);
+        if (monthString == null) {
+            monthString = CalendarUtils.toMonthString(context, timeMillis);
+            sMonths.put(key, monthString);
+        }
+        return monthString;
+    }
+
+    /**
+     * Formats and caches day strings for given days on a background thread
+     * of process-wide {@link QueryExecutor}, behind any provider reads
+     * @param context            resources provider
+     * @param startTimeMillis    time in milliseconds that represents first day
+     * @param days               number of days
+     */
+    public static void prewarmDays(Context context, long startTimeMillis, int days) {
+        QueryExecutor.getInstance().execute(
+                new PrewarmTask(context.getApplicationContext(), startTimeMillis, days),
+                QueryExecutor.PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Clears all cached strings, e.g. upon locale, time format or time zone change
+     */
+    public static void invalidate() {
+        synchronized (sLock) {
+            sGeneration++;
+            sTimeZone = TimeZone.getDefault();
+            sTimes = new String[MINUTES_PER_DAY];
+            sDays.evictAll();
+            sMonths.evictAll();
+        }
+    }
+
+    private static long toEpochDay(long timeMillis) {
+        long localMillis = timeMillis + sTimeZone.getOffset(timeMillis);
+        long epochDay = localMillis / DateUtils.DAY_IN_MILLIS;
+        return localMillis % DateUtils.DAY_IN_MILLIS < 0 ? epochDay - 1 : epochDay;
+    }
+
+    private static int toMinuteOfDay(long timeMillis) {
+        long localMillis = (timeMillis + sTimeZone.getOffset(timeMillis)) %
+                DateUtils.DAY_IN_MILLIS;
+        if (localMillis < 0) {
+            localMillis += DateUtils.DAY_IN_MILLIS;
+        }
+        return (int) (localMillis / DateUtils.MINUTE_IN_MILLIS);
+    }
+
+    @VisibleForTesting
+    static class PrewarmTask implements Runnable {
+        private final Context mContext;
+        private final long mStartTimeMillis;
+        private final int mDays;
+        private final int mGeneration = sGeneration;
+
+        PrewarmTask(Context context, long startTimeMillis, int days) {
+            mContext = context;
+            mStartTimeMillis = startTimeMillis;
+            mDays = days;
+        }
+
+        @Override
+        public void run() {
+            // stop if cache has been invalidated since, to not cache outdated strings
+            for (int i = 0; i < mDays && mGeneration == sGeneration; i++) {
+                long timeMillis = mStartTimeMillis + DateUtils.DAY_IN_MILLIS * i;
+                long key = toEpochDay(timeMillis);
+                if (sDays.get(key) != null) {
+                    continue;
+                }
+                String dayString = CalendarUtils.toDayString(mContext, timeMillis);
+                // recheck as cache may have been invalidated while formatting
+                synchronized (sLock) {
+                    if (mGeneration == sGeneration) {
+                        sDays.put(key, dayString);
+                    }
+                }
+            }
+        }
+    }
+}
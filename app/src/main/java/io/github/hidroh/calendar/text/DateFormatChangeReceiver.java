@@ -0,0 +1,29 @@
+package io.github.hidroh.calendar.text;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.content.EventsChangeDispatcher;
+
+/**
+ * Broadcast receiver that invalidates {@link DateFormatCache} and time zone offsets
+ * cached by {@link CalendarUtils} upon locale, time format or time zone change.
+ * Upon time zone change, events change is also dispatched via {@link EventsChangeDispatcher},
+ * as all-day events are held in local time by caches and visible views.
+ */
+public class DateFormatChangeReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        CalendarUtils.invalidateTimeZone();
+        DateFormatCache.invalidate();
+        String action = intent.getAction();
+        if (!Intent.ACTION_TIMEZONE_CHANGED.equals(action) &&
+                !Intent.ACTION_TIME_SET.equals(action)) {
+            return;
+        }
+        // caches are invalidated before visible views reload in new time zone
+        EventsChangeDispatcher.getInstance(context).notifyChange();
+    }
+}
@@ -13,6 +13,7 @@ import android.location.LocationManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.content.ContextCompat;
@@ -20,13 +21,23 @@ import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.widget.Toast;
 
-import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import io.github.hidroh.calendar.BuildConfig;
 import io.github.hidroh.calendar.CalendarUtils;
 import io.github.hidroh.calendar.R;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
 import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.http.GET;
@@ -35,7 +46,10 @@ import retrofit2.http.Path;
 /**
  * Background service that syncs weather information with remote source,
  * persists information into {@link SharedPreferences},
- * and automatically schedules itself to repeat every 24h
+ * and automatically schedules itself to repeat every 24h.
+ * Forecasts for today and tomorrow are fetched concurrently within a total timeout,
+ * via a client backed by a bounded disk HTTP cache, so that repeated syncs are served
+ * from cache or revalidated conditionally instead of downloaded again.
  */
 public class WeatherSyncService extends IntentService {
 
@@ -58,8 +72,11 @@ public class WeatherSyncService extends IntentService {
     private static final String SEPARATOR = "|";
     // indicate if service is trigger while UI is active, not from alarm
     private static final String EXTRA_ACTIVE = "extra:active";
+    private static final String CACHE_DIRECTORY = "forecast";
+    private static final long CACHE_SIZE_BYTES = 1024 * 1024;
+    private static final long FETCH_TIMEOUT_MILLIS = 20 * DateUtils.SECOND_IN_MILLIS;
 
-    private ForecastIOService mForecastService;
+    private static ForecastIOService sForecastService; // shared to keep a single disk cache
 
     /**
      * Gets previously synced weather information, triggers a new fetch if never synced
@@ -147,8 +164,10 @@ public class WeatherSyncService extends IntentService {
         }
         long todaySeconds = CalendarUtils.today() / DateUtils.SECOND_IN_MILLIS,
                 tomorrowSeconds = todaySeconds + DateUtils.DAY_IN_MILLIS / DateUtils.SECOND_IN_MILLIS;
-        persist(fetchForecast(location, todaySeconds), PREF_WEATHER_TODAY);
-        persist(fetchForecast(location, tomorrowSeconds), PREF_WEATHER_TOMORROW);
+        AtomicReferenceArray<ForecastIOService.Forecast> forecasts =
+                fetchForecasts(location, todaySeconds, tomorrowSeconds);
+        persist(forecasts.get(0), PREF_WEATHER_TODAY);
+        persist(forecasts.get(1), PREF_WEATHER_TOMORROW);
         scheduleAlarm();
     }
 
@@ -200,28 +219,85 @@ public class WeatherSyncService extends IntentService {
 
     @VisibleForTesting
     protected ForecastIOService getForecastService() {
-        if (mForecastService == null) {
-            mForecastService = new Retrofit.Builder()
-                    .baseUrl(ForecastIOService.BASE_URL)
-                    .addConverterFactory(GsonConverterFactory.create())
-                    .build()
-                    .create(ForecastIOService.class);
+        synchronized (WeatherSyncService.class) {
+            if (sForecastService == null) {
+                sForecastService = createForecastService(ForecastIOService.BASE_URL,
+                        new File(getApplicationContext().getCacheDir(), CACHE_DIRECTORY));
+            }
+            return sForecastService;
         }
-        return mForecastService;
     }
 
-    private ForecastIOService.Forecast fetchForecast(Location location, long timeSeconds) {
+    /**
+     * Creates web service backed by a bounded disk HTTP cache, which serves fresh responses
+     * and revalidates stale ones conditionally via their validators
+     * @param baseUrl           base URL of web service
+     * @param cacheDirectory    directory to cache responses, should only be used by one service
+     * @return  web service
+     */
+    @VisibleForTesting
+    static ForecastIOService createForecastService(String baseUrl, File cacheDirectory) {
+        return new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(new OkHttpClient.Builder()
+                        .cache(new Cache(cacheDirectory, CACHE_SIZE_BYTES))
+                        .build())
+                // deliver results on network threads, service thread is blocked awaiting them
+                .callbackExecutor(new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable command) {
+                        command.run();
+                    }
+                })
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(ForecastIOService.class);
+    }
+
+    /**
+     * Fetches forecasts for given times concurrently, waiting for all of them
+     * up to {@link #FETCH_TIMEOUT_MILLIS} in total, after which pending fetches are cancelled
+     * @param location       location to fetch forecasts for
+     * @param timeSeconds    times to fetch forecasts for, in seconds
+     * @return  forecasts by given times, with nulls for failed or timed out fetches
+     */
+    private AtomicReferenceArray<ForecastIOService.Forecast> fetchForecasts(Location location,
+                                                                            long... timeSeconds) {
+        final AtomicReferenceArray<ForecastIOService.Forecast> forecasts =
+                new AtomicReferenceArray<>(timeSeconds.length);
         if (location == null) {
-            return null;
+            return forecasts;
+        }
+        final CountDownLatch latch = new CountDownLatch(timeSeconds.length);
+        List<Call<ForecastIOService.Forecast>> calls = new ArrayList<>(timeSeconds.length);
+        for (int i = 0; i < timeSeconds.length; i++) {
+            final int index = i;
+            Call<ForecastIOService.Forecast> call = getForecastService()
+                    .forecast(location.getLatitude(), location.getLongitude(), timeSeconds[i]);
+            calls.add(call);
+            call.enqueue(new Callback<ForecastIOService.Forecast>() {
+                @Override
+                public void onResponse(Call<ForecastIOService.Forecast> call,
+                                       Response<ForecastIOService.Forecast> response) {
+                    forecasts.set(index, response.body());
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(Call<ForecastIOService.Forecast> call, Throwable t) {
+                    latch.countDown();
+                }
+            });
         }
         try {
-            return getForecastService()
-                    .forecast(location.getLatitude(), location.getLongitude(), timeSeconds)
-                    .execute()
-                    .body();
-        } catch (IOException e) {
-            return null;
+            latch.await(FETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Call<ForecastIOService.Forecast> call : calls) {
+            call.cancel(); // no-op for completed fetches
         }
+        return forecasts;
     }
 
     private void persist(ForecastIOService.Forecast forecast, String preferenceKey) {
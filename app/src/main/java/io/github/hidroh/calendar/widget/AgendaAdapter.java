@@ -3,17 +3,16 @@ package io.github.hidroh.calendar.widget;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.TypedArray;
-import android.database.ContentObserver;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.provider.CalendarContract;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.util.Pair;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
@@ -23,11 +22,15 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 import io.github.hidroh.calendar.CalendarUtils;
 import io.github.hidroh.calendar.EditActivity;
 import io.github.hidroh.calendar.R;
-import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.content.QueryExecutor;
+import io.github.hidroh.calendar.text.DateFormatCache;
 import io.github.hidroh.calendar.weather.Weather;
 
 /**
@@ -42,23 +45,35 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
     @VisibleForTesting static final int BLOCK_SIZE = MONTH_SIZE;
     @VisibleForTesting static final int MAX_SIZE = MONTH_SIZE * 3;
 
-    private final EventGroup.EventObserver mEventObserver = new EventGroup.EventObserver() {
-        @Override
-        public void onChange(long timeMillis) {
-            if (!mLock) {
-                loadEvents(timeMillis);
-            }
-        }
-    };
     private final EventGroupList mEventGroups = new EventGroupList(BLOCK_SIZE);
+    private final EventsDiffCallback mEventsDiffCallback = new EventsDiffCallback();
+    private final CalendarFilter mCalendarFilter;
     private final LayoutInflater mInflater;
     private final int mTransparentColor;
     private final int mIconTint;
+    // resolved once, so that binding rows does not look up resources
+    private final CharSequence mNoEventText;
+    private final CharSequence mAllDayText;
     private int mColors[];
     private Weather mWeather;
+    private long mWeatherTimeMillis = CalendarUtils.NO_TIME_MILLIS;
     private boolean mLock;
+    // range of days of last prefetch that may still be cancelled
+    private long mPrefetchStartMillis = CalendarUtils.NO_TIME_MILLIS;
+    private long mPrefetchEndMillis = CalendarUtils.NO_TIME_MILLIS;
 
     public AgendaAdapter(Context context) {
+        this(context, new CalendarFilter(Collections.<String>emptyList()));
+    }
+
+    /**
+     * Constructs an adapter that displays events of calendars not excluded by given filter
+     * @param context           context
+     * @param calendarFilter    filter of calendars, shared with other views if any
+     * @see {@link #applyCalendarFilter(long)}
+     */
+    public AgendaAdapter(Context context, CalendarFilter calendarFilter) {
+        mCalendarFilter = calendarFilter;
         mInflater = LayoutInflater.from(context);
         mTransparentColor = ContextCompat.getColor(context, android.R.color.transparent);
         TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{
@@ -67,6 +82,8 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         mIconTint = ta.getColor(0, 0);
         ta.recycle();
         mColors = new int[]{mTransparentColor};
+        mNoEventText = context.getText(R.string.no_event);
+        mAllDayText = context.getText(R.string.all_day);
     }
 
     @Override
@@ -82,27 +99,35 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
                         parent, false));
             case VIEW_TYPE_CONTENT:
             default:
-                return new ContentViewHolder(mInflater.inflate(R.layout.list_item_content,
-                        parent, false));
+                final ContentViewHolder holder = new ContentViewHolder(mInflater.inflate(
+                        R.layout.list_item_content, parent, false));
+                holder.itemView.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        if (holder.mItem != null) {
+                            editEvent(v.getContext(), holder.mItem);
+                        }
+                    }
+                });
+                return holder;
         }
     }
 
     @Override
     public final void onBindViewHolder(RowViewHolder holder, int position) {
-        final AdapterItem item = getAdapterItem(position);
-        bindTitle(item, holder);
-        if (item instanceof EventGroup) {
+        if (holder instanceof GroupViewHolder) {
+            EventGroup group = (EventGroup) getAdapterItem(position, null);
+            bindTitle(group, holder);
             loadEvents(position);
-            bindWeather((EventGroup) item, (GroupViewHolder) holder);
+            bindWeather(group, (GroupViewHolder) holder);
         } else {
-            bindTime((EventItem) item, (ContentViewHolder) holder);
-            bindColor((EventItem) item, (ContentViewHolder) holder);
-            holder.itemView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    editEvent(v.getContext(), (EventItem) item);
-                }
-            });
+            ContentViewHolder contentHolder = (ContentViewHolder) holder;
+            // reuse holder's item instead of allocating a new one per bind
+            EventItem item = (EventItem) getAdapterItem(position, contentHolder.mRecycledItem);
+            contentHolder.mItem = item;
+            bindTitle(item, holder);
+            bindTime(item, contentHolder);
+            bindColor(item, contentHolder);
         }
     }
 
@@ -113,7 +138,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
 
     @Override
     public final int getItemViewType(int position) {
-        if (getAdapterItem(position) instanceof EventGroup) {
+        if (mEventGroups.isGroup(position)) {
             return VIEW_TYPE_HEADER;
         } else { // EventItem
             return VIEW_TYPE_CONTENT;
@@ -121,35 +146,105 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
     }
 
     /**
-     * Loads events for given day, each event should either
-     * start and end within the day,
-     * or starts before and end within of after the day
-     * {@link #bindEvents(long, EventCursor)} should be called afterwards with results
-     * @param timeMillis    time in millis that represents day in agenda
-     * @see {@link #bindEvents(long, EventCursor)}
+     * Loads events for given range of days in one go, with given priority:
+     * {@link QueryExecutor#PRIORITY_VISIBLE} for days being bound,
+     * {@link QueryExecutor#PRIORITY_PREFETCH} for days ahead of scroll direction,
+     * or {@link QueryExecutor#PRIORITY_BACKGROUND} for days being reloaded.
+     * Each event should either start within the range,
+     * or starts before and end within or after the range start.
+     * {@link #bindEvents(long, long, EventSnapshot)} should be called afterwards with results.
+     * @param startTimeMillis    time in millis that represents first day in range
+     * @param endTimeMillis      time in millis that represents day after last day in range
+     * @param priority           one of {@link QueryExecutor} priorities
+     * @see {@link #bindEvents(long, long, EventSnapshot)}
      */
-    protected void loadEvents(long timeMillis) {
+    protected void loadEvents(long startTimeMillis, long endTimeMillis, int priority) {
         // override to load events
     }
 
     /**
-     * Binds events for given day, each event should either
-     * start and end within the day,
-     * or starts before and end within of after the day.
-     * Bound cursor should be deactivated via {@link #deactivate()} when appropriate
-     * @param timeMillis    time in millis that represents day in agenda
-     * @param cursor        {@link CalendarContract.Events} cursor wrapper
-     * @see {@link #loadEvents(long)}
-     * @see {@link #deactivate()}
+     * Cancels loading events for days within given range, previously requested
+     * via {@link #loadEvents(long, long, int)}, if they have not been loaded yet.
+     * This is called for prefetched days that are no longer needed, and days that
+     * have been pruned. Results of a load that cannot be cancelled
+     * may still be bound once loaded.
+     * @param startTimeMillis    time in millis that represents first day in range
+     * @param endTimeMillis      time in millis that represents day after last day in range
+     * @see {@link #loadEvents(long, long, int)}
+     */
+    protected void cancelLoadEvents(long startTimeMillis, long endTimeMillis) {
+        // override to cancel loading events
+    }
+
+    /**
+     * Notifies that range of days in this adapter has changed, after days have been
+     * added, pruned or restored, or cleared upon deactivation.
+     * This can be used to keep events of these days resident while they are displayed.
+     * @param startTimeMillis    time in millis that represents first day in range,
+     *                           or {@link CalendarUtils#NO_TIME_MILLIS} if cleared
+     * @param endTimeMillis      time in millis that represents day after last day in range,
+     *                           or {@link CalendarUtils#NO_TIME_MILLIS} if cleared
      */
-    public final void bindEvents(long timeMillis, EventCursor cursor) {
+    protected void onRangeChanged(long startTimeMillis, long endTimeMillis) {
+        // override to track range of days
+    }
+
+    /**
+     * Binds events for given range of days that have been loaded in one go.
+     * Events are split into days they cover, multi-day events are split across
+     * all of their days.
+     * @param startTimeMillis    time in millis that represents first day in range
+     * @param endTimeMillis      time in millis that represents day after last day in range
+     * @param events             snapshot of {@link CalendarContract.Events} rows
+     * @see {@link #loadEvents(long, long, int)}
+     */
+    public final void bindEvents(long startTimeMillis, long endTimeMillis, EventSnapshot events) {
+        int days = (int) ((endTimeMillis - startTimeMillis) / DateUtils.DAY_IN_MILLIS);
         if (mLock) {
+            // drop results, days will be reloaded once unlocked
+            for (int i = 0; i < days; i++) {
+                int index = mEventGroups.indexOf(startTimeMillis + DateUtils.DAY_IN_MILLIS * i);
+                if (index >= 0) {
+                    mEventGroups.get(index).mPending = false;
+                    mEventGroups.get(index).mDeferred = true;
+                }
+            }
             return;
         }
-        Pair<EventGroup, Integer> pair = findGroup(timeMillis);
-        if (pair != null) {
-            pair.first.setCursor(cursor, mEventObserver);
-            notifyEventsChanged(pair.first, pair.second);
+        EventSnapshot[] dayEvents = splitEvents(startTimeMillis, days, events);
+        for (int i = 0; i < days; i++) {
+            int index = mEventGroups.indexOf(startTimeMillis + DateUtils.DAY_IN_MILLIS * i);
+            if (index >= 0) {
+                EventGroup group = mEventGroups.get(index);
+                EventSnapshot previous = group.mEvents;
+                group.mPending = false;
+                mEventGroups.setEvents(index, dayEvents[i], mCalendarFilter);
+                notifyEventsChanged(index, previous);
+            }
+        }
+    }
+
+    /**
+     * Binds provisional events for given range of days, e.g. persisted from a previous run,
+     * to be displayed until fresh events are loaded once their days are bound.
+     * Days that have been loaded or are being loaded are left untouched.
+     * @param startTimeMillis    time in millis that represents first day in range
+     * @param endTimeMillis      time in millis that represents day after last day in range
+     * @param events             snapshot of {@link CalendarContract.Events} rows
+     * @see {@link #bindEvents(long, long, EventSnapshot)}
+     */
+    public final void bindProvisionalEvents(long startTimeMillis, long endTimeMillis,
+                                            EventSnapshot events) {
+        int days = (int) ((endTimeMillis - startTimeMillis) / DateUtils.DAY_IN_MILLIS);
+        EventSnapshot[] dayEvents = splitEvents(startTimeMillis, days, events);
+        for (int i = 0; i < days; i++) {
+            int index = mEventGroups.indexOf(startTimeMillis + DateUtils.DAY_IN_MILLIS * i);
+            if (index >= 0 && mEventGroups.get(index).mEvents == null &&
+                    !mEventGroups.get(index).mPending) {
+                mEventGroups.setEvents(index, dayEvents[i], mCalendarFilter);
+                mEventGroups.get(index).mStale = true; // reload once bound
+                notifyEventsChanged(index, null);
+            }
         }
     }
 
@@ -158,24 +253,81 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
     }
 
     /**
-     * Closes bound cursors and unregisters their observers
-     * that have been previously bound by {@link #bindEvents(long, EventCursor)},
+     * Clears events that have been previously bound by {@link #bindEvents(long, long, EventSnapshot)},
      * wipes all adapter data
-     * @see {@link #bindEvents(long, EventCursor)}
+     * @see {@link #bindEvents(long, long, EventSnapshot)}
      */
     void deactivate() {
         mEventGroups.clear();
+        onRangeChanged(CalendarUtils.NO_TIME_MILLIS, CalendarUtils.NO_TIME_MILLIS);
     }
 
     /**
-     * Closes bound cursors and unregisters their observers
-     * that have been previously bound by {@link #bindEvents(long, EventCursor)},
-     * but keeps adapter data to rebind new cursors
-     * @see {@link #bindEvents(long, EventCursor)}
+     * Clears events that have been previously bound by {@link #bindEvents(long, long, EventSnapshot)},
+     * but keeps adapter data to rebind new events.
+     * Only rows of cleared events are notified, and headers are rebound to reload days.
+     * @see {@link #bindEvents(long, long, EventSnapshot)}
      */
     void invalidate() {
-        mEventGroups.invalidate();
-        notifyItemRangeChanged(0, getItemCount());
+        for (int i = 0; i < mEventGroups.size(); i++) {
+            EventSnapshot previous = mEventGroups.get(i).mEvents;
+            mEventGroups.invalidate(i);
+            notifyEventsChanged(i, previous);
+            notifyItemChanged(mEventGroups.positionOf(i));
+        }
+    }
+
+    /**
+     * Reloads events that have been previously bound by {@link #bindEvents(long, long, EventSnapshot)}
+     * in one go, keeping them displayed until new events are bound.
+     * If binding is locked, days are reloaded once unlocked instead.
+     * Only rows whose events have changed are notified once reloaded.
+     * @see {@link #loadEvents(long, long, int)}
+     */
+    void refresh() {
+        int first = -1, last = -1;
+        for (int i = 0; i < mEventGroups.size(); i++) {
+            EventGroup group = mEventGroups.get(i);
+            if (group.mEvents != null || group.mPending) {
+                group.mStale = true;
+                group.mDeferred = mLock;
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        if (first >= 0 && !mLock) {
+            loadGroups(first, last, QueryExecutor.PRIORITY_BACKGROUND);
+        }
+    }
+
+    /**
+     * Refilters loaded events after calendars of given bits have been toggled
+     * in {@link CalendarFilter}, without reloading them.
+     * Only days that have events of toggled calendars are notified.
+     * If binding is locked, such days are reloaded once unlocked instead.
+     * @param calendarMask    bits of toggled calendars
+     * @see {@link CalendarFilter#setExcluded(long, boolean)}
+     */
+    void applyCalendarFilter(long calendarMask) {
+        if (calendarMask == 0) {
+            return;
+        }
+        for (int i = 0; i < mEventGroups.size(); i++) {
+            EventGroup group = mEventGroups.get(i);
+            if (group.mAllEvents == null || (group.mCalendars & calendarMask) == 0) {
+                continue;
+            }
+            if (mLock) {
+                group.mStale = true;
+                group.mDeferred = true;
+            } else {
+                EventSnapshot previous = group.mEvents;
+                mEventGroups.filterEvents(i, mCalendarFilter);
+                notifyEventsChanged(i, previous);
+            }
+        }
     }
 
     /**
@@ -185,7 +337,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
      */
     Bundle saveState() {
         Bundle outState = new Bundle();
-        outState.putParcelableArrayList(STATE_EVENT_GROUPS, new ArrayList<>(mEventGroups));
+        outState.putParcelableArrayList(STATE_EVENT_GROUPS, mEventGroups.toList());
         return outState;
     }
 
@@ -199,6 +351,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
                 savedState.getParcelableArrayList(STATE_EVENT_GROUPS);
         // only restore 'no event' groups, actual event binding once cursor is rebound
         mEventGroups.addAll(savedGroups);
+        notifyRangeChanged();
     }
 
     /**
@@ -218,11 +371,11 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
                 append(context);
             }
         }
-        Pair<EventGroup, Integer> pair = findGroup(timeMillis);
-        if (pair == null) {
+        int index = mEventGroups.indexOf(timeMillis);
+        if (index < 0) {
             return RecyclerView.NO_POSITION;
         }
-        return pair.second;
+        return mEventGroups.positionOf(index);
     }
 
     /**
@@ -231,7 +384,27 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
      * @return  an {@link EventGroup} or {@link EventItem}
      */
     AdapterItem getAdapterItem(int position) {
-        return mEventGroups.getGroupOrItem(position);
+        return getAdapterItem(position, null);
+    }
+
+    /**
+     * Gets {@link AdapterItem} at given position, reusing given {@link EventItem}
+     * if item at given position needs to be read from a cursor
+     * @param position    adapter position
+     * @param reuse       item to reuse, or null to allocate a new one if needed
+     * @return  an {@link EventGroup} or {@link EventItem}
+     */
+    AdapterItem getAdapterItem(int position, @Nullable EventItem reuse) {
+        return mEventGroups.getGroupOrItem(position, reuse);
+    }
+
+    /**
+     * Gets day of item at given position
+     * @param position    adapter position
+     * @return  time in milliseconds of day that contains given position
+     */
+    long getDay(int position) {
+        return mEventGroups.get(mEventGroups.groupIndexAt(position)).mTimeMillis;
     }
 
     /**
@@ -242,16 +415,19 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
      * @see {@link #append(Context)}
      */
     void prepend(Context context) {
-        long daysMillis = mEventGroups.size() * DateUtils.DAY_IN_MILLIS;
         int count = BLOCK_SIZE, inserted = 0;
         for (int i = 0; i < count; i++) {
-            EventGroup last = mEventGroups.get(mEventGroups.size() - 1 - i);
-            EventGroup first = new EventGroup(context, last.mTimeMillis - daysMillis);
+            EventGroup first = new EventGroup(context,
+                    mEventGroups.get(0).mTimeMillis - DateUtils.DAY_IN_MILLIS);
             inserted += first.itemCount() + 1;
-            mEventGroups.add(0, first);
+            mEventGroups.addFirst(first);
         }
         notifyItemRangeInserted(0, inserted);
         prune(false);
+        // next block to prepend
+        DateFormatCache.prewarmDays(context,
+                mEventGroups.get(0).mTimeMillis - DateUtils.DAY_IN_MILLIS * count, count);
+        notifyRangeChanged();
     }
 
     /**
@@ -266,21 +442,94 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             int count = BLOCK_SIZE;
             long today = CalendarUtils.today();
             for (int i = -count; i < count; i++) {
-                mEventGroups.add(new EventGroup(context, today + DateUtils.DAY_IN_MILLIS * i));
+                mEventGroups.addLast(new EventGroup(context, today + DateUtils.DAY_IN_MILLIS * i));
             }
+            // next block to prepend
+            DateFormatCache.prewarmDays(context,
+                    today - DateUtils.DAY_IN_MILLIS * count * 2, count);
         } else {
             int count = BLOCK_SIZE;
-            long daysMillis = mEventGroups.size() * DateUtils.DAY_IN_MILLIS;
             int inserted = 0;
             for (int i = 0; i < count; i++) {
-                EventGroup first = mEventGroups.get(i);
-                EventGroup last = new EventGroup(context, first.mTimeMillis + daysMillis);
+                EventGroup last = new EventGroup(context,
+                        mEventGroups.get(mEventGroups.size() - 1).mTimeMillis +
+                                DateUtils.DAY_IN_MILLIS);
                 inserted += last.itemCount() + 1;
-                mEventGroups.add(last);
+                mEventGroups.addLast(last);
             }
             notifyItemRangeInserted(getItemCount() - inserted + 1, inserted);
             prune(true);
         }
+        // next block to append
+        DateFormatCache.prewarmDays(context,
+                mEventGroups.get(mEventGroups.size() - 1).mTimeMillis + DateUtils.DAY_IN_MILLIS,
+                BLOCK_SIZE);
+        notifyRangeChanged();
+    }
+
+    /**
+     * Loads events ahead of given day in given direction before their days are bound,
+     * in one go for up to {@link #BLOCK_SIZE} days, unless there are already enough days
+     * ahead that have been loaded or are being loaded.
+     * Prefetching is paused while binding is locked.
+     * @param timeMillis    time in millis that represents day to prefetch from
+     * @param forward       true to prefetch following days, false to prefetch preceding days
+     * @see {@link #cancelPrefetch()}
+     */
+    void prefetch(long timeMillis, boolean forward) {
+        int index = mEventGroups.indexOf(timeMillis);
+        if (mLock || index < 0) {
+            return;
+        }
+        int step = forward ? 1 : -1, end = forward ? mEventGroups.size() : -1;
+        int first = index + step;
+        // skip days that have been loaded or are being loaded
+        while (first != end && !mEventGroups.get(first).needsLoading()) {
+            first += step;
+        }
+        if (first == end || Math.abs(first - index) > BLOCK_SIZE / 2) {
+            return; // nothing to load, or enough days ahead already
+        }
+        int last = first;
+        while (last + step != end && Math.abs(last + step - first) < BLOCK_SIZE &&
+                mEventGroups.get(last + step).needsLoading()) {
+            last += step;
+        }
+        int firstIndex = Math.min(first, last), lastIndex = Math.max(first, last);
+        cancelPrefetch(); // only last prefetch is tracked
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            mEventGroups.get(i).mPrefetched = true;
+        }
+        loadGroups(firstIndex, lastIndex, QueryExecutor.PRIORITY_PREFETCH);
+        mPrefetchStartMillis = mEventGroups.get(firstIndex).mTimeMillis;
+        mPrefetchEndMillis = mEventGroups.get(lastIndex).mTimeMillis + DateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * Cancels last prefetch started by {@link #prefetch(long, boolean)} if none of its days
+     * have been loaded or bound since, so that they are loaded once bound instead
+     * @see {@link #cancelLoadEvents(long, long)}
+     */
+    void cancelPrefetch() {
+        if (mPrefetchStartMillis == CalendarUtils.NO_TIME_MILLIS) {
+            return;
+        }
+        int firstIndex = mEventGroups.indexOf(mPrefetchStartMillis),
+                lastIndex = mEventGroups.indexOf(mPrefetchEndMillis - DateUtils.DAY_IN_MILLIS);
+        boolean cancellable = firstIndex >= 0 && lastIndex >= 0;
+        for (int i = firstIndex; cancellable && i <= lastIndex; i++) {
+            EventGroup group = mEventGroups.get(i);
+            cancellable = group.mPrefetched && group.mPending;
+        }
+        if (cancellable) {
+            for (int i = firstIndex; i <= lastIndex; i++) {
+                mEventGroups.get(i).mPending = false;
+                mEventGroups.get(i).mPrefetched = false;
+            }
+            cancelLoadEvents(mPrefetchStartMillis, mPrefetchEndMillis);
+        }
+        mPrefetchStartMillis = CalendarUtils.NO_TIME_MILLIS;
+        mPrefetchEndMillis = CalendarUtils.NO_TIME_MILLIS;
     }
 
     /**
@@ -295,28 +544,51 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
 
     /**
      * Unlocks view holder binding that may have been previously locked by {@link #lockBinding()},
-     * notifying adapter to rebind view holders as a result
-     * @see {@link #loadEvents(long)}
+     * loading days whose loading has been deferred or whose results have been dropped
+     * while locked, in contiguous ranges
+     * @see {@link #loadEvents(long, long, int)}
      */
     void unlockBinding() {
         mLock = false;
-        notifyItemRangeChanged(0, getItemCount());
+        int first = -1;
+        for (int i = 0; i <= mEventGroups.size(); i++) {
+            boolean load = false;
+            if (i < mEventGroups.size()) {
+                EventGroup group = mEventGroups.get(i);
+                load = group.mDeferred && group.needsLoading();
+                group.mDeferred = false;
+            }
+            if (load && first < 0) {
+                first = i;
+            } else if (!load && first >= 0) {
+                loadGroups(first, i - 1, QueryExecutor.PRIORITY_VISIBLE);
+                first = -1;
+            }
+        }
     }
 
     /**
-     * Sets weather information to be displayed
+     * Sets weather information to be displayed, rebinding only today and tomorrow headers,
+     * and headers that displayed previous weather information if day has changed since
      * @param weather    weather information to be displayed, or null to disable
      */
     void setWeather(@Nullable Weather weather) {
         mWeather = weather;
-        notifyItemRangeChanged(0, getItemCount());
+        long todayMillis = CalendarUtils.today();
+        if (mWeatherTimeMillis != todayMillis) {
+            notifyGroupChanged(mWeatherTimeMillis);
+            notifyGroupChanged(mWeatherTimeMillis + DateUtils.DAY_IN_MILLIS);
+            mWeatherTimeMillis = todayMillis;
+        }
+        notifyGroupChanged(todayMillis);
+        notifyGroupChanged(todayMillis + DateUtils.DAY_IN_MILLIS);
     }
 
     private void bindTitle(AdapterItem item, RowViewHolder holder) {
         if (item instanceof EventGroup) {
             ((GroupViewHolder) holder).textView.setText(item.mTitle);
         } else if (item instanceof NoEventItem) {
-            ((ContentViewHolder) holder).textViewTitle.setText(R.string.no_event);
+            ((ContentViewHolder) holder).textViewTitle.setText(mNoEventText);
         } else {
             ((ContentViewHolder) holder).textViewTitle.setText(item.mTitle);
         }
@@ -331,15 +603,15 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         Context context = contentHolder.textViewTime.getContext();
         switch (eventItem.mDisplayType) {
             case EventItem.DISPLAY_TYPE_ALL_DAY:
-                contentHolder.textViewTime.setText(R.string.all_day);
+                contentHolder.textViewTime.setText(mAllDayText);
                 break;
             case EventItem.DISPLAY_TYPE_START_TIME:
             default:
-                contentHolder.textViewTime.setText(CalendarUtils.toTimeString(
+                contentHolder.textViewTime.setText(DateFormatCache.getTimeString(
                         context, eventItem.mStartTimeMillis));
                 break;
             case EventItem.DISPLAY_TYPE_END_TIME:
-                String endTimeString = CalendarUtils.toTimeString(
+                String endTimeString = DateFormatCache.getTimeString(
                         context, eventItem.mEndTimeMillis);
                 contentHolder.textViewTime.setText(
                         context.getString(R.string.end_time, endTimeString));
@@ -383,49 +655,90 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         }
     }
 
-    private Pair<EventGroup, Integer> findGroup(long timeMillis) {
-        int position = 0;
-        // TODO improve searching
-        for (int i = 0; i < mEventGroups.size(); i++) {
-            EventGroup group = mEventGroups.get(i);
-            if (group.mTimeMillis == timeMillis) {
-                return Pair.create(group, position);
+    /**
+     * Splits events into days they cover, applying same rules as
+     * per day loading: an event belongs to a day if it starts within that day,
+     * or starts before and ends after that day starts
+     */
+    private EventSnapshot[] splitEvents(long startTimeMillis, int days, EventSnapshot events) {
+        int count = events.getCount();
+        int[] firstDays = new int[count], lastDays = new int[count], dayCounts = new int[days];
+        for (int i = 0; i < count; i++) {
+            long start = events.getDateTimeStart(i), end = events.getDateTimeEnd(i);
+            int first = start < startTimeMillis ? 0 :
+                    (int) ((start - startTimeMillis) / DateUtils.DAY_IN_MILLIS);
+            // last day that starts before event ends
+            int last = end <= startTimeMillis ? first :
+                    (int) ((end - startTimeMillis - 1) / DateUtils.DAY_IN_MILLIS);
+            if (start < startTimeMillis && end <= startTimeMillis || first >= days) {
+                last = first - 1; // ends before or starts after range
             } else {
-                position += group.itemCount() + 1;
+                last = Math.max(first, Math.min(last, days - 1));
+            }
+            firstDays[i] = first;
+            lastDays[i] = last;
+            for (int day = first; day <= last; day++) {
+                dayCounts[day]++;
             }
         }
-        return null;
+        int[][] indexes = new int[days][];
+        for (int day = 0; day < days; day++) {
+            indexes[day] = new int[dayCounts[day]];
+            dayCounts[day] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int day = firstDays[i]; day <= lastDays[i]; day++) {
+                indexes[day][dayCounts[day]++] = i;
+            }
+        }
+        EventSnapshot[] dayEvents = new EventSnapshot[days];
+        for (int day = 0; day < days; day++) {
+            dayEvents[day] = events.slice(indexes[day], dayCounts[day]);
+        }
+        return dayEvents;
     }
 
-    private void notifyEventsChanged(EventGroup group, int position) {
-        int lastCount = group.mLastCursorCount,
-                newCount = group.mCursor.getCount(),
-                refreshCount = Math.min(newCount, lastCount),
-                diff = newCount - lastCount;
-        // either last or current count is 0
-        // we need to swap no event placeholder
-        // and insert/remove the rest - 1 positions
-        if (refreshCount == 0) {
-            refreshCount = 1;
-            diff = Math.max(--diff, 0);
-        }
-        notifyItemRangeChanged(position + 1, refreshCount);
-        if (diff > 0) {
-            notifyItemRangeInserted(position + 1 + refreshCount, diff);
-        } else if (diff < 0) {
-            notifyItemRangeRemoved(position + 1 + refreshCount, -diff);
+    private void notifyEventsChanged(int index, @Nullable EventSnapshot previous) {
+        EventSnapshot events = mEventGroups.get(index).mEvents;
+        mEventsDiffCallback.dispatch(mEventGroups.positionOf(index) + 1,
+                previous == null ? EventSnapshot.EMPTY : previous,
+                events == null ? EventSnapshot.EMPTY : events);
+    }
+
+    private void notifyGroupChanged(long timeMillis) {
+        int index = mEventGroups.indexOf(timeMillis);
+        if (index >= 0) {
+            notifyItemChanged(mEventGroups.positionOf(index));
         }
-        group.mLastCursorCount = newCount;
     }
 
     private void loadEvents(int position) {
+        int index = mEventGroups.groupIndexAt(position);
+        mEventGroups.get(index).mPrefetched = false; // bound, no longer cancellable
+        if (!mEventGroups.get(index).needsLoading()) {
+            return;
+        }
         if (mLock) {
+            mEventGroups.get(index).mDeferred = true;
             return;
         }
-        EventGroup group = (EventGroup) getAdapterItem(position);
-        if (group.mCursor == null) {
-            loadEvents(group.mTimeMillis);
+        // extend to adjacent days that also need loading, so they can be loaded in one go
+        int first = index, last = index;
+        while (first > 0 && mEventGroups.get(first - 1).needsLoading()) {
+            first--;
+        }
+        while (last < mEventGroups.size() - 1 && mEventGroups.get(last + 1).needsLoading()) {
+            last++;
         }
+        loadGroups(first, last, QueryExecutor.PRIORITY_VISIBLE);
+    }
+
+    private void loadGroups(int firstIndex, int lastIndex, int priority) {
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            mEventGroups.get(i).mPending = true;
+        }
+        loadEvents(mEventGroups.get(firstIndex).mTimeMillis,
+                mEventGroups.get(lastIndex).mTimeMillis + DateUtils.DAY_IN_MILLIS, priority);
     }
 
     private void editEvent(Context context, EventItem eventItem) {
@@ -437,21 +750,44 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             eventBuilder.id(eventItem.mId)
                     .calendarId(eventItem.mCalendarId)
                     .title(eventItem.mTitle);
+            if (eventItem.mRecurring) { // ID is of series, edit as exception
+                eventBuilder.originalInstanceTime(eventItem.mIsAllDay ?
+                        CalendarUtils.toUtcTimeZone(eventItem.mStartTimeMillis) :
+                        eventItem.mStartTimeMillis);
+            }
         }
         context.startActivity(new Intent(context, EditActivity.class)
                 .putExtra(EditActivity.EXTRA_EVENT, eventBuilder.build()));
     }
 
+    private void notifyRangeChanged() {
+        if (mEventGroups.isEmpty()) {
+            return;
+        }
+        onRangeChanged(mEventGroups.get(0).mTimeMillis,
+                mEventGroups.get(mEventGroups.size() - 1).mTimeMillis + DateUtils.DAY_IN_MILLIS);
+    }
+
     private void prune(boolean start) {
         if (mEventGroups.size() <= MAX_SIZE) {
             return;
         }
-        int removed = 0, index = start ? 0 : MAX_SIZE;
+        int removed = 0;
+        long startTimeMillis = start ? mEventGroups.get(0).mTimeMillis :
+                mEventGroups.get(MAX_SIZE).mTimeMillis;
+        long endTimeMillis = start ? mEventGroups.get(mEventGroups.size() - MAX_SIZE).mTimeMillis :
+                mEventGroups.get(mEventGroups.size() - 1).mTimeMillis + DateUtils.DAY_IN_MILLIS;
         while (mEventGroups.size() > MAX_SIZE) {
+            int index = start ? 0 : mEventGroups.size() - 1;
             removed += mEventGroups.get(index).itemCount() + 1;
-            mEventGroups.remove(index);
+            if (start) {
+                mEventGroups.removeFirst();
+            } else {
+                mEventGroups.removeLast();
+            }
         }
         notifyItemRangeRemoved(start ? 0 : getItemCount(), removed);
+        cancelLoadEvents(startTimeMillis, endTimeMillis);
     }
 
     static abstract class RowViewHolder extends RecyclerView.ViewHolder {
@@ -480,6 +816,8 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
 
     static class ContentViewHolder extends RowViewHolder {
 
+        final EventItem mRecycledItem = new EventItem(null, CalendarUtils.NO_TIME_MILLIS);
+        EventItem mItem;
         final TextView textViewTitle;
         final TextView textViewTime;
         final View background;
@@ -493,89 +831,318 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
     }
 
     /**
-     * A custom {@link ArrayList} for {@link EventGroup} that allows
-     * operations to manage each group's {@link EventItem}
+     * Diffs previous and current events of a group, notifying adapter of exact
+     * inserted, removed and changed rows within that group.
+     * A group without events has a single no event row, which is swapped in place
+     * with first event row if any.
      */
-    static class EventGroupList extends ArrayList<EventGroup> {
+    private class EventsDiffCallback extends DiffUtil.Callback implements ListUpdateCallback {
+        private EventSnapshot mOldEvents;
+        private EventSnapshot mNewEvents;
+        private int mOffset;
+
+        void dispatch(int offset, EventSnapshot oldEvents, EventSnapshot newEvents) {
+            if (oldEvents == newEvents) {
+                return;
+            }
+            mOffset = offset;
+            mOldEvents = oldEvents;
+            mNewEvents = newEvents;
+            DiffUtil.calculateDiff(this, false).dispatchUpdatesTo(this);
+            mOldEvents = null;
+            mNewEvents = null;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return Math.max(mOldEvents.getCount(), 1);
+        }
 
-        int mChildrenSize = 0;
+        @Override
+        public int getNewListSize() {
+            return Math.max(mNewEvents.getCount(), 1);
+        }
 
-        EventGroupList(int capacity) {
-            super(capacity);
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            if (mOldEvents.getCount() == 0 || mNewEvents.getCount() == 0) {
+                return oldItemPosition == 0 && newItemPosition == 0;
+            }
+            return mOldEvents.getId(oldItemPosition) == mNewEvents.getId(newItemPosition);
         }
 
         @Override
-        public void add(int index, EventGroup group) {
-            mChildrenSize += group.itemCount();
-            super.add(index, group);
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            if (mOldEvents.getCount() == 0 || mNewEvents.getCount() == 0) {
+                return mOldEvents.getCount() == mNewEvents.getCount();
+            }
+            return mOldEvents.contentsEqual(oldItemPosition, mNewEvents, newItemPosition);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(mOffset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(mOffset + position, count);
         }
 
         @Override
-        public boolean add(EventGroup group) {
-            mChildrenSize += group.itemCount();
-            return super.add(group);
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(mOffset + fromPosition, mOffset + toPosition);
         }
 
         @Override
-        public boolean addAll(Collection<? extends EventGroup> collection) {
-            if (collection.isEmpty()) {
-                return false;
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(mOffset + position, count, payload);
+        }
+    }
+
+    /**
+     * A list of consecutive days' {@link EventGroup}, backed by a ring buffer so that
+     * days can be cheaply added or removed at both ends.
+     * Group sizes (header and children) are indexed by a Fenwick tree over buffer slots,
+     * so that adapter position lookups and group size updates are O(log n).
+     * As groups are always consecutive days, day lookups are simple offsets from first day.
+     */
+    static class EventGroupList {
+
+        private EventGroup[] mGroups;
+        private int[] mSizes; // group and children size per buffer slot
+        private int[] mTree; // 1-based Fenwick tree over mSizes
+        private int mHead = 0;
+        private int mSize = 0;
+        private int mTotal = 0;
+
+        EventGroupList(int capacity) {
+            allocate(Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1));
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        EventGroup get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
             }
+            return mGroups[slot(index)];
+        }
+
+        void addFirst(EventGroup group) {
+            ensureCapacity();
+            mHead = (mHead - 1) & (mGroups.length - 1);
+            mSize++;
+            set(mHead, group);
+        }
+
+        void addLast(EventGroup group) {
+            ensureCapacity();
+            mSize++;
+            set(slot(mSize - 1), group);
+        }
+
+        void addAll(Collection<? extends EventGroup> collection) {
             for (EventGroup group : collection) {
-                add(group);
+                addLast(group);
             }
-            return true;
         }
 
-        @Override
-        public EventGroup remove(int index) {
-            EventGroup group = super.remove(index);
-            mChildrenSize -= group.itemCount();
-            group.deactivate();
+        EventGroup removeFirst() {
+            EventGroup group = remove(mHead);
+            mHead = (mHead + 1) & (mGroups.length - 1);
+            mSize--;
             return group;
         }
 
-        @Override
-        public void clear() {
-            for (EventGroup group : this) {
-                group.deactivate();
+        EventGroup removeLast() {
+            EventGroup group = remove(slot(mSize - 1));
+            mSize--;
+            return group;
+        }
+
+        void clear() {
+            while (!isEmpty()) {
+                removeLast();
+            }
+            mHead = 0;
+        }
+
+        ArrayList<EventGroup> toList() {
+            ArrayList<EventGroup> list = new ArrayList<>(mSize);
+            for (int i = 0; i < mSize; i++) {
+                list.add(get(i));
             }
-            super.clear();
-            mChildrenSize = 0;
+            return list;
         }
 
         int groupAndChildrenSize() {
-            return size() + mChildrenSize;
+            return mTotal;
         }
 
-        AdapterItem getGroupOrItem(int index) {
-            int count = 0;
-            for (int i = 0; i < size(); i++) {
-                if (index < count + 1 + get(i).itemCount()) {
-                    if (index == count) {
-                        return get(i);
-                    } else {
-                        return get(i).getItem(index - count - 1);
-                    }
-                } else {
-                    count += 1 + get(i).itemCount();
+        /**
+         * Gets index of group for given day
+         * @param timeMillis    time in millis that represents day in agenda
+         * @return  group index or -1 if not found
+         */
+        int indexOf(long timeMillis) {
+            if (isEmpty()) {
+                return -1;
+            }
+            long offset = timeMillis - get(0).mTimeMillis;
+            if (offset < 0 || offset % DateUtils.DAY_IN_MILLIS != 0) {
+                return -1;
+            }
+            long index = offset / DateUtils.DAY_IN_MILLIS;
+            if (index >= mSize || get((int) index).mTimeMillis != timeMillis) {
+                return -1;
+            }
+            return (int) index;
+        }
+
+        /**
+         * Gets adapter position of group header at given index
+         * @param index    group index
+         * @return  adapter position
+         */
+        int positionOf(int index) {
+            int slot = slot(index);
+            if (slot >= mHead) {
+                return prefixSum(slot) - prefixSum(mHead);
+            } else { // wrapped around
+                return mTotal - prefixSum(mHead) + prefixSum(slot);
+            }
+        }
+
+        /**
+         * Gets index of group that contains given adapter position, either as header or child
+         * @param position    adapter position
+         * @return  group index or -1 if out of range
+         */
+        int groupIndexAt(int position) {
+            if (position < 0 || position >= mTotal) {
+                return -1;
+            }
+            int target = prefixSum(mHead) + position;
+            if (target >= mTotal) { // wrapped around
+                target -= mTotal;
+            }
+            // find slot whose cumulative size range contains target
+            int slot = 0;
+            for (int step = mGroups.length; step > 0; step >>= 1) {
+                if (slot + step <= mGroups.length && mTree[slot + step] <= target) {
+                    slot += step;
+                    target -= mTree[slot];
                 }
             }
-            return null;
+            return (slot - mHead) & (mGroups.length - 1);
+        }
+
+        AdapterItem getGroupOrItem(int position, @Nullable EventItem reuse) {
+            int index = groupIndexAt(position);
+            if (index < 0) {
+                return null;
+            }
+            int offset = position - positionOf(index);
+            EventGroup group = get(index);
+            return offset == 0 ? group : group.getItem(offset - 1, reuse);
+        }
+
+        boolean isGroup(int position) {
+            int index = groupIndexAt(position);
+            return index >= 0 && positionOf(index) == position;
+        }
+
+        void invalidate(int index) {
+            get(index).deactivate();
+            refresh(slot(index));
+        }
+
+        void setEvents(int index, EventSnapshot events, CalendarFilter filter) {
+            get(index).setEvents(events, filter);
+            refresh(slot(index));
         }
 
-        void invalidate() {
-            for (EventGroup group : this) {
-                mChildrenSize -= group.itemCount();
-                group.deactivate();
-                mChildrenSize += group.itemCount();
+        void filterEvents(int index, CalendarFilter filter) {
+            get(index).filterEvents(filter);
+            refresh(slot(index));
+        }
+
+        private int slot(int index) {
+            return (mHead + index) & (mGroups.length - 1);
+        }
+
+        private void set(int slot, EventGroup group) {
+            mGroups[slot] = group;
+            refresh(slot);
+        }
+
+        private EventGroup remove(int slot) {
+            EventGroup group = mGroups[slot];
+            group.deactivate();
+            mGroups[slot] = null;
+            update(slot, -mSizes[slot]);
+            return group;
+        }
+
+        private void refresh(int slot) {
+            update(slot, mGroups[slot].itemCount() + 1 - mSizes[slot]);
+        }
+
+        private void update(int slot, int delta) {
+            if (delta == 0) {
+                return;
+            }
+            mSizes[slot] += delta;
+            mTotal += delta;
+            for (int i = slot + 1; i < mTree.length; i += i & -i) {
+                mTree[i] += delta;
             }
         }
+
+        /**
+         * @return  sum of sizes of slots before given slot
+         */
+        private int prefixSum(int slot) {
+            int sum = 0;
+            for (int i = slot; i > 0; i -= i & -i) {
+                sum += mTree[i];
+            }
+            return sum;
+        }
+
+        private void ensureCapacity() {
+            if (mSize < mGroups.length) {
+                return;
+            }
+            EventGroup[] groups = mGroups;
+            int head = mHead, size = mSize;
+            allocate(groups.length * 2);
+            for (int i = 0; i < size; i++) {
+                set(i, groups[(head + i) & (groups.length - 1)]);
+            }
+            mSize = size;
+        }
+
+        private void allocate(int capacity) { // capacity must be power of 2
+            mGroups = new EventGroup[capacity];
+            mSizes = new int[capacity];
+            mTree = new int[capacity + 1];
+            mHead = 0;
+            mSize = 0;
+            mTotal = 0;
+        }
     }
 
     static abstract class AdapterItem implements Parcelable {
-        final String mTitle;
-        final long mTimeMillis;
+        String mTitle;
+        long mTimeMillis;
 
         AdapterItem(String title, long timeMillis) {
             this.mTitle = title;
@@ -612,27 +1179,17 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             }
         };
 
-        interface EventObserver {
-            void onChange(long timeMillis);
-        }
-
-        private final ContentObserver mContentObserver = new ContentObserver(new Handler()) {
-            @Override
-            public boolean deliverSelfNotifications() {
-                return true;
-            }
-
-            @Override
-            public void onChange(boolean selfChange) {
-                mEventObserver.onChange(mTimeMillis);
-            }
-        };
-        private EventGroup.EventObserver mEventObserver;
-        int mLastCursorCount = 0;
-        EventCursor mCursor;
+        boolean mPending;
+        boolean mStale; // events are kept displayed until reloaded
+        boolean mDeferred; // loading deferred while binding is locked
+        boolean mPrefetched; // loading started ahead of binding, may be cancelled
+        EventSnapshot mEvents; // events of included calendars
+        EventSnapshot mAllEvents; // events of all calendars
+        long mCalendars; // bits of calendars of all events
+        private NoEventItem mNoEventItem;
 
         EventGroup(Context context, long timeMillis) {
-            super(CalendarUtils.toDayString(context, timeMillis), timeMillis);
+            super(DateFormatCache.getDayString(context, timeMillis), timeMillis);
         }
 
         private EventGroup(Parcel source) {
@@ -640,36 +1197,54 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         }
 
         int itemCount() {
-            if (mCursor == null || mCursor.getCount() == 0) {
-                return 1; // has a no event item by default
-            }
-            return mCursor.getCount();
+            return Math.max(eventCount(), 1); // has a no event item by default
+        }
+
+        int eventCount() {
+            return mEvents == null ? 0 : mEvents.getCount();
+        }
+
+        boolean needsLoading() {
+            return (mEvents == null || mStale) && !mPending;
         }
 
-        EventItem getItem(int index) {
-            if (mCursor == null || mCursor.getCount() == 0) {
-                return new NoEventItem(null, mTimeMillis);
+        /**
+         * Gets event at given index
+         * @param index    event index
+         * @param reuse    item to reuse, or null to allocate a new one if needed
+         * @return  event at given index, or a no event item if there is none
+         */
+        EventItem getItem(int index, @Nullable EventItem reuse) {
+            if (eventCount() == 0) {
+                if (mNoEventItem == null) {
+                    mNoEventItem = new NoEventItem(null, mTimeMillis);
+                }
+                return mNoEventItem;
             }
-            mCursor.moveToPosition(index);
-            // TODO use an object pool
-            return new EventItem(mTimeMillis, mCursor);
+            EventItem item = reuse != null ? reuse : new EventItem(null, mTimeMillis);
+            item.set(mTimeMillis, mEvents, index);
+            return item;
+        }
+
+        void setEvents(EventSnapshot events, CalendarFilter filter) {
+            mAllEvents = events;
+            mCalendars = filter.getMask(events);
+            mEvents = filter.apply(events);
+            mStale = false;
         }
 
-        void setCursor(EventCursor cursor, EventObserver eventObserver) {
-            deactivate(); // deactivate previously set cursor if any
-            cursor.registerContentObserver(mContentObserver);
-            mCursor = cursor;
-            mEventObserver = eventObserver;
+        void filterEvents(CalendarFilter filter) {
+            mEvents = filter.apply(mAllEvents);
         }
 
         void deactivate() {
-            mLastCursorCount = 0;
-            if (mCursor != null) {
-                mCursor.unregisterContentObserver(mContentObserver);
-                mCursor.close();
-                mCursor = null;
-                mEventObserver = null;
-            }
+            mPending = false;
+            mStale = false;
+            mDeferred = false;
+            mPrefetched = false;
+            mEvents = null;
+            mAllEvents = null;
+            mCalendars = 0;
         }
     }
 
@@ -696,20 +1271,24 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         long mStartTimeMillis;
         long mEndTimeMillis;
         boolean mIsAllDay;
+        boolean mRecurring;
         int mDisplayType = DISPLAY_TYPE_START_TIME;
 
-        EventItem(long timeMillis, EventCursor cursor) {
-            super(cursor.getTitle(), timeMillis);
-            mId = cursor.getId();
-            mCalendarId = cursor.getCalendarId();
-            mStartTimeMillis = cursor.getDateTimeStart();
-            mEndTimeMillis = cursor.getDateTimeEnd();
-            mIsAllDay = cursor.getAllDay();
-            // all-day time in Calendar Provider is midnight in UTC, need to convert to local
-            if (mIsAllDay) {
-                mStartTimeMillis = CalendarUtils.toLocalTimeZone(mStartTimeMillis);
-                mEndTimeMillis = CalendarUtils.toLocalTimeZone(mEndTimeMillis);
-            }
+        /**
+         * Rebinds this item to event at given index
+         * @param timeMillis    time in millis that represents day in agenda
+         * @param events        snapshot of {@link CalendarContract.Events} rows
+         * @param index         event index
+         */
+        void set(long timeMillis, EventSnapshot events, int index) {
+            mTitle = events.getTitle(index);
+            mTimeMillis = timeMillis;
+            mId = events.getId(index);
+            mCalendarId = events.getCalendarId(index);
+            mStartTimeMillis = events.getDateTimeStart(index);
+            mEndTimeMillis = events.getDateTimeEnd(index);
+            mIsAllDay = events.getAllDay(index);
+            mRecurring = events.isRecurring(index);
             setDisplayType();
         }
 
@@ -724,6 +1303,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             mStartTimeMillis = source.readLong();
             mEndTimeMillis = source.readLong();
             mIsAllDay = source.readInt() == 1;
+            mRecurring = source.readInt() == 1;
             mDisplayType = source.readInt();
         }
 
@@ -735,6 +1315,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             dest.writeLong(mStartTimeMillis);
             dest.writeLong(mEndTimeMillis);
             dest.writeInt(mIsAllDay ? 1 : 0);
+            dest.writeInt(mRecurring ? 1 : 0);
             dest.writeInt(mDisplayType);
         }
 
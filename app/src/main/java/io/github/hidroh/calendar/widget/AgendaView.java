@@ -7,6 +7,7 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -23,6 +24,9 @@ import io.github.hidroh.calendar.weather.Weather;
 public class AgendaView extends RecyclerView {
     private static final String STATE_VIEW = "state:view";
     private static final String STATE_ADAPTER = "state:adapter";
+    private static final long FRAME_MILLIS = 16;
+    // how far ahead in time current scroll velocity is projected for prefetching
+    private static final long PREFETCH_HORIZON_MILLIS = 500;
 
     private OnDateChangeListener mListener;
     private AgendaAdapter mAdapter;
@@ -30,6 +34,9 @@ public class AgendaView extends RecyclerView {
     private int mPendingScrollPosition = NO_POSITION;
     private long mPrevTimeMillis = CalendarUtils.NO_TIME_MILLIS;
     private Bundle mAdapterSavedState;
+    private int mPrefetchDirection;
+    private long mPrefetchTimeMillis = CalendarUtils.NO_TIME_MILLIS;
+    private long mPrevScrollMillis;
     private final int[] mColors;
 
     /**
@@ -82,7 +89,9 @@ public class AgendaView extends RecyclerView {
     @Override
     public void onScrolled(int dx, int dy) {
         if (dy != 0) { // avoid loading more or triggering notification on 1st layout
-            loadMore();
+            if (!prefetch(dy)) {
+                loadMore();
+            }
             notifyDateChange();
         }
     }
@@ -133,6 +142,10 @@ public class AgendaView extends RecyclerView {
         }
         mPendingScrollPosition = mAdapter.getPosition(getContext(), dayMillis);
         if (mPendingScrollPosition >= 0) {
+            // target may be far away, anything prefetched so far is stale
+            mAdapter.cancelPrefetch();
+            mPrefetchDirection = 0;
+            mPrefetchTimeMillis = CalendarUtils.NO_TIME_MILLIS;
             // lock binding to prevent loading events that might offset scroll position
             mAdapter.lockBinding();
             smoothScrollToPosition(mPendingScrollPosition);
@@ -156,6 +169,8 @@ public class AgendaView extends RecyclerView {
         // clear view state
         mPendingScrollPosition = NO_POSITION;
         mPrevTimeMillis = CalendarUtils.NO_TIME_MILLIS;
+        mPrefetchDirection = 0;
+        mPrefetchTimeMillis = CalendarUtils.NO_TIME_MILLIS;
         mAdapterSavedState = null;
         if (mAdapter != null) {
             int originalCount = mAdapter.getItemCount();
@@ -177,6 +192,27 @@ public class AgendaView extends RecyclerView {
         }
     }
 
+    /**
+     * Reloads previously bound data, keeping it displayed until new data is bound
+     */
+    public void refreshData() {
+        if (mAdapter != null) {
+            mAdapter.refresh();
+        }
+    }
+
+    /**
+     * Redisplays previously bound data after calendars have been toggled in filter,
+     * without reloading it
+     * @param calendarMask    bits of toggled calendars
+     * @see {@link io.github.hidroh.calendar.content.CalendarFilter#setExcluded(long, boolean)}
+     */
+    public void applyCalendarFilter(long calendarMask) {
+        if (mAdapter != null) {
+            mAdapter.applyCalendarFilter(calendarMask);
+        }
+    }
+
     private void init() {
         setHasFixedSize(false);
         setLayoutManager(new AgendaLinearLayoutManager(getContext()));
@@ -188,6 +224,61 @@ public class AgendaView extends RecyclerView {
         return (LinearLayoutManager) getLayoutManager();
     }
 
+    /**
+     * Extends date window and loads events ahead of visible days in scroll direction,
+     * before first or last adapter position becomes visible.
+     * How far ahead is extended depends on current scroll velocity.
+     * Paused while scrolling programmatically, as binding is locked.
+     * @param dy    vertical scroll amount
+     * @return  true if date window has been extended, false otherwise
+     */
+    boolean prefetch(int dy) {
+        long nowMillis = SystemClock.uptimeMillis();
+        long elapsedMillis = Math.max(nowMillis - mPrevScrollMillis, FRAME_MILLIS);
+        mPrevScrollMillis = nowMillis;
+        if (mAdapter == null || mPendingScrollPosition != NO_POSITION) {
+            return false;
+        }
+        int direction = dy > 0 ? 1 : -1;
+        if (direction != mPrefetchDirection) {
+            mAdapter.cancelPrefetch(); // stale, ahead in opposite direction
+            mPrefetchDirection = direction;
+            mPrefetchTimeMillis = CalendarUtils.NO_TIME_MILLIS;
+        }
+        int first = getLinearLayoutManager().findFirstVisibleItemPosition(),
+                last = getLinearLayoutManager().findLastVisibleItemPosition();
+        if (first < 0 || last < 0) {
+            return false;
+        }
+        // items visible plus items projected to be scrolled past within horizon
+        int lookahead = last - first + 1;
+        int itemHeight = getChildCount() > 0 ? getHeight() / getChildCount() : 0;
+        if (itemHeight > 0) {
+            lookahead += Math.abs(dy) * PREFETCH_HORIZON_MILLIS / elapsedMillis / itemHeight;
+        }
+        lookahead = Math.min(lookahead, AgendaAdapter.BLOCK_SIZE);
+        long timeMillis;
+        boolean extend;
+        if (direction > 0) {
+            timeMillis = mAdapter.getDay(last);
+            extend = mAdapter.getItemCount() - 1 - last <= lookahead;
+            if (extend) {
+                mAdapter.append(getContext());
+            }
+        } else {
+            timeMillis = mAdapter.getDay(first);
+            extend = first <= lookahead;
+            if (extend) {
+                mAdapter.prepend(getContext());
+            }
+        }
+        if (timeMillis != mPrefetchTimeMillis) { // once per day scrolled past
+            mPrefetchTimeMillis = timeMillis;
+            mAdapter.prefetch(timeMillis, direction > 0);
+        }
+        return extend;
+    }
+
     void loadMore() {
         if (mAdapter == null) {
             return;
@@ -209,7 +300,7 @@ public class AgendaView extends RecyclerView {
         if (position < 0) {
             return;
         }
-        long timeMillis = mAdapter.getAdapterItem(position).mTimeMillis;
+        long timeMillis = mAdapter.getDay(position);
         if (mPrevTimeMillis != timeMillis) {
             mPrevTimeMillis = timeMillis;
             // only notify listener if scroll is not triggered programmatically (i.e. no pending)
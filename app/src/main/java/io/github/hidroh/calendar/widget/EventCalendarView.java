@@ -1,15 +1,16 @@
 package io.github.hidroh.calendar.widget;
 
 import android.content.Context;
-import android.database.ContentObserver;
-import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.v4.util.Pools;
 import android.support.v4.view.ViewPager;
 import android.util.AttributeSet;
 import android.view.View;
 
 import io.github.hidroh.calendar.CalendarUtils;
-import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.content.QueryExecutor;
 
 /**
  * A custom CalendarDate View, in the form of circular {@link ViewPager}
@@ -19,6 +20,7 @@ import io.github.hidroh.calendar.content.EventCursor;
  * to first or last item.
  */
 public class EventCalendarView extends ViewPager {
+    private static final int DEFAULT_PREFETCH_MONTHS = 1;
 
     private final MonthView.OnDateChangeListener mDateChangeListener =
             new MonthView.OnDateChangeListener() {
@@ -29,9 +31,14 @@ public class EventCalendarView extends ViewPager {
                     notifyDayChange(dayMillis);
                 }
             };
+    // shared by adapters, so that pages of a reset adapter are reused
+    private final Pools.Pool<MonthView> mViewPool =
+            new Pools.SimplePool<>(MonthViewPagerAdapter.ITEM_COUNT);
     private MonthViewPagerAdapter mPagerAdapter;
+    private CalendarFilter mCalendarFilter;
     private OnChangeListener mListener;
     private CalendarAdapter mCalendarAdapter;
+    private int mPrefetchMonths = DEFAULT_PREFETCH_MONTHS;
 
     /**
      * Callback interface for calendar view change events
@@ -49,27 +56,81 @@ public class EventCalendarView extends ViewPager {
      */
     public static abstract class CalendarAdapter {
         private EventCalendarView mCalendarView;
+        private long mStartTimeMillis = CalendarUtils.NO_TIME_MILLIS;
+        private long mEndTimeMillis = CalendarUtils.NO_TIME_MILLIS;
 
         void setCalendarView(EventCalendarView calendarView) {
             mCalendarView = calendarView;
         }
 
         /**
-         * Loads events for given month. Should call {@link #bindEvents(long, EventCursor)} on complete
-         * @param monthMillis    month in milliseconds
-         * @see {@link #bindEvents(long, EventCursor)}
+         * Loads events for given range of months in one go, with given priority,
+         * either including displayed month or only ahead of display.
+         * Should call {@link #bindEvents(long, long, EventSnapshot)} on complete
+         * @param startMonthMillis    first day of first month in range
+         * @param endMonthMillis      first day of month after last month in range
+         * @param priority            one of {@link QueryExecutor#PRIORITY_VISIBLE} or
+         *                            {@link QueryExecutor#PRIORITY_PREFETCH}
+         * @see {@link #bindEvents(long, long, EventSnapshot)}
          */
-        protected void loadEvents(long monthMillis) {
+        protected void loadEvents(long startMonthMillis, long endMonthMillis, int priority) {
             // override to load events
         }
 
         /**
-         * Binds events for given month that have been loaded via {@link #loadEvents(long)}
+         * Notifies that range of months held by calendar view has changed, so that
+         * events of months outside of it can be released
+         * @param startTimeMillis    first day of first month in range
+         * @param endTimeMillis      first day of month after last month in range
+         */
+        protected void onRangeChanged(long startTimeMillis, long endTimeMillis) {
+            // override to retain loaded events
+        }
+
+        /**
+         * Notifies that calendar view has been deactivated and no longer displays
+         * events loaded via {@link #loadEvents(long, long, int)}
+         * @see {@link EventCalendarView#deactivate()}
+         */
+        protected void onDeactivate() {
+            // override to release loaded events
+        }
+
+        void deactivate() {
+            mStartTimeMillis = CalendarUtils.NO_TIME_MILLIS;
+            mEndTimeMillis = CalendarUtils.NO_TIME_MILLIS;
+            onDeactivate();
+        }
+
+        void setRange(long startTimeMillis, long endTimeMillis) {
+            if (startTimeMillis == mStartTimeMillis && endTimeMillis == mEndTimeMillis) {
+                return;
+            }
+            mStartTimeMillis = startTimeMillis;
+            mEndTimeMillis = endTimeMillis;
+            onRangeChanged(startTimeMillis, endTimeMillis);
+        }
+
+        /**
+         * Binds events for given month, e.g. from a snapshot that covers it
          * @param monthMillis    month in milliseconds
-         * @param cursor         {@link android.provider.CalendarContract.Events} cursor wrapper
+         * @param events         snapshot of {@link android.provider.CalendarContract.Events} rows
+         */
+        public final void bindEvents(long monthMillis, EventSnapshot events) {
+            mCalendarView.mPagerAdapter.swapEvents(monthMillis, events);
+        }
+
+        /**
+         * Binds events for given range of months that have been loaded in one go via
+         * {@link #loadEvents(long, long, int)}. Events are split into months they cover.
+         * @param startMonthMillis    first day of first month in range
+         * @param endMonthMillis      first day of month after last month in range
+         * @param events              snapshot of {@link android.provider.CalendarContract.Events}
+         *                            rows
          */
-        public final void bindEvents(long monthMillis, EventCursor cursor) {
-            mCalendarView.swapCursor(monthMillis, cursor);
+        public final void bindEvents(long startMonthMillis, long endMonthMillis,
+                                     EventSnapshot events) {
+            mCalendarView.mPagerAdapter.swapEvents(startMonthMillis, endMonthMillis, events);
         }
     }
 
@@ -135,17 +196,52 @@ public class EventCalendarView extends ViewPager {
         loadEvents(getCurrentItem());
     }
 
+    /**
+     * Sets filter of calendars whose events are displayed
+     * @param calendarFilter    filter of calendars, shared with other views if any
+     * @see {@link #applyCalendarFilter(long)}
+     */
+    public void setCalendarFilter(@NonNull CalendarFilter calendarFilter) {
+        mCalendarFilter = calendarFilter;
+        mPagerAdapter.setCalendarFilter(calendarFilter);
+    }
+
+    /**
+     * Redisplays previously bound data after calendars have been toggled in filter,
+     * without reloading it
+     * @param calendarMask    bits of toggled calendars
+     * @see {@link CalendarFilter#setExcluded(long, boolean)}
+     */
+    public void applyCalendarFilter(long calendarMask) {
+        mPagerAdapter.applyCalendarFilter(calendarMask);
+    }
+
+    /**
+     * Sets number of months before and after displayed month to load ahead of display,
+     * together with displayed month in one go, so that their days are marked before
+     * being swiped to
+     * @param months    number of months on each side, 0 to only load displayed month
+     */
+    public void setPrefetchMonths(int months) {
+        mPrefetchMonths = Math.max(months, 0);
+        loadEvents(getCurrentItem());
+    }
+
     /**
      * Clears any active data bindings from adapter
      * @see {@link #setCalendarAdapter(CalendarAdapter)}
      */
     public void deactivate() {
         mPagerAdapter.deactivate();
+        if (mCalendarAdapter != null) {
+            mCalendarAdapter.deactivate();
+        }
     }
 
     /**
      * Clears any active data bindings from adapter,
-     * but keeps view state and triggers rebinding data
+     * but keeps view state and triggers rebinding data.
+     * Months ahead of display will be reloaded upon being swiped to or near.
      */
     public void invalidateData() {
         mPagerAdapter.invalidate();
@@ -163,7 +259,10 @@ public class EventCalendarView extends ViewPager {
     }
 
     private void init() {
-        mPagerAdapter = new MonthViewPagerAdapter(mDateChangeListener);
+        mPagerAdapter = new MonthViewPagerAdapter(mDateChangeListener, mViewPool);
+        if (mCalendarFilter != null) {
+            mPagerAdapter.setCalendarFilter(mCalendarFilter);
+        }
         setAdapter(mPagerAdapter);
         setCurrentItem(mPagerAdapter.getCount() / 2);
         addOnPageChangeListener(new SimpleOnPageChangeListener() {
@@ -178,6 +277,8 @@ public class EventCalendarView extends ViewPager {
                     notifyDayChange(mPagerAdapter.getMonth(position));
                 }
                 mDragging = false;
+                // load ahead of selected month while settling, swiped or set programmatically
+                loadEvents(position);
                 // trigger same scroll state changed logic, which would not be fired if not visible
                 if (getVisibility() != VISIBLE) {
                     onPageScrollStateChanged(SCROLL_STATE_IDLE);
@@ -231,38 +332,37 @@ public class EventCalendarView extends ViewPager {
         }
     }
 
+    /**
+     * Loads events of month at given position and months around it within prefetch span
+     * that are not bound yet, each run of consecutive months in one go
+     * @param position    current item position
+     * @see {@link #setPrefetchMonths(int)}
+     */
     private void loadEvents(int position) {
-        if (mCalendarAdapter != null && mPagerAdapter.getCursor(position) == null) {
-            mCalendarAdapter.loadEvents(mPagerAdapter.getMonth(position));
+        if (mCalendarAdapter == null) {
+            return;
         }
-    }
-
-    private void swapCursor(long monthMillis, EventCursor cursor) {
-        mPagerAdapter.swapCursor(monthMillis, cursor, new PagerContentObserver(monthMillis));
-    }
-
-    class PagerContentObserver extends ContentObserver {
-
-        private final long monthMillis;
-
-        public PagerContentObserver(long monthMillis) {
-            super(new Handler());
-            this.monthMillis = monthMillis;
-        }
-
-        @Override
-        public boolean deliverSelfNotifications() {
-            return true;
-        }
-
-        @Override
-        public void onChange(boolean selfChange) {
-            // invalidate previous cursor for given month
-            mPagerAdapter.swapCursor(monthMillis, null, null);
-            // reload events if given month is active month
-            // hidden months will be reloaded upon being swiped to
-            if (CalendarUtils.sameMonth(monthMillis, mPagerAdapter.getMonth(getCurrentItem()))) {
-                loadEvents(getCurrentItem());
+        long monthMillis = mPagerAdapter.getMonth(position),
+                firstMonthMillis = CalendarUtils.addMonths(monthMillis, -mPrefetchMonths),
+                endMonthMillis = CalendarUtils.addMonths(monthMillis, mPrefetchMonths + 1);
+        // hold both pages and months within prefetch span
+        long startTimeMillis = Math.min(mPagerAdapter.getMonth(0), firstMonthMillis),
+                endTimeMillis = Math.max(CalendarUtils.addMonths(
+                        mPagerAdapter.getMonth(mPagerAdapter.getCount() - 1), 1), endMonthMillis);
+        mCalendarAdapter.setRange(startTimeMillis, endTimeMillis);
+        mPagerAdapter.retainEvents(startTimeMillis, endTimeMillis);
+        // load each run of months without events in one go, usually a single run
+        long loadStartMillis = CalendarUtils.NO_TIME_MILLIS;
+        for (long month = firstMonthMillis; month <= endMonthMillis;
+             month = CalendarUtils.addMonths(month, 1)) {
+            boolean loaded = month == endMonthMillis || mPagerAdapter.hasEvents(month);
+            if (!loaded && loadStartMillis == CalendarUtils.NO_TIME_MILLIS) {
+                loadStartMillis = month;
+            } else if (loaded && loadStartMillis != CalendarUtils.NO_TIME_MILLIS) {
+                mCalendarAdapter.loadEvents(loadStartMillis, month,
+                        loadStartMillis <= monthMillis && monthMillis < month ?
+                                QueryExecutor.PRIORITY_VISIBLE : QueryExecutor.PRIORITY_PREFETCH);
+                loadStartMillis = CalendarUtils.NO_TIME_MILLIS;
             }
         }
     }
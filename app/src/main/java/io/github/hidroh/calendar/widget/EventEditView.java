@@ -116,7 +116,9 @@ public class EventEditView extends RelativeLayout {
      */
     public void swapCalendarSource(CalendarCursor cursor) {
         mCursor = cursor;
-        mTextViewCalendar.setEnabled(mCursor != null && mCursor.getCount() > 0);
+        // instances stay in calendar of their series
+        mTextViewCalendar.setEnabled(!mEvent.isInstance() &&
+                mCursor != null && mCursor.getCount() > 0);
     }
 
     /**
@@ -392,6 +394,17 @@ public class EventEditView extends RelativeLayout {
                 return this;
             }
 
+            /**
+             * Sets original start time of this instance of a recurring series,
+             * whose ID is set via {@link #id(long)}
+             * @param timeMillis    original start time in milliseconds, in UTC if all day
+             * @return  this instance (fluent API)
+             */
+            public Builder originalInstanceTime(long timeMillis) {
+                event.originalInstanceTime = timeMillis;
+                return this;
+            }
+
             /**
              * Sets event all day status
              * @param isAllDay    true if event is all day, false otherwise
@@ -415,6 +428,7 @@ public class EventEditView extends RelativeLayout {
 
         long id = NO_ID;
         long calendarId = NO_ID;
+        long originalInstanceTime = CalendarUtils.NO_TIME_MILLIS;
         String title;
         boolean isAllDay = false;
         final Calendar localStart = Calendar.getInstance();
@@ -430,6 +444,7 @@ public class EventEditView extends RelativeLayout {
         Event(Parcel in) {
             id = in.readLong();
             calendarId = in.readLong();
+            originalInstanceTime = in.readLong();
             title = in.readString();
             isAllDay = in.readByte() != 0;
             localStart.setTimeInMillis(in.readLong());
@@ -440,6 +455,7 @@ public class EventEditView extends RelativeLayout {
         public void writeToParcel(Parcel dest, int flags) {
             dest.writeLong(id);
             dest.writeLong(calendarId);
+            dest.writeLong(originalInstanceTime);
             dest.writeString(title);
             dest.writeByte((byte) (isAllDay ? 1 : 0));
             dest.writeLong(localStart.getTimeInMillis());
@@ -467,6 +483,25 @@ public class EventEditView extends RelativeLayout {
             return id != NO_ID;
         }
 
+        /**
+         * Checks if this is an instance of a recurring series, which should be saved
+         * or deleted as an exception of its series, whose ID is {@link #getId()}
+         * @return  true if instance of recurring series, false otherwise
+         */
+        public boolean isInstance() {
+            return originalInstanceTime != CalendarUtils.NO_TIME_MILLIS;
+        }
+
+        /**
+         * Gets original start time of this instance of a recurring series
+         * @return  original start time in milliseconds, in UTC if all day,
+         *          or {@link CalendarUtils#NO_TIME_MILLIS} if not an instance
+         * @see {@link #isInstance()}
+         */
+        public long getOriginalInstanceTime() {
+            return originalInstanceTime;
+        }
+
         /**
          * Checks if this instance has calendar ID
          * @return  true if have calendar ID, false otherwise
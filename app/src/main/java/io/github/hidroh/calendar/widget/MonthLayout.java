@@ -0,0 +1,91 @@
+package io.github.hidroh.calendar.widget;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+/**
+ * Immutable grid layout of a month for a week start: days carried over from previous month,
+ * number of days and weekday header labels. Layouts are precomputed once and kept in a small
+ * table keyed by month and {@link CalendarUtils#sWeekStart}, so that binding recently
+ * displayed months while paging does not recompute or allocate.
+ * Should only be accessed from main thread.
+ * @see {@link #get(long)}
+ */
+final class MonthLayout {
+    static final int DAYS_PER_WEEK = 7;
+    static final String[] DAY_LABELS = new String[31]; // day of month labels
+    static {
+        for (int i = 0; i < DAY_LABELS.length; i++) {
+            DAY_LABELS[i] = String.valueOf(i + 1);
+        }
+    }
+    @VisibleForTesting static final int CACHE_SIZE = 32; // a year overview and pager cycles
+    private static final MonthLayout[] sLayouts = new MonthLayout[CACHE_SIZE];
+    private static final String[][] sHeaders = new String[DAYS_PER_WEEK][]; // by week start
+    private static int sNextSlot; // oldest layout, evicted first
+    private static Locale sLocale;
+
+    final long mFirstDayMillis;
+    final int mWeekStart;
+    final int mStartOffset; // empty cells before first day
+    final int mDays;
+    final String[] mHeaders; // short weekday names, by column
+    final int mWeeks;
+
+    /**
+     * Gets layout of given month for current week start
+     * @param monthMillis    month in milliseconds
+     * @return  cached or newly computed layout
+     */
+    static MonthLayout get(long monthMillis) {
+        long firstDayMillis = CalendarUtils.monthFirstDay(monthMillis);
+        int weekStart = CalendarUtils.sWeekStart;
+        String[] headers = getHeaders(weekStart);
+        for (MonthLayout layout : sLayouts) {
+            // headers are renewed upon locale change
+            if (layout != null && layout.mFirstDayMillis == firstDayMillis &&
+                    layout.mWeekStart == weekStart && layout.mHeaders == headers) {
+                return layout;
+            }
+        }
+        MonthLayout layout = new MonthLayout(firstDayMillis, weekStart, headers);
+        sLayouts[sNextSlot] = layout;
+        sNextSlot = (sNextSlot + 1) % CACHE_SIZE;
+        return layout;
+    }
+
+    private static String[] getHeaders(int weekStart) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(sLocale)) {
+            sLocale = locale;
+            for (int i = 0; i < sHeaders.length; i++) {
+                sHeaders[i] = null;
+            }
+        }
+        int index = weekStart - Calendar.SUNDAY;
+        if (sHeaders[index] == null) {
+            String[] weekdays = DateFormatSymbols.getInstance().getShortWeekdays();
+            String[] headers = new String[DAYS_PER_WEEK];
+            for (int column = 0; column < DAYS_PER_WEEK; column++) {
+                // Calendar.SUNDAY..SATURDAY are 1..7
+                headers[column] = weekdays[(index + column) % DAYS_PER_WEEK + Calendar.SUNDAY];
+            }
+            sHeaders[index] = headers;
+        }
+        return sHeaders[index];
+    }
+
+    private MonthLayout(long firstDayMillis, int weekStart, String[] headers) {
+        mFirstDayMillis = firstDayMillis;
+        mWeekStart = weekStart;
+        mStartOffset = CalendarUtils.monthFirstDayOffset(firstDayMillis);
+        mDays = CalendarUtils.monthSize(firstDayMillis);
+        mHeaders = headers;
+        mWeeks = (mStartOffset + mDays + DAYS_PER_WEEK - 1) / DAYS_PER_WEEK;
+    }
+}
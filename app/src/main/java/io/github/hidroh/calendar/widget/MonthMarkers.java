@@ -0,0 +1,153 @@
+package io.github.hidroh.calendar.widget;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+
+/**
+ * Immutable summary of how many events each day of a month has, kept as one row of
+ * day counts per calendar in a flat array. Counts are computed in a single sweep-line
+ * pass over month events, which can be done on a background thread, and are small enough
+ * for years of them to be kept in memory. Markers may also span consecutive months,
+ * e.g. a whole year, with days counted from first day of first month.
+ * @see {@link #compute(long, EventSnapshot)}
+ * @see {@link #compute(long, int, EventSnapshot)}
+ */
+class MonthMarkers {
+    private static final long[] NO_CALENDARS = new long[0];
+    private static final int[] NO_DAYS = new int[0];
+
+    final long mMonthMillis;
+    private final int mDays;
+    private final long[] mCalendarIds;
+    private final int[] mDayCounts; // by calendar, then by day
+
+    /**
+     * Computes markers of given month events, each event counts towards days from its start
+     * to its end inclusive, or to the day before its end for all-day events.
+     * This can be called on any thread.
+     * @param monthMillis    month in milliseconds
+     * @param events         snapshot of {@link android.provider.CalendarContract.Events} rows
+     * @return  computed markers
+     */
+    static MonthMarkers compute(long monthMillis, @NonNull EventSnapshot events) {
+        return compute(monthMillis, 1, events);
+    }
+
+    /**
+     * Computes markers of given events over given number of consecutive months
+     * in a single pass. This can be called on any thread.
+     * @param monthMillis    first month in milliseconds
+     * @param months         number of months
+     * @param events         snapshot of {@link android.provider.CalendarContract.Events} rows
+     * @return  computed markers
+     * @see {@link #compute(long, EventSnapshot)}
+     */
+    static MonthMarkers compute(long monthMillis, int months, @NonNull EventSnapshot events) {
+        long[] dayStarts = dayStarts(monthMillis, months);
+        int days = dayStarts.length - 1;
+        int stride = days + 1; // sweep line: +1 on start day, -1 on day after end day
+        long[] calendarIds = NO_CALENDARS;
+        int[] deltas = NO_DAYS;
+        int calendars = 0;
+        for (int i = 0; i < events.getCount(); i++) {
+            long end = events.getDateTimeEnd(i);
+            // all-day event ends at midnight of the day after
+            if (events.getAllDay(i)) {
+                end = Math.max(end - 1, events.getDateTimeStart(i));
+            }
+            int startDay = Math.max(dayOf(dayStarts, events.getDateTimeStart(i)), 0),
+                    endDay = Math.min(dayOf(dayStarts, end), days - 1);
+            if (startDay > endDay) {
+                continue;
+            }
+            long calendarId = events.getCalendarId(i);
+            int index = 0;
+            while (index < calendars && calendarIds[index] != calendarId) {
+                index++;
+            }
+            if (index == calendars) {
+                if (calendars == calendarIds.length) {
+                    calendarIds = Arrays.copyOf(calendarIds, calendars * 2 + 1);
+                    deltas = Arrays.copyOf(deltas, (calendars * 2 + 1) * stride);
+                }
+                calendarIds[index] = calendarId;
+                calendars++;
+            }
+            deltas[index * stride + startDay]++;
+            deltas[index * stride + endDay + 1]--;
+        }
+        int[] dayCounts = new int[calendars * days];
+        for (int calendar = 0; calendar < calendars; calendar++) {
+            int count = 0;
+            for (int day = 0; day < days; day++) {
+                count += deltas[calendar * stride + day];
+                dayCounts[calendar * days + day] = count;
+            }
+        }
+        return new MonthMarkers(monthMillis, days, Arrays.copyOf(calendarIds, calendars),
+                dayCounts);
+    }
+
+    private static long[] dayStarts(long monthMillis, int months) {
+        long firstDayMillis = CalendarUtils.monthFirstDay(monthMillis);
+        int days = 0;
+        for (int i = 0; i < months; i++) {
+            days += CalendarUtils.monthSize(CalendarUtils.addMonths(firstDayMillis, i));
+        }
+        long[] dayStarts = new long[days + 1];
+        for (int i = 0; i <= days; i++) {
+            dayStarts[i] = CalendarUtils.addDays(firstDayMillis, i);
+        }
+        return dayStarts;
+    }
+
+    private static int dayOf(long[] dayStarts, long timeMillis) {
+        int index = Arrays.binarySearch(dayStarts, timeMillis);
+        return index >= 0 ? index : -index - 2; // -1 if before month
+    }
+
+    private MonthMarkers(long monthMillis, int days, long[] calendarIds, int[] dayCounts) {
+        mMonthMillis = monthMillis;
+        mDays = days;
+        mCalendarIds = calendarIds;
+        mDayCounts = dayCounts;
+    }
+
+    /**
+     * Gets bits of calendars that have events in this month
+     * @param filter    filter that assigns calendar bits
+     * @return  bitset of calendars
+     * @see {@link CalendarFilter#getMask(long)}
+     */
+    long getCalendarMask(@NonNull CalendarFilter filter) {
+        long mask = 0;
+        for (long calendarId : mCalendarIds) {
+            mask |= filter.getMask(calendarId);
+        }
+        return mask;
+    }
+
+    /**
+     * Gets number of events per day of calendars not excluded by given filter
+     * @param filter       filter of calendars
+     * @param dayCounts    array to receive counts, where element N is for day N + 1 of month,
+     *                     or Nth day since first day of first month if spanning months,
+     *                     large enough for all days, elements beyond last day are cleared
+     */
+    void getDayCounts(@NonNull CalendarFilter filter, @NonNull int[] dayCounts) {
+        Arrays.fill(dayCounts, 0);
+        for (int i = 0; i < mCalendarIds.length; i++) {
+            if (filter.isExcluded(mCalendarIds[i])) {
+                continue;
+            }
+            for (int day = 0; day < mDays; day++) {
+                dayCounts[day] += mDayCounts[i * mDays + day];
+            }
+        }
+    }
+}
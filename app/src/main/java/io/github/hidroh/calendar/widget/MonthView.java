@@ -1,40 +1,63 @@
 package io.github.hidroh.calendar.widget;
 
 import android.content.Context;
-import android.provider.CalendarContract;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.StyleRes;
 import android.support.annotation.VisibleForTesting;
-import android.support.v7.widget.GridLayoutManager;
-import android.support.v7.widget.RecyclerView;
-import android.text.SpannableString;
-import android.text.Spanned;
-import android.text.format.DateUtils;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
 import android.util.AttributeSet;
-import android.view.LayoutInflater;
+import android.util.TypedValue;
+import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.TextView;
+import android.view.accessibility.AccessibilityEvent;
 
-import java.text.DateFormatSymbols;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 import io.github.hidroh.calendar.CalendarUtils;
 import io.github.hidroh.calendar.R;
-import io.github.hidroh.calendar.content.EventCursor;
-import io.github.hidroh.calendar.text.style.CircleSpan;
-import io.github.hidroh.calendar.text.style.UnderDotSpan;
+import io.github.hidroh.calendar.text.DateFormatCache;
 
 /**
- * Custom widget to display a grid of days in a month, represented by a {@link Calendar}
+ * Custom widget to display a grid of days in a month, represented by a {@link Calendar}.
+ * Grid is a header row of weekdays followed by a row per week, laid out arithmetically
+ * and drawn on a single canvas, with selected day circled and days with events dotted,
+ * one dot per event up to {@link #MAX_DOTS}.
+ * Paints are resolved once and month layouts are shared via {@link MonthLayout}, so that
+ * binding month, selection or markers does not allocate, and views can be recycled.
  */
-class MonthView extends RecyclerView {
-    private static final int SPANS_COUNT = 7; // days in week
+class MonthView extends View {
+    private static final int SPANS_COUNT = MonthLayout.DAYS_PER_WEEK;
+    private static final int MAX_DOTS = 3;
+    private static final String[] DAY_LABELS = MonthLayout.DAY_LABELS;
+
     @VisibleForTesting long mMonthMillis;
-    private GridAdapter mAdapter;
+    @VisibleForTesting final int[] mDayCounts = new int[DAY_LABELS.length]; // events by day
+    @VisibleForTesting int mSelectedDay = -1; // day index, or -1 if none
+    private final Paint mHeaderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mSelectedDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mAccentPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final DayTouchHelper mTouchHelper;
+    private float mRowHeight;
+    private float mHeaderBaseline; // from row center
+    private float mDayBaseline; // from row center
+    private float mCircleRadius;
+    private float mDotOffset; // from row center
+    private float mDotRadius;
+    private float mDotSpacing; // between dot centers
+    private MonthLayout mLayout;
+    private int mTouchedDay = -1;
     private OnDateChangeListener mListener;
 
     /**
@@ -58,6 +81,8 @@ class MonthView extends RecyclerView {
 
     public MonthView(Context context, @Nullable AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        mTouchHelper = new DayTouchHelper(this);
+        ViewCompat.setAccessibilityDelegate(this, mTouchHelper);
         init();
     }
 
@@ -70,11 +95,50 @@ class MonthView extends RecyclerView {
     }
 
     private void init() {
-        setLayoutManager(new GridLayoutManager(getContext(), SPANS_COUNT));
-        setHasFixedSize(true);
+        Context context = getContext();
+        TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{
+                R.attr.colorAccent,
+                android.R.attr.textColorPrimaryInverse,
+                R.attr.listPreferredItemHeightSmall
+        });
+        mAccentPaint.setColor(ta.getColor(0, ContextCompat.getColor(context, R.color.greenA700)));
+        //noinspection ResourceType
+        mSelectedDayPaint.setColor(ta.getColor(1, 0));
+        //noinspection ResourceType
+        mRowHeight = ta.getDimension(2, TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
+                48, getResources().getDisplayMetrics()));
+        ta.recycle();
+        setTextAppearance(mHeaderPaint, R.style.TextAppearance_AppCompat_Caption);
+        setTextAppearance(mDayPaint, R.style.TextAppearance_AppCompat_Body1);
+        mSelectedDayPaint.setTextSize(mDayPaint.getTextSize());
+        mSelectedDayPaint.setTextAlign(Paint.Align.CENTER);
+        Paint.FontMetrics metrics = mHeaderPaint.getFontMetrics();
+        mHeaderBaseline = -(metrics.ascent + metrics.descent) / 2;
+        metrics = mDayPaint.getFontMetrics();
+        mDayBaseline = -(metrics.ascent + metrics.descent) / 2;
+        float dotSize = getResources().getDimension(R.dimen.dot_size);
+        // circle covers 2 digits, dot sits under text
+        mCircleRadius = mDayPaint.measureText(DAY_LABELS[DAY_LABELS.length - 1]) / 2 +
+                getResources().getDimension(R.dimen.padding_circle);
+        mDotOffset = (metrics.descent - metrics.ascent) / 2 + dotSize;
+        mDotRadius = dotSize / 2;
+        mDotSpacing = dotSize * 2;
         setCalendar(CalendarUtils.today());
     }
 
+    private void setTextAppearance(Paint paint, @StyleRes int textAppearance) {
+        TypedArray ta = getContext().obtainStyledAttributes(textAppearance, new int[]{
+                android.R.attr.textSize,
+                android.R.attr.textColor
+        });
+        //noinspection ResourceType
+        paint.setTextSize(ta.getDimension(0, 0));
+        //noinspection ResourceType
+        paint.setColor(ta.getColor(1, 0));
+        ta.recycle();
+        paint.setTextAlign(Paint.Align.CENTER);
+    }
+
     /**
      * Sets month to display
      * @param monthMillis  month to display in milliseconds
@@ -83,23 +147,21 @@ class MonthView extends RecyclerView {
         if (CalendarUtils.isNotTime(monthMillis)) {
             throw new IllegalArgumentException("Invalid timestamp value");
         }
-        if (CalendarUtils.sameMonth(mMonthMillis, monthMillis)) {
+        MonthLayout layout = MonthLayout.get(monthMillis);
+        if (layout == mLayout) {
             return;
         }
+        if (mLayout == null || layout.mFirstDayMillis != mLayout.mFirstDayMillis) {
+            mSelectedDay = -1;
+            Arrays.fill(mDayCounts, 0);
+        }
+        if (mLayout == null || layout.mWeeks != mLayout.mWeeks) {
+            requestLayout();
+        }
         mMonthMillis = monthMillis;
-        mAdapter = new GridAdapter(monthMillis);
-        mAdapter.registerAdapterDataObserver(new AdapterDataObserver() {
-            @Override
-            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
-                if (mListener == null) {
-                    return;
-                }
-                if (payload instanceof SelectionPayload) {
-                    mListener.onSelectedDayChange(((SelectionPayload) payload).timeMillis);
-                }
-            }
-        });
-        setAdapter(mAdapter);
+        mLayout = layout;
+        invalidate();
+        mTouchHelper.invalidateRoot();
     }
 
     /**
@@ -110,205 +172,205 @@ class MonthView extends RecyclerView {
         if (CalendarUtils.isNotTime(mMonthMillis)) {
             return;
         }
-        if (CalendarUtils.isNotTime(dayMillis)) {
-            mAdapter.setSelectedDay(CalendarUtils.NO_TIME_MILLIS);
-        } else if (CalendarUtils.sameMonth(mMonthMillis, dayMillis)) {
-            mAdapter.setSelectedDay(dayMillis);
+        if (!CalendarUtils.isNotTime(dayMillis) && CalendarUtils.sameMonth(mMonthMillis, dayMillis)) {
+            setSelectedIndex(CalendarUtils.dayOfMonth(dayMillis) - 1, false);
         } else {
-            mAdapter.setSelectedDay(CalendarUtils.NO_TIME_MILLIS);
+            setSelectedIndex(-1, false);
         }
     }
 
     /**
-     * Swaps cursor for calendar events
-     * @param cursor    {@link CalendarContract.Events} cursor wrapper
+     * Sets number of events per day, redrawing only if counts have changed
+     * @param dayCounts    event counts, where element N is for day N + 1 of month,
+     *                     for at least days in month
+     * @see {@link MonthMarkers}
      */
-    void swapCursor(@NonNull EventCursor cursor) {
-        mAdapter.swapCursor(cursor);
+    void setDayCounts(int[] dayCounts) {
+        boolean changed = false;
+        for (int day = 0; day < mLayout.mDays; day++) {
+            if (mDayCounts[day] != dayCounts[day]) {
+                mDayCounts[day] = dayCounts[day];
+                changed = true;
+            }
+        }
+        if (changed) {
+            invalidate();
+        }
     }
 
-    static class GridAdapter extends Adapter<CellViewHolder> {
-        private static final int VIEW_TYPE_HEADER = 0;
-        private static final int VIEW_TYPE_CONTENT = 1;
-        private final String[] mWeekdays;
-        private final int mStartOffset;
-        private final int mDays;
-        private final long mBaseTimeMillis;
-        @VisibleForTesting final Set<Integer> mEvents = new HashSet<>();
-        private EventCursor mCursor;
-        private int mSelectedPosition = -1;
-
-        public GridAdapter(long monthMillis) {
-            mWeekdays = DateFormatSymbols.getInstance().getShortWeekdays();
-            mBaseTimeMillis = CalendarUtils.monthFirstDay(monthMillis);
-            mStartOffset = CalendarUtils.monthFirstDayOffset(mBaseTimeMillis) + SPANS_COUNT;
-            mDays = mStartOffset + CalendarUtils.monthSize(monthMillis);
-        }
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = Math.round((mLayout.mWeeks + 1) * mRowHeight) + // header + weeks
+                getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
 
-        @Override
-        public CellViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            LayoutInflater inflater = LayoutInflater.from(parent.getContext());
-            switch (viewType) {
-                case VIEW_TYPE_HEADER:
-                    return new HeaderViewHolder(inflater.inflate(
-                            R.layout.grid_item_header, parent, false));
-                case VIEW_TYPE_CONTENT:
-                default:
-                    return new ContentViewHolder(inflater.inflate(
-                            R.layout.grid_item_content, parent, false));
-            }
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float cellWidth = getCellWidth();
+        float centerY = getPaddingTop() + mRowHeight / 2;
+        for (int column = 0; column < SPANS_COUNT; column++) {
+            canvas.drawText(mLayout.mHeaders[column],
+                    getPaddingLeft() + cellWidth * (column + .5f),
+                    centerY + mHeaderBaseline,
+                    mHeaderPaint);
         }
-
-        @Override
-        public void onBindViewHolder(CellViewHolder holder, int position) {
-            if (holder instanceof HeaderViewHolder) {
-                int index;
-                switch (CalendarUtils.sWeekStart) {
-                    case Calendar.SATURDAY:
-                        index = position == 0 ? Calendar.SATURDAY : position;
-                        break;
-                    case Calendar.SUNDAY:
-                    default:
-                        index = position + Calendar.SUNDAY;
-                        break;
-                    case Calendar.MONDAY:
-                        index = position + Calendar.MONDAY == mWeekdays.length ?
-                                Calendar.SUNDAY : position + Calendar.MONDAY;
-                        break;
-                }
-                ((HeaderViewHolder) holder).textView.setText(mWeekdays[index]);
-            } else { // holder instanceof ContentViewHolder
-                if (position < mStartOffset) {
-                    ((ContentViewHolder) holder).textView.setText(null);
-                } else {
-                    final int adapterPosition = holder.getAdapterPosition();
-                    TextView textView = ((ContentViewHolder) holder).textView;
-                    int dayIndex = adapterPosition - mStartOffset;
-                    String dayString = String.valueOf(dayIndex + 1);
-                    SpannableString spannable = new SpannableString(dayString);
-                    if (mSelectedPosition == adapterPosition) {
-                        spannable.setSpan(new CircleSpan(textView.getContext()), 0,
-                                dayString.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    } else if (mEvents.contains(dayIndex)) {
-                        spannable.setSpan(new UnderDotSpan(textView.getContext()),
-                                0, dayString.length(),
-                                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                    textView.setText(spannable, TextView.BufferType.SPANNABLE);
-                    textView.setOnClickListener(new OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            setSelectedPosition(adapterPosition, true);
-                        }
-                    });
+        for (int day = 0; day < mLayout.mDays; day++) {
+            int cell = mLayout.mStartOffset + day;
+            float centerX = getPaddingLeft() + cellWidth * (cell % SPANS_COUNT + .5f);
+            centerY = getPaddingTop() + mRowHeight * (cell / SPANS_COUNT + 1.5f);
+            if (day == mSelectedDay) {
+                canvas.drawCircle(centerX, centerY, mCircleRadius, mAccentPaint);
+                canvas.drawText(DAY_LABELS[day], centerX, centerY + mDayBaseline,
+                        mSelectedDayPaint);
+            } else {
+                int dots = Math.min(mDayCounts[day], MAX_DOTS);
+                for (int dot = 0; dot < dots; dot++) {
+                    canvas.drawCircle(centerX + (dot - (dots - 1) / 2f) * mDotSpacing,
+                            centerY + mDotOffset, mDotRadius, mAccentPaint);
                 }
+                canvas.drawText(DAY_LABELS[day], centerX, centerY + mDayBaseline, mDayPaint);
             }
         }
+    }
 
-        @Override
-        public int getItemViewType(int position) {
-            if (position < SPANS_COUNT) {
-                return VIEW_TYPE_HEADER;
-            }
-            return VIEW_TYPE_CONTENT;
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mTouchedDay = getDayAt(event.getX(), event.getY());
+                break;
+            case MotionEvent.ACTION_UP:
+                if (mTouchedDay >= 0 && getDayAt(event.getX(), event.getY()) == mTouchedDay) {
+                    performClick();
+                }
+                mTouchedDay = -1;
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mTouchedDay = -1;
+                return true;
         }
+        return mTouchedDay >= 0;
+    }
 
-        @Override
-        public int getItemCount() {
-            return mDays;
+    @Override
+    public boolean performClick() {
+        super.performClick();
+        if (mTouchedDay >= 0) {
+            setSelectedIndex(mTouchedDay, true);
+            mTouchHelper.sendEventForVirtualView(mTouchedDay, AccessibilityEvent.TYPE_VIEW_CLICKED);
         }
+        return true;
+    }
 
-        void setSelectedDay(long dayMillis) {
-            setSelectedPosition(CalendarUtils.isNotTime(dayMillis) ? -1 :
-                    mStartOffset + CalendarUtils.dayOfMonth(dayMillis) - 1, false);
-        }
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mTouchHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
 
-        void swapCursor(@NonNull EventCursor cursor) {
-            if (mCursor == cursor) {
-                return;
-            }
-            mCursor = cursor;
-            Iterator<Integer> iterator = mEvents.iterator();
-            while (iterator.hasNext()) {
-                int dayIndex = iterator.next();
-                iterator.remove();
-                notifyItemChanged(dayIndex + mStartOffset);
-            }
-            if (!mCursor.moveToFirst()) {
-                return;
-            }
-            // TODO improve performance
-            do {
-                long start = mCursor.getDateTimeStart();
-                long end = mCursor.getDateTimeEnd();
-                boolean allDay = mCursor.getAllDay();
-                // all-day time in Calendar Provider is midnight in UTC, need to convert to local
-                if (allDay) {
-                    start = CalendarUtils.toLocalTimeZone(start);
-                    end = CalendarUtils.toLocalTimeZone(end) - DateUtils.DAY_IN_MILLIS;
-                }
-                int startIndex = (int) ((start - mBaseTimeMillis) / DateUtils.DAY_IN_MILLIS);
-                int endIndex = (int) ((end - mBaseTimeMillis) / DateUtils.DAY_IN_MILLIS);
-                endIndex = Math.min(endIndex, getItemCount() - mStartOffset - 1);
-                for (int dayIndex = startIndex; dayIndex <= endIndex; dayIndex++) {
-                    if (!mEvents.contains(dayIndex)) {
-                        mEvents.add(dayIndex);
-                        notifyItemChanged(dayIndex + mStartOffset);
-                    }
-                }
-            } while (mCursor.moveToNext());
+    /**
+     * Gets day at given coordinates
+     * @param x    x coordinate in pixels, relative to this view
+     * @param y    y coordinate in pixels, relative to this view
+     * @return  day index, or -1 if coordinates fall on header or empty cells
+     */
+    @VisibleForTesting
+    int getDayAt(float x, float y) {
+        float cellWidth = getCellWidth();
+        if (cellWidth <= 0) {
+            return -1;
         }
-
-        private void setSelectedPosition(int position, boolean notifyObservers) {
-            int last = mSelectedPosition;
-            if (position == last) {
-                return;
-            }
-            mSelectedPosition = position;
-            if (last >= 0) {
-                notifyItemChanged(last);
-            }
-            if (position >= 0) {
-                long timeMillis = mBaseTimeMillis + (mSelectedPosition - mStartOffset) *
-                        DateUtils.DAY_IN_MILLIS;
-                notifyItemChanged(position, notifyObservers ?
-                        new SelectionPayload(timeMillis) : null);
-            }
+        int column = (int) ((x - getPaddingLeft()) / cellWidth),
+                row = (int) ((y - getPaddingTop()) / mRowHeight) - 1; // header
+        if (x < getPaddingLeft() || column >= SPANS_COUNT || y < getPaddingTop() || row < 0) {
+            return -1;
         }
+        int day = row * SPANS_COUNT + column - mLayout.mStartOffset;
+        return day >= 0 && day < mLayout.mDays ? day : -1;
+    }
+
+    private void getDayBounds(int day, Rect bounds) {
+        float cellWidth = getCellWidth();
+        int cell = mLayout.mStartOffset + day;
+        float left = getPaddingLeft() + cellWidth * (cell % SPANS_COUNT),
+                top = getPaddingTop() + mRowHeight * (cell / SPANS_COUNT + 1);
+        bounds.set(Math.round(left), Math.round(top),
+                Math.round(left + cellWidth), Math.round(top + mRowHeight));
+    }
+
+    private float getCellWidth() {
+        return (float) (getWidth() - getPaddingLeft() - getPaddingRight()) / SPANS_COUNT;
     }
 
-    static abstract class CellViewHolder extends RecyclerView.ViewHolder {
+    private long getDayMillis(int day) {
+        return CalendarUtils.addDays(mLayout.mFirstDayMillis, day);
+    }
 
-        public CellViewHolder(View itemView) {
-            super(itemView);
+    private void setSelectedIndex(int day, boolean notifyListener) {
+        if (day == mSelectedDay) {
+            return;
+        }
+        mSelectedDay = day;
+        invalidate();
+        if (day >= 0 && notifyListener && mListener != null) {
+            mListener.onSelectedDayChange(getDayMillis(day));
         }
     }
 
-    static class HeaderViewHolder extends CellViewHolder {
+    /**
+     * Exposes days as virtual views to accessibility services
+     */
+    private class DayTouchHelper extends ExploreByTouchHelper {
+        private final Rect mBounds = new Rect();
 
-        final TextView textView;
+        DayTouchHelper(View host) {
+            super(host);
+        }
 
-        public HeaderViewHolder(View itemView) {
-            super(itemView);
-            textView = (TextView) itemView;
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int day = getDayAt(x, y);
+            return day >= 0 ? day : INVALID_ID;
         }
-    }
 
-    static class ContentViewHolder extends CellViewHolder {
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int day = 0; day < mLayout.mDays; day++) {
+                virtualViewIds.add(day);
+            }
+        }
 
-        final TextView textView;
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId,
+                                                     @NonNull AccessibilityEvent event) {
+            event.setContentDescription(getDayDescription(virtualViewId));
+        }
 
-        public ContentViewHolder(View itemView) {
-            super(itemView);
-            textView = (TextView) itemView;
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId,
+                                                    @NonNull AccessibilityNodeInfoCompat node) {
+            getDayBounds(virtualViewId, mBounds);
+            node.setContentDescription(getDayDescription(virtualViewId));
+            node.setBoundsInParent(mBounds);
+            node.setSelected(virtualViewId == mSelectedDay);
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
         }
-    }
 
-    static class SelectionPayload {
-        final long timeMillis;
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action,
+                                                        @Nullable Bundle arguments) {
+            if (action != AccessibilityNodeInfoCompat.ACTION_CLICK) {
+                return false;
+            }
+            setSelectedIndex(virtualViewId, true);
+            invalidateVirtualView(virtualViewId);
+            sendEventForVirtualView(virtualViewId, AccessibilityEvent.TYPE_VIEW_CLICKED);
+            return true;
+        }
 
-        public SelectionPayload(long timeMillis) {
-            this.timeMillis = timeMillis;
+        private CharSequence getDayDescription(int day) {
+            return DateFormatCache.getDayString(getContext(), getDayMillis(day));
         }
     }
 }
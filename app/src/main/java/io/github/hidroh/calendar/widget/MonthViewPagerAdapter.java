@@ -1,27 +1,42 @@
 package io.github.hidroh.calendar.widget;
 
-import android.database.ContentObserver;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcelable;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.support.v4.util.ArrayMap;
 import android.support.v4.view.PagerAdapter;
+import android.support.v4.util.Pools;
 import android.support.v4.view.ViewPager;
 import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.github.hidroh.calendar.CalendarUtils;
-import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.content.QueryExecutor;
 
 /**
  * A circular {@link PagerAdapter}, with a view pool of 5 items:
  * buffer, left, [active], right, buffer
  * Upon user scrolling to a buffer view, {@link ViewPager#setCurrentItem(int)}
- * should be called to wrap around and shift active view to the next non-buffer
+ * should be called to wrap around and shift active view to the next non-buffer.
+ * Events are kept by month rather than by page, so that months still held after
+ * shifting keep their events, including months loaded ahead of display that are not
+ * paged to yet, and only months out of retained range are released.
+ * Event counts per day are computed off main thread into {@link MonthMarkers}, which are kept
+ * for recently displayed months so that paging back to them marks days right away.
+ * Destroyed pages are released to a view pool shared across adapters of the same pager,
+ * and reused for pages instantiated later instead of inflating new views.
  * @see #shiftLeft()
  * @see #shiftRight()
  */
@@ -29,29 +44,50 @@ class MonthViewPagerAdapter extends PagerAdapter {
     private static final String STATE_FIRST_MONTH_MILLIS = "state:month";
     private static final String STATE_SELECTED_DAY_MILLIS = "state:selectedDay";
     static final int ITEM_COUNT = 5; // buffer, left, active, right, buffer
+    @VisibleForTesting static final int MAX_MARKED_MONTHS = 36;
 
     @VisibleForTesting final List<MonthView> mViews = new ArrayList<>(getCount());
     @VisibleForTesting long mSelectedDayMillis = CalendarUtils.today();
     private final List<Long> mMonths = new ArrayList<>(getCount());
     private final MonthView.OnDateChangeListener mListener;
-    private final List<EventCursor> mCursors = new ArrayList<>(getCount());
-    private final ArrayMap<EventCursor, ContentObserver> mObservers =
-            new ArrayMap<>(getCount());
+    private final Pools.Pool<MonthView> mViewPool;
+    // events of all calendars by month first day, only for months retained
+    private final Map<Long, EventSnapshot> mEvents = new HashMap<>();
+    // by month first day, in access order
+    @VisibleForTesting final Map<Long, MonthMarkers> mMarkers =
+            new LinkedHashMap<Long, MonthMarkers>(MAX_MARKED_MONTHS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, MonthMarkers> eldest) {
+                    return size() > MAX_MARKED_MONTHS;
+                }
+            };
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int[] mDayCounts = new int[31]; // reused to bind markers of any month
+    private CalendarFilter mCalendarFilter = new CalendarFilter(Collections.<String>emptyList());
 
-    public MonthViewPagerAdapter(MonthView.OnDateChangeListener listener) {
+    /**
+     * Creates adapter with given listener and view pool
+     * @param listener    listener to be notified of day selection changes
+     * @param viewPool    pool of page views, which can be shared with other adapters
+     */
+    public MonthViewPagerAdapter(MonthView.OnDateChangeListener listener,
+                                 Pools.Pool<MonthView> viewPool) {
         mListener = listener;
+        mViewPool = viewPool;
         int mid = ITEM_COUNT / 2;
         long todayMillis = CalendarUtils.monthFirstDay(CalendarUtils.today());
         for (int i = 0; i < getCount(); i++) {
             mMonths.add(CalendarUtils.addMonths(todayMillis, i - mid));
             mViews.add(null);
-            mCursors.add(null);
         }
     }
 
     @Override
     public Object instantiateItem(ViewGroup container, int position) {
-        MonthView view = new MonthView(container.getContext());
+        MonthView view = mViewPool.acquire();
+        if (view == null) {
+            view = new MonthView(container.getContext());
+        }
         view.setLayoutParams(new ViewPager.LayoutParams());
         view.setOnDateChangeListener(mListener);
         mViews.set(position, view);
@@ -62,8 +98,13 @@ class MonthViewPagerAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
-        ((MonthView) object).setOnDateChangeListener(null);
-        container.removeView((View) object);
+        MonthView view = (MonthView) object;
+        view.setOnDateChangeListener(null);
+        container.removeView(view);
+        if (mViews.get(position) == view) {
+            mViews.set(position, null);
+        }
+        mViewPool.release(view);
     }
 
     @Override
@@ -128,16 +169,12 @@ class MonthViewPagerAdapter extends PagerAdapter {
 
     /**
      * Shifts Jan, Feb, Mar, Apr, [May] to Apr, [May], Jun, Jul, Aug
-     * Rebinds views in view pool if needed
+     * Rebinds views in view pool if needed, keeping events of Apr and May
      */
     void shiftLeft() {
         for (int i = 0; i < getCount() - 2; i++) {
             mMonths.add(CalendarUtils.addMonths(mMonths.remove(0), getCount()));
         }
-        // TODO only deactivate non reusable cursors
-        for (int i = 0; i < getCount(); i++) {
-            swapCursor(i, null, null);
-        }
         // rebind current item (2nd) and 2 adjacent items
         for (int i = 0; i <= 2; i++) {
             bind(i);
@@ -146,16 +183,11 @@ class MonthViewPagerAdapter extends PagerAdapter {
 
     /**
      * Shifts [Jan], Feb, Mar, Apr, May to Oct, Nov, Dec, [Jan], Feb
-     * Rebinds views in view pool if needed
+     * Rebinds views in view pool if needed, keeping events of Jan and Feb
      */
     void shiftRight() {
         for (int i = 0; i < getCount() - 2; i++) {
             mMonths.add(0, CalendarUtils.addMonths(mMonths.remove(getCount() - 1), -getCount()));
-            mCursors.add(0, mCursors.remove(getCount() - 1));
-        }
-        // TODO only deactivate non reusable cursors
-        for (int i = 0; i < getCount(); i++) {
-            swapCursor(i, null, null);
         }
         // rebind current item (2nd to last) and 2 adjacent items
         for (int i = 0; i <= 2; i++) {
@@ -171,84 +203,182 @@ class MonthViewPagerAdapter extends PagerAdapter {
         if (mViews.get(position) != null) {
             mViews.get(position).setCalendar(mMonths.get(position));
         }
-        bindCursor(position);
+        bindMarkers(position);
         bindSelectedDay(position);
     }
 
     /**
-     * Gets cursor for calendar events at given position
+     * Gets calendar events at given position
      * @param position    adapter position
-     * @return  {@link android.provider.CalendarContract.Events} cursor wrapper or null
-     * @see {@link #swapCursor(long, EventCursor, ContentObserver)}
+     * @return  snapshot of {@link android.provider.CalendarContract.Events} rows or null
+     * @see {@link #swapEvents(long, EventSnapshot)}
+     */
+    EventSnapshot getEvents(int position) {
+        return mEvents.get(mMonths.get(position));
+    }
+
+    /**
+     * Checks if events of given month have been swapped in and are still retained
+     * @param monthMillis    first day of month in milliseconds
+     * @return  true if month has events, false otherwise
      */
-    EventCursor getCursor(int position) {
-        return mCursors.get(position);
+    boolean hasEvents(long monthMillis) {
+        return mEvents.containsKey(monthMillis);
     }
 
     /**
-     * Swaps cursor for calendar events for given month
-     * Closes previously bound cursor, unregisters observer if any
-     * @param monthMillis       month in milliseconds
-     * @param cursor            {@link android.provider.CalendarContract.Events} cursor wrapper or null
-     * @param contentObserver   content observer for given cursor
+     * Swaps calendar events for given month, which may not be held by any page yet
+     * @param monthMillis    month in milliseconds
+     * @param events         snapshot of {@link android.provider.CalendarContract.Events} rows
+     *                       or null
      */
-    void swapCursor(long monthMillis, @Nullable EventCursor cursor,
-                    ContentObserver contentObserver) {
-        for (int i = 0; i < mMonths.size(); i++) {
-            if (CalendarUtils.sameMonth(monthMillis, mMonths.get(i))) {
-                swapCursor(i, cursor, contentObserver);
-                break;
+    void swapEvents(long monthMillis, @Nullable EventSnapshot events) {
+        long firstDayMillis = CalendarUtils.monthFirstDay(monthMillis);
+        if (events == null) {
+            mEvents.remove(firstDayMillis);
+        } else {
+            mEvents.put(firstDayMillis, events);
+            computeMarkers(firstDayMillis, events);
+        }
+    }
+
+    /**
+     * Swaps calendar events for given range of months that have been loaded in one go,
+     * splitting them into months they cover
+     * @param startMonthMillis    first day of first month in range
+     * @param endMonthMillis      first day of month after last month in range
+     * @param events              snapshot of {@link android.provider.CalendarContract.Events}
+     *                            rows, sorted by start time
+     */
+    void swapEvents(long startMonthMillis, long endMonthMillis, EventSnapshot events) {
+        int[] indexes = new int[events.getCount()];
+        for (long month = startMonthMillis; month < endMonthMillis;) {
+            long nextMonth = CalendarUtils.addMonths(month, 1);
+            int count = 0;
+            for (int i = 0; i < events.getCount(); i++) {
+                long start = events.getDateTimeStart(i);
+                if (start >= nextMonth) {
+                    break; // sorted by start time, none of the rest falls within month
+                }
+                if (start >= month || events.getDateTimeEnd(i) > month) {
+                    indexes[count++] = i;
+                }
             }
+            swapEvents(month, count == events.getCount() ?
+                    events : events.slice(indexes, count));
+            month = nextMonth;
         }
     }
 
     /**
-     * Deactivates all previously bound cursors and unregisters their observers
+     * Releases events of months out of given range, except for months held by pages
+     * @param startTimeMillis    start of retained range in milliseconds
+     * @param endTimeMillis      end of retained range in milliseconds
      */
-    void deactivate() {
-        for (EventCursor cursor : mCursors) {
-            deactivate(cursor);
+    void retainEvents(long startTimeMillis, long endTimeMillis) {
+        Iterator<Long> iterator = mEvents.keySet().iterator();
+        while (iterator.hasNext()) {
+            long month = iterator.next();
+            if ((month < startTimeMillis || month >= endTimeMillis) &&
+                    !mMonths.contains(month)) {
+                iterator.remove();
+            }
         }
     }
 
     /**
-     * Deactivates all previously bound cursors and unregisters their observers,
-     * prepares views for new data bindings
+     * Sets filter of calendars whose events are displayed
+     * @param calendarFilter    filter of calendars, shared with other views if any
      */
-    void invalidate() {
-        for (int i = 0; i < mCursors.size(); i++) {
-            swapCursor(i, null, null);
+    void setCalendarFilter(CalendarFilter calendarFilter) {
+        mCalendarFilter = calendarFilter;
+        for (int i = 0; i < getCount(); i++) {
+            bindMarkers(i);
         }
     }
 
+    /**
+     * Rebinds previously computed markers after calendars of given bits have been toggled
+     * in {@link CalendarFilter}, only for months that have events of those calendars
+     * @param calendarMask    bits of toggled calendars
+     */
+    void applyCalendarFilter(long calendarMask) {
+        for (int i = 0; i < getCount(); i++) {
+            MonthMarkers markers = getMarkers(i);
+            if (markers != null &&
+                    (markers.getCalendarMask(mCalendarFilter) & calendarMask) != 0) {
+                bindMarkers(i);
+            }
+        }
+    }
+
+    /**
+     * Releases all previously bound events and computed markers
+     */
+    void deactivate() {
+        mEvents.clear();
+        mMarkers.clear();
+    }
+
+    /**
+     * Releases all previously bound events, prepares views for new data bindings.
+     * Views keep displaying their events until rebound.
+     */
+    void invalidate() {
+        mEvents.clear();
+    }
+
     private void bindSelectedDay(int position) {
         if (mViews.get(position) != null) {
             mViews.get(position).setSelectedDay(mSelectedDayMillis);
         }
     }
 
-    private void swapCursor(int position, @Nullable EventCursor cursor,
-                            ContentObserver contentObserver) {
-        deactivate(mCursors.get(position));
-        if (cursor != null) {
-            cursor.registerContentObserver(contentObserver);
-            mObservers.put(cursor, contentObserver);
-        }
-        mCursors.set(position, cursor);
-        bindCursor(position);
+    private void computeMarkers(final long monthMillis, final EventSnapshot events) {
+        QueryExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                final MonthMarkers markers = MonthMarkers.compute(monthMillis, events);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        swapMarkers(markers, events);
+                    }
+                });
+            }
+        }, QueryExecutor.PRIORITY_VISIBLE);
     }
 
-    private void bindCursor(int position) {
-        if (mCursors.get(position) != null && mViews.get(position) != null) {
-            mViews.get(position).swapCursor(mCursors.get(position));
+    /**
+     * Keeps given markers and rebinds their month if displayed, unless events of
+     * that month have been swapped again since markers were computed
+     * @param markers    computed markers
+     * @param events     events that markers have been computed from
+     */
+    @VisibleForTesting
+    void swapMarkers(MonthMarkers markers, EventSnapshot events) {
+        long firstDayMillis = CalendarUtils.monthFirstDay(markers.mMonthMillis);
+        if (mEvents.containsKey(firstDayMillis) && mEvents.get(firstDayMillis) != events) {
+            return; // stale, newer markers will follow
+        }
+        int position = mMonths.indexOf(firstDayMillis);
+        mMarkers.put(firstDayMillis, markers);
+        if (position >= 0) {
+            bindMarkers(position);
         }
     }
 
-    private void deactivate(EventCursor cursor) {
-        if (cursor != null) {
-            cursor.unregisterContentObserver(mObservers.get(cursor));
-            mObservers.remove(cursor);
-            cursor.close();
+    @Nullable
+    private MonthMarkers getMarkers(int position) {
+        return mMarkers.get(CalendarUtils.monthFirstDay(mMonths.get(position)));
+    }
+
+    private void bindMarkers(int position) {
+        MonthMarkers markers = getMarkers(position);
+        // views keep displaying their markers until new ones are computed
+        if (markers != null && mViews.get(position) != null) {
+            markers.getDayCounts(mCalendarFilter, mDayCounts);
+            mViews.get(position).setDayCounts(mDayCounts);
         }
     }
 }
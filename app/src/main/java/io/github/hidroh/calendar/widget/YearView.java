@@ -0,0 +1,540 @@
+package io.github.hidroh.calendar.widget;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.StyleRes;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.GestureDetectorCompat;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.text.DateFormatSymbols;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.R;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.content.QueryExecutor;
+import io.github.hidroh.calendar.text.DateFormatCache;
+
+/**
+ * Custom widget to display an overview of a year, as 12 small month grids drawn on a
+ * single canvas, with days tinted by how many events they have.
+ * Events of a year are loaded in one ranged query via {@link YearAdapter}, then counted
+ * per day off main thread into {@link MonthMarkers} spanning the whole year, which are kept
+ * for recently displayed years, so that flipping back to them is instant and only years
+ * not displayed recently cost a query. Swiping horizontally flips years.
+ */
+public class YearView extends View {
+    static final int MONTHS = 12;
+    @VisibleForTesting static final int MAX_CACHED_YEARS = 10;
+    private static final int MAX_TINTS = 3; // events per day for darkest tint
+    private static final int MAX_WEEKS = 6;
+    private static final int MIN_WIDTH_DP_4_COLUMNS = 600;
+    private static final String[] DAY_LABELS = MonthLayout.DAY_LABELS;
+
+    @VisibleForTesting long mYearMillis = CalendarUtils.NO_TIME_MILLIS; // first day of year
+    @VisibleForTesting final int[] mDayCounts = new int[366]; // events by day of year
+    // by year first day, in access order
+    @VisibleForTesting final Map<Long, MonthMarkers> mMarkers =
+            new LinkedHashMap<Long, MonthMarkers>(MAX_CACHED_YEARS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, MonthMarkers> eldest) {
+                    return size() > MAX_CACHED_YEARS;
+                }
+            };
+    private final MonthLayout[] mLayouts = new MonthLayout[MONTHS];
+    private final int[] mMonthStartDays = new int[MONTHS]; // day of year of month first day
+    private final String[] mMonthLabels = DateFormatSymbols.getInstance().getShortMonths();
+    private final Paint mTitlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mMonthPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint[] mTintPaints = new Paint[MAX_TINTS];
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final GestureDetectorCompat mGestureDetector;
+    @VisibleForTesting final MonthTouchHelper mTouchHelper;
+    private String mTitle;
+    private float mTitleHeight;
+    private float mTitleBaseline; // from title top
+    private float mMonthTitleHeight;
+    private float mMonthBaseline; // from month top
+    private float mDayBaseline; // from cell center
+    private float mGap; // between months
+    private int mColumns;
+    private float mMonthWidth;
+    private float mMonthHeight;
+    private float mCellSize;
+    private int mTouchedMonth = -1;
+    private long mLoadingYearMillis = CalendarUtils.NO_TIME_MILLIS;
+    private int mGeneration; // of loaded events, bumped upon invalidation
+    private YearAdapter mAdapter;
+    private CalendarFilter mCalendarFilter = new CalendarFilter(Collections.<String>emptyList());
+    private OnMonthClickListener mListener;
+
+    /**
+     * Callback interface for month click events
+     */
+    public interface OnMonthClickListener {
+        /**
+         * Fired when a month has been clicked via UI interaction
+         * @param monthMillis    first day of clicked month in milliseconds
+         */
+        void onMonthClick(long monthMillis);
+    }
+
+    /**
+     * Adapter class for loading and binding events of a year asynchronously
+     */
+    public static abstract class YearAdapter {
+        private YearView mYearView;
+
+        void setYearView(YearView yearView) {
+            mYearView = yearView;
+        }
+
+        /**
+         * Loads events for given year in one go. Should call
+         * {@link #bindEvents(long, EventSnapshot)} on complete
+         * @param startTimeMillis    first day of year
+         * @param endTimeMillis      first day of next year
+         * @see {@link #bindEvents(long, EventSnapshot)}
+         */
+        protected abstract void loadEvents(long startTimeMillis, long endTimeMillis);
+
+        /**
+         * Binds events for given year that have been loaded via {@link #loadEvents(long, long)}
+         * @param startTimeMillis    first day of year
+         * @param events             snapshot of {@link android.provider.CalendarContract.Events}
+         *                           rows
+         */
+        public final void bindEvents(long startTimeMillis, EventSnapshot events) {
+            if (mYearView != null) {
+                mYearView.swapEvents(startTimeMillis, events);
+            }
+        }
+    }
+
+    public YearView(Context context) {
+        this(context, null);
+    }
+
+    public YearView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public YearView(Context context, @Nullable AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mGestureDetector = new GestureDetectorCompat(context,
+                new GestureDetector.SimpleOnGestureListener() {
+                    @Override
+                    public boolean onFling(MotionEvent e1, MotionEvent e2,
+                                           float velocityX, float velocityY) {
+                        if (Math.abs(velocityX) <= Math.abs(velocityY)) {
+                            return false;
+                        }
+                        setYear(CalendarUtils.addMonths(mYearMillis,
+                                velocityX < 0 ? MONTHS : -MONTHS));
+                        return true;
+                    }
+                });
+        mTouchHelper = new MonthTouchHelper(this);
+        ViewCompat.setAccessibilityDelegate(this, mTouchHelper);
+        init();
+    }
+
+    private void init() {
+        Context context = getContext();
+        TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{R.attr.colorAccent});
+        int accent = ta.getColor(0, ContextCompat.getColor(context, R.color.greenA700));
+        ta.recycle();
+        for (int i = 0; i < MAX_TINTS; i++) {
+            mTintPaints[i] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mTintPaints[i].setColor(accent);
+            mTintPaints[i].setAlpha(0xff * (i + 1) / (MAX_TINTS + 1));
+        }
+        setTextAppearance(mTitlePaint, R.style.TextAppearance_AppCompat_Title);
+        setTextAppearance(mMonthPaint, R.style.TextAppearance_AppCompat_Body2);
+        setTextAppearance(mDayPaint, R.style.TextAppearance_AppCompat_Caption);
+        mMonthPaint.setTextAlign(Paint.Align.LEFT);
+        mDayPaint.setTextSize(getResources().getDimension(R.dimen.text_size_year_day));
+        Paint.FontMetrics metrics = mTitlePaint.getFontMetrics();
+        mTitleHeight = (metrics.descent - metrics.ascent) * 2;
+        mTitleBaseline = mTitleHeight / 2 - (metrics.ascent + metrics.descent) / 2;
+        metrics = mMonthPaint.getFontMetrics();
+        mMonthTitleHeight = (metrics.descent - metrics.ascent) * 1.5f;
+        mMonthBaseline = mMonthTitleHeight / 2 - (metrics.ascent + metrics.descent) / 2;
+        metrics = mDayPaint.getFontMetrics();
+        mDayBaseline = -(metrics.ascent + metrics.descent) / 2;
+        mGap = getResources().getDimension(R.dimen.padding);
+        setYear(CalendarUtils.today());
+    }
+
+    private void setTextAppearance(Paint paint, @StyleRes int textAppearance) {
+        TypedArray ta = getContext().obtainStyledAttributes(textAppearance, new int[]{
+                android.R.attr.textSize,
+                android.R.attr.textColor
+        });
+        //noinspection ResourceType
+        paint.setTextSize(ta.getDimension(0, 0));
+        //noinspection ResourceType
+        paint.setColor(ta.getColor(1, 0));
+        ta.recycle();
+        paint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    /**
+     * Sets listener to be notified when a month is clicked
+     * @param listener    listener to be notified
+     */
+    public void setOnMonthClickListener(OnMonthClickListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets year to display, loading its events if they are not kept from a previous display
+     * @param timeMillis    time in milliseconds within year to display
+     */
+    public void setYear(long timeMillis) {
+        long yearMillis = CalendarUtils.yearFirstDay(timeMillis);
+        if (yearMillis != mYearMillis || mLayouts[0].mWeekStart != CalendarUtils.sWeekStart) {
+            mYearMillis = yearMillis;
+            mTitle = String.valueOf(CalendarUtils.year(yearMillis));
+            setContentDescription(mTitle);
+            int day = 0;
+            for (int month = 0; month < MONTHS; month++) {
+                mLayouts[month] = MonthLayout.get(CalendarUtils.addMonths(yearMillis, month));
+                mMonthStartDays[month] = day;
+                day += mLayouts[month].mDays;
+            }
+            Arrays.fill(mDayCounts, 0);
+            bindMarkers();
+            invalidate();
+            mTouchHelper.invalidateRoot();
+        }
+        loadEvents();
+    }
+
+    /**
+     * Sets adapter to load events of displayed years
+     * @param adapter    adapter to load events
+     */
+    public void setYearAdapter(@NonNull YearAdapter adapter) {
+        if (mAdapter != null) {
+            mAdapter.setYearView(null);
+        }
+        mAdapter = adapter;
+        mAdapter.setYearView(this);
+        loadEvents();
+    }
+
+    /**
+     * Sets filter of calendars whose events are displayed
+     * @param calendarFilter    filter of calendars, shared with other views if any
+     */
+    public void setCalendarFilter(@NonNull CalendarFilter calendarFilter) {
+        mCalendarFilter = calendarFilter;
+        bindMarkers();
+    }
+
+    /**
+     * Redisplays kept events after calendars have been toggled in {@link CalendarFilter}
+     */
+    public void applyCalendarFilter() {
+        bindMarkers();
+    }
+
+    /**
+     * Drops events kept for all years, e.g. upon events change,
+     * and reloads events of displayed year if shown
+     */
+    public void invalidateData() {
+        mGeneration++;
+        mMarkers.clear();
+        mLoadingYearMillis = CalendarUtils.NO_TIME_MILLIS;
+        loadEvents();
+    }
+
+    /**
+     * Drops events kept for all years and stops loading events
+     */
+    public void deactivate() {
+        mGeneration++;
+        mMarkers.clear();
+        mLoadingYearMillis = CalendarUtils.NO_TIME_MILLIS;
+        if (mAdapter != null) {
+            mAdapter.setYearView(null);
+            mAdapter = null;
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        loadEvents();
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (visibility == VISIBLE) {
+            loadEvents();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        measureMonths(width);
+        int height = Math.round(mTitleHeight + mMonthHeight * (MONTHS / mColumns)) +
+                getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        measureMonths(w);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawText(mTitle, getWidth() / 2f, getPaddingTop() + mTitleBaseline, mTitlePaint);
+        for (int month = 0; month < MONTHS; month++) {
+            MonthLayout layout = mLayouts[month];
+            float left = getMonthLeft(month), top = getMonthTop(month);
+            canvas.drawText(mMonthLabels[month], left, top + mMonthBaseline, mMonthPaint);
+            top += mMonthTitleHeight;
+            for (int day = 0; day < layout.mDays; day++) {
+                int cell = layout.mStartOffset + day;
+                float centerX = left + mCellSize * (cell % MonthLayout.DAYS_PER_WEEK + .5f),
+                        centerY = top + mCellSize * (cell / MonthLayout.DAYS_PER_WEEK + .5f);
+                int count = mDayCounts[mMonthStartDays[month] + day];
+                if (count > 0) {
+                    canvas.drawCircle(centerX, centerY, mCellSize / 2,
+                            mTintPaints[Math.min(count, MAX_TINTS) - 1]);
+                }
+                canvas.drawText(DAY_LABELS[day], centerX, centerY + mDayBaseline, mDayPaint);
+            }
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean flung = mGestureDetector.onTouchEvent(event) &&
+                event.getActionMasked() == MotionEvent.ACTION_UP;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mTouchedMonth = getMonthAt(event.getX(), event.getY());
+                break;
+            case MotionEvent.ACTION_UP:
+                if (!flung && mTouchedMonth >= 0 &&
+                        getMonthAt(event.getX(), event.getY()) == mTouchedMonth) {
+                    performClick();
+                }
+                mTouchedMonth = -1;
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mTouchedMonth = -1;
+                break;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        super.performClick();
+        if (mTouchedMonth >= 0) {
+            notifyMonthClick(mTouchedMonth);
+            mTouchHelper.sendEventForVirtualView(mTouchedMonth,
+                    AccessibilityEvent.TYPE_VIEW_CLICKED);
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mTouchHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    /**
+     * Gets month at given coordinates
+     * @param x    x coordinate in pixels, relative to this view
+     * @param y    y coordinate in pixels, relative to this view
+     * @return  month index, {@link java.util.Calendar#JANUARY} based,
+     *          or -1 if coordinates fall on title or between months
+     */
+    @VisibleForTesting
+    int getMonthAt(float x, float y) {
+        if (mMonthWidth <= 0) {
+            return -1;
+        }
+        float left = x - getPaddingLeft(), top = y - getPaddingTop() - mTitleHeight;
+        if (left < 0 || top < 0) {
+            return -1;
+        }
+        int column = (int) (left / (mMonthWidth + mGap)),
+                row = (int) (top / mMonthHeight);
+        if (column >= mColumns || left - column * (mMonthWidth + mGap) > mMonthWidth) {
+            return -1;
+        }
+        int month = row * mColumns + column;
+        return month < MONTHS ? month : -1;
+    }
+
+    private void getMonthBounds(int month, Rect bounds) {
+        float left = getMonthLeft(month), top = getMonthTop(month);
+        bounds.set(Math.round(left), Math.round(top),
+                Math.round(left + mMonthWidth), Math.round(top + mMonthHeight - mGap));
+    }
+
+    private void notifyMonthClick(int month) {
+        if (mListener != null) {
+            mListener.onMonthClick(CalendarUtils.addMonths(mYearMillis, month));
+        }
+    }
+
+    @VisibleForTesting
+    void swapEvents(final long yearMillis, final EventSnapshot events) {
+        if (yearMillis == mLoadingYearMillis) {
+            mLoadingYearMillis = CalendarUtils.NO_TIME_MILLIS;
+        }
+        final int generation = mGeneration;
+        QueryExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                final MonthMarkers markers = MonthMarkers.compute(yearMillis, MONTHS, events);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            swapMarkers(yearMillis, markers);
+                        }
+                    }
+                });
+            }
+        }, QueryExecutor.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Keeps given markers and redraws if their year is displayed
+     * @param yearMillis    first day of year in milliseconds
+     * @param markers       markers computed for whole year
+     */
+    @VisibleForTesting
+    void swapMarkers(long yearMillis, MonthMarkers markers) {
+        mMarkers.put(yearMillis, markers);
+        if (yearMillis == mYearMillis) {
+            bindMarkers();
+        }
+    }
+
+    private void loadEvents() {
+        // loads upon being shown instead if hidden, e.g. until year overview is requested
+        if (mAdapter == null || !isShown() || mMarkers.containsKey(mYearMillis) ||
+                mLoadingYearMillis == mYearMillis) {
+            return;
+        }
+        mLoadingYearMillis = mYearMillis;
+        mAdapter.loadEvents(mYearMillis, CalendarUtils.addMonths(mYearMillis, MONTHS));
+    }
+
+    private void bindMarkers() {
+        MonthMarkers markers = mMarkers.get(mYearMillis);
+        if (markers != null) {
+            markers.getDayCounts(mCalendarFilter, mDayCounts);
+            invalidate();
+        }
+    }
+
+    private void measureMonths(int width) {
+        float density = getResources().getDisplayMetrics().density;
+        mColumns = width >= MIN_WIDTH_DP_4_COLUMNS * density ? 4 : 3;
+        mMonthWidth = (width - getPaddingLeft() - getPaddingRight() - mGap * (mColumns - 1)) /
+                mColumns;
+        mCellSize = mMonthWidth / MonthLayout.DAYS_PER_WEEK;
+        mMonthHeight = mMonthTitleHeight + mCellSize * MAX_WEEKS + mGap;
+    }
+
+    private float getMonthLeft(int month) {
+        return getPaddingLeft() + (month % mColumns) * (mMonthWidth + mGap);
+    }
+
+    private float getMonthTop(int month) {
+        return getPaddingTop() + mTitleHeight + (month / mColumns) * mMonthHeight;
+    }
+
+    /**
+     * Exposes months as virtual views to accessibility services
+     */
+    class MonthTouchHelper extends ExploreByTouchHelper {
+        private final Rect mBounds = new Rect();
+
+        MonthTouchHelper(View host) {
+            super(host);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int month = getMonthAt(x, y);
+            return month >= 0 ? month : INVALID_ID;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int month = 0; month < MONTHS; month++) {
+                virtualViewIds.add(month);
+            }
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId,
+                                                     @NonNull AccessibilityEvent event) {
+            event.setContentDescription(getMonthDescription(virtualViewId));
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId,
+                                                    @NonNull AccessibilityNodeInfoCompat node) {
+            getMonthBounds(virtualViewId, mBounds);
+            node.setContentDescription(getMonthDescription(virtualViewId));
+            node.setBoundsInParent(mBounds);
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action,
+                                                        @Nullable Bundle arguments) {
+            if (action != AccessibilityNodeInfoCompat.ACTION_CLICK) {
+                return false;
+            }
+            notifyMonthClick(virtualViewId);
+            sendEventForVirtualView(virtualViewId, AccessibilityEvent.TYPE_VIEW_CLICKED);
+            return true;
+        }
+
+        private CharSequence getMonthDescription(int month) {
+            return DateFormatCache.getMonthString(getContext(),
+                    CalendarUtils.addMonths(mYearMillis, month));
+        }
+    }
+}
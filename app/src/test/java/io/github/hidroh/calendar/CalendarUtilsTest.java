@@ -26,6 +26,7 @@ public class CalendarUtilsTest {
         Locale.setDefault(Locale.US);
         defaultTimeZone = TimeZone.getDefault();
         TimeZone.setDefault(TimeZone.getTimeZone("Asia/Singapore"));
+        CalendarUtils.invalidateTimeZone();
     }
 
     @Test
@@ -168,6 +169,23 @@ public class CalendarUtilsTest {
                 .isEqualTo(expected.getTimeInMillis());
     }
 
+    @Test
+    public void testYearFirstDay() {
+        assertThat(CalendarUtils.yearFirstDay(CalendarUtils.NO_TIME_MILLIS))
+                .isEqualTo(CalendarUtils.NO_TIME_MILLIS);
+        Calendar march20 = Calendar.getInstance();
+        march20.set(2016, Calendar.MARCH, 20);
+        Calendar expected = Calendar.getInstance();
+        expected.set(2016, Calendar.JANUARY, 1);
+        expected.set(Calendar.HOUR_OF_DAY, 0);
+        expected.set(Calendar.MINUTE, 0);
+        expected.set(Calendar.SECOND, 0);
+        expected.set(Calendar.MILLISECOND, 0);
+        assertThat(CalendarUtils.year(march20.getTimeInMillis())).isEqualTo(2016);
+        assertThat(CalendarUtils.yearFirstDay(march20.getTimeInMillis()))
+                .isEqualTo(expected.getTimeInMillis());
+    }
+
     @Test
     public void testMonthLastDay() {
         assertThat(CalendarUtils.monthLastDay(CalendarUtils.NO_TIME_MILLIS))
@@ -221,5 +239,6 @@ public class CalendarUtilsTest {
     public void tearDown() {
         Locale.setDefault(defaultLocale);
         TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
     }
 }
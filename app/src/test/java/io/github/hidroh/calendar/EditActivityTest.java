@@ -2,6 +2,7 @@ package io.github.hidroh.calendar;
 
 import android.annotation.SuppressLint;
 import android.app.Dialog;
+import android.content.ContentUris;
 import android.content.Intent;
 import android.content.ShadowAsyncQueryHandler;
 import android.content.pm.ActivityInfo;
@@ -21,6 +22,7 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.fakes.RoboCursor;
 import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowContentResolver;
 import org.robolectric.shadows.ShadowDialog;
 import org.robolectric.util.ActivityController;
 
@@ -233,6 +235,74 @@ public class EditActivityTest {
         assertThat(activity).isFinishing();
     }
 
+    @Test
+    public void testUpdateInstance() {
+        long startMillis = CalendarUtils.today();
+        controller.create().start().resume().visible();
+
+        // assume that user has set details of an expanded instance via UI controls
+        ((EventEditView) activity.findViewById(R.id.event_edit_view))
+                .setEvent(new EventEditView.Event.Builder()
+                        .id(1L)
+                        .calendarId(1L)
+                        .title("title")
+                        .start(startMillis)
+                        .end(startMillis)
+                        .allDay(false)
+                        .originalInstanceTime(startMillis)
+                        .build());
+
+        // saving instance should insert an exception, leaving series untouched
+        shadowOf(activity).clickMenuItem(R.id.action_save);
+        ShadowContentResolver resolver = shadowOf(ShadowApplication.getInstance()
+                .getContentResolver());
+        assertThat(resolver.getUpdateStatements()).isEmpty();
+        assertThat(resolver.getInsertStatements()).hasSize(1);
+        ShadowContentResolver.InsertStatement insert = resolver.getInsertStatements().get(0);
+        assertThat(insert.getUri()).isEqualTo(ContentUris.withAppendedId(
+                CalendarContract.Events.CONTENT_EXCEPTION_URI, 1L));
+        assertThat(insert.getContentValues().getAsLong(
+                CalendarContract.Events.ORIGINAL_INSTANCE_TIME)).isEqualTo(startMillis);
+        assertThat(insert.getContentValues()
+                .containsKey(CalendarContract.Events.CALENDAR_ID)).isFalse();
+        assertThat(activity).isFinishing();
+    }
+
+    @Test
+    public void testDeleteInstance() {
+        long startMillis = CalendarUtils.today();
+        controller.withIntent(new Intent()
+                .putExtra(EditActivity.EXTRA_EVENT, new EventEditView.Event.Builder()
+                        .id(1L)
+                        .calendarId(1L)
+                        .title("title")
+                        .start(startMillis)
+                        .end(startMillis)
+                        .allDay(false)
+                        .originalInstanceTime(startMillis)
+                        .build()))
+                .create().start().resume().visible();
+
+        // deleting instance should insert a cancelled exception, leaving series untouched
+        shadowOf(activity).clickMenuItem(R.id.action_delete);
+        Dialog dialog = ShadowDialog.getLatestDialog();
+        assertNotNull(dialog);
+        shadowOf(dialog).clickOn(android.R.id.button1); // BUTTON_POSITIVE
+        ShadowContentResolver resolver = shadowOf(ShadowApplication.getInstance()
+                .getContentResolver());
+        assertThat(resolver.getDeleteStatements()).isEmpty();
+        assertThat(resolver.getUpdateStatements()).isEmpty();
+        assertThat(resolver.getInsertStatements()).hasSize(1);
+        ShadowContentResolver.InsertStatement insert = resolver.getInsertStatements().get(0);
+        assertThat(insert.getUri()).isEqualTo(ContentUris.withAppendedId(
+                CalendarContract.Events.CONTENT_EXCEPTION_URI, 1L));
+        assertThat(insert.getContentValues().getAsLong(
+                CalendarContract.Events.ORIGINAL_INSTANCE_TIME)).isEqualTo(startMillis);
+        assertThat(insert.getContentValues().getAsInteger(CalendarContract.Events.STATUS))
+                .isEqualTo(CalendarContract.Events.STATUS_CANCELED);
+        assertThat(activity).isFinishing();
+    }
+
     @Test
     public void testPressBack() {
         controller.create().start().resume().visible();
@@ -0,0 +1,170 @@
+package io.github.hidroh.calendar;
+
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EpochDaysTest {
+    private static final String[] TIME_ZONES = {
+            "America/New_York", // DST at 2AM
+            "America/Sao_Paulo", // DST at midnight, skipping start of day
+            "Australia/Lord_Howe", // 30 minutes DST
+            "Pacific/Apia", // skipped a whole day in 2011
+            "Asia/Singapore",
+    };
+    private static final long MIN_TIME_MILLIS = -11994278400000L; // 1590, after Gregorian cutover
+    private static final long MAX_TIME_MILLIS = 4102444800000L; // 2100
+    private static final long STEP_MILLIS = DateUtils.HOUR_IN_MILLIS / 2;
+    private final Random random = new Random(42);
+    private final int weekStart = CalendarUtils.sWeekStart;
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Test
+    public void testSameAsGregorianCalendar() {
+        for (String timeZone : TIME_ZONES) {
+            TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+            CalendarUtils.invalidateTimeZone();
+            for (int i = 0; i < 2000; i++) {
+                assertSameAsGregorianCalendar(timeZone, MIN_TIME_MILLIS +
+                        (long) (random.nextDouble() * (MAX_TIME_MILLIS - MIN_TIME_MILLIS)));
+            }
+            // every half hour around daylight saving transitions
+            TimeZone zone = TimeZone.getDefault();
+            long start = createTime(TimeZone.getTimeZone(CalendarUtils.TIMEZONE_UTC), 2011, 0, 1),
+                    end = createTime(TimeZone.getTimeZone(CalendarUtils.TIMEZONE_UTC), 2017, 0, 1);
+            for (long t = start; t < end; t += STEP_MILLIS) {
+                if (zone.getOffset(t) != zone.getOffset(t + STEP_MILLIS)) {
+                    for (long around = t - DateUtils.DAY_IN_MILLIS;
+                         around <= t + DateUtils.DAY_IN_MILLIS; around += STEP_MILLIS) {
+                        assertSameAsGregorianCalendar(timeZone, around + random.nextInt(1000));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLeapYears() {
+        TimeZone utc = TimeZone.getTimeZone(CalendarUtils.TIMEZONE_UTC);
+        GregorianCalendar calendar = new GregorianCalendar(utc);
+        calendar.clear();
+        calendar.set(1600, Calendar.JANUARY, 1);
+        long epochDay = calendar.getTimeInMillis() / DateUtils.DAY_IN_MILLIS;
+        // every day of 4 centuries, including leap and non leap centuries
+        while (calendar.get(Calendar.YEAR) < 2401) {
+            int date = EpochDays.toDate(epochDay);
+            assertThat(EpochDays.year(date)).isEqualTo(calendar.get(Calendar.YEAR));
+            assertThat(EpochDays.month(date)).isEqualTo(calendar.get(Calendar.MONTH));
+            assertThat(EpochDays.day(date)).isEqualTo(calendar.get(Calendar.DAY_OF_MONTH));
+            assertThat(EpochDays.toEpochDay(EpochDays.year(date), EpochDays.month(date),
+                    EpochDays.day(date))).isEqualTo(epochDay);
+            assertThat(EpochDays.dayOfWeek(epochDay))
+                    .isEqualTo(calendar.get(Calendar.DAY_OF_WEEK));
+            assertThat(EpochDays.monthSize(EpochDays.year(date), EpochDays.month(date)))
+                    .isEqualTo(calendar.getActualMaximum(Calendar.DAY_OF_MONTH));
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            epochDay++;
+        }
+        assertThat(EpochDays.monthSize(1900, Calendar.FEBRUARY)).isEqualTo(28);
+        assertThat(EpochDays.monthSize(2000, Calendar.FEBRUARY)).isEqualTo(29);
+        assertThat(EpochDays.monthSize(2016, Calendar.FEBRUARY)).isEqualTo(29);
+        assertThat(EpochDays.monthSize(2100, Calendar.FEBRUARY)).isEqualTo(28);
+    }
+
+    @After
+    public void tearDown() {
+        CalendarUtils.sWeekStart = weekStart;
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+    }
+
+    private void assertSameAsGregorianCalendar(String timeZone, long timeMillis) {
+        String description = timeZone + " " + timeMillis;
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(timeMillis);
+        int year = calendar.get(Calendar.YEAR),
+                month = calendar.get(Calendar.MONTH),
+                day = calendar.get(Calendar.DAY_OF_MONTH),
+                monthSize = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+        assertThat(CalendarUtils.dayOfMonth(timeMillis)).as(description).isEqualTo(day);
+        assertThat(CalendarUtils.monthSize(timeMillis)).as(description).isEqualTo(monthSize);
+        assertThat(CalendarUtils.monthFirstDay(timeMillis)).as(description)
+                .isEqualTo(createDay(year, month, 1));
+        assertThat(CalendarUtils.monthLastDay(timeMillis)).as(description)
+                .isEqualTo(createDay(year, month, monthSize));
+        assertThat(CalendarUtils.addDays(timeMillis, 1)).as(description)
+                .isEqualTo(createDay(year, month, day + 1));
+        for (int weekStart = Calendar.SUNDAY; weekStart <= Calendar.SATURDAY; weekStart++) {
+            CalendarUtils.sWeekStart = weekStart;
+            assertThat(CalendarUtils.monthFirstDayOffset(timeMillis)).as(description)
+                    .isEqualTo((calendar.get(Calendar.DAY_OF_WEEK) - weekStart + 7) % 7);
+        }
+
+        int months = random.nextInt(61) - 30;
+        GregorianCalendar added = new GregorianCalendar(year, month, day);
+        added.add(Calendar.MONTH, months);
+        assertThat(CalendarUtils.addMonths(timeMillis, months)).as(description)
+                .isEqualTo(createDay(added.get(Calendar.YEAR), added.get(Calendar.MONTH),
+                        added.get(Calendar.DAY_OF_MONTH)));
+
+        long otherMillis = timeMillis + (long) ((random.nextDouble() - .5) *
+                DateUtils.DAY_IN_MILLIS * 200);
+        GregorianCalendar other = new GregorianCalendar();
+        other.setTimeInMillis(otherMillis);
+        int monthIndex = year * 12 + month,
+                otherMonthIndex = other.get(Calendar.YEAR) * 12 + other.get(Calendar.MONTH);
+        assertThat(CalendarUtils.sameMonth(timeMillis, otherMillis)).as(description)
+                .isEqualTo(monthIndex == otherMonthIndex);
+        assertThat(CalendarUtils.monthBefore(timeMillis, otherMillis)).as(description)
+                .isEqualTo(monthIndex < otherMonthIndex);
+        assertThat(CalendarUtils.monthAfter(timeMillis, otherMillis)).as(description)
+                .isEqualTo(monthIndex > otherMonthIndex);
+
+        // same wall time in UTC and local time zone
+        GregorianCalendar utc = new GregorianCalendar(
+                TimeZone.getTimeZone(CalendarUtils.TIMEZONE_UTC));
+        utc.setTimeInMillis(timeMillis);
+        GregorianCalendar local = new GregorianCalendar();
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH),
+                utc.get(Calendar.DAY_OF_MONTH), utc.get(Calendar.HOUR_OF_DAY),
+                utc.get(Calendar.MINUTE), utc.get(Calendar.SECOND));
+        local.set(Calendar.MILLISECOND, utc.get(Calendar.MILLISECOND));
+        assertThat(CalendarUtils.toLocalTimeZone(timeMillis)).as(description)
+                .isEqualTo(local.getTimeInMillis());
+        utc.clear();
+        utc.set(year, month, day, calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
+        utc.set(Calendar.MILLISECOND, calendar.get(Calendar.MILLISECOND));
+        assertThat(CalendarUtils.toUtcTimeZone(timeMillis)).as(description)
+                .isEqualTo(utc.getTimeInMillis());
+    }
+
+    private long createDay(int year, int month, int day) {
+        return createTime(TimeZone.getDefault(), year, month, day);
+    }
+
+    private long createTime(TimeZone timeZone, int year, int month, int day) {
+        GregorianCalendar calendar = new GregorianCalendar(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day); // lenient, rolls over to next month
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.hidroh.calendar;
+
+import android.annotation.SuppressLint;
+import android.database.ContentObserver;
+import android.os.Bundle;
+import android.provider.CalendarContract;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.format.DateUtils;
+import android.widget.TextView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.fakes.RoboCursor;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ActivityController;
+import org.robolectric.util.Scheduler;
+
+import java.io.File;
+import java.util.Arrays;
+
+import io.github.hidroh.calendar.content.EventCache;
+import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.StartupSnapshot;
+import io.github.hidroh.calendar.test.shadows.ShadowLinearLayoutManager;
+import io.github.hidroh.calendar.test.shadows.ShadowRecyclerView;
+import io.github.hidroh.calendar.test.shadows.ShadowViewPager;
+import io.github.hidroh.calendar.widget.AgendaView;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+@SuppressWarnings("unchecked")
+@Config(shadows = {ShadowViewPager.class, ShadowRecyclerView.class, ShadowLinearLayoutManager.class})
+@RunWith(RobolectricGradleTestRunner.class)
+public class MainActivityStartupTest {
+    private static final int MAX_WAITS = 1000;
+    private ActivityController<TestMainActivity> controller;
+
+    @Before
+    public void setUp() {
+        RoboCursor cursor = new TestRoboCursor();
+        cursor.setResults(new Object[][]{
+                new Object[]{1L, 1L, "Event 1", CalendarUtils.today(),
+                        CalendarUtils.today() + DateUtils.HOUR_IN_MILLIS, 0}
+        });
+        shadowOf(ShadowApplication.getInstance().getContentResolver())
+                .setCursor(CalendarContract.Events.CONTENT_URI, cursor);
+        // first run, snapshot should be persisted once stopped
+        controller = Robolectric.buildActivity(TestMainActivity.class);
+        controller.create().start().postCreate(null).resume().visible();
+        getTodayTitle();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertThat(getTodayTitle()).isEqualTo("Event 1");
+        controller.pause().stop().destroy();
+        assertThat(StartupSnapshot.read(RuntimeEnvironment.application)).isNotNull();
+    }
+
+    @Test
+    public void testColdStartFromSnapshot() {
+        coldStart();
+        // events should be displayed before provider results have been delivered
+        assertThat(getTodayTitle()).isEqualTo("Event 1");
+    }
+
+    @Test
+    public void testColdStartTasksBeforeEvents() throws InterruptedException {
+        File file = new File(RuntimeEnvironment.application.getCacheDir(), "startup_snapshot");
+        //noinspection ResultOfMethodCallIgnored
+        file.renameTo(new File(file.getPath() + ".bak"));
+        coldStart();
+        // events are displayed only once provider results have been delivered
+        assertThat(runTasksUntilDisplayed()).isPositive();
+        ShadowLooper.unPauseMainLooper();
+        controller.pause().stop().destroy();
+
+        // events should be displayed before any main thread task has run
+        //noinspection ResultOfMethodCallIgnored
+        new File(file.getPath() + ".bak").renameTo(file);
+        coldStart();
+        assertThat(runTasksUntilDisplayed()).isZero();
+    }
+
+    @After
+    public void tearDown() {
+        ShadowLooper.unPauseMainLooper();
+        controller.pause().stop().destroy();
+    }
+
+    /**
+     * Starts activity in a new process, with provider results not delivered yet
+     */
+    private void coldStart() {
+        EventCache.getInstance(RuntimeEnvironment.application).invalidate();
+        ShadowLooper.pauseMainLooper();
+        controller = Robolectric.buildActivity(TestMainActivity.class);
+        controller.create().start().postCreate(null).resume().visible();
+    }
+
+    /**
+     * Runs main thread tasks one at a time until today's events are displayed,
+     * waiting for worker threads to post results if there is no task
+     * @return  number of main thread tasks run
+     */
+    private int runTasksUntilDisplayed() throws InterruptedException {
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        int tasks = 0, waits = 0;
+        while (!"Event 1".equals(getTodayTitle())) {
+            if (scheduler.runOneTask()) {
+                tasks++;
+            } else {
+                assertThat(waits++).isLessThan(MAX_WAITS);
+                Thread.sleep(1);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Binds today's header, which triggers loading, then gets title of its first row
+     */
+    private String getTodayTitle() {
+        AgendaView agendaView = (AgendaView) controller.get().findViewById(R.id.agenda_view);
+        RecyclerView.Adapter adapter = agendaView.getAdapter();
+        int position = ((LinearLayoutManager) agendaView.getLayoutManager())
+                .findFirstVisibleItemPosition();
+        adapter.bindViewHolder(adapter.createViewHolder(agendaView,
+                adapter.getItemViewType(position)), position);
+        RecyclerView.ViewHolder viewHolder = adapter.createViewHolder(agendaView,
+                adapter.getItemViewType(position + 1));
+        adapter.bindViewHolder(viewHolder, position + 1);
+        return ((TextView) viewHolder.itemView.findViewById(R.id.text_view_title))
+                .getText().toString();
+    }
+
+    @SuppressLint("Registered")
+    static class TestMainActivity extends MainActivity {
+        @Override
+        protected boolean checkCalendarPermissions() {
+            return true;
+        }
+    }
+
+    static class TestRoboCursor extends RoboCursor {
+        public TestRoboCursor() {
+            setColumnNames(Arrays.asList(EventCursor.PROJECTION));
+        }
+
+        @Override
+        public void registerContentObserver(ContentObserver observer) {
+            // no op
+        }
+
+        @Override
+        public void unregisterContentObserver(ContentObserver observer) {
+            // no op
+        }
+
+        @Override
+        public void setExtras(Bundle extras) {
+            // no op
+        }
+    }
+}
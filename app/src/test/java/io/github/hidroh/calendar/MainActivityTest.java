@@ -3,13 +3,16 @@ package io.github.hidroh.calendar;
 import android.annotation.SuppressLint;
 import android.database.ContentObserver;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.CalendarContract;
+import android.support.v4.util.Pair;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateUtils;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.CheckedTextView;
 import android.widget.TextView;
@@ -31,11 +34,13 @@ import java.util.Arrays;
 import java.util.Calendar;
 
 import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.EventSnapshot;
 import io.github.hidroh.calendar.test.shadows.ShadowLinearLayoutManager;
 import io.github.hidroh.calendar.test.shadows.ShadowRecyclerView;
 import io.github.hidroh.calendar.test.shadows.ShadowViewPager;
 import io.github.hidroh.calendar.widget.AgendaView;
 import io.github.hidroh.calendar.widget.EventCalendarView;
+import io.github.hidroh.calendar.widget.YearView;
 
 import static junit.framework.Assert.assertTrue;
 import static org.assertj.android.api.Assertions.assertThat;
@@ -166,6 +171,40 @@ public class MainActivityTest {
         assertThat(calendarView.getCurrentItem()).isEqualTo(initialCalendarPage);
     }
 
+    @Test
+    public void testOptionsItemYear() {
+        View yearViewContainer = activity.findViewById(R.id.year_view_container);
+        YearView yearView = (YearView) activity.findViewById(R.id.year_view);
+        assertThat(yearViewContainer).isGone();
+
+        // selecting year option should show year of selected day
+        shadowOf(activity).clickMenuItem(R.id.action_year);
+        assertThat(yearViewContainer).isVisible();
+        //noinspection ConstantConditions
+        assertThat(yearView.getContentDescription()).isEqualTo(
+                String.valueOf(CalendarUtils.year(CalendarUtils.today())));
+
+        // clicking month should hide year view and select month
+        yearView.measure(View.MeasureSpec.makeMeasureSpec(700, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        yearView.layout(0, 0, 700, yearView.getMeasuredHeight());
+        long time = SystemClock.uptimeMillis();
+        yearView.dispatchTouchEvent(MotionEvent.obtain(time, time,
+                MotionEvent.ACTION_DOWN, 699, yearView.getMeasuredHeight() - 1, 0));
+        yearView.dispatchTouchEvent(MotionEvent.obtain(time, time,
+                MotionEvent.ACTION_UP, 699, yearView.getMeasuredHeight() - 1, 0));
+        assertThat(yearViewContainer).isGone();
+        long december = CalendarUtils.addMonths(CalendarUtils.yearFirstDay(CalendarUtils.today()),
+                Calendar.DECEMBER);
+        assertTitle(december);
+
+        // pressing back should hide year view first
+        shadowOf(activity).clickMenuItem(R.id.action_year);
+        activity.onBackPressed();
+        assertThat(yearViewContainer).isGone();
+        assertThat(activity).isNotFinishing();
+    }
+
     @Test
     public void testOptionsItemWeekStart() {
         // initial state
@@ -213,7 +252,9 @@ public class MainActivityTest {
                 .createViewHolder(agendaView, agendaView.getAdapter().
                         getItemViewType(firstPosition)), firstPosition);
         ((MainActivity.AgendaCursorAdapter) agendaView.getAdapter())
-                .mHandler.handleQueryComplete(0, CalendarUtils.today(), new EventCursor(cursor));
+                .mHandler.handleQueryComplete(0, Pair.create(CalendarUtils.today(),
+                        CalendarUtils.today() + DateUtils.DAY_IN_MILLIS),
+                        EventSnapshot.from(new EventCursor(cursor)));
 
         // binding from provider should replace placeholder
         RecyclerView.ViewHolder viewHolder = agendaView.getAdapter()
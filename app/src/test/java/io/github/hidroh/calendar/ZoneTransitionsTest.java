@@ -0,0 +1,127 @@
+package io.github.hidroh.calendar;
+
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class ZoneTransitionsTest {
+    private static final String[] TIME_ZONES = {
+            "America/New_York",
+            "America/Sao_Paulo",
+            "Australia/Lord_Howe",
+            "Pacific/Apia",
+            "Africa/Casablanca", // DST suspended during Ramadan
+            "Asia/Singapore",
+    };
+    private static final long START_MILLIS = 946684800000L; // 2000
+    private static final long END_MILLIS = 1893456000000L; // 2030
+    private static final int CONVERSIONS = 20000;
+    private final Random random = new Random(42);
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Test
+    public void testSameAsTimeZone() {
+        for (String id : TIME_ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(id);
+            ZoneTransitions transitions = ZoneTransitions.build(timeZone,
+                    START_MILLIS, END_MILLIS);
+            // every hour, every minute around transitions, and at transitions
+            for (long t = START_MILLIS - DateUtils.DAY_IN_MILLIS;
+                 t < END_MILLIS + DateUtils.DAY_IN_MILLIS; t += DateUtils.HOUR_IN_MILLIS) {
+                assertThat(transitions.getOffset(t)).as(id + " " + t)
+                        .isEqualTo(timeZone.getOffset(t));
+                long next = t + DateUtils.HOUR_IN_MILLIS;
+                if (timeZone.getOffset(t) == timeZone.getOffset(next)) {
+                    continue;
+                }
+                for (long around = t - DateUtils.HOUR_IN_MILLIS; around <= next;
+                     around += DateUtils.MINUTE_IN_MILLIS) {
+                    assertThat(transitions.getOffset(around)).as(id + " " + around)
+                            .isEqualTo(timeZone.getOffset(around));
+                }
+                long low = t, high = next;
+                while (high - low > 1) {
+                    long mid = (low + high) / 2;
+                    if (timeZone.getOffset(mid) == timeZone.getOffset(t)) {
+                        low = mid;
+                    } else {
+                        high = mid;
+                    }
+                }
+                assertThat(transitions.getOffset(low)).isEqualTo(timeZone.getOffset(low));
+                assertThat(transitions.getOffset(high)).isEqualTo(timeZone.getOffset(high));
+            }
+            // out of window falls back to time zone
+            assertThat(transitions.covers(START_MILLIS - 1)).isFalse();
+            assertThat(transitions.getOffset(0)).isEqualTo(timeZone.getOffset(0));
+        }
+    }
+
+    @Test
+    public void testSameAsCalendarConversion() {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        CalendarUtils.invalidateTimeZone();
+        TimeZone utc = TimeZone.getTimeZone(CalendarUtils.TIMEZONE_UTC);
+        long[] times = new long[CONVERSIONS];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = START_MILLIS + (long) (random.nextDouble() * (END_MILLIS - START_MILLIS));
+        }
+        // sample of conversions should have same results
+        for (int i = 0; i < 1000; i++) {
+            assertThat(CalendarUtils.toLocalTimeZone(times[i])).as(String.valueOf(times[i]))
+                    .isEqualTo(convertTimeZone(utc, TimeZone.getDefault(), times[i]));
+            assertThat(CalendarUtils.toUtcTimeZone(times[i])).as(String.valueOf(times[i]))
+                    .isEqualTo(convertTimeZone(TimeZone.getDefault(), utc, times[i]));
+        }
+
+        // all conversions should add up to same results
+        long checksum = 0;
+        for (long time : times) {
+            checksum += convertTimeZone(TimeZone.getDefault(), utc, time);
+            checksum -= CalendarUtils.toUtcTimeZone(time);
+        }
+        assertThat(checksum).isZero();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+    }
+
+    /**
+     * Conversion by copying calendar fields between time zones, as previously done
+     * by {@link CalendarUtils}, without pooling calendars
+     */
+    private long convertTimeZone(TimeZone fromTimeZone, TimeZone toTimeZone, long timeMillis) {
+        GregorianCalendar fromCalendar = new GregorianCalendar(fromTimeZone);
+        fromCalendar.setTimeInMillis(timeMillis);
+        GregorianCalendar toCalendar = new GregorianCalendar(toTimeZone);
+        toCalendar.clear();
+        toCalendar.set(fromCalendar.get(Calendar.YEAR),
+                fromCalendar.get(Calendar.MONTH),
+                fromCalendar.get(Calendar.DAY_OF_MONTH),
+                fromCalendar.get(Calendar.HOUR_OF_DAY),
+                fromCalendar.get(Calendar.MINUTE),
+                fromCalendar.get(Calendar.SECOND));
+        toCalendar.set(Calendar.MILLISECOND, fromCalendar.get(Calendar.MILLISECOND));
+        return toCalendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.hidroh.calendar.content;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class CalendarFilterTest {
+    private final EventSnapshot events = new EventSnapshot.Builder(3)
+            .add(1L, 1L, "Event 1", 0, 1, false)
+            .add(2L, 2L, "Event 2", 0, 1, false)
+            .add(3L, 1L, "Event 3", 1, 2, false)
+            .build();
+
+    @Test
+    public void testExcludeCalendars() {
+        CalendarFilter filter = new CalendarFilter(Collections.singletonList("1"));
+        assertThat(filter.isExcluded(1L)).isTrue();
+        EventSnapshot filtered = filter.apply(events);
+        assertThat(filtered.getCount()).isEqualTo(1);
+        assertThat(filtered.getId(0)).isEqualTo(2L);
+
+        // including all calendars should keep events as is
+        filter.setExcluded(1L, false);
+        assertThat(filter.apply(events)).isSameAs(events);
+    }
+
+    @Test
+    public void testMask() {
+        CalendarFilter filter = new CalendarFilter(Collections.<String>emptyList());
+        long mask = filter.getMask(events);
+        assertThat(mask).isEqualTo(filter.getMask(1L) | filter.getMask(2L));
+        assertThat(filter.getMask(1L) & filter.getMask(2L)).isZero();
+        assertThat(mask & filter.getMask(3L)).isZero();
+
+        // only toggled calendar should be reported
+        assertThat(filter.setExcluded(2L, true)).isEqualTo(filter.getMask(2L));
+        assertThat(filter.setExcluded(2L, true)).isZero();
+        assertThat(filter.setExcluded(2L, false)).isEqualTo(filter.getMask(2L));
+    }
+
+    @Test
+    public void testShareLastBit() {
+        CalendarFilter filter = new CalendarFilter(Collections.<String>emptyList());
+        for (long id = 0; id < 64; id++) {
+            assertThat(filter.getMask(id)).isEqualTo(1L << id);
+        }
+        assertThat(filter.getMask(64L)).isEqualTo(filter.getMask(63L));
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.hidroh.calendar.content;
+
+import android.provider.CalendarContract;
+import android.text.format.DateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventCacheTest {
+    private EventCache cache;
+    private long month;
+
+    @Before
+    public void setUp() {
+        cache = new EventCache(RuntimeEnvironment.application.getContentResolver());
+        month = CalendarUtils.monthFirstDay(CalendarUtils.today());
+    }
+
+    @Test
+    public void testOverlap() {
+        long day = month + DateUtils.DAY_IN_MILLIS * 10,
+                nextDay = day + DateUtils.DAY_IN_MILLIS;
+        cache.put(month, CalendarUtils.addMonths(month, 1), new EventSnapshot.Builder(5)
+                .add(1L, 1L, "Before", month, day, false) // ends at start
+                .add(2L, 1L, "Across", month, nextDay, true) // starts before, ends after start
+                .add(3L, 1L, "Within", day, day + 1, false) // starts at start
+                .add(4L, 1L, "Within", nextDay - 1, nextDay + 1, false) // starts before end
+                .add(5L, 1L, "After", nextDay, nextDay + 1, false) // starts at end
+                .build());
+        EventSnapshot snapshot = cache.get(day, nextDay);
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getId(0)).isEqualTo(2L);
+        assertThat(snapshot.getAllDay(0)).isTrue();
+        assertThat(snapshot.getId(1)).isEqualTo(3L);
+        assertThat(snapshot.getId(2)).isEqualTo(4L);
+    }
+
+    @Test
+    public void testLoadedMonths() {
+        long nextMonth = CalendarUtils.addMonths(month, 1);
+        assertThat(cache.isLoaded(month, month + 1)).isFalse();
+        cache.put(month, nextMonth, EventSnapshot.EMPTY);
+        assertThat(cache.isLoaded(month, nextMonth)).isTrue();
+        assertThat(cache.isLoaded(month, nextMonth + 1)).isFalse();
+        assertThat(cache.get(month, nextMonth))
+                .isSameAs(EventSnapshot.EMPTY);
+        cache.invalidate();
+        assertThat(cache.isLoaded(month, nextMonth)).isFalse();
+    }
+
+    @Test
+    public void testObserveProviderChanges() {
+        // provider should be observed once via process-wide dispatcher
+        EventCache shared = EventCache.getInstance(RuntimeEnvironment.application);
+        assertThat(EventCache.getInstance(RuntimeEnvironment.application)).isSameAs(shared);
+        assertThat(shadowOf(RuntimeEnvironment.application.getContentResolver())
+                .getContentObservers(CalendarContract.Events.CONTENT_URI)).hasSize(1);
+        long nextMonth = CalendarUtils.addMonths(month, 1);
+        shared.put(month, nextMonth, EventSnapshot.EMPTY);
+
+        // provider changes should invalidate instance once burst of changes has settled
+        RuntimeEnvironment.application.getContentResolver()
+                .notifyChange(CalendarContract.Events.CONTENT_URI, null);
+        assertThat(shared.isLoaded(month, nextMonth)).isTrue();
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        assertThat(shared.isLoaded(month, nextMonth)).isFalse();
+    }
+
+    @Test
+    public void testReplaceEvent() {
+        long nextMonth = CalendarUtils.addMonths(month, 1);
+        cache.put(month, nextMonth, new EventSnapshot.Builder(1)
+                .add(1L, 1L, "Event", month, month + 1, false)
+                .build());
+        cache.put(month, nextMonth, new EventSnapshot.Builder(1)
+                .add(1L, 1L, "Moved event", month + 1, month + 2, false)
+                .build());
+        EventSnapshot snapshot = cache.get(month, nextMonth);
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getTitle(0)).isEqualTo("Moved event");
+    }
+
+    @Test
+    public void testCacheInstancesOfRecurringEvent() {
+        long nextMonth = CalendarUtils.addMonths(month, 1);
+        cache.put(month, nextMonth, new EventSnapshot.Builder(2)
+                .add(1L, 1L, "Instance", month, month + 1, false)
+                .add(1L, 1L, "Instance", month + 2, month + 3, false)
+                .build());
+        // instances should be kept apart by start time
+        assertThat(cache.get(month, nextMonth).getCount())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testEvictColdMonths() {
+        Object owner = new Object();
+        cache.retain(owner, month, month + 1);
+        // one more month than can be kept cold, retained month least recently used
+        for (int i = 0; i <= EventCache.MAX_COLD_MONTHS + 1; i++) {
+            long start = CalendarUtils.addMonths(month, i);
+            cache.put(start, CalendarUtils.addMonths(month, i + 1),
+                    new EventSnapshot.Builder(1)
+                            .add(i, 1L, "Event", start, start + 1, false)
+                            .build());
+        }
+        cache.trim();
+        // retained month should stay, least recently used cold month should be evicted
+        assertThat(cache.isMonthLoaded(month)).isTrue();
+        assertThat(cache.isMonthLoaded(CalendarUtils.addMonths(month, 1))).isFalse();
+        assertThat(cache.isMonthLoaded(CalendarUtils.addMonths(month, 2))).isTrue();
+        assertThat(cache.get(month, CalendarUtils.addMonths(month, 2)).getCount()).isEqualTo(1);
+
+        // released month has been recently read, least recently used cold month instead
+        cache.release(owner);
+        assertThat(cache.isMonthLoaded(month)).isTrue();
+        assertThat(cache.isMonthLoaded(CalendarUtils.addMonths(month, 2))).isFalse();
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.hidroh.calendar.content;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.test.TestEventCursor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventMirrorTest {
+    // same as provider selection in EventsQueryHandler, without deleted check
+    private static final String PROVIDER_SELECTION =
+            "(allDay=? AND ((dtstart>=? AND dtstart<?) OR (dtstart<? AND dtend>?))) OR " +
+            "(allDay=? AND ((dtstart>=? AND dtstart<?) OR (dtstart<? AND dtend>?)))";
+    private static final int CALENDAR_SIZE = 5000;
+    private final TimeZone defaultTimeZone = TimeZone.getDefault();
+    private EventMirror mirror;
+    private long todayMillis;
+
+    @Before
+    public void setUp() {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        CalendarUtils.invalidateTimeZone();
+        mirror = new EventMirror(RuntimeEnvironment.application, null);
+        todayMillis = CalendarUtils.today();
+    }
+
+    @Test
+    public void testIncrementalSync() {
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", todayMillis, todayMillis + 1, 0});
+        cursor.addRow(new Object[]{2L, 1L, "Event 2", todayMillis, todayMillis + 1, 0});
+        cursor.addRow(new Object[]{3L, 1L, "Event 3", todayMillis, todayMillis + 1, 0});
+        assertThat(mirror.sync(cursor)).isEqualTo(3);
+        assertThat(mirror.sync(cursor)).isZero();
+
+        // only changed, added and removed rows should be written
+        cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{2L, 1L, "Event 2", todayMillis, todayMillis + 1, 0});
+        cursor.addRow(new Object[]{3L, 1L, "Event 3 changed", todayMillis, todayMillis + 1, 0});
+        cursor.addRow(new Object[]{4L, 1L, "Event 4", todayMillis, todayMillis + 1, 0});
+        assertThat(mirror.sync(cursor)).isEqualTo(3);
+        EventSnapshot snapshot = query(todayMillis, todayMillis + DateUtils.DAY_IN_MILLIS);
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getId(0)).isEqualTo(2L);
+        assertThat(snapshot.getTitle(1)).isEqualTo("Event 3 changed");
+        assertThat(snapshot.getId(2)).isEqualTo(4L);
+    }
+
+    @Test
+    public void testQueryOverlap() {
+        long day = todayMillis, nextDay = day + DateUtils.DAY_IN_MILLIS;
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Before", day - 1, day, 0}); // ends at start
+        cursor.addRow(new Object[]{2L, 1L, "Across", day - 1, nextDay, 0});
+        cursor.addRow(new Object[]{3L, 1L, "Within", day, day, 0}); // zero duration
+        cursor.addRow(new Object[]{4L, 1L, "After", nextDay, nextDay + 1, 0}); // starts at end
+        cursor.addRow(new Object[]{5L, 1L, "All day", CalendarUtils.toUtcTimeZone(day),
+                CalendarUtils.toUtcTimeZone(nextDay), 1}); // all-day time in UTC
+        mirror.sync(cursor);
+        EventSnapshot snapshot = query(day, nextDay);
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getId(0)).isEqualTo(2L);
+        assertThat(snapshot.getId(1)).isEqualTo(3L);
+        assertThat(snapshot.getId(2)).isEqualTo(5L);
+        assertThat(snapshot.getDateTimeStart(2)).isEqualTo(day);
+
+        // all-day times should be converted to new time zone
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Singapore"));
+        CalendarUtils.invalidateTimeZone();
+        mirror.sync(cursor);
+        long utcDay = CalendarUtils.toUtcTimeZone(day);
+        day = CalendarUtils.toLocalTimeZone(utcDay);
+        snapshot = query(day, day + DateUtils.DAY_IN_MILLIS);
+        boolean found = false;
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            if (snapshot.getId(i) == 5L) {
+                found = true;
+                assertThat(snapshot.getDateTimeStart(i)).isEqualTo(day);
+            }
+        }
+        assertThat(found).isTrue();
+    }
+
+    @Test
+    public void testRangeQueryMatchesProviderSelection() {
+        // synthetic calendar of mostly short events, some multi-day and all-day ones,
+        // spread over 10 years
+        long start = CalendarUtils.addMonths(CalendarUtils.monthFirstDay(todayMillis), -60);
+        long span = CalendarUtils.addMonths(start, 120) - start;
+        TestEventCursor cursor = new TestEventCursor();
+        for (int i = 0; i < CALENDAR_SIZE; i++) {
+            long eventStart = start + span / CALENDAR_SIZE * i;
+            boolean allDay = i % 10 == 0;
+            long duration = i % 100 == 0 ? DateUtils.WEEK_IN_MILLIS : DateUtils.HOUR_IN_MILLIS;
+            if (allDay) {
+                eventStart = CalendarUtils.toUtcTimeZone(eventStart -
+                        eventStart % DateUtils.DAY_IN_MILLIS);
+                duration = DateUtils.DAY_IN_MILLIS;
+            }
+            cursor.addRow(new Object[]{(long) i, (long) i % 5, "Event " + i % 50,
+                    eventStart, eventStart + duration, allDay ? 1 : 0});
+        }
+        assertThat(mirror.sync(cursor)).isEqualTo(CALENDAR_SIZE);
+        assertThat(mirror.sync(cursor)).isZero();
+
+        // indexed range query should return same events as provider selection
+        SQLiteDatabase db = mirror.getReadableDatabase();
+        long month = CalendarUtils.monthFirstDay(todayMillis);
+        for (int i = 0; i < 12; i++) {
+            long monthStart = CalendarUtils.addMonths(month, i),
+                    monthEnd = CalendarUtils.addMonths(month, i + 1);
+            EventSnapshot expected = queryProviderSelection(db, monthStart, monthEnd),
+                    actual = query(monthStart, monthEnd);
+            assertThat(sortedIds(actual)).containsExactly(sortedIds(expected));
+        }
+    }
+
+    @Test
+    public void testThrottleSync() {
+        QueryExecutor executor = new QueryExecutor(0); // run queued syncs manually
+        EventMirror throttled = new EventMirror(RuntimeEnvironment.application, null, executor);
+        throttled.requestSync();
+        throttled.requestSync();
+        // changes before sync has started should be coalesced
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_BACKGROUND)).isEqualTo(1);
+        executor.runNext();
+
+        // changes shortly after a sync should be deferred, reading from provider meanwhile
+        throttled.requestSync();
+        assertThat(throttled.isSynced()).isFalse();
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_BACKGROUND)).isZero();
+        ShadowLooper.idleMainLooper(EventMirror.MIN_SYNC_INTERVAL_MILLIS);
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_BACKGROUND)).isEqualTo(1);
+        throttled.close();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+        mirror.close();
+    }
+
+    private EventSnapshot query(long startTimeMillis, long endTimeMillis) {
+        Cursor cursor = mirror.query(startTimeMillis, endTimeMillis);
+        try {
+            return EventSnapshot.from(new EventCursor(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long[] sortedIds(EventSnapshot snapshot) {
+        long[] ids = new long[snapshot.getCount()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = snapshot.getId(i);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private EventSnapshot queryProviderSelection(SQLiteDatabase db, long startTimeMillis,
+                                                 long endTimeMillis) {
+        String localStart = String.valueOf(startTimeMillis),
+                localEnd = String.valueOf(endTimeMillis),
+                utcStart = String.valueOf(CalendarUtils.toUtcTimeZone(startTimeMillis)),
+                utcEnd = String.valueOf(CalendarUtils.toUtcTimeZone(endTimeMillis));
+        Cursor cursor = db.query("events", EventCursor.PROJECTION, PROVIDER_SELECTION,
+                new String[]{"0", localStart, localEnd, localStart, localStart,
+                        "1", utcStart, utcEnd, utcStart, utcStart},
+                null, null, "dtstart ASC");
+        try {
+            return EventSnapshot.from(new EventCursor(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.hidroh.calendar.content;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.test.TestEventCursor;
+
+import static org.assertj.android.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventSnapshotTest {
+
+    @Test
+    public void testEmpty() {
+        assertThat(EventSnapshot.from(new TestEventCursor())).isSameAs(EventSnapshot.EMPTY);
+        assertThat(EventSnapshot.EMPTY.getCount()).isZero();
+    }
+
+    @Test
+    public void testCopy() {
+        long todayMillis = CalendarUtils.today();
+        TestEventCursor cursor = new TestEventCursor();
+        // more than 64 rows to span multiple all-day bitset words
+        for (int i = 0; i < 100; i++) {
+            cursor.addRow(new Object[]{(long) i, (long) i % 3, "Event " + i % 2,
+                    todayMillis + i, todayMillis + i + 1, i % 10 == 0 ? 1 : 0});
+        }
+        EventSnapshot snapshot = EventSnapshot.from(cursor);
+        assertThat(cursor).isNotClosed();
+        assertThat(snapshot.getCount()).isEqualTo(100);
+        for (int i = 0; i < 100; i++) {
+            assertThat(snapshot.getId(i)).isEqualTo(i);
+            assertThat(snapshot.getCalendarId(i)).isEqualTo(i % 3);
+            assertThat(snapshot.getTitle(i)).isEqualTo("Event " + i % 2);
+            assertThat(snapshot.getAllDay(i)).isEqualTo(i % 10 == 0);
+            if (i % 10 == 0) { // all-day time should be converted to local
+                assertThat(snapshot.getDateTimeStart(i))
+                        .isEqualTo(CalendarUtils.toLocalTimeZone(todayMillis + i));
+            } else {
+                assertThat(snapshot.getDateTimeStart(i)).isEqualTo(todayMillis + i);
+                assertThat(snapshot.getDateTimeEnd(i)).isEqualTo(todayMillis + i + 1);
+            }
+        }
+        // same titles should share one instance
+        assertThat(snapshot.getTitle(2)).isSameAs(snapshot.getTitle(0));
+    }
+
+    @Test
+    public void testContentsEqual() {
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", 0L, 1L, 0});
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", 0L, 1L, 1});
+        cursor.addRow(new Object[]{1L, 1L, null, 0L, 1L, 0});
+        EventSnapshot snapshot = EventSnapshot.from(cursor);
+        TestEventCursor otherCursor = new TestEventCursor();
+        otherCursor.addRow(new Object[]{1L, 1L, "Event 1", 0L, 1L, 0});
+        otherCursor.addRow(new Object[]{1L, 2L, "Event 1", 0L, 1L, 0});
+        otherCursor.addRow(new Object[]{1L, 1L, null, 0L, 1L, 0});
+        EventSnapshot other = EventSnapshot.from(otherCursor);
+        assertThat(snapshot.contentsEqual(0, other, 0)).isTrue();
+        assertThat(snapshot.contentsEqual(0, other, 1)).isFalse(); // different calendar
+        assertThat(snapshot.contentsEqual(1, other, 0)).isFalse(); // different all day
+        assertThat(snapshot.contentsEqual(2, other, 2)).isTrue();
+        assertThat(snapshot.contentsEqual(2, other, 0)).isFalse(); // different title
+    }
+
+    @Test
+    public void testSlice() {
+        TestEventCursor cursor = new TestEventCursor();
+        for (int i = 0; i < 70; i++) {
+            cursor.addRow(new Object[]{(long) i, 1L, "Event " + i, 0L, 0L, i >= 64 ? 1 : 0});
+        }
+        EventSnapshot snapshot = EventSnapshot.from(cursor);
+        EventSnapshot slice = snapshot.slice(new int[]{1, 65, 69, 0}, 3);
+        assertThat(slice.getCount()).isEqualTo(3);
+        assertThat(slice.getId(0)).isEqualTo(1);
+        assertThat(slice.getAllDay(0)).isFalse();
+        assertThat(slice.getId(1)).isEqualTo(65);
+        assertThat(slice.getAllDay(1)).isTrue();
+        assertThat(slice.getTitle(2)).isEqualTo("Event 69");
+        assertThat(snapshot.slice(new int[0], 0)).isSameAs(EventSnapshot.EMPTY);
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.hidroh.calendar.content;
+
+import android.provider.CalendarContract;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventsChangeDispatcherTest {
+    private static final long STEP_MILLIS = 16;
+    private EventsChangeDispatcher dispatcher;
+    private EventsChangeDispatcher.OnEventsChangeListener listener;
+
+    @Before
+    public void setUp() {
+        dispatcher = new EventsChangeDispatcher(RuntimeEnvironment.application.getContentResolver());
+        listener = mock(EventsChangeDispatcher.OnEventsChangeListener.class);
+        dispatcher.addListener(listener);
+    }
+
+    @Test
+    public void testCoalesceBurst() {
+        // burst of changes should not be dispatched until settled
+        for (int i = 0; i < 10; i++) {
+            dispatcher.notifyChange();
+            ShadowLooper.idleMainLooper(STEP_MILLIS);
+        }
+        verify(listener, never()).onEventsChange();
+
+        // settled burst should be dispatched once
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.QUIET_MILLIS +
+                STEP_MILLIS);
+        verify(listener).onEventsChange();
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        verify(listener).onEventsChange();
+    }
+
+    @Test
+    public void testDispatchByDeadline() {
+        // continuous changes should still be dispatched once max delay has passed
+        for (long elapsed = 0;
+             elapsed <= EventsChangeDispatcher.MAX_DELAY_MILLIS +
+                     STEP_MILLIS * 2;
+             elapsed += STEP_MILLIS) {
+            dispatcher.notifyChange();
+            ShadowLooper.idleMainLooper(STEP_MILLIS);
+        }
+        verify(listener).onEventsChange();
+    }
+
+    @Test
+    public void testRemoveListener() {
+        // pending changes should be dropped once last listener is removed
+        dispatcher.notifyChange();
+        dispatcher.removeListener(listener);
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        verify(listener, never()).onEventsChange();
+
+        // listener should be notified again once re-added
+        dispatcher.addListener(listener);
+        dispatcher.notifyChange();
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        verify(listener, times(1)).onEventsChange();
+    }
+
+    @Test
+    public void testDispatchContentListenersFirst() {
+        EventsChangeDispatcher.OnEventsChangeListener contentListener =
+                mock(EventsChangeDispatcher.OnEventsChangeListener.class);
+        dispatcher.addContentListener(contentListener);
+        dispatcher.notifyChange();
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        InOrder inOrder = inOrder(contentListener, listener);
+        inOrder.verify(contentListener).onEventsChange();
+        inOrder.verify(listener).onEventsChange();
+    }
+
+    @Test
+    public void testObserveProviderOnce() {
+        // provider should be observed once regardless of number of listeners
+        dispatcher.addContentListener(mock(EventsChangeDispatcher.OnEventsChangeListener.class));
+        dispatcher.addListener(mock(EventsChangeDispatcher.OnEventsChangeListener.class));
+        assertThat(shadowOf(RuntimeEnvironment.application.getContentResolver())
+                .getContentObservers(CalendarContract.Events.CONTENT_URI))
+                .hasSize(1);
+
+        // provider changes should be dispatched
+        RuntimeEnvironment.application.getContentResolver()
+                .notifyChange(CalendarContract.Events.CONTENT_URI, null);
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        verify(listener).onEventsChange();
+    }
+
+    @Test
+    public void testGetInstance() {
+        assertThat(EventsChangeDispatcher.getInstance(RuntimeEnvironment.application))
+                .isSameAs(EventsChangeDispatcher.getInstance(RuntimeEnvironment.application));
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.hidroh.calendar.content;
+
+import android.content.Intent;
+import android.database.MatrixCursor;
+import android.provider.CalendarContract;
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.text.DateFormatChangeReceiver;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventsQueryHandlerTest {
+    private final List<Object> completed = new ArrayList<>();
+    private final TimeZone defaultTimeZone = TimeZone.getDefault();
+    private EventsQueryHandler handler;
+    private QueryExecutor executor;
+    private EventCache cache;
+    private RecurrenceExpander recurrences;
+    private EventSnapshot lastSnapshot;
+
+    @Before
+    public void setUp() {
+        executor = new QueryExecutor(0); // run queued queries manually
+        cache = new EventCache(RuntimeEnvironment.application.getContentResolver());
+        recurrences = new RecurrenceExpander(RuntimeEnvironment.application.getContentResolver());
+        recurrences.load(new MatrixCursor(RecurrenceExpander.PROJECTION), null);
+        handler = new EventsQueryHandler(RuntimeEnvironment.application.getContentResolver(),
+                executor, cache, null, recurrences) {
+            @Override
+            protected void handleQueryComplete(int token, Object cookie, EventSnapshot snapshot) {
+                completed.add(cookie);
+                lastSnapshot = snapshot;
+            }
+        };
+    }
+
+    @Test
+    public void testCoalesceDuplicateQueries() {
+        handler.startQuery("day", 0, DateUtils.DAY_IN_MILLIS);
+        handler.startQuery("day", 0, DateUtils.DAY_IN_MILLIS);
+        handler.startQuery("other day", 0, DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        // single query should complete once per distinct cookie
+        assertThat(completed).containsExactly("day", "other day");
+    }
+
+    @Test
+    public void testCancelQueries() {
+        handler.startQuery("day 1", 0, DateUtils.DAY_IN_MILLIS);
+        handler.startQuery("day 2", DateUtils.DAY_IN_MILLIS, DateUtils.DAY_IN_MILLIS * 2);
+        handler.startQuery("days 1-2", 0, DateUtils.DAY_IN_MILLIS * 2);
+        handler.cancelQueries(0, DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        // only queries within cancelled range should be cancelled
+        assertThat(completed).containsExactly("day 2", "days 1-2");
+    }
+
+    @Test
+    public void testDropLateResults() {
+        ShadowLooper.pauseMainLooper();
+        handler.startQuery("day", 0, DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        handler.cancelQueries(0, DateUtils.DAY_IN_MILLIS);
+        ShadowLooper.unPauseMainLooper();
+        assertThat(completed).isEmpty();
+
+        // new query for same range should not be coalesced onto cancelled one
+        handler.startQuery("day", 0, DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        assertThat(completed).containsExactly("day");
+    }
+
+    @Test
+    public void testRaisePriorityOfSharedQuery() {
+        handler.startQuery("prefetch", 0, DateUtils.DAY_IN_MILLIS,
+                QueryExecutor.PRIORITY_PREFETCH);
+        handler.startQuery("visible", DateUtils.DAY_IN_MILLIS, DateUtils.DAY_IN_MILLIS * 2);
+        handler.startQuery("visible", 0, DateUtils.DAY_IN_MILLIS);
+        // both days are in same month, which should be queried once with raised priority
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_PREFETCH)).isZero();
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_VISIBLE)).isEqualTo(1);
+        runQueries();
+        assertThat(completed).containsExactly("prefetch", "visible", "visible");
+    }
+
+    @Test
+    public void testReadFromCache() {
+        handler.startQuery("day 1", 0, DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        assertThat(executor.getCompletedCount(QueryExecutor.PRIORITY_VISIBLE)).isEqualTo(1);
+        assertThat(cache.isLoaded(0, DateUtils.DAY_IN_MILLIS * 2)).isTrue();
+
+        // loaded month should be read from cache without querying provider
+        handler.startQuery("day 2", DateUtils.DAY_IN_MILLIS, DateUtils.DAY_IN_MILLIS * 2);
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_VISIBLE)).isZero();
+        assertThat(completed).containsExactly("day 1", "day 2");
+
+        // invalidated cache should be loaded again
+        cache.invalidate();
+        handler.startQuery("day 2", DateUtils.DAY_IN_MILLIS, DateUtils.DAY_IN_MILLIS * 2);
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_VISIBLE)).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetainMonthsInFlight() {
+        long month = CalendarUtils.monthFirstDay(CalendarUtils.today()),
+                coldEnd = CalendarUtils.addMonths(month, EventCache.MAX_COLD_MONTHS + 2),
+                yearEnd = CalendarUtils.addMonths(month, 12);
+        handler.startQuery("cold months", month, coldEnd);
+        handler.startQuery("year", month, yearEnd);
+        runQueries();
+        // months loaded for year before the rest should not be evicted and refilled
+        assertThat(completed).containsExactly("cold months", "year");
+        assertThat(executor.getCompletedCount(QueryExecutor.PRIORITY_VISIBLE)).isEqualTo(2);
+
+        // delivered months should no longer be retained
+        assertThat(cache.isLoaded(month, CalendarUtils.addMonths(month, 1))).isFalse();
+    }
+
+    @Test
+    public void testExpandRecurringEvents() {
+        MatrixCursor series = new MatrixCursor(RecurrenceExpander.PROJECTION);
+        series.addRow(new Object[]{1L, 1L, "Daily", 0L, null, "PT1H", 0, "UTC",
+                "FREQ=DAILY", null, null, null, null});
+        recurrences.load(series, null);
+        handler.startQuery("days 1-3", 0, DateUtils.DAY_IN_MILLIS * 3);
+        runQueries();
+        // instances should be delivered as rows of their series
+        assertThat(lastSnapshot.getCount()).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(lastSnapshot.getId(i)).isEqualTo(1L);
+            assertThat(lastSnapshot.getDateTimeStart(i)).isEqualTo(DateUtils.DAY_IN_MILLIS * i);
+            assertThat(lastSnapshot.getDateTimeEnd(i))
+                    .isEqualTo(DateUtils.DAY_IN_MILLIS * i + DateUtils.HOUR_IN_MILLIS);
+        }
+    }
+
+    @Test
+    public void testTimeZoneChange() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Singapore"));
+        CalendarUtils.invalidateTimeZone();
+        long day = CalendarUtils.today();
+        EventsQueryHandler sharedHandler = new EventsQueryHandler(
+                RuntimeEnvironment.application.getContentResolver(), executor,
+                EventCache.getInstance(RuntimeEnvironment.application), null, recurrences) {
+            @Override
+            protected void handleQueryComplete(int token, Object cookie, EventSnapshot snapshot) {
+                lastSnapshot = snapshot;
+            }
+        };
+        setProviderEvents(new Object[]{1L, 1L, "All day", CalendarUtils.toUtcTimeZone(day),
+                CalendarUtils.toUtcTimeZone(day + DateUtils.DAY_IN_MILLIS), 1});
+        sharedHandler.startQuery("today", day, day + DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        assertThat(lastSnapshot.getDateTimeStart(0)).isEqualTo(day);
+
+        // all-day event should move to local midnight of new time zone
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        new DateFormatChangeReceiver().onReceive(RuntimeEnvironment.application,
+                new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+        ShadowLooper.idleMainLooper(EventsChangeDispatcher.MAX_DELAY_MILLIS);
+        long newDay = CalendarUtils.toLocalTimeZone(CalendarUtils.toUtcTimeZone(day));
+        assertThat(newDay).isNotEqualTo(day);
+        setProviderEvents(new Object[]{1L, 1L, "All day", CalendarUtils.toUtcTimeZone(newDay),
+                CalendarUtils.toUtcTimeZone(newDay + DateUtils.DAY_IN_MILLIS), 1});
+        sharedHandler.startQuery("today", newDay, newDay + DateUtils.DAY_IN_MILLIS);
+        runQueries();
+        assertThat(lastSnapshot.getCount()).isEqualTo(1);
+        assertThat(lastSnapshot.getDateTimeStart(0)).isEqualTo(newDay);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+    }
+
+    private void setProviderEvents(Object[] row) {
+        MatrixCursor cursor = new MatrixCursor(EventCursor.PROJECTION);
+        cursor.addRow(row);
+        shadowOf(RuntimeEnvironment.application.getContentResolver())
+                .setCursor(CalendarContract.Events.CONTENT_URI, cursor);
+    }
+
+    private void runQueries() {
+        //noinspection StatementWithEmptyBody
+        while (executor.runNext()) { }
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.hidroh.calendar.content;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class QueryExecutorTest {
+    private final List<String> completed = new ArrayList<>();
+    private QueryExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new QueryExecutor(0); // run queued tasks manually
+    }
+
+    @Test
+    public void testRunInPriorityOrder() {
+        executor.execute(new TestTask("background"), QueryExecutor.PRIORITY_BACKGROUND);
+        executor.execute(new TestTask("prefetch 1"), QueryExecutor.PRIORITY_PREFETCH);
+        executor.execute(new TestTask("prefetch 2"), QueryExecutor.PRIORITY_PREFETCH);
+        executor.execute(new TestTask("near visible"), QueryExecutor.PRIORITY_NEAR_VISIBLE);
+        executor.execute(new TestTask("visible"), QueryExecutor.PRIORITY_VISIBLE);
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_PREFETCH)).isEqualTo(2);
+
+        // queued tasks should be preempted by higher priority ones, run in order otherwise
+        runAll();
+        assertThat(completed).containsExactly("visible", "near visible",
+                "prefetch 1", "prefetch 2", "background");
+        assertThat(executor.getQueueSize(QueryExecutor.PRIORITY_PREFETCH)).isZero();
+        assertThat(executor.getMaxQueueSize(QueryExecutor.PRIORITY_PREFETCH)).isEqualTo(2);
+        assertThat(executor.getCompletedCount(QueryExecutor.PRIORITY_PREFETCH)).isEqualTo(2);
+        assertThat(executor.getCompletedCount(QueryExecutor.PRIORITY_VISIBLE)).isEqualTo(1);
+    }
+
+    @Test
+    public void testRemoveQueuedTask() {
+        TestTask task = new TestTask("prefetch");
+        executor.execute(task, QueryExecutor.PRIORITY_PREFETCH);
+        executor.execute(new TestTask("visible"), QueryExecutor.PRIORITY_VISIBLE);
+        assertThat(executor.remove(task)).isTrue();
+        assertThat(executor.remove(task)).isFalse();
+        runAll();
+        assertThat(completed).containsExactly("visible");
+        assertThat(executor.getRemovedCount(QueryExecutor.PRIORITY_PREFETCH)).isEqualTo(1);
+        assertThat(executor.getCompletedCount(QueryExecutor.PRIORITY_PREFETCH)).isZero();
+    }
+
+    private void runAll() {
+        //noinspection StatementWithEmptyBody
+        while (executor.runNext()) { }
+    }
+
+    private class TestTask implements Runnable {
+        private final String mName;
+
+        TestTask(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            completed.add(mName);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.github.hidroh.calendar.content;
+
+import android.database.MatrixCursor;
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class RecurrenceExpanderTest {
+    private static final String TIME_ZONE = "America/New_York";
+    private final TimeZone defaultTimeZone = TimeZone.getDefault();
+    private RecurrenceExpander expander;
+
+    @Before
+    public void setUp() {
+        TimeZone.setDefault(TimeZone.getTimeZone(TIME_ZONE));
+        CalendarUtils.invalidateTimeZone();
+        expander = new RecurrenceExpander(RuntimeEnvironment.application.getContentResolver());
+    }
+
+    @Test
+    public void testWeeklyByDay() {
+        load(row(1L, "Weekly", time(2015, Calendar.JANUARY, 5, 10), false,
+                "FREQ=WEEKLY;BYDAY=MO,WE;COUNT=5", null, null));
+        EventSnapshot snapshot = expandMonth(2015, Calendar.JANUARY);
+        assertThat(snapshot.getCount()).isEqualTo(5);
+        int[] days = {5, 7, 12, 14, 19};
+        for (int i = 0; i < days.length; i++) {
+            assertThat(snapshot.getId(i)).isEqualTo(1L);
+            assertThat(snapshot.isRecurring(i)).isTrue();
+            assertThat(snapshot.getDateTimeStart(i))
+                    .isEqualTo(time(2015, Calendar.JANUARY, days[i], 10));
+            assertThat(snapshot.getDateTimeEnd(i))
+                    .isEqualTo(time(2015, Calendar.JANUARY, days[i], 11));
+        }
+        // count should be reached in first month
+        assertThat(expandMonth(2015, Calendar.FEBRUARY).getCount()).isZero();
+    }
+
+    @Test
+    public void testMonthlyByDayOrdinalAndSetPos() {
+        load(row(1L, "Last Friday", time(2015, Calendar.JANUARY, 30, 10), false,
+                        "FREQ=MONTHLY;BYDAY=-1FR", null, null),
+                row(2L, "Last weekday", time(2015, Calendar.JANUARY, 30, 10), false,
+                        "FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1", null, null));
+        EventSnapshot snapshot = expandMonth(2015, Calendar.AUGUST);
+        assertThat(snapshot.getCount()).isEqualTo(2);
+        assertThat(snapshot.getDateTimeStart(indexOf(snapshot, 1L)))
+                .isEqualTo(time(2015, Calendar.AUGUST, 28, 10));
+        assertThat(snapshot.getDateTimeStart(indexOf(snapshot, 2L)))
+                .isEqualTo(time(2015, Calendar.AUGUST, 31, 10));
+        snapshot = expandMonth(2015, Calendar.MAY);
+        assertThat(snapshot.getDateTimeStart(indexOf(snapshot, 2L)))
+                .isEqualTo(time(2015, Calendar.MAY, 29, 10));
+    }
+
+    @Test
+    public void testKeepWallClockTimeAcrossDaylightSaving() {
+        load(row(1L, "Daily", time(2015, Calendar.MARCH, 6, 10), false,
+                "FREQ=DAILY", null, null));
+        EventSnapshot snapshot = expander.expand(time(2015, Calendar.MARCH, 6, 0),
+                time(2015, Calendar.MARCH, 11, 0));
+        assertThat(snapshot.getCount()).isEqualTo(5);
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            assertThat(snapshot.getDateTimeStart(i))
+                    .isEqualTo(time(2015, Calendar.MARCH, 6 + i, 10));
+        }
+        // daylight saving starts on March 8
+        assertThat(snapshot.getDateTimeStart(2) - snapshot.getDateTimeStart(1))
+                .isEqualTo(DateUtils.HOUR_IN_MILLIS * 23);
+    }
+
+    @Test
+    public void testExclusionsAndAdditions() {
+        long exception = time(2015, Calendar.JANUARY, 19, 10);
+        MatrixCursor exceptions = new MatrixCursor(RecurrenceExpander.EXCEPTION_PROJECTION);
+        exceptions.addRow(new Object[]{1L, exception});
+        MatrixCursor series = new MatrixCursor(RecurrenceExpander.PROJECTION);
+        series.addRow(row(1L, "Weekly", time(2015, Calendar.JANUARY, 5, 10), false,
+                "FREQ=WEEKLY;BYDAY=MO;UNTIL=20150202T150000Z",
+                "20150114T150000Z", TIME_ZONE + ";20150112T100000"));
+        expander.load(series, exceptions);
+        // Jan 12 excluded, Jan 14 added, Jan 19 modified as a separate event
+        EventSnapshot snapshot = expandMonth(2015, Calendar.JANUARY);
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getDateTimeStart(0)).isEqualTo(time(2015, Calendar.JANUARY, 5, 10));
+        assertThat(snapshot.getDateTimeStart(1)).isEqualTo(time(2015, Calendar.JANUARY, 14, 10));
+        assertThat(snapshot.getDateTimeStart(2)).isEqualTo(time(2015, Calendar.JANUARY, 26, 10));
+        // until is inclusive
+        snapshot = expandMonth(2015, Calendar.FEBRUARY);
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getDateTimeStart(0)).isEqualTo(time(2015, Calendar.FEBRUARY, 2, 10));
+    }
+
+    @Test
+    public void testAllDay() {
+        load(row(1L, "Birthday", CalendarUtils.toUtcTimeZone(time(2014, Calendar.JANUARY, 15, 0)),
+                true, "FREQ=YEARLY", null, null));
+        EventSnapshot snapshot = expandMonth(2015, Calendar.JANUARY);
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getAllDay(0)).isTrue();
+        // all-day times should be converted to local time zone
+        assertThat(snapshot.getDateTimeStart(0)).isEqualTo(time(2015, Calendar.JANUARY, 15, 0));
+        assertThat(snapshot.getDateTimeEnd(0)).isEqualTo(time(2015, Calendar.JANUARY, 16, 0));
+    }
+
+    @Test
+    public void testUnsupportedRule() {
+        load(row(1L, "Hourly", time(2015, Calendar.JANUARY, 5, 10), false,
+                "FREQ=HOURLY", null, null));
+        // only first instance should be expanded
+        assertThat(expandMonth(2015, Calendar.JANUARY).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testKeepWindowsOfUnchangedSeries() {
+        Object[] row = row(1L, "Weekly", time(2015, Calendar.JANUARY, 5, 10), false,
+                "FREQ=WEEKLY", null, null);
+        load(row);
+        expandMonth(2015, Calendar.JANUARY);
+        RecurrenceExpander.Series series = expander.getSeries(1L);
+        assertThat(series.mWindows).isNotEmpty();
+        load(row);
+        assertThat(expander.getSeries(1L)).isSameAs(series);
+
+        // windows should be bounded
+        for (int i = 0; i <= RecurrenceExpander.MAX_WINDOWS; i++) {
+            expandMonth(2016 + i / 12, i % 12);
+        }
+        assertThat(series.mWindows).hasSize(RecurrenceExpander.MAX_WINDOWS);
+
+        // changed series should be expanded again
+        row[2] = "Weekly changed";
+        load(row);
+        assertThat(expander.getSeries(1L)).isNotSameAs(series);
+        assertThat(expandMonth(2015, Calendar.JANUARY).getTitle(0)).isEqualTo("Weekly changed");
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+    }
+
+    private void load(Object[]... rows) {
+        MatrixCursor cursor = new MatrixCursor(RecurrenceExpander.PROJECTION);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        expander.load(cursor, null);
+    }
+
+    private EventSnapshot expandMonth(int year, int month) {
+        long start = time(year, month, 1, 0);
+        return expander.expand(start, CalendarUtils.addMonths(start, 1));
+    }
+
+    private Object[] row(long id, String title, long startTimeMillis, boolean allDay,
+                         String rrule, String rdate, String exdate) {
+        return new Object[]{id, 1L, title, startTimeMillis, null, allDay ? "P1D" : "PT1H",
+                allDay ? 1 : 0, allDay ? "UTC" : TIME_ZONE, rrule, rdate, null, exdate, null};
+    }
+
+    private long time(int year, int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, hour, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private int indexOf(EventSnapshot snapshot, long id) {
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            if (snapshot.getId(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
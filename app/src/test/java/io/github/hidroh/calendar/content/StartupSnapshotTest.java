@@ -0,0 +1,103 @@
+package io.github.hidroh.calendar.content;
+
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class StartupSnapshotTest {
+    private final TimeZone defaultTimeZone = TimeZone.getDefault();
+    private File file;
+    private long month;
+    private long nextMonth;
+
+    @Before
+    public void setUp() {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        CalendarUtils.invalidateTimeZone();
+        file = new File(RuntimeEnvironment.application.getCacheDir(), StartupSnapshot.FILE_NAME);
+        month = CalendarUtils.monthFirstDay(CalendarUtils.today());
+        nextMonth = CalendarUtils.addMonths(month, 1);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        long day = CalendarUtils.today();
+        StartupSnapshot.write(file, month, nextMonth, new EventSnapshot.Builder(3)
+                .add(1L, 1L, "Event", day, day + 1, false)
+                .add(2L, 2L, null, day, day + DateUtils.DAY_IN_MILLIS, true)
+                .add(3L, 1L, "Event", day + DateUtils.DAY_IN_MILLIS,
+                        day + DateUtils.DAY_IN_MILLIS + 1, false)
+                .build());
+        StartupSnapshot snapshot = StartupSnapshot.read(RuntimeEnvironment.application);
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.covers(month, nextMonth)).isTrue();
+        assertThat(snapshot.covers(month, nextMonth + 1)).isFalse();
+
+        // should answer same overlap predicate as cache
+        EventSnapshot events = snapshot.get(day, day + DateUtils.DAY_IN_MILLIS);
+        assertThat(events.getCount()).isEqualTo(2);
+        assertThat(events.getId(0)).isEqualTo(1L);
+        assertThat(events.getTitle(0)).isEqualTo("Event");
+        assertThat(events.getDateTimeEnd(0)).isEqualTo(day + 1);
+        assertThat(events.getTitle(1)).isNull();
+        assertThat(events.getAllDay(1)).isTrue();
+        events = snapshot.get(day, day + DateUtils.DAY_IN_MILLIS * 2);
+        assertThat(events.getCount()).isEqualTo(3);
+        assertThat(events.getId(2)).isEqualTo(3L);
+    }
+
+    @Test
+    public void testReadAsync() {
+        long day = CalendarUtils.today();
+        StartupSnapshot.write(file, month, nextMonth, new EventSnapshot.Builder(1)
+                .add(1L, 1L, "Event", day, day + 1, false)
+                .build());
+        // should be mapped on worker thread and handed over once awaited
+        StartupSnapshot snapshot = StartupSnapshot.await(
+                StartupSnapshot.readAsync(RuntimeEnvironment.application));
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.get(month, nextMonth).getTitle(0)).isEqualTo("Event");
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        assertThat(StartupSnapshot.await(
+                StartupSnapshot.readAsync(RuntimeEnvironment.application))).isNull();
+    }
+
+    @Test
+    public void testDiscard() {
+        StartupSnapshot.write(file, month, nextMonth, EventSnapshot.EMPTY);
+        assertThat(StartupSnapshot.read(RuntimeEnvironment.application)).isNotNull();
+
+        // should be discarded upon time zone change
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Singapore"));
+        CalendarUtils.invalidateTimeZone();
+        assertThat(StartupSnapshot.read(RuntimeEnvironment.application)).isNull();
+
+        // should be discarded if it does not cover today
+        StartupSnapshot.write(file, nextMonth, CalendarUtils.addMonths(nextMonth, 1),
+                EventSnapshot.EMPTY);
+        assertThat(StartupSnapshot.read(RuntimeEnvironment.application)).isNull();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
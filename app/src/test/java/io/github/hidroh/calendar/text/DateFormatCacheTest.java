@@ -0,0 +1,131 @@
+package io.github.hidroh.calendar.text;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class DateFormatCacheTest {
+    private static final int BLOCK_SIZE = 31;
+    private final Context context = RuntimeEnvironment.application;
+    private TimeZone defaultTimeZone;
+    private long todayMillis;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Singapore"));
+        CalendarUtils.invalidateTimeZone();
+        DateFormatCache.invalidate();
+        todayMillis = CalendarUtils.today();
+    }
+
+    @Test
+    public void testDayString() {
+        String dayString = DateFormatCache.getDayString(context, todayMillis);
+        assertThat(dayString).isEqualTo(CalendarUtils.toDayString(context, todayMillis));
+        // any time within same day should hit cache
+        assertThat(DateFormatCache.getDayString(context,
+                todayMillis + DateUtils.HOUR_IN_MILLIS * 23)).isSameAs(dayString);
+        long tomorrowMillis = todayMillis + DateUtils.DAY_IN_MILLIS;
+        assertThat(DateFormatCache.getDayString(context, tomorrowMillis))
+                .isEqualTo(CalendarUtils.toDayString(context, tomorrowMillis))
+                .isNotSameAs(dayString);
+    }
+
+    @Test
+    public void testTimeString() {
+        long timeMillis = todayMillis + DateUtils.HOUR_IN_MILLIS * 8 +
+                DateUtils.MINUTE_IN_MILLIS * 30;
+        String timeString = DateFormatCache.getTimeString(context, timeMillis);
+        assertThat(timeString).isEqualTo(CalendarUtils.toTimeString(context, timeMillis));
+        // same minute of another day should hit cache
+        assertThat(DateFormatCache.getTimeString(context,
+                timeMillis + DateUtils.DAY_IN_MILLIS * 3 + DateUtils.SECOND_IN_MILLIS * 20))
+                .isSameAs(timeString);
+        assertThat(DateFormatCache.getTimeString(context,
+                timeMillis + DateUtils.MINUTE_IN_MILLIS))
+                .isEqualTo(CalendarUtils.toTimeString(context,
+                        timeMillis + DateUtils.MINUTE_IN_MILLIS));
+    }
+
+    @Test
+    public void testMonthString() {
+        String monthString = DateFormatCache.getMonthString(context, todayMillis);
+        assertThat(monthString).isEqualTo(CalendarUtils.toMonthString(context, todayMillis));
+        // any day within same month should hit cache
+        assertThat(DateFormatCache.getMonthString(context,
+                CalendarUtils.monthLastDay(todayMillis))).isSameAs(monthString);
+        long nextMonthMillis = CalendarUtils.addMonths(todayMillis, 1);
+        assertThat(DateFormatCache.getMonthString(context, nextMonthMillis))
+                .isEqualTo(CalendarUtils.toMonthString(context, nextMonthMillis));
+    }
+
+    @Test
+    public void testInvalidate() {
+        String dayString = DateFormatCache.getDayString(context, todayMillis);
+        DateFormatCache.invalidate();
+        assertThat(DateFormatCache.getDayString(context, todayMillis))
+                .isEqualTo(dayString)
+                .isNotSameAs(dayString);
+    }
+
+    @Test
+    public void testPrewarmDays() {
+        new DateFormatCache.PrewarmTask(context, todayMillis, BLOCK_SIZE).run();
+        assertThat(DateFormatCache.sDays.size()).isEqualTo(BLOCK_SIZE);
+        String dayString = DateFormatCache.getDayString(context, todayMillis);
+        assertThat(DateFormatCache.sDays.size()).isEqualTo(BLOCK_SIZE);
+        assertThat(dayString).isEqualTo(CalendarUtils.toDayString(context, todayMillis));
+    }
+
+    @Test
+    public void testPrewarmDaysInvalidated() {
+        // strings formatted before invalidation should not be cached
+        DateFormatCache.PrewarmTask task =
+                new DateFormatCache.PrewarmTask(context, todayMillis, BLOCK_SIZE);
+        DateFormatCache.invalidate();
+        task.run();
+        assertThat(DateFormatCache.sDays.size()).isZero();
+    }
+
+    @Test
+    public void testBlockFormattedOnce() {
+        // formatting a block again should hit cache for every day and time
+        String[] strings = formatBlock();
+        String[] cachedStrings = formatBlock();
+        for (int i = 0; i < strings.length; i++) {
+            assertThat(cachedStrings[i]).isSameAs(strings[i]);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+        DateFormatCache.invalidate();
+    }
+
+    private String[] formatBlock() {
+        String[] strings = new String[BLOCK_SIZE * 2];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            long dayMillis = todayMillis + DateUtils.DAY_IN_MILLIS * i,
+                    timeMillis = dayMillis + DateUtils.HOUR_IN_MILLIS * (i % 24);
+            strings[i * 2] = DateFormatCache.getDayString(context, dayMillis);
+            strings[i * 2 + 1] = DateFormatCache.getTimeString(context, timeMillis);
+        }
+        return strings;
+    }
+}
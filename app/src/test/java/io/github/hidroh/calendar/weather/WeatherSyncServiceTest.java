@@ -13,23 +13,33 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.shadows.ShadowAlarmManager;
 import org.robolectric.util.ServiceController;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
 
 import io.github.hidroh.calendar.CalendarUtils;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
 import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.Response;
 
 import static org.assertj.android.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -39,6 +49,7 @@ import static org.robolectric.Shadows.shadowOf;
 @SuppressWarnings("unchecked")
 @RunWith(RobolectricGradleTestRunner.class)
 public class WeatherSyncServiceTest {
+    private static final String ETAG = "\"forecast\"";
     private ServiceController<TestService> controller;
     private TestService service;
 
@@ -70,8 +81,15 @@ public class WeatherSyncServiceTest {
         assertThat(WeatherSyncService.getSyncedWeather(service)).isNull();
 
         // trigger service that generates exception
-        Call faultyCall = mock(Call.class);
-        when(faultyCall.execute()).thenThrow(IOException.class);
+        final Call faultyCall = mock(Call.class);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((Callback) invocation.getArguments()[0])
+                        .onFailure(faultyCall, new IOException());
+                return null;
+            }
+        }).when(faultyCall).enqueue(any(Callback.class));
         when(service.webService.forecast(anyDouble(), anyDouble(), anyLong()))
                 .thenReturn(faultyCall);
         controller.startCommand(0, 0);
@@ -96,6 +114,56 @@ public class WeatherSyncServiceTest {
         assertThat(WeatherSyncService.getSyncedWeather(service)).isNotNull();
     }
 
+    @Test
+    public void testFetchConcurrently() throws IOException {
+        // initial state
+        assertThat(WeatherSyncService.getSyncedWeather(service)).isNull();
+        MockWebServer server = startServer();
+        server.enqueue(createResponse().setBodyDelay(1, TimeUnit.SECONDS));
+        server.enqueue(createResponse().setBodyDelay(1, TimeUnit.SECONDS));
+
+        // trigger service, today and tomorrow should be fetched in parallel
+        long start = System.nanoTime();
+        controller.startCommand(0, 0);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                .isGreaterThanOrEqualTo(1000)
+                .isLessThan(2000);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(WeatherSyncService.getSyncedWeather(service)).isNotNull();
+
+        // trigger service again should be served from cache
+        PreferenceManager.getDefaultSharedPreferences(service).edit().clear()
+                .putBoolean(WeatherSyncService.PREF_WEATHER_ENABLED, true)
+                .apply();
+        controller.startCommand(0, 0);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(WeatherSyncService.getSyncedWeather(service)).isNotNull();
+        server.shutdown();
+    }
+
+    @Test
+    public void testFetchRevalidated() throws IOException, InterruptedException {
+        MockWebServer server = startServer();
+        server.enqueue(createResponse().setHeader("Cache-Control", "no-cache"));
+        server.enqueue(createResponse().setHeader("Cache-Control", "no-cache"));
+        controller.startCommand(0, 0);
+        server.takeRequest();
+        server.takeRequest();
+
+        // trigger service again should revalidate cached responses, not download them
+        PreferenceManager.getDefaultSharedPreferences(service).edit().clear()
+                .putBoolean(WeatherSyncService.PREF_WEATHER_ENABLED, true)
+                .apply();
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED));
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED));
+        controller.startCommand(0, 0);
+        assertThat(server.getRequestCount()).isEqualTo(4);
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo(ETAG);
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo(ETAG);
+        assertThat(WeatherSyncService.getSyncedWeather(service)).isNotNull();
+        server.shutdown();
+    }
+
     @Test
     public void testDisabled() {
         // initial state
@@ -159,11 +227,38 @@ public class WeatherSyncServiceTest {
 
     private void setForecastResponse(WeatherSyncService.ForecastIOService.Forecast forecast)
             throws IOException {
-        Call call = mock(Call.class);
-        when(call.execute()).thenReturn(Response.success(forecast));
+        final Call call = mock(Call.class);
+        final Response response = Response.success(forecast);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((Callback) invocation.getArguments()[0]).onResponse(call, response);
+                return null;
+            }
+        }).when(call).enqueue(any(Callback.class));
         when(service.webService.forecast(anyDouble(), anyDouble(), anyLong())).thenReturn(call);
     }
 
+    private MockWebServer startServer() throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        File cacheDirectory = new File(service.getCacheDir(), "test");
+        service.webService = WeatherSyncService.createForecastService(
+                server.url("/").toString(), cacheDirectory);
+        return server;
+    }
+
+    private MockResponse createResponse() {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 24; i++) {
+            data.append(i == 0 ? "" : ",").append("{\"icon\":\"rain\",\"temperature\":86.0}");
+        }
+        return new MockResponse()
+                .setHeader("Cache-Control", "max-age=3600")
+                .setHeader("ETag", ETAG)
+                .setBody("{\"hourly\":{\"data\":[" + data + "]}}");
+    }
+
     private WeatherSyncService.ForecastIOService.Forecast createForecast(final boolean full) {
         return new WeatherSyncService.ForecastIOService.Forecast(){{
             hourly = new WeatherSyncService.ForecastIOService.Hourly(){{
@@ -15,6 +15,7 @@ import android.widget.FrameLayout;
 import android.widget.TextView;
 
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -25,10 +26,18 @@ import org.robolectric.annotation.Config;
 import org.robolectric.internal.ShadowExtractor;
 import org.robolectric.util.ActivityController;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import io.github.hidroh.calendar.CalendarUtils;
 import io.github.hidroh.calendar.EditActivity;
 import io.github.hidroh.calendar.R;
+import io.github.hidroh.calendar.content.CalendarFilter;
 import io.github.hidroh.calendar.content.EventCursor;
+import io.github.hidroh.calendar.content.EventSnapshot;
 import io.github.hidroh.calendar.test.TestEventCursor;
 import io.github.hidroh.calendar.test.shadows.ShadowLinearLayoutManager;
 import io.github.hidroh.calendar.test.shadows.ShadowRecyclerView;
@@ -40,6 +49,7 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.robolectric.Shadows.shadowOf;
 
 @Config(shadows = {ShadowRecyclerView.class, ShadowLinearLayoutManager.class})
@@ -182,7 +192,7 @@ public class AgendaViewTest {
 
         // bind empty cursor should not replace placeholder
         TestEventCursor cursor = new TestEventCursor();
-        adapter.bindEvents(todayMillis, cursor);
+        bindDay(todayMillis, cursor);
         assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
                 .hasTextString(R.string.no_event);
     }
@@ -198,8 +208,8 @@ public class AgendaViewTest {
         TestEventCursor cursor = new TestEventCursor();
         cursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 28800000, groupTime + 28800000, 0}); // 8AM UTC
         cursor.addRow(new Object[]{1L, 1L, "Event 2", groupTime, groupTime, 1}); // all day
-        cursor.addRow(new Object[]{1L, 1L, "Event 3",
-                groupTime -  DateUtils.DAY_IN_MILLIS * 2, groupTime, 0}); // multi day, end today
+        cursor.addRow(new Object[]{1L, 1L, "Event 3", groupTime -  DateUtils.DAY_IN_MILLIS * 2,
+                groupTime + 3600000, 0}); // multi day, end today
         cursor.addRow(new Object[]{1L, 1L, "Event 4", groupTime -  DateUtils.DAY_IN_MILLIS,
                 groupTime + DateUtils.DAY_IN_MILLIS, 0}); // multi day, end tomorrow
         activity.cursors.put(groupTime, cursor);
@@ -219,7 +229,7 @@ public class AgendaViewTest {
         View item3 = createBindViewHolder(3).itemView;
         assertThat((TextView) item3.findViewById(R.id.text_view_time))
                 .hasTextString(activity.getString(R.string.end_time,
-                        CalendarUtils.toTimeString(activity, groupTime)));
+                        CalendarUtils.toTimeString(activity, groupTime + 3600000)));
         assertThat((TextView) item3.findViewById(R.id.text_view_title))
                 .hasTextString("Event 3");
         View item4 = createBindViewHolder(4).itemView;
@@ -227,15 +237,99 @@ public class AgendaViewTest {
                 .hasTextString(R.string.all_day);
         assertThat((TextView) item4.findViewById(R.id.text_view_title))
                 .hasTextString("Event 4");
+    }
 
-        // deactivate adapter should close cursor
-        assertThat(cursor).isNotClosed();
-        adapter.deactivate();
-        assertThat(cursor).isClosed();
+    @Test
+    public void testBindRangeCursor() {
+        long day1 = firstDayMillis,
+                day2 = day1 + DateUtils.DAY_IN_MILLIS,
+                day3 = day2 + DateUtils.DAY_IN_MILLIS;
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", day1 + 3600000, day1 + 7200000, 0});
+        cursor.addRow(new Object[]{2L, 1L, "Event 2",
+                day1 + 28800000, day3 + 36000000, 0}); // multi day, end day 3
+        adapter.bindEvents(day1, day3 + DateUtils.DAY_IN_MILLIS, EventSnapshot.from(cursor));
+
+        // day 1 should have both events
+        assertHasDate(createBindViewHolder(0), day1);
+        View item1 = createBindViewHolder(1).itemView;
+        assertThat((TextView) item1.findViewById(R.id.text_view_title))
+                .hasTextString("Event 1");
+        View item2 = createBindViewHolder(2).itemView;
+        assertThat((TextView) item2.findViewById(R.id.text_view_title))
+                .hasTextString("Event 2");
+        assertThat((TextView) item2.findViewById(R.id.text_view_time))
+                .hasTextString(CalendarUtils.toTimeString(activity, day1 + 28800000));
+
+        // multi day event should be split into following days
+        assertHasDate(createBindViewHolder(3), day2);
+        View item4 = createBindViewHolder(4).itemView;
+        assertThat((TextView) item4.findViewById(R.id.text_view_title))
+                .hasTextString("Event 2");
+        assertThat((TextView) item4.findViewById(R.id.text_view_time))
+                .hasTextString(R.string.all_day);
+        assertHasDate(createBindViewHolder(5), day3);
+        View item6 = createBindViewHolder(6).itemView;
+        assertThat((TextView) item6.findViewById(R.id.text_view_title))
+                .hasTextString("Event 2");
+        assertThat((TextView) item6.findViewById(R.id.text_view_time))
+                .hasTextString(activity.getString(R.string.end_time,
+                        CalendarUtils.toTimeString(activity, day3 + 36000000)));
+
+        // day after range should not be affected
+        assertHasDate(createBindViewHolder(7), day3 + DateUtils.DAY_IN_MILLIS);
     }
 
     @Test
-    public void testCursorContentChange() {
+    public void testScrollBindAllocationFree() {
+        ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        // per thread allocation is only measurable on HotSpot based VMs
+        Assume.assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) mxBean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) mxBean;
+        long day1 = firstDayMillis,
+                day2 = day1 + DateUtils.DAY_IN_MILLIS,
+                day3 = day2 + DateUtils.DAY_IN_MILLIS;
+        TestEventCursor rangeCursor = new TestEventCursor();
+        rangeCursor.addRow(new Object[]{1L, 1L, "Event 1", day1 + 3600000, day1 + 7200000, 0});
+        rangeCursor.addRow(new Object[]{2L, 1L, "Event 2", day1 + 3600000, day3 + 7200000, 0});
+        adapter.bindEvents(day1, day3, EventSnapshot.from(rangeCursor));
+        // one recycled view holder per view type, indexed by view type
+        int headerType = adapter.getItemViewType(0), contentType = adapter.getItemViewType(1);
+        AgendaAdapter.RowViewHolder[] holders = new AgendaAdapter.RowViewHolder[2];
+        holders[headerType] = (AgendaAdapter.RowViewHolder) adapter.createViewHolder(agendaView,
+                headerType);
+        holders[contentType] = (AgendaAdapter.RowViewHolder) adapter.createViewHolder(agendaView,
+                contentType);
+        int count = adapter.getItemCount();
+        // warm up, loading all days and lazily creating no event items
+        scriptedScroll(count, holders);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int scrolls = 100;
+        for (int i = 0; i < scrolls; i++) {
+            scriptedScroll(count, holders);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        // allocating an item per bound row would take at least 40 bytes per bind
+        assertThat(allocated / (scrolls * 2L * count)).isLessThan(40);
+
+        // events read from snapshot should be bound to recycled item of view holder
+        TestEventCursor dayCursor = new TestEventCursor();
+        dayCursor.addRow(new Object[]{3L, 1L, "Event 3", day3 + 3600000, day3 + 7200000, 0});
+        bindDay(day3, dayCursor);
+        int position = adapter.getPosition(activity, day3) + 1;
+        AgendaAdapter.ContentViewHolder contentHolder =
+                (AgendaAdapter.ContentViewHolder) holders[contentType];
+        adapter.onBindViewHolder(contentHolder, position);
+        assertThat(contentHolder.mItem).isSameAs(contentHolder.mRecycledItem);
+        assertThat((TextView) contentHolder.itemView.findViewById(R.id.text_view_title))
+                .hasTextString("Event 3");
+    }
+
+    @Test
+    public void testRebindEvents() {
         // initial state
         assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
                 .hasTextString(R.string.no_event);
@@ -250,33 +344,208 @@ public class AgendaViewTest {
         assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
                 .hasTextString(R.string.no_event);
 
-        // trigger content change notification
+        // rebind with new events
         TestEventCursor multiEventCursor = new TestEventCursor();
         multiEventCursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
         multiEventCursor.addRow(new Object[]{1L, 1L, "Event 2", groupTime + 2000, groupTime + 2000, 0});
-        activity.cursors.put(groupTime, multiEventCursor);
-        noEventCursor.notifyContentChange(false);
+        bindDay(groupTime, multiEventCursor);
 
-        // content change should deactivate prev cursor, update placeholder and add extra item
+        // rebinding should update placeholder and add extra item
         assertThat(noEventCursor).isClosed();
         assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
                 .hasTextString("Event 1");
         assertThat((TextView) createBindViewHolder(2).itemView.findViewById(R.id.text_view_title))
                 .hasTextString("Event 2");
 
-        // trigger content change notification
+        // rebind with new events
         TestEventCursor singleEventCursor = new TestEventCursor();
         singleEventCursor.addRow(new Object[]{1L, 1L, "Event 3", groupTime + 3000, groupTime + 3000, 0});
-        activity.cursors.put(groupTime, singleEventCursor);
-        multiEventCursor.notifyContentChange(false);
+        bindDay(groupTime, singleEventCursor);
 
-        // content change should deactivate prev cursor, update existing item, remove deleted item
-        assertThat(multiEventCursor).isClosed();
+        // rebinding should update existing item, remove deleted item
         assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
                 .hasTextString("Event 3");
         assertHasDate(createBindViewHolder(2), groupTime + DateUtils.DAY_IN_MILLIS);
     }
 
+    @Test
+    public void testRefreshData() {
+        // trigger cursor loading and binding
+        long groupTime = firstDayMillis;
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
+        activity.cursors.put(groupTime, cursor);
+        createBindViewHolder(0);
+        assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
+                .hasTextString("Event 1");
+
+        // refreshing should reload bound days and rebind their new events
+        TestEventCursor updatedCursor = new TestEventCursor();
+        updatedCursor.addRow(new Object[]{1L, 1L, "Event 2", groupTime + 2000, groupTime + 2000, 0});
+        activity.cursors.put(groupTime, updatedCursor);
+        agendaView.refreshData();
+        assertThat(updatedCursor).isClosed();
+        assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
+                .hasTextString("Event 2");
+    }
+
+    @Test
+    public void testRebindChangedEventsOnly() {
+        long groupTime = firstDayMillis;
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
+        cursor.addRow(new Object[]{2L, 1L, "Event 2", groupTime + 2000, groupTime + 2000, 0});
+        bindDay(groupTime, cursor);
+        RecyclerView.AdapterDataObserver observer = mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+
+        // rebinding should only notify changed and inserted rows
+        TestEventCursor updatedCursor = new TestEventCursor();
+        updatedCursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
+        updatedCursor.addRow(new Object[]{2L, 1L, "Event 2 updated", groupTime + 2000, groupTime + 2000, 0});
+        updatedCursor.addRow(new Object[]{3L, 1L, "Event 3", groupTime + 3000, groupTime + 3000, 0});
+        bindDay(groupTime, updatedCursor);
+        verify(observer).onItemRangeChanged(2, 1, null);
+        verify(observer).onItemRangeInserted(3, 1);
+        verifyNoMoreInteractions(observer);
+
+        // rebinding same events should not notify
+        TestEventCursor sameCursor = new TestEventCursor();
+        sameCursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
+        sameCursor.addRow(new Object[]{2L, 1L, "Event 2 updated", groupTime + 2000, groupTime + 2000, 0});
+        sameCursor.addRow(new Object[]{3L, 1L, "Event 3", groupTime + 3000, groupTime + 3000, 0});
+        bindDay(groupTime, sameCursor);
+        verifyNoMoreInteractions(observer);
+        adapter.unregisterAdapterDataObserver(observer);
+    }
+
+    @Test
+    public void testInvalidateNotifiesClearedRowsOnly() {
+        long groupTime = firstDayMillis;
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
+        cursor.addRow(new Object[]{2L, 1L, "Event 2", groupTime + 2000, groupTime + 2000, 0});
+        bindDay(groupTime, cursor);
+        int itemCount = adapter.getItemCount();
+        RecyclerView.AdapterDataObserver observer = mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+
+        // invalidating should only clear event rows and rebind headers,
+        // leaving no event rows of other days untouched
+        agendaView.invalidateData();
+        verify(observer).onItemRangeChanged(0, 1, null); // header
+        verify(observer).onItemRangeChanged(1, 1, null); // first event swapped to no event
+        verify(observer).onItemRangeRemoved(2, 1);
+        verify(observer).onItemRangeChanged(2, 1, null); // next day header
+        verify(observer, never()).onItemRangeChanged(3, 1, null);
+        verify(observer, never()).onItemRangeChanged(0, itemCount, null);
+        assertThat(adapter.getItemCount()).isEqualTo(itemCount - 1);
+        adapter.unregisterAdapterDataObserver(observer);
+    }
+
+    @Test
+    public void testApplyCalendarFilter() {
+        long groupTime = firstDayMillis;
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", groupTime + 1000, groupTime + 1000, 0});
+        cursor.addRow(new Object[]{2L, 2L, "Event 2", groupTime + 2000, groupTime + 2000, 0});
+        bindDay(groupTime, cursor);
+        RecyclerView.AdapterDataObserver observer = mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+
+        // toggling calendar without loaded events should not notify
+        agendaView.applyCalendarFilter(activity.calendarFilter.setExcluded(3L, true));
+        verifyNoMoreInteractions(observer);
+
+        // excluding calendar should only remove its rows, without reloading
+        agendaView.applyCalendarFilter(activity.calendarFilter.setExcluded(2L, true));
+        verify(observer).onItemRangeRemoved(2, 1);
+        verifyNoMoreInteractions(observer);
+        assertThat((TextView) createBindViewHolder(1).itemView.findViewById(R.id.text_view_title))
+                .hasTextString("Event 1");
+
+        // including calendar again should insert its rows back
+        agendaView.applyCalendarFilter(activity.calendarFilter.setExcluded(2L, false));
+        verify(observer).onItemRangeInserted(2, 1);
+        verifyNoMoreInteractions(observer);
+        adapter.unregisterAdapterDataObserver(observer);
+    }
+
+    @Test
+    public void testUnlockLoadsDeferredDays() {
+        long groupTime = firstDayMillis;
+        TestEventCursor cursor = new TestEventCursor();
+        activity.cursors.put(groupTime, cursor);
+
+        // binding while locked should defer loading
+        adapter.lockBinding();
+        createBindViewHolder(0);
+        assertThat(cursor).isNotClosed();
+
+        // unlocking should load deferred days without rebinding all rows
+        RecyclerView.AdapterDataObserver observer = mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        adapter.unlockBinding();
+        assertThat(cursor).isClosed();
+        verify(observer, never()).onItemRangeChanged(0, adapter.getItemCount(), null);
+        adapter.unregisterAdapterDataObserver(observer);
+    }
+
+    @Test
+    public void testPrefetchAhead() {
+        TestEventCursor cursor = new TestEventCursor();
+        activity.cursors.put(lastDayMillis, cursor);
+        int count = adapter.getItemCount();
+
+        // scrolling close to last position should extend window and load events ahead
+        layoutManager.scrollToPosition(count - 15);
+        agendaView.onScrolled(0, 1);
+        assertThat(adapter.getItemCount()).isGreaterThan(count);
+        assertThat(cursor).isClosed();
+    }
+
+    @Test
+    public void testPrefetchPausedWhileLocked() {
+        TestEventCursor cursor = new TestEventCursor();
+        activity.cursors.put(lastDayMillis, cursor);
+        adapter.lockBinding();
+        layoutManager.scrollToPosition(adapter.getItemCount() - 15);
+        agendaView.onScrolled(0, 1);
+        assertThat(cursor).isNotClosed();
+    }
+
+    @Test
+    public void testPrefetchCancelledOnDirectionChange() {
+        final List<Long> cancelled = new ArrayList<>();
+        AgendaAdapter asyncAdapter = new AgendaAdapter(activity) {
+            @Override
+            protected void loadEvents(long startTimeMillis, long endTimeMillis, int priority) {
+                // never completes
+            }
+
+            @Override
+            protected void cancelLoadEvents(long startTimeMillis, long endTimeMillis) {
+                cancelled.add(startTimeMillis);
+            }
+        };
+        agendaView.setAdapter(asyncAdapter);
+        int last = layoutManager.findLastVisibleItemPosition();
+        long prefetchMillis = asyncAdapter.getDay(last) + DateUtils.DAY_IN_MILLIS;
+
+        // scrolling down should prefetch following days
+        agendaView.onScrolled(0, 1);
+        int position = asyncAdapter.getPosition(activity, prefetchMillis);
+        assertThat(((AgendaAdapter.EventGroup) asyncAdapter.getAdapterItem(position))
+                .needsLoading()).isFalse();
+        assertThat(cancelled).isEmpty();
+
+        // reversing direction should cancel stale prefetch, to be reloaded once bound
+        agendaView.onScrolled(0, -1);
+        assertThat(cancelled).containsExactly(prefetchMillis);
+        assertThat(((AgendaAdapter.EventGroup) asyncAdapter.getAdapterItem(position))
+                .needsLoading()).isTrue();
+    }
+
     @Test
     public void testStateRestoration() {
         agendaView.smoothScrollToPosition(0);
@@ -312,6 +581,20 @@ public class AgendaViewTest {
                 .isNotVisible();
     }
 
+    @Test
+    public void testWeatherRebindsTodayAndTomorrowOnly() {
+        int todayPosition = layoutManager.findFirstVisibleItemPosition();
+        createBindViewHolder(todayPosition);
+        createBindViewHolder(todayPosition + 2);
+        RecyclerView.AdapterDataObserver observer = mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        agendaView.setWeather(new Weather(new String[0], new String[0]));
+        verify(observer).onItemRangeChanged(todayPosition, 1, null);
+        verify(observer).onItemRangeChanged(todayPosition + 2, 1, null);
+        verifyNoMoreInteractions(observer);
+        adapter.unregisterAdapterDataObserver(observer);
+    }
+
     @Test
     public void testBindFullWeather() {
         Weather weather = new Weather(
@@ -339,6 +622,21 @@ public class AgendaViewTest {
                 .hasTextString(CalendarUtils.toDayString(RuntimeEnvironment.application, timeMillis));
     }
 
+    private void bindDay(long timeMillis, EventCursor cursor) {
+        adapter.bindEvents(timeMillis, timeMillis + DateUtils.DAY_IN_MILLIS,
+                EventSnapshot.from(cursor));
+    }
+
+    private void scriptedScroll(int count, AgendaAdapter.RowViewHolder[] holders) {
+        // scroll down then up, binding every row to recycled view holder of its type
+        for (int position = 0; position < count; position++) {
+            adapter.onBindViewHolder(holders[adapter.getItemViewType(position)], position);
+        }
+        for (int position = count - 1; position >= 0; position--) {
+            adapter.onBindViewHolder(holders[adapter.getItemViewType(position)], position);
+        }
+    }
+
     private RecyclerView.ViewHolder createBindViewHolder(int position) {
         RecyclerView.ViewHolder viewHolder = adapter.createViewHolder(agendaView,
                 adapter.getItemViewType(position));
@@ -349,6 +647,7 @@ public class AgendaViewTest {
     @SuppressLint("Registered")
     static class TestActivity extends AppCompatActivity {
         LongSparseArray<EventCursor> cursors = new LongSparseArray<>();
+        CalendarFilter calendarFilter = new CalendarFilter(Collections.<String>emptyList());
 
         @Override
         protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -358,11 +657,19 @@ public class AgendaViewTest {
             agendaView.setLayoutParams(new FrameLayout.LayoutParams(
                     ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
             setContentView(agendaView);
-            agendaView.setAdapter(new AgendaAdapter(this) {
+            agendaView.setAdapter(new AgendaAdapter(this, calendarFilter) {
                 @Override
-                protected void loadEvents(long timeMillis) {
-                    bindEvents(timeMillis, cursors.get(timeMillis) != null ?
-                            cursors.get(timeMillis) : new TestEventCursor());
+                protected void loadEvents(long startTimeMillis, long endTimeMillis,
+                                          int priority) {
+                    // bind day by day, closing cursors of loaded days
+                    for (long timeMillis = startTimeMillis; timeMillis < endTimeMillis;
+                         timeMillis += DateUtils.DAY_IN_MILLIS) {
+                        EventCursor cursor = cursors.get(timeMillis) != null ?
+                                cursors.get(timeMillis) : new TestEventCursor();
+                        bindEvents(timeMillis, timeMillis + DateUtils.DAY_IN_MILLIS,
+                                EventSnapshot.from(cursor));
+                        cursor.close();
+                    }
                 }
             });
         }
@@ -5,6 +5,7 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.text.format.DateUtils;
+import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
@@ -18,15 +19,19 @@ import org.robolectric.annotation.Config;
 import org.robolectric.internal.ShadowExtractor;
 import org.robolectric.util.ActivityController;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import io.github.hidroh.calendar.CalendarUtils;
 import io.github.hidroh.calendar.R;
+import io.github.hidroh.calendar.content.EventSnapshot;
 import io.github.hidroh.calendar.test.TestEventCursor;
 import io.github.hidroh.calendar.test.shadows.ShadowViewPager;
 
 import static io.github.hidroh.calendar.test.assertions.DayTimeAssert.assertThat;
-import static junit.framework.Assert.assertFalse;
-import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.assertNull;
 import static org.assertj.android.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -59,6 +64,26 @@ public class EventCalendarViewTest {
                 .isMonthsBefore(getMonthAt(3), 1);
     }
 
+    @Test
+    public void testRecyclePages() {
+        List<View> views = new ArrayList<>();
+        for (int i = 0; i < calendarView.getChildCount(); i++) {
+            views.add(calendarView.getChildAt(i));
+        }
+        shadowCalendarView.swipeLeft();
+
+        // resetting should reuse pages destroyed by previous adapter, rebinding months
+        calendarView.reset();
+        assertThat(calendarView).hasChildCount(3);
+        for (int i = 0; i < calendarView.getChildCount(); i++) {
+            assertThat(views).contains(calendarView.getChildAt(i));
+        }
+        assertThat(getMonthAt(2))
+                .isInSameMonthAs(todayMillis)
+                .isMonthsAfter(getMonthAt(1), 1)
+                .isMonthsBefore(getMonthAt(3), 1);
+    }
+
     @Test
     public void testSwipeLeftChangeMonth() {
         // initial state
@@ -188,40 +213,119 @@ public class EventCalendarViewTest {
 
     @Test
     public void testBindCursor() {
-        // setting calendar adapter should load and bind cursor
+        // setting calendar adapter should load and bind cursor, cursor is closed once copied
         TestEventCursor cursor = new TestEventCursor();
         cursor.addRow(new Object[]{1L, 1L, "Event 1", todayMillis, todayMillis, 0});
         TestCalendarAdapter testAdapter = new TestCalendarAdapter();
         testAdapter.cursor = cursor;
         calendarView.setCalendarAdapter(testAdapter);
-        assertThat(cursor).isNotClosed();
-        assertTrue(cursor.hasContentObserver());
+        assertThat(cursor).isClosed();
+        assertThat(getEventsAt(calendarView.getCurrentItem()).getCount()).isEqualTo(1);
 
-        // deactivating should close cursor and unregister content observer
+        // deactivating should release bound events
         calendarView.deactivate();
-        assertThat(cursor).isClosed();
-        assertFalse(cursor.hasContentObserver());
+        assertNull(getEventsAt(calendarView.getCurrentItem()));
     }
 
     @Test
-    public void testCursorContentChange() {
+    public void testInvalidateData() {
         // setting calendar adapter should load and bind cursor
         TestEventCursor cursor = new TestEventCursor();
         cursor.addRow(new Object[]{1L, 1L, "Event 1", todayMillis, todayMillis, 0});
         TestCalendarAdapter testAdapter = new TestCalendarAdapter();
         testAdapter.cursor = cursor;
         calendarView.setCalendarAdapter(testAdapter);
-        assertThat(cursor).isNotClosed();
-        assertTrue(cursor.hasContentObserver());
+        assertThat(getEventsAt(calendarView.getCurrentItem()).getCount()).isEqualTo(1);
 
-        // content change should load and bind new cursor, deactivate existing cursor
+        // invalidating should reload and bind new events for active month
         TestEventCursor updatedCursor = new TestEventCursor();
         testAdapter.cursor = updatedCursor;
-        cursor.notifyContentChange(false);
-        assertThat(cursor).isClosed();
-        assertFalse(cursor.hasContentObserver());
-        assertThat(updatedCursor).isNotClosed();
-        assertTrue(updatedCursor.hasContentObserver());
+        calendarView.invalidateData();
+        assertThat(updatedCursor).isClosed();
+        assertThat(getEventsAt(calendarView.getCurrentItem())).isSameAs(EventSnapshot.EMPTY);
+    }
+
+    @Test
+    public void testKeepEventsAcrossShifts() {
+        TestCalendarAdapter testAdapter = new TestCalendarAdapter();
+        calendarView.setCalendarAdapter(testAdapter);
+        // active month should be loaded together with adjacent months ahead of display
+        long month = getMonthAt(calendarView.getCurrentItem());
+        assertThat(testAdapter.loadedMonths).containsExactly(CalendarUtils.addMonths(month, -1),
+                month, CalendarUtils.addMonths(month, 1));
+        assertThat(testAdapter.loadCount).isEqualTo(1);
+        EventSnapshot nextMonthEvents = getEventsAt(calendarView.getCurrentItem() + 1);
+
+        // swipe left twice, reach the end and shift left to front
+        shadowCalendarView.swipeLeft();
+        shadowCalendarView.swipeLeft();
+        assertThat(calendarView.getCurrentItem()).isEqualTo(1);
+
+        // months kept after shifting should keep their events, each month loaded once
+        assertThat(getEventsAt(0)).isSameAs(nextMonthEvents);
+        assertThat(testAdapter.loadedMonths).containsExactly(CalendarUtils.addMonths(month, -1),
+                month, CalendarUtils.addMonths(month, 1),
+                CalendarUtils.addMonths(month, 2), CalendarUtils.addMonths(month, 3));
+        // months shifted out should be released
+        assertNull(getEventsAt(4));
+    }
+
+    @Test
+    public void testPrefetchMonths() {
+        TestEventCursor cursor = new TestEventCursor();
+        long nextMonthMillis = CalendarUtils.addMonths(CalendarUtils.monthFirstDay(todayMillis), 1);
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", todayMillis, todayMillis, 0});
+        cursor.addRow(new Object[]{2L, 1L, "Event 2", nextMonthMillis - DateUtils.HOUR_IN_MILLIS,
+                nextMonthMillis + DateUtils.HOUR_IN_MILLIS, 0});
+        TestCalendarAdapter testAdapter = new TestCalendarAdapter();
+        testAdapter.cursor = cursor;
+        calendarView.setCalendarAdapter(testAdapter);
+        int position = calendarView.getCurrentItem();
+
+        // events loaded in one go should be split into months they cover
+        assertThat(getEventsAt(position).getCount()).isEqualTo(2);
+        assertThat(getEventsAt(position + 1).getCount()).isEqualTo(1);
+        assertThat(getEventsAt(position + 1).getId(0)).isEqualTo(2L);
+        assertThat(getEventsAt(position - 1).getCount()).isZero();
+
+        // widening prefetch span should only load months not loaded yet, around loaded ones
+        testAdapter.loadedMonths.clear();
+        calendarView.setPrefetchMonths(2);
+        long month = getMonthAt(position);
+        assertThat(testAdapter.loadedMonths).containsExactly(CalendarUtils.addMonths(month, -2),
+                CalendarUtils.addMonths(month, 2));
+        assertThat(testAdapter.loadCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testSwapMarkers() {
+        TestEventCursor cursor = new TestEventCursor();
+        cursor.addRow(new Object[]{1L, 1L, "Event 1", todayMillis, todayMillis, 0});
+        TestCalendarAdapter testAdapter = new TestCalendarAdapter();
+        testAdapter.cursor = cursor;
+        calendarView.setCalendarAdapter(testAdapter);
+        MonthViewPagerAdapter pagerAdapter = (MonthViewPagerAdapter) calendarView.getAdapter();
+        int position = calendarView.getCurrentItem();
+        EventSnapshot events = getEventsAt(position);
+        int day = CalendarUtils.dayOfMonth(todayMillis) - 1;
+
+        // markers of bound events should mark their days
+        pagerAdapter.swapMarkers(MonthMarkers.compute(todayMillis, events), events);
+        assertThat(getDayCountAt(position, day)).isEqualTo(1);
+
+        // markers of previously bound events should be dropped
+        pagerAdapter.swapMarkers(MonthMarkers.compute(todayMillis, EventSnapshot.EMPTY),
+                EventSnapshot.EMPTY);
+        assertThat(getDayCountAt(position, day)).isEqualTo(1);
+
+        // markers of months not displayed should be kept for later
+        long nextYear = CalendarUtils.addMonths(todayMillis, 12);
+        pagerAdapter.swapMarkers(MonthMarkers.compute(nextYear, events), events);
+        assertThat(pagerAdapter.mMarkers).containsKey(CalendarUtils.monthFirstDay(nextYear));
+
+        // deactivating should release markers
+        calendarView.deactivate();
+        assertThat(pagerAdapter.mMarkers).isEmpty();
     }
 
     @After
@@ -234,6 +338,15 @@ public class EventCalendarViewTest {
                 .mViews.get(position).mMonthMillis;
     }
 
+    private EventSnapshot getEventsAt(int position) {
+        return ((MonthViewPagerAdapter) calendarView.getAdapter()).getEvents(position);
+    }
+
+    private int getDayCountAt(int position, int day) {
+        return ((MonthViewPagerAdapter) calendarView.getAdapter())
+                .mViews.get(position).mDayCounts[day];
+    }
+
     private long getSelectedDay() {
         return ((MonthViewPagerAdapter) calendarView.getAdapter()).mSelectedDayMillis;
     }
@@ -254,10 +367,21 @@ public class EventCalendarViewTest {
 
     static class TestCalendarAdapter extends EventCalendarView.CalendarAdapter {
         TestEventCursor cursor = new TestEventCursor();
+        final List<Long> loadedMonths = new ArrayList<>();
+        int loadCount;
 
         @Override
-        protected void loadEvents(long monthMillis) {
-            bindEvents(monthMillis, cursor);
+        protected void loadEvents(long startMonthMillis, long endMonthMillis, int priority) {
+            loadCount++;
+            for (long month = startMonthMillis; month < endMonthMillis;
+                 month = CalendarUtils.addMonths(month, 1)) {
+                loadedMonths.add(month);
+            }
+            // only first loaded range gets cursor, ranges loaded later get none
+            EventSnapshot events = cursor.isClosed() ?
+                    EventSnapshot.EMPTY : EventSnapshot.from(cursor);
+            cursor.close();
+            bindEvents(startMonthMillis, endMonthMillis, events);
         }
     }
 }
@@ -0,0 +1,137 @@
+package io.github.hidroh.calendar.widget;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.Random;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.test.TestEventCursor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class EventGroupListTest {
+    private final Context context = RuntimeEnvironment.application;
+    private final long todayMillis = CalendarUtils.today();
+    private final Random random = new Random(42);
+    private final CalendarFilter filter = new CalendarFilter(Collections.<String>emptyList());
+    private AgendaAdapter.EventGroupList list;
+
+    @Before
+    public void setUp() {
+        list = new AgendaAdapter.EventGroupList(2);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertThat(list.isEmpty()).isTrue();
+        assertThat(list.groupAndChildrenSize()).isZero();
+        assertThat(list.indexOf(todayMillis)).isEqualTo(-1);
+        assertThat(list.groupIndexAt(0)).isEqualTo(-1);
+        assertThat(list.getGroupOrItem(0, null)).isNull();
+    }
+
+    @Test
+    public void testAddBothEnds() {
+        for (int i = 0; i < 5; i++) {
+            list.addLast(createGroup(todayMillis + DateUtils.DAY_IN_MILLIS * i));
+            list.addFirst(createGroup(todayMillis - DateUtils.DAY_IN_MILLIS * (i + 1)));
+        }
+        assertThat(list.size()).isEqualTo(10);
+        assertThat(list.get(0).mTimeMillis).isEqualTo(todayMillis - DateUtils.DAY_IN_MILLIS * 5);
+        assertThat(list.indexOf(todayMillis)).isEqualTo(5);
+        assertThat(list.indexOf(todayMillis + DateUtils.DAY_IN_MILLIS * 5)).isEqualTo(-1);
+        assertThat(list.indexOf(todayMillis + 1)).isEqualTo(-1);
+        // each group has a header and a no event placeholder
+        assertThat(list.groupAndChildrenSize()).isEqualTo(20);
+        assertThat(list.positionOf(5)).isEqualTo(10);
+        assertPositions();
+    }
+
+    @Test
+    public void testSizeUpdates() {
+        for (int i = 0; i < 40; i++) {
+            list.addLast(createGroup(todayMillis + DateUtils.DAY_IN_MILLIS * i));
+        }
+        for (int i = 0; i < 200; i++) {
+            int index = random.nextInt(list.size());
+            list.setEvents(index, createEvents(list.get(index).mTimeMillis, random.nextInt(5)),
+                    filter);
+            assertPositions();
+        }
+        for (int i = 0; i < list.size(); i++) {
+            list.invalidate(i);
+        }
+        assertThat(list.groupAndChildrenSize()).isEqualTo(80);
+        assertPositions();
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        for (int i = 0; i < 20; i++) {
+            list.addLast(createGroup(todayMillis + DateUtils.DAY_IN_MILLIS * i));
+            list.setEvents(i, createEvents(list.get(i).mTimeMillis, i % 3), filter);
+        }
+        // slide window forward then backward, wrapping around buffer
+        for (int i = 0; i < 50; i++) {
+            long last = list.get(list.size() - 1).mTimeMillis;
+            list.removeFirst();
+            list.addLast(createGroup(last + DateUtils.DAY_IN_MILLIS));
+            list.setEvents(list.size() - 1, createEvents(last + DateUtils.DAY_IN_MILLIS, i % 4),
+                    filter);
+            assertPositions();
+        }
+        for (int i = 0; i < 70; i++) {
+            long first = list.get(0).mTimeMillis;
+            list.removeLast();
+            list.addFirst(createGroup(first - DateUtils.DAY_IN_MILLIS));
+            list.setEvents(0, createEvents(first - DateUtils.DAY_IN_MILLIS, i % 2), filter);
+            assertPositions();
+        }
+        assertThat(list.size()).isEqualTo(20);
+        assertThat(list.indexOf(todayMillis - DateUtils.DAY_IN_MILLIS * 20)).isZero();
+        list.clear();
+        assertThat(list.isEmpty()).isTrue();
+        assertThat(list.groupAndChildrenSize()).isZero();
+    }
+
+    private void assertPositions() {
+        int position = 0;
+        for (int i = 0; i < list.size(); i++) {
+            AgendaAdapter.EventGroup group = list.get(i);
+            assertThat(list.indexOf(group.mTimeMillis)).isEqualTo(i);
+            assertThat(list.positionOf(i)).isEqualTo(position);
+            assertThat(list.getGroupOrItem(position, null)).isSameAs(group);
+            assertThat(list.isGroup(position)).isTrue();
+            for (int j = 0; j <= group.itemCount(); j++) {
+                assertThat(list.groupIndexAt(position + j)).isEqualTo(i);
+            }
+            assertThat(list.isGroup(position + 1)).isFalse();
+            position += group.itemCount() + 1;
+        }
+        assertThat(list.groupAndChildrenSize()).isEqualTo(position);
+        assertThat(list.groupIndexAt(position)).isEqualTo(-1);
+    }
+
+    private AgendaAdapter.EventGroup createGroup(long timeMillis) {
+        return new AgendaAdapter.EventGroup(context, timeMillis);
+    }
+
+    private EventSnapshot createEvents(long timeMillis, int count) {
+        TestEventCursor cursor = new TestEventCursor();
+        for (int i = 0; i < count; i++) {
+            cursor.addRow(new Object[]{(long) i, 1L, "Event " + i, timeMillis, timeMillis, 0});
+        }
+        return EventSnapshot.from(cursor);
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.hidroh.calendar.widget;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+
+import io.github.hidroh.calendar.CalendarUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class MonthLayoutTest {
+    private final int weekStart = CalendarUtils.sWeekStart;
+    private final Locale locale = Locale.getDefault();
+
+    @Test
+    public void testLayout() {
+        CalendarUtils.sWeekStart = Calendar.SUNDAY;
+        // 01-March-2016 is a Tuesday
+        MonthLayout layout = MonthLayout.get(createDayMillis(2016, Calendar.MARCH, 15));
+        assertThat(layout.mFirstDayMillis).isEqualTo(createDayMillis(2016, Calendar.MARCH, 1));
+        assertThat(layout.mStartOffset).isEqualTo(2);
+        assertThat(layout.mDays).isEqualTo(31);
+        assertThat(layout.mWeeks).isEqualTo(5);
+        String[] weekdays = DateFormatSymbols.getInstance().getShortWeekdays();
+        assertThat(layout.mHeaders).containsExactly(weekdays[Calendar.SUNDAY],
+                weekdays[Calendar.MONDAY], weekdays[Calendar.TUESDAY],
+                weekdays[Calendar.WEDNESDAY], weekdays[Calendar.THURSDAY],
+                weekdays[Calendar.FRIDAY], weekdays[Calendar.SATURDAY]);
+
+        CalendarUtils.sWeekStart = Calendar.SATURDAY;
+        layout = MonthLayout.get(createDayMillis(2016, Calendar.MARCH, 15));
+        assertThat(layout.mStartOffset).isEqualTo(3);
+        assertThat(layout.mHeaders[0]).isEqualTo(weekdays[Calendar.SATURDAY]);
+        assertThat(layout.mHeaders[6]).isEqualTo(weekdays[Calendar.FRIDAY]);
+
+        // 6 weeks: 5 carried days from Jun + 31 days in Jul
+        CalendarUtils.sWeekStart = Calendar.SUNDAY;
+        assertThat(MonthLayout.get(createDayMillis(2016, Calendar.JULY, 1)).mWeeks)
+                .isEqualTo(6);
+    }
+
+    @Test
+    public void testCache() {
+        long monthMillis = createDayMillis(2016, Calendar.MARCH, 1);
+        MonthLayout layout = MonthLayout.get(monthMillis);
+        // same month and week start should reuse layout and headers
+        assertThat(MonthLayout.get(createDayMillis(2016, Calendar.MARCH, 31)))
+                .isSameAs(layout);
+        assertThat(MonthLayout.get(createDayMillis(2016, Calendar.APRIL, 1)).mHeaders)
+                .isSameAs(layout.mHeaders);
+
+        // different week start should compute new layout
+        CalendarUtils.sWeekStart = weekStart == Calendar.MONDAY ?
+                Calendar.SUNDAY : Calendar.MONDAY;
+        assertThat(MonthLayout.get(monthMillis)).isNotSameAs(layout);
+        CalendarUtils.sWeekStart = weekStart;
+        assertThat(MonthLayout.get(monthMillis)).isSameAs(layout);
+
+        // different locale should renew headers
+        Locale.setDefault(Locale.FRANCE);
+        assertThat(MonthLayout.get(monthMillis)).isNotSameAs(layout);
+
+        // oldest layouts should be evicted
+        Locale.setDefault(locale);
+        layout = MonthLayout.get(monthMillis);
+        for (int i = 1; i <= MonthLayout.CACHE_SIZE; i++) {
+            MonthLayout.get(CalendarUtils.addMonths(monthMillis, i));
+        }
+        assertThat(MonthLayout.get(monthMillis)).isNotSameAs(layout);
+    }
+
+    @After
+    public void tearDown() {
+        CalendarUtils.sWeekStart = weekStart;
+        Locale.setDefault(locale);
+    }
+
+    private long createDayMillis(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+}
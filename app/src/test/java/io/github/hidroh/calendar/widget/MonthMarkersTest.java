@@ -0,0 +1,108 @@
+package io.github.hidroh.calendar.widget;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.TimeZone;
+
+import io.github.hidroh.calendar.CalendarUtils;
+import io.github.hidroh.calendar.content.CalendarFilter;
+import io.github.hidroh.calendar.content.EventSnapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class MonthMarkersTest {
+    private final TimeZone defaultTimeZone = TimeZone.getDefault();
+    private final CalendarFilter filter = new CalendarFilter(Collections.<String>emptyList());
+
+    @Before
+    public void setUp() {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        CalendarUtils.invalidateTimeZone();
+    }
+
+    @Test
+    public void testCompute() {
+        long day14 = createDayMillis(2016, Calendar.MARCH, 14),
+                day15 = createDayMillis(2016, Calendar.MARCH, 15),
+                day17 = createDayMillis(2016, Calendar.MARCH, 17),
+                day20 = createDayMillis(2016, Calendar.MARCH, 20),
+                day21 = createDayMillis(2016, Calendar.MARCH, 21);
+        MonthMarkers markers = MonthMarkers.compute(day14, new EventSnapshot.Builder(4)
+                .add(1L, 1L, "Multi day", day14, day17, false)
+                .add(2L, 1L, "Single day", day15, day15, false)
+                .add(3L, 2L, "All day", day20, day21, true)
+                .add(4L, 2L, "Across months", createDayMillis(2016, Calendar.FEBRUARY, 28),
+                        createDayMillis(2016, Calendar.MARCH, 3), true)
+                .build());
+        // days after daylight saving starts on March 13 should not be shifted,
+        // overlapping events should add up
+        int[] dayCounts = new int[31];
+        markers.getDayCounts(filter, dayCounts);
+        int[] expected = new int[31];
+        expected[0] = expected[1] = 1; // 1-2 March
+        expected[13] = expected[15] = expected[16] = 1; // 14, 16-17 March
+        expected[14] = 2; // 15 March
+        expected[19] = 1; // 20 March
+        assertThat(dayCounts).isEqualTo(expected);
+
+        // excluded calendars should not be counted
+        filter.setExcluded(2L, true);
+        markers.getDayCounts(filter, dayCounts);
+        expected[0] = expected[1] = expected[19] = 0;
+        assertThat(dayCounts).isEqualTo(expected);
+        assertThat(markers.getCalendarMask(filter))
+                .isEqualTo(filter.getMask(1L) | filter.getMask(2L));
+    }
+
+    @Test
+    public void testComputeYear() {
+        long yearMillis = createDayMillis(2016, Calendar.JANUARY, 1);
+        MonthMarkers markers = MonthMarkers.compute(yearMillis, 12, new EventSnapshot.Builder(3)
+                .add(1L, 1L, "Across months", createDayMillis(2016, Calendar.JANUARY, 31),
+                        createDayMillis(2016, Calendar.FEBRUARY, 1), false)
+                .add(2L, 1L, "Leap day", createDayMillis(2016, Calendar.FEBRUARY, 29),
+                        createDayMillis(2016, Calendar.FEBRUARY, 29), false)
+                .add(3L, 2L, "New year's eve", createDayMillis(2016, Calendar.DECEMBER, 31),
+                        createDayMillis(2017, Calendar.JANUARY, 2), true)
+                .build());
+        // days should be indexed by day of year, across daylight saving changes
+        int[] dayCounts = new int[366];
+        markers.getDayCounts(filter, dayCounts);
+        int[] expected = new int[366];
+        expected[30] = expected[31] = 1; // 31 January, 1 February
+        expected[59] = 1; // 29 February
+        expected[365] = 1; // 31 December, next year is out of range
+        assertThat(dayCounts).isEqualTo(expected);
+    }
+
+    @Test
+    public void testComputeEmpty() {
+        MonthMarkers markers = MonthMarkers.compute(createDayMillis(2016, Calendar.MARCH, 1),
+                EventSnapshot.EMPTY);
+        int[] dayCounts = new int[31];
+        dayCounts[0] = 1;
+        markers.getDayCounts(filter, dayCounts);
+        assertThat(dayCounts).containsOnly(0);
+        assertThat(markers.getCalendarMask(filter)).isZero();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+        CalendarUtils.invalidateTimeZone();
+    }
+
+    private long createDayMillis(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTimeInMillis();
+    }
+}
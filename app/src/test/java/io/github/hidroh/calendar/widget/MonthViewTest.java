@@ -1,14 +1,15 @@
 package io.github.hidroh.calendar.widget;
 
 import android.annotation.SuppressLint;
+import android.graphics.Canvas;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
-import android.support.v7.widget.RecyclerView;
-import android.text.SpannableString;
+import android.view.MotionEvent;
+import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
-import android.widget.TextView;
 
 import org.junit.After;
 import org.junit.Before;
@@ -16,37 +17,30 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricGradleTestRunner;
-import org.robolectric.annotation.Config;
-import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowCanvas;
 import org.robolectric.util.ActivityController;
 
 import java.text.DateFormatSymbols;
 import java.util.Calendar;
-import java.util.TimeZone;
 
 import io.github.hidroh.calendar.CalendarUtils;
 import io.github.hidroh.calendar.R;
-import io.github.hidroh.calendar.test.TestEventCursor;
-import io.github.hidroh.calendar.test.shadows.ShadowViewHolder;
-import io.github.hidroh.calendar.text.style.CircleSpan;
-import io.github.hidroh.calendar.text.style.UnderDotSpan;
 
-import static io.github.hidroh.calendar.test.assertions.SpannableStringAssert.assertThat;
-import static org.assertj.android.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 
-@SuppressWarnings("unchecked")
-@Config(shadows = ShadowViewHolder.class)
 @RunWith(RobolectricGradleTestRunner.class)
 public class MonthViewTest {
+    private static final int WIDTH = 700;
     private ActivityController<TestActivity> controller;
     private MonthView monthView;
-    private MonthView.GridAdapter adapter;
+    private float rowHeight;
 
     @Before
     public void setUp() {
@@ -55,31 +49,54 @@ public class MonthViewTest {
         monthView = (MonthView) activity.findViewById(R.id.calendar_view);
         //noinspection ConstantConditions
         monthView.setCalendar(createDayMillis(2016, Calendar.MARCH, 1));
-        adapter = (MonthView.GridAdapter) monthView.getAdapter();
-        // 7 header cells + 2 carried days from Feb + 31 days in March
-        assertThat(adapter.getItemCount()).isEqualTo(7 + 31 + 2);
+        monthView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        monthView.layout(0, 0, WIDTH, monthView.getMeasuredHeight());
+        // header + 5 weeks: 2 carried days from Feb + 31 days in March
+        rowHeight = monthView.getMeasuredHeight() / 6f;
     }
 
     @Test
-    public void testHeader() {
-        RecyclerView.ViewHolder viewHolder = createBindViewHolder(0);
-        assertThat(viewHolder.itemView).isInstanceOf(TextView.class);
-        assertThat((TextView) viewHolder.itemView)
-                .hasTextString(DateFormatSymbols.getInstance().getShortWeekdays()[Calendar.SUNDAY]);
+    public void testMeasure() {
+        int height = monthView.getMeasuredHeight();
+        assertThat(height).isPositive();
+
+        // header + 5 weeks: 1 carried day from Jan + 29 days in Feb
+        monthView.setCalendar(createDayMillis(2016, Calendar.FEBRUARY, 1));
+        assertThat(monthView.isLayoutRequested()).isFalse();
+        monthView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        assertThat(monthView.getMeasuredHeight()).isEqualTo(height);
+
+        // header + 6 weeks: 5 carried days from Jun + 31 days in Jul
+        monthView.setCalendar(createDayMillis(2016, Calendar.JULY, 1));
+        assertThat(monthView.isLayoutRequested()).isTrue();
+        monthView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        assertThat(monthView.getMeasuredHeight()).isEqualTo(height / 6 * 7);
     }
 
     @Test
-    public void testEmptyContent() {
-        RecyclerView.ViewHolder viewHolder = createBindViewHolder(7); // carried over from Feb
-        assertThat(viewHolder.itemView).isInstanceOf(TextView.class);
-        assertThat((TextView) viewHolder.itemView).isEmpty();
+    public void testGetDayAt() {
+        assertThat(monthView.getDayAt(getCellX(0), rowHeight / 2)).isEqualTo(-1); // header
+        assertThat(monthView.getDayAt(getCellX(1), rowHeight * 1.5f))
+                .isEqualTo(-1); // carried over from Feb
+        assertThat(monthView.getDayAt(getCellX(2), rowHeight * 1.5f)).isEqualTo(0); // 01-March
+        assertThat(monthView.getDayAt(getCellX(0), rowHeight * 2.5f)).isEqualTo(5); // 06-March
+        assertThat(monthView.getDayAt(getCellX(4), rowHeight * 5.5f)).isEqualTo(30); // 31-March
+        assertThat(monthView.getDayAt(getCellX(5), rowHeight * 5.5f)).isEqualTo(-1); // April
     }
 
     @Test
-    public void testContent() {
-        RecyclerView.ViewHolder viewHolder = createBindViewHolder(9); // 01-March-2016
-        assertThat(viewHolder.itemView).isInstanceOf(TextView.class);
-        assertThat((TextView) viewHolder.itemView).isNotEmpty();
+    public void testDraw() {
+        ShadowCanvas canvas = draw();
+        // 7 headers + 31 days, no selection or markers
+        assertThat(canvas.getTextHistoryCount()).isEqualTo(7 + 31);
+        assertThat(canvas.getDrawnTextEvent(0).text)
+                .isEqualTo(DateFormatSymbols.getInstance().getShortWeekdays()[Calendar.SUNDAY]);
+        assertThat(canvas.getDrawnTextEvent(7).text).isEqualTo("1");
+        assertThat(canvas.getDrawnTextEvent(7 + 30).text).isEqualTo("31");
+        assertThat(canvas.getCirclePaintHistoryCount()).isZero();
     }
 
     @Test
@@ -102,86 +119,84 @@ public class MonthViewTest {
         verify(listener, never()).onSelectedDayChange(anyLong());
 
         // change selection via UI interaction, triggered by users
-        RecyclerView.ViewHolder viewHolder = createBindViewHolder(10); // 02-March-2016
-        viewHolder.itemView.performClick();
-        verify(listener).onSelectedDayChange(anyLong());
+        tap(getCellX(3), rowHeight * 1.5f); // 02-March-2016
+        verify(listener).onSelectedDayChange(createDayMillis(2016, Calendar.MARCH, 2));
+        assertThat(monthView.mSelectedDay).isEqualTo(1);
 
         // change selection via UI interaction, triggered by users
-        viewHolder = createBindViewHolder(11); // 03-March-2016
-        viewHolder.itemView.performClick();
-        verify(listener, times(2)).onSelectedDayChange(anyLong());
+        tap(getCellX(4), rowHeight * 1.5f); // 03-March-2016
+        verify(listener).onSelectedDayChange(createDayMillis(2016, Calendar.MARCH, 3));
+
+        // tapping selected day, header or empty cells should not change selection
+        tap(getCellX(4), rowHeight * 1.5f);
+        tap(getCellX(4), rowHeight / 2);
+        tap(getCellX(0), rowHeight * 1.5f);
+        verifyNoMoreInteractions(listener);
+        assertThat(monthView.mSelectedDay).isEqualTo(2);
     }
 
     @Test
     public void testBindSelectedDay() {
         // initial state
-        CharSequence actual = ((TextView) createBindViewHolder(10).itemView)
-                .getText(); // 02-March-2016
-        assertThat(actual).isInstanceOf(SpannableString.class);
-        assertThat((SpannableString) actual).doesNotHaveSpan(CircleSpan.class);
+        assertThat(monthView.mSelectedDay).isEqualTo(-1);
 
         // selecting day should circle it
         monthView.setSelectedDay(createDayMillis(2016, Calendar.MARCH, 2));
-        actual = ((TextView) createBindViewHolder(10).itemView).getText(); // 02-March-2016
-        assertThat(actual).isInstanceOf(SpannableString.class);
-        assertThat((SpannableString) actual).hasSpan(CircleSpan.class);
+        assertThat(monthView.mSelectedDay).isEqualTo(1);
+        ShadowCanvas canvas = draw();
+        assertThat(canvas.getCirclePaintHistoryCount()).isEqualTo(1);
+        assertThat(canvas.getDrawnCircle(0).centerX).isEqualTo(getCellX(3));
+        assertThat(canvas.getDrawnCircle(0).centerY).isEqualTo(rowHeight * 1.5f);
+
+        // selecting day in another month should clear it
+        monthView.setSelectedDay(createDayMillis(2016, Calendar.APRIL, 2));
+        assertThat(monthView.mSelectedDay).isEqualTo(-1);
     }
 
     @Test
-    public void testSwapCursor() {
-        TimeZone defaultTimeZone = TimeZone.getDefault();
-        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
-        TestEventCursor cursor = new TestEventCursor();
-        long day14 = createDayMillis(2016, Calendar.MARCH, 14),
-                day15 = createDayMillis(2016, Calendar.MARCH, 15),
-                day17 = createDayMillis(2016, Calendar.MARCH, 17),
-                day20 = createDayMillis(2016, Calendar.MARCH, 20),
-                day21 = createDayMillis(2016, Calendar.MARCH, 21);
-        cursor.addRow(new Object[]{1L, 1L, "Event 1", day14, day17, 0}); // multi day
-        cursor.addRow(new Object[]{1L, 1L, "Event 1", day15, day15, 0}); // single day
-        cursor.addRow(new Object[]{1L, 1L, "Event 1", day20, day21, 1}); // all day
-        monthView.swapCursor(cursor);
-        assertThat(adapter.mEvents)
-                .hasSize(5)
-                .contains(13, 14, 15, 16, 19);
-
-        // swapping the same cursor should not alter bound events
-        monthView.swapCursor(cursor);
-        assertThat(adapter.mEvents)
-                .hasSize(5)
-                .contains(13, 14, 15, 16, 19);
-
-        // swapping new cursor should rebind existing events
-        TestEventCursor updatedCursor = new TestEventCursor();
-        updatedCursor.addRow(new Object[]{1L, 1L, "Event 1", day20, day21, 1}); // all day
-        monthView.swapCursor(updatedCursor);
-        assertThat(adapter.mEvents)
-                .hasSize(1)
-                .contains(19);
-
-        // swapping empty cursor should clear all existing events
-        TestEventCursor emptyCursor = new TestEventCursor();
-        monthView.swapCursor(emptyCursor);
-        assertThat(adapter.mEvents).isEmpty();
-        TimeZone.setDefault(defaultTimeZone);
+    public void testSetDayCounts() {
+        Shadows.shadowOf(monthView).clearWasInvalidated();
+        // 14-17 and 20 March
+        int[] dayCounts = new int[31];
+        dayCounts[13] = dayCounts[14] = dayCounts[15] = dayCounts[16] = 1;
+        dayCounts[19] = 2;
+        monthView.setDayCounts(dayCounts);
+        assertThat(monthView.mDayCounts).isEqualTo(dayCounts);
+        assertThat(Shadows.shadowOf(monthView).wasInvalidated()).isTrue();
+
+        // setting same counts should not redraw
+        Shadows.shadowOf(monthView).clearWasInvalidated();
+        monthView.setDayCounts(dayCounts.clone());
+        assertThat(Shadows.shadowOf(monthView).wasInvalidated()).isFalse();
+
+        // changing month should clear counts
+        monthView.setCalendar(createDayMillis(2016, Calendar.APRIL, 1));
+        assertThat(monthView.mDayCounts).containsOnly(0);
     }
 
     @Test
-    public void testBindCursor() {
-        // initial state
-        CharSequence actual = ((TextView) createBindViewHolder(10).itemView)
-                .getText(); // 02-March-2016
-        assertThat(actual).isInstanceOf(SpannableString.class);
-        assertThat((SpannableString) actual).doesNotHaveSpan(UnderDotSpan.class);
-
-        // swapping cursor should decorate it
-        TestEventCursor cursor = new TestEventCursor();
-        long day2 = createDayMillis(2016, Calendar.MARCH, 2);
-        cursor.addRow(new Object[]{1L, 1L, "Event 1", day2, day2, 0});
-        monthView.swapCursor(cursor);
-        actual = ((TextView) createBindViewHolder(10).itemView).getText(); // 02-March-2016
-        assertThat(actual).isInstanceOf(SpannableString.class);
-        assertThat((SpannableString) actual).hasSpan(UnderDotSpan.class);
+    public void testBindEvents() {
+        // counting events should dot days, except selected day which is circled
+        monthView.setSelectedDay(createDayMillis(2016, Calendar.MARCH, 2));
+        int[] dayCounts = new int[31];
+        dayCounts[1] = dayCounts[2] = 1;
+        monthView.setDayCounts(dayCounts);
+        ShadowCanvas canvas = draw();
+        assertThat(canvas.getCirclePaintHistoryCount()).isEqualTo(2);
+        assertThat(canvas.getDrawnCircle(1).centerX).isEqualTo(getCellX(4));
+        assertThat(canvas.getDrawnCircle(1).centerY).isGreaterThan(rowHeight * 1.5f);
+        assertThat(canvas.getDrawnCircle(1).radius)
+                .isLessThan(canvas.getDrawnCircle(0).radius);
+
+        // more events should add dots, up to 3, centered under day
+        dayCounts[2] = 2;
+        dayCounts[3] = 5;
+        monthView.setDayCounts(dayCounts);
+        canvas = draw();
+        assertThat(canvas.getCirclePaintHistoryCount()).isEqualTo(1 + 2 + 3);
+        assertThat(canvas.getDrawnCircle(1).centerX + canvas.getDrawnCircle(2).centerX)
+                .isCloseTo(getCellX(4) * 2, within(.01f));
+        assertThat(canvas.getDrawnCircle(4).centerX).isEqualTo(getCellX(5));
     }
 
     @After
@@ -189,17 +204,28 @@ public class MonthViewTest {
         controller.pause().stop().destroy();
     }
 
-    private RecyclerView.ViewHolder createBindViewHolder(int position) {
-        RecyclerView.ViewHolder viewHolder = adapter.createViewHolder(monthView,
-                adapter.getItemViewType(position));
-        ((ShadowViewHolder) ShadowExtractor.extract(viewHolder)).adapterPosition = position;
-        adapter.bindViewHolder((MonthView.CellViewHolder) viewHolder, position);
-        return viewHolder;
+    private ShadowCanvas draw() {
+        Canvas canvas = new Canvas();
+        monthView.draw(canvas);
+        return Shadows.shadowOf(canvas);
+    }
+
+    private void tap(float x, float y) {
+        long time = SystemClock.uptimeMillis();
+        monthView.dispatchTouchEvent(MotionEvent.obtain(time, time,
+                MotionEvent.ACTION_DOWN, x, y, 0));
+        monthView.dispatchTouchEvent(MotionEvent.obtain(time, time,
+                MotionEvent.ACTION_UP, x, y, 0));
+    }
+
+    private float getCellX(int column) {
+        return WIDTH / 7f * (column + .5f);
     }
 
     private long createDayMillis(int year, int month, int day) {
         Calendar calendar = Calendar.getInstance();
         calendar.set(year, month, day, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
         return calendar.getTimeInMillis();
     }
 
@@ -0,0 +1,203 @@
+package io.github.hidroh.calendar.widget;
+
+import android.annotation.SuppressLint;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
+import android.support.v7.app.AppCompatActivity;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowCanvas;
+import org.robolectric.util.ActivityController;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.github.hidroh.calendar.R;
+import io.github.hidroh.calendar.content.EventSnapshot;
+import io.github.hidroh.calendar.text.DateFormatCache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+public class YearViewTest {
+    private static final int WIDTH = 700;
+    private ActivityController<TestActivity> controller;
+    private YearView yearView;
+    private TestYearAdapter adapter;
+
+    @Before
+    public void setUp() {
+        controller = Robolectric.buildActivity(TestActivity.class);
+        TestActivity activity = controller.create().start().resume().visible().get();
+        yearView = (YearView) activity.findViewById(R.id.year_view);
+        //noinspection ConstantConditions
+        yearView.setYear(createDayMillis(2016, Calendar.MARCH, 15));
+        yearView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        yearView.layout(0, 0, WIDTH, yearView.getMeasuredHeight());
+        adapter = new TestYearAdapter();
+        yearView.setYearAdapter(adapter);
+    }
+
+    @Test
+    public void testSetYear() {
+        assertThat(yearView.mYearMillis).isEqualTo(createDayMillis(2016, Calendar.JANUARY, 1));
+        assertThat(yearView.getContentDescription()).isEqualTo("2016");
+
+        yearView.setYear(createDayMillis(2017, Calendar.DECEMBER, 31));
+        assertThat(yearView.mYearMillis).isEqualTo(createDayMillis(2017, Calendar.JANUARY, 1));
+        assertThat(yearView.getContentDescription()).isEqualTo("2017");
+    }
+
+    @Test
+    public void testLoadEvents() {
+        // displayed year should be loaded in one go
+        assertThat(adapter.loads).containsExactly(createDayMillis(2016, Calendar.JANUARY, 1));
+        assertThat(adapter.ends).containsExactly(createDayMillis(2017, Calendar.JANUARY, 1));
+
+        // loaded year should be counted by day of year
+        long yearMillis = createDayMillis(2016, Calendar.JANUARY, 1);
+        yearView.swapMarkers(yearMillis, createMarkers(yearMillis));
+        assertThat(yearView.mDayCounts[31]).isEqualTo(1); // 1 February
+        assertThat(yearView.mDayCounts[32]).isZero();
+
+        // new year should be loaded, kept year should be bound without loading
+        yearView.setYear(createDayMillis(2017, Calendar.JUNE, 1));
+        assertThat(yearView.mDayCounts).containsOnly(0);
+        yearView.setYear(createDayMillis(2016, Calendar.JUNE, 1));
+        assertThat(yearView.mDayCounts[31]).isEqualTo(1);
+        assertThat(adapter.loads).containsExactly(createDayMillis(2016, Calendar.JANUARY, 1),
+                createDayMillis(2017, Calendar.JANUARY, 1));
+
+        // invalidating should reload displayed year
+        yearView.invalidateData();
+        assertThat(yearView.mMarkers).isEmpty();
+        assertThat(adapter.loads).hasSize(3);
+
+        // least recently displayed years should be dropped
+        for (int i = 0; i <= YearView.MAX_CACHED_YEARS; i++) {
+            long millis = createDayMillis(2000 + i, Calendar.JANUARY, 1);
+            yearView.swapMarkers(millis, createMarkers(millis));
+        }
+        assertThat(yearView.mMarkers).hasSize(YearView.MAX_CACHED_YEARS)
+                .doesNotContainKey(createDayMillis(2000, Calendar.JANUARY, 1));
+    }
+
+    @Test
+    public void testDraw() {
+        long yearMillis = createDayMillis(2016, Calendar.JANUARY, 1);
+        yearView.swapMarkers(yearMillis, createMarkers(yearMillis));
+        Canvas canvas = new Canvas();
+        yearView.draw(canvas);
+        ShadowCanvas shadowCanvas = Shadows.shadowOf(canvas);
+        // title + 12 months + 366 days in leap year, days with events tinted
+        assertThat(shadowCanvas.getTextHistoryCount()).isEqualTo(1 + 12 + 366);
+        assertThat(shadowCanvas.getDrawnTextEvent(0).text).isEqualTo("2016");
+        assertThat(shadowCanvas.getCirclePaintHistoryCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testMonthClick() {
+        YearView.OnMonthClickListener listener = mock(YearView.OnMonthClickListener.class);
+        yearView.setOnMonthClickListener(listener);
+        int height = yearView.getMeasuredHeight();
+        // 4 columns x 3 rows on wide screen, title above
+        assertThat(yearView.getMonthAt(WIDTH / 2, 0)).isEqualTo(-1);
+        assertThat(yearView.getMonthAt(0, height - 1)).isEqualTo(Calendar.SEPTEMBER);
+        assertThat(yearView.getMonthAt(WIDTH - 1, height - 1)).isEqualTo(Calendar.DECEMBER);
+
+        long time = SystemClock.uptimeMillis();
+        yearView.dispatchTouchEvent(MotionEvent.obtain(time, time,
+                MotionEvent.ACTION_DOWN, WIDTH - 1, height - 1, 0));
+        yearView.dispatchTouchEvent(MotionEvent.obtain(time, time,
+                MotionEvent.ACTION_UP, WIDTH - 1, height - 1, 0));
+        verify(listener).onMonthClick(createDayMillis(2016, Calendar.DECEMBER, 1));
+    }
+
+    @Test
+    public void testAccessibility() {
+        YearView.OnMonthClickListener listener = mock(YearView.OnMonthClickListener.class);
+        yearView.setOnMonthClickListener(listener);
+        int height = yearView.getMeasuredHeight();
+        // months should be exposed as virtual views
+        assertThat(yearView.mTouchHelper.getVirtualViewAt(WIDTH - 1, height - 1))
+                .isEqualTo(Calendar.DECEMBER);
+        assertThat(yearView.mTouchHelper.getVirtualViewAt(WIDTH / 2, 0))
+                .isEqualTo(ExploreByTouchHelper.INVALID_ID);
+        List<Integer> virtualViewIds = new ArrayList<>();
+        yearView.mTouchHelper.getVisibleVirtualViews(virtualViewIds);
+        assertThat(virtualViewIds).hasSize(12);
+
+        AccessibilityNodeInfoCompat node = AccessibilityNodeInfoCompat.obtain();
+        yearView.mTouchHelper.onPopulateNodeForVirtualView(Calendar.DECEMBER, node);
+        assertThat(node.getContentDescription().toString()).isEqualTo(DateFormatCache
+                .getMonthString(yearView.getContext(), createDayMillis(2016, Calendar.DECEMBER, 1)));
+        node.recycle();
+
+        // clicking virtual view should notify listener
+        assertThat(yearView.mTouchHelper.onPerformActionForVirtualView(Calendar.DECEMBER,
+                AccessibilityNodeInfoCompat.ACTION_CLICK, null)).isTrue();
+        verify(listener).onMonthClick(createDayMillis(2016, Calendar.DECEMBER, 1));
+    }
+
+    @After
+    public void tearDown() {
+        controller.pause().stop().destroy();
+    }
+
+    private MonthMarkers createMarkers(long yearMillis) {
+        return MonthMarkers.compute(yearMillis, YearView.MONTHS, new EventSnapshot.Builder(1)
+                .add(1L, 1L, "Across months", createDayMillis(2016, Calendar.JANUARY, 31),
+                        createDayMillis(2016, Calendar.FEBRUARY, 1), false)
+                .build());
+    }
+
+    private long createDayMillis(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month, day, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    static class TestYearAdapter extends YearView.YearAdapter {
+        final List<Long> loads = new ArrayList<>();
+        final List<Long> ends = new ArrayList<>();
+
+        @Override
+        protected void loadEvents(long startTimeMillis, long endTimeMillis) {
+            loads.add(startTimeMillis);
+            ends.add(endTimeMillis);
+        }
+    }
+
+    @SuppressLint("Registered")
+    static class TestActivity extends AppCompatActivity {
+        @Override
+        protected void onCreate(@Nullable Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            YearView view = new YearView(this);
+            view.setLayoutParams(new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.WRAP_CONTENT));
+            view.setId(R.id.year_view);
+            setContentView(view);
+        }
+    }
+}